@@ -94,6 +94,10 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
   public static final String FLASHBACK_QUERY_LIMIT = "FLASHBACK_QUERY_LIMIT";
   public static final String BLOOMFILTER = "BLOOMFILTER";
   public static final String BLOOMFILTER_ERRORRATE = "BLOOMFILTER_ERRORRATE";
+  public static final String BLOOMFILTER_PREFIX_LENGTH =
+    "BLOOMFILTER_PREFIX_LENGTH";
+  public static final String BLOOMFILTER_PREFIX_DELIMITER =
+    "BLOOMFILTER_PREFIX_DELIMITER";
   public static final String FOREVER = "FOREVER";
   public static final String REPLICATION_SCOPE = "REPLICATION_SCOPE";
 
@@ -717,6 +721,41 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
 	    return (value != null)? Float.valueOf(value).floatValue() : DEFAULT_BLOOMFILTER_ERROR_RATE;
 	  }
 
+  /**
+   * @return the number of leading row bytes a PREFIX Bloom filter is built
+   * on, or 0 if the prefix ends at a delimiter instead
+   */
+  public int getBloomFilterPrefixLength() {
+    String value = getValue(BLOOMFILTER_PREFIX_LENGTH);
+    return value != null ? Integer.parseInt(value) : 0;
+  }
+
+  /**
+   * @param prefixLength the number of leading row bytes a PREFIX Bloom
+   * filter is built on
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setBloomFilterPrefixLength(int prefixLength) {
+    return setValue(BLOOMFILTER_PREFIX_LENGTH, Integer.toString(prefixLength));
+  }
+
+  /**
+   * @return the bytes ending the row prefix a PREFIX Bloom filter is built
+   * on, or null if the prefix has a fixed length
+   */
+  public byte[] getBloomFilterPrefixDelimiter() {
+    return getValue(Bytes.toBytes(BLOOMFILTER_PREFIX_DELIMITER));
+  }
+
+  /**
+   * @param delimiter the bytes ending the row prefix a PREFIX Bloom filter
+   * is built on, included in the prefix
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setBloomFilterPrefixDelimiter(byte[] delimiter) {
+    return setValue(Bytes.toBytes(BLOOMFILTER_PREFIX_DELIMITER), delimiter);
+  }
+
    /**
     * @return the scope tag
     */
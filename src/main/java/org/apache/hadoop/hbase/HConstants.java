@@ -496,6 +496,33 @@ public final class HConstants {
    */
   public static long DEFAULT_HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE = Long.MAX_VALUE;
 
+  /**
+   * Parameter name for the maximum number of bytes of results a client
+   * scanner reads ahead of the application. Zero disables read-ahead.
+   */
+  public static final String HBASE_CLIENT_SCANNER_READAHEAD_BYTES_KEY =
+    "hbase.client.scanner.readahead.bytes";
+
+  /** Read-ahead is disabled by default */
+  public static final long DEFAULT_HBASE_CLIENT_SCANNER_READAHEAD_BYTES = 0;
+
+  /**
+   * Parameter name for the number of regions a read-ahead client scanner
+   * scans concurrently.
+   */
+  public static final String HBASE_CLIENT_SCANNER_PARALLEL_REGIONS_KEY =
+    "hbase.client.scanner.parallel.regions";
+
+  /** Scan one region at a time by default */
+  public static final int DEFAULT_HBASE_CLIENT_SCANNER_PARALLEL_REGIONS = 1;
+
+  /**
+   * Parameter name for whether a client scanner that scans several regions
+   * concurrently returns the rows in order.
+   */
+  public static final String HBASE_CLIENT_SCANNER_PARALLEL_ORDERED_KEY =
+    "hbase.client.scanner.parallel.ordered";
+
 
   /**
    * Maximum number of bytes returned when calling a scanner's next method.
@@ -506,6 +533,15 @@ public final class HConstants {
    */
   public static int DEFAULT_HBASE_SCANNER_MAX_RESULT_SIZE = Integer.MAX_VALUE;
 
+  /**
+   * Parameter name for the maximum number of bytes a region server returns
+   * for a single call to a scanner's next method, whatever the client asked
+   * for. Rows are still returned completely unless the scan allows partial
+   * rows.
+   */
+  public static final String HBASE_REGIONSERVER_SCANNER_MAX_RESULT_SIZE_KEY =
+    "hbase.regionserver.scanner.max.result.size";
+
   /**
    * HRegion server lease period in milliseconds. Clients must report in within this period
    * else they are considered dead. Unit measured in ms (milliseconds).
@@ -34,6 +34,7 @@ import java.util.TreeSet;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.Compression;
 import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -478,6 +479,13 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
     if (family.getName() == null || family.getName().length <= 0) {
       throw new NullPointerException("Family name cannot be null or empty");
     }
+    if (isMetaRegion() && (family.getDataBlockEncodingOnDisk() ==
+            DataBlockEncoding.PREFIX_TREE ||
+        family.getDataBlockEncoding() == DataBlockEncoding.PREFIX_TREE)) {
+      // The catalog tables do not sort their rows in byte order
+      throw new IllegalArgumentException("Prefix tree encoding is not " +
+          "supported by the catalog table " + getNameAsString());
+    }
     this.families.put(family.getName(), family);
   }
 
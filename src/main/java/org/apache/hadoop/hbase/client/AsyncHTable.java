@@ -0,0 +1,432 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.hfile.Compression;
+import org.apache.hadoop.hbase.ipc.CallFuture;
+import org.apache.hadoop.hbase.ipc.HBaseRPC;
+import org.apache.hadoop.hbase.ipc.HBaseRPCOptions;
+import org.apache.hadoop.hbase.ipc.HRegionInterface;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.DaemonThreadFactory;
+
+/**
+ * Gets, puts and deletes rows of a table without waiting for the region
+ * servers.
+ * <p>
+ * Each method sends its requests and returns a {@link CallFuture} right
+ * away, so one thread can keep many requests in flight. The calling thread
+ * only blocks to look up the location of regions missing from the cache of
+ * the connection, or to open a new connection to a region server. Failed
+ * requests are retried in the background, like {@link HTable} does in the
+ * calling thread.
+ * <p>
+ * The callbacks of the futures run in the threads reading the responses of
+ * the region servers. They must not block, or they hold up every other call
+ * to the same region server.
+ * <p>
+ * Unlike {@link HTable}, puts are not buffered on the client. An instance
+ * can be shared by several threads.
+ */
+public class AsyncHTable {
+  private static final Method GET = getMethod("get", Get.class);
+  private static final Method GET_LIST = getMethod("get", List.class);
+  private static final Method PUT = getMethod("put", Put.class);
+  private static final Method PUT_LIST = getMethod("put", List.class);
+  private static final Method DELETE = getMethod("delete", Delete.class);
+  private static final Method DELETE_LIST = getMethod("delete", List.class);
+
+  // Sends the rows of failed batches one by one. Looking up their new
+  // regions may block, which the response readers must not do.
+  private static final ExecutorService FALLBACK_POOL =
+    Executors.newCachedThreadPool(
+        new DaemonThreadFactory("hbase-async-table-"));
+
+  private final HConnection connection;
+  private final byte [] tableName;
+  private final HBaseRPCOptions options;
+  private final int maxKeyValueSize;
+
+  /**
+   * Creates an object to access a HBase table.
+   * @param conf Configuration object to use.
+   * @param tableName Name of the table.
+   * @throws IOException if a remote or network exception occurs
+   */
+  public AsyncHTable(Configuration conf, final String tableName)
+  throws IOException {
+    this(conf, Bytes.toBytes(tableName));
+  }
+
+  /**
+   * Creates an object to access a HBase table.
+   * @param conf Configuration object to use.
+   * @param tableName Name of the table.
+   * @throws IOException if a remote or network exception occurs
+   */
+  public AsyncHTable(Configuration conf, final byte [] tableName)
+  throws IOException {
+    this.tableName = tableName;
+    this.connection = HConnectionManager.getConnection(conf);
+    this.connection.locateRegion(tableName, HConstants.EMPTY_START_ROW);
+    this.maxKeyValueSize = conf.getInt("hbase.client.keyvalue.maxsize", -1);
+    this.options = new HBaseRPCOptions();
+    String compressionAlgo = conf.get(HConstants.HBASE_RPC_COMPRESSION_KEY);
+    if (compressionAlgo != null) {
+      this.options.setTxCompression(
+          Compression.getCompressionAlgorithmByName(compressionAlgo));
+      this.options.setRxCompression(
+          Compression.getCompressionAlgorithmByName(compressionAlgo));
+    }
+  }
+
+  private static Method getMethod(String name, Class<?> parameterType) {
+    try {
+      return HRegionInterface.class.getMethod(name, byte[].class,
+          parameterType);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** @return the name of the table */
+  public byte [] getTableName() {
+    return this.tableName;
+  }
+
+  /**
+   * Extracts certain cells from a given row.
+   * @param get The object that specifies what data to fetch and from which
+   *        row.
+   * @return the future data coming from the specified row, if it exists. If
+   *         the row specified doesn't exist, the {@link Result} instance
+   *         returned won't contain any {@link KeyValue}, as indicated by
+   *         {@link Result#isEmpty()}.
+   */
+  public CallFuture<Result> get(final Get get) {
+    return connection.getRegionServerWithRetriesAsync(
+        new AsyncServerCallable<Result>(get.getRow(), GET, get));
+  }
+
+  /**
+   * Extracts certain cells from the given rows, sending one request per
+   * region.
+   * @param gets The objects that specify what data to fetch and from which
+   *        rows.
+   * @return the future results, in the order of the gets. The future fails
+   *         with the error of the first row to fail.
+   */
+  public CallFuture<Result[]> get(final List<Get> gets) {
+    final Result[] results = new Result[gets.size()];
+    final Batch<Result[]> batch = new Batch<Result[]>(gets.size(), results);
+    Map<byte[], List<Integer>> regions;
+    try {
+      regions = groupByRegion(gets);
+    } catch (IOException e) {
+      return CallFuture.failed(e);
+    }
+    for (Map.Entry<byte[], List<Integer>> region : regions.entrySet()) {
+      final List<Integer> indexes = region.getValue();
+      final List<Get> regionGets = new ArrayList<Get>(indexes.size());
+      for (int index : indexes) {
+        regionGets.add(gets.get(index));
+      }
+      connection.getRegionServerWithRetriesAsync(
+          new AsyncServerCallable<Result[]>(regionGets.get(0).getRow(),
+              GET_LIST, regionGets)).addCallback(
+                  new CallFuture.Callback<Result[]>() {
+        public void onSuccess(Result[] regionResults) {
+          for (int i = 0; i < regionResults.length; i++) {
+            results[indexes.get(i)] = regionResults[i];
+          }
+          batch.done(regionResults.length);
+        }
+
+        public void onFailure(Throwable error) {
+          // The region may have split or moved, get the rows one by one
+          FALLBACK_POOL.execute(new Runnable() {
+            public void run() {
+              for (final int index : indexes) {
+                AsyncHTable.this.get(gets.get(index)).addCallback(
+                    new CallFuture.Callback<Result>() {
+                  public void onSuccess(Result result) {
+                    results[index] = result;
+                    batch.done(1);
+                  }
+
+                  public void onFailure(Throwable error) {
+                    batch.failed(error);
+                  }
+                });
+              }
+            }
+          });
+        }
+      });
+    }
+    return batch.future;
+  }
+
+  /**
+   * Puts some data in the table.
+   * @param put The data to put.
+   * @return a future completed once the data is in
+   * @throws IllegalArgumentException if the put is empty or has a KeyValue
+   *         over the maximum size
+   */
+  public CallFuture<Void> put(final Put put) {
+    validatePut(put);
+    return connection.getRegionServerWithRetriesAsync(
+        new AsyncServerCallable<Void>(put.getRow(), PUT, put));
+  }
+
+  /**
+   * Puts some data in the table, sending one request per region.
+   * @param puts The list of mutations to apply.
+   * @return a future completed once all the data is in. The future fails
+   *         with the error of the first row to fail.
+   * @throws IllegalArgumentException if a put is empty or has a KeyValue
+   *         over the maximum size
+   */
+  public CallFuture<Void> put(final List<Put> puts) {
+    for (Put put : puts) {
+      validatePut(put);
+    }
+    return mutate(puts, PUT_LIST, PUT);
+  }
+
+  /**
+   * Deletes the specified cells/row.
+   * @param delete The object that specifies what to delete.
+   * @return a future completed once the cells are deleted
+   */
+  public CallFuture<Void> delete(final Delete delete) {
+    return connection.getRegionServerWithRetriesAsync(
+        new AsyncServerCallable<Void>(delete.getRow(), DELETE, delete));
+  }
+
+  /**
+   * Deletes the specified cells/rows, sending one request per region.
+   * @param deletes List of things to delete.
+   * @return a future completed once all the cells are deleted. The future
+   *         fails with the error of the first row to fail.
+   */
+  public CallFuture<Void> delete(final List<Delete> deletes) {
+    return mutate(deletes, DELETE_LIST, DELETE);
+  }
+
+  /*
+   * Applies the mutations one batch per region. The rows of the batches
+   * which fail, or which the region server does not get to, are sent one
+   * by one.
+   */
+  private <M extends Mutation> CallFuture<Void> mutate(
+      final List<M> mutations, Method listMethod, final Method rowMethod) {
+    final Batch<Void> batch = new Batch<Void>(mutations.size(), null);
+    Map<byte[], List<Integer>> regions;
+    try {
+      regions = groupByRegion(mutations);
+    } catch (IOException e) {
+      return CallFuture.failed(e);
+    }
+    for (Map.Entry<byte[], List<Integer>> region : regions.entrySet()) {
+      final List<M> regionMutations =
+        new ArrayList<M>(region.getValue().size());
+      for (int index : region.getValue()) {
+        regionMutations.add(mutations.get(index));
+      }
+      connection.getRegionServerWithRetriesAsync(
+          new AsyncServerCallable<Integer>(regionMutations.get(0).getRow(),
+              listMethod, regionMutations)).addCallback(
+                  new CallFuture.Callback<Integer>() {
+        public void onSuccess(Integer processed) {
+          // The region server stops at the first mutation it fails to apply
+          int applied = processed == HConstants.MULTIPUT_SUCCESS ?
+              regionMutations.size() : processed;
+          batch.done(applied);
+          if (applied < regionMutations.size()) {
+            mutateRows(regionMutations.subList(applied,
+                regionMutations.size()), rowMethod, batch);
+          }
+        }
+
+        public void onFailure(Throwable error) {
+          // The region may have split or moved
+          mutateRows(regionMutations, rowMethod, batch);
+        }
+      });
+    }
+    return batch.future;
+  }
+
+  private void mutateRows(final List<? extends Mutation> mutations,
+      final Method rowMethod, final Batch<Void> batch) {
+    FALLBACK_POOL.execute(new Runnable() {
+      public void run() {
+        for (Mutation mutation : mutations) {
+          connection.getRegionServerWithRetriesAsync(
+              new AsyncServerCallable<Void>(mutation.getRow(), rowMethod,
+                  mutation)).addCallback(new CallFuture.Callback<Void>() {
+            public void onSuccess(Void value) {
+              batch.done(1);
+            }
+
+            public void onFailure(Throwable error) {
+              batch.failed(error);
+            }
+          });
+        }
+      }
+    });
+  }
+
+  /*
+   * @return the indexes of the rows, by the name of the region holding them
+   */
+  private Map<byte[], List<Integer>> groupByRegion(List<? extends Row> rows)
+  throws IOException {
+    Map<byte[], List<Integer>> regions =
+      new TreeMap<byte[], List<Integer>>(Bytes.BYTES_COMPARATOR);
+    for (int i = 0; i < rows.size(); i++) {
+      byte[] regionName = connection.getRegionLocation(tableName,
+          rows.get(i).getRow(), false).getRegionInfo().getRegionName();
+      List<Integer> indexes = regions.get(regionName);
+      if (indexes == null) {
+        indexes = new ArrayList<Integer>();
+        regions.put(regionName, indexes);
+      }
+      indexes.add(i);
+    }
+    return regions;
+  }
+
+  // validate for well-formedness
+  private void validatePut(final Put put) throws IllegalArgumentException {
+    if (put.isEmpty()) {
+      throw new IllegalArgumentException("No columns to insert");
+    }
+    if (maxKeyValueSize > 0) {
+      for (List<KeyValue> list : put.getFamilyMap().values()) {
+        for (KeyValue kv : list) {
+          if (kv.getLength() > maxKeyValueSize) {
+            throw new IllegalArgumentException("KeyValue size too large");
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Calls a method of the region server taking the region name and one
+   * parameter, without waiting for its result.
+   */
+  private class AsyncServerCallable<T> extends ServerCallable<T> {
+    private final Method method;
+    private final Object param;
+
+    AsyncServerCallable(byte [] row, Method method, Object param) {
+      super(AsyncHTable.this.connection, AsyncHTable.this.tableName, row,
+          AsyncHTable.this.options);
+      this.method = method;
+      this.param = param;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T call() throws Exception {
+      try {
+        return (T) method.invoke(server,
+            location.getRegionInfo().getRegionName(), param);
+      } catch (InvocationTargetException e) {
+        Throwable t = e.getTargetException();
+        if (t instanceof Error) {
+          throw (Error) t;
+        }
+        throw (Exception) t;
+      }
+    }
+
+    @Override
+    public CallFuture<T> callAsync() {
+      final CallFuture<T> result = new CallFuture<T>();
+      HBaseRPC.callAsync(server, method,
+          location.getRegionInfo().getRegionName(), param).addCallback(
+              new CallFuture.Callback<Object>() {
+        @SuppressWarnings("unchecked")
+        public void onSuccess(Object value) {
+          result.set((T) value);
+        }
+
+        public void onFailure(Throwable error) {
+          result.setException(error);
+        }
+      });
+      return result;
+    }
+  }
+
+  /**
+   * Completes a future once all the rows of a batch are done.
+   */
+  private static class Batch<V> {
+    final CallFuture<V> future = new CallFuture<V>();
+    private final V value;
+    private final AtomicInteger pending;
+    private volatile Throwable error = null;
+
+    Batch(int rows, V value) {
+      this.value = value;
+      this.pending = new AtomicInteger(rows);
+      if (rows == 0) {
+        future.set(value);
+      }
+    }
+
+    void done(int rows) {
+      if (rows > 0 && pending.addAndGet(-rows) == 0) {
+        if (error == null) {
+          future.set(value);
+        } else {
+          future.setException(error);
+        }
+      }
+    }
+
+    void failed(Throwable t) {
+      if (error == null) {
+        error = t;
+      }
+      done(1);
+    }
+  }
+}
@@ -31,6 +31,7 @@ import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HServerAddress;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.MasterNotRunningException;
+import org.apache.hadoop.hbase.ipc.CallFuture;
 import org.apache.hadoop.hbase.ipc.HBaseRPCOptions;
 import org.apache.hadoop.hbase.ipc.HMasterInterface;
 import org.apache.hadoop.hbase.ipc.HRegionInterface;
@@ -128,6 +129,22 @@ public interface HConnection extends Closeable {
    */
   public void clearRegionCache();
 
+  /**
+   * @return the number of user region lookups served by the region cache
+   */
+  public long getRegionCacheHitCount();
+
+  /**
+   * @return the number of user region lookups that missed the region cache
+   */
+  public long getRegionCacheMissCount();
+
+  /**
+   * @return the number of user region lookups that ignored the region cache,
+   * after the cached location turned out to be wrong
+   */
+  public long getRegionRelocationCount();
+
   /**
    * Find the location of the region of <i>tableName</i> that <i>row</i>
    * lives in, ignoring any value that might be in the cache.
@@ -209,6 +226,20 @@ public interface HConnection extends Closeable {
   public <T> T getRegionServerWithRetries(ServerCallable<T> callable)
   throws IOException, RuntimeException;
 
+  /**
+   * Asynchronous version of {@link #getRegionServerWithRetries}. The
+   * request is sent with {@link ServerCallable#callAsync()} and retried,
+   * after the same pauses and region location refreshes, from a background
+   * thread instead of the calling one.
+   *
+   * @param <T> the type of the return value
+   * @param callable callable to run
+   * @return the future result of the call, failed with the same exceptions
+   *         getRegionServerWithRetries would throw
+   */
+  public <T> CallFuture<T> getRegionServerWithRetriesAsync(
+      ServerCallable<T> callable);
+
   /**
    * Pass in a ServerCallable with your particular bit of logic defined and
    * this method will pass it to the defined region server.
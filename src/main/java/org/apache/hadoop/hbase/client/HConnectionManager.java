@@ -47,8 +47,11 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -69,6 +72,7 @@ import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.RemoteExceptionHandler;
 import org.apache.hadoop.hbase.TableNotFoundException;
 import org.apache.hadoop.hbase.client.MetaScanner.MetaScannerVisitor;
+import org.apache.hadoop.hbase.ipc.CallFuture;
 import org.apache.hadoop.hbase.ipc.HBaseRPC;
 import org.apache.hadoop.hbase.ipc.HBaseRPCOptions;
 import org.apache.hadoop.hbase.ipc.HBaseRPCProtocolVersion;
@@ -77,8 +81,10 @@ import org.apache.hadoop.hbase.ipc.HRegionInterface;
 import org.apache.hadoop.hbase.regionserver.HRegionServer;
 import org.apache.hadoop.hbase.regionserver.RegionOverloadedException;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.DaemonThreadFactory;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.MetaUtils;
+import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.hbase.util.Writables;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWrapper;
@@ -363,6 +369,12 @@ public class HConnectionManager {
   /* Encapsulates finding the servers for an HBase instance */
   static class TableServers implements ServerConnection {
     static final Log LOG = LogFactory.getLog(TableServers.class);
+    // Runs the retries of the asynchronous calls of this connection. The
+    // region lookups of the retries may block, so the retries must not run
+    // in the threads reading the responses. Created on the first retry.
+    private final int asyncRetryThreads;
+    private final Object asyncRetryPoolLock = new Object();
+    private ScheduledExecutorService asyncRetryPool = null;
     private final Class<? extends HRegionInterface> serverInterfaceClass;
     private final long pause;
     private final int numRetries;
@@ -376,8 +388,28 @@ public class HConnectionManager {
     private volatile boolean masterChecked;
 
     private final Object rootRegionLock = new Object();
-    private final Object metaRegionLock = new Object();
-    private final Object userRegionLock = new Object();
+
+    /**
+     * The state of the region lookups in .META. (or -ROOT-) for one table.
+     * Lookups synchronize on it, so that the lookups of different tables go
+     * on in parallel while the concurrent misses of a table wait for the
+     * first one and use the locations it found.
+     */
+    private static class RegionLookup {
+      // Regions found in the catalog without a server, mapped to the time
+      // until which lookups of their rows fail without reading the catalog.
+      private final ConcurrentSkipListMap<byte[], Pair<HRegionInfo, Long>>
+        unassignedRegions = new ConcurrentSkipListMap<byte[],
+          Pair<HRegionInfo, Long>>(Bytes.BYTES_COMPARATOR);
+    }
+
+    private final ConcurrentMap<Integer, RegionLookup> regionLookups =
+      new ConcurrentHashMap<Integer, RegionLookup>();
+
+    // Region location cache statistics
+    private final AtomicLong regionCacheHits = new AtomicLong();
+    private final AtomicLong regionCacheMisses = new AtomicLong();
+    private final AtomicLong regionRelocations = new AtomicLong();
 
     private volatile Configuration conf;
 
@@ -490,6 +522,8 @@ public class HConnectionManager {
 
       this.prefetchRegionLimit = conf.getInt("hbase.client.prefetch.limit",
           10);
+      this.asyncRetryThreads = conf.getInt("hbase.client.async.retry.threads",
+          4);
 
       this.master = null;
       this.masterChecked = false;
@@ -501,6 +535,20 @@ public class HConnectionManager {
           ConcurrentMap<HRegionInfo, HRegionLocation>>();
     }
 
+    /**
+     * Runs the retry of an asynchronous call after the given pause. Holds the
+     * lock while scheduling, so close() cannot shut the pool down meanwhile.
+     */
+    private void scheduleAsyncRetry(Runnable retry, long pauseTime) {
+      synchronized (asyncRetryPoolLock) {
+        if (asyncRetryPool == null) {
+          asyncRetryPool = Executors.newScheduledThreadPool(asyncRetryThreads,
+              new DaemonThreadFactory("hbase-async-retry-"));
+        }
+        asyncRetryPool.schedule(retry, pauseTime, TimeUnit.MILLISECONDS);
+      }
+    }
+
     private long getPauseTime(int tries) {
       int ntries = tries;
       if (ntries >= HConstants.RETRY_BACKOFF.length)
@@ -836,12 +884,63 @@ public class HConnectionManager {
         }
       } else if (Bytes.equals(tableName, HConstants.META_TABLE_NAME)) {
         return locateRegionInMeta(HConstants.ROOT_TABLE_NAME, tableName, row,
-            useCache, metaRegionLock);
+            useCache);
       } else {
         // Region not in the cache - have to go to the meta RS
         return locateRegionInMeta(HConstants.META_TABLE_NAME, tableName, row,
-            useCache, userRegionLock);
+            useCache);
+      }
+    }
+
+    private RegionLookup getRegionLookup(final byte[] tableName) {
+      Integer key = Bytes.mapKey(tableName);
+      RegionLookup lookup = regionLookups.get(key);
+      if (lookup == null) {
+        lookup = new RegionLookup();
+        RegionLookup existing = regionLookups.putIfAbsent(key, lookup);
+        if (existing != null) {
+          lookup = existing;
+        }
+      }
+      return lookup;
+    }
+
+    /*
+     * Remembers a region found in the catalog without a server. It expires
+     * halfway through the first retry pause, so that concurrent lookups do
+     * not read the catalog again but the retry that follows the pause does.
+     */
+    void cacheUnassignedRegion(final byte[] tableName,
+        final HRegionInfo regionInfo) {
+      getRegionLookup(tableName).unassignedRegions.put(
+          regionInfo.getStartKey(), new Pair<HRegionInfo, Long>(regionInfo,
+              System.currentTimeMillis() + getPauseTime(0) / 2));
+    }
+
+    /*
+     * @return the region of the row that was recently found without a server
+     * in the catalog, or null if there is none
+     */
+    HRegionInfo getUnassignedRegion(final byte[] tableName,
+        final byte[] row) {
+      RegionLookup lookup = getRegionLookup(tableName);
+      Entry<byte[], Pair<HRegionInfo, Long>> entry =
+        lookup.unassignedRegions.floorEntry(row);
+      if (entry == null) {
+        return null;
+      }
+      HRegionInfo regionInfo = entry.getValue().getFirst();
+      if (entry.getValue().getSecond() < System.currentTimeMillis()) {
+        lookup.unassignedRegions.remove(entry.getKey(), entry.getValue());
+        return null;
       }
+      byte[] endKey = regionInfo.getEndKey();
+      if (Bytes.equals(endKey, HConstants.EMPTY_END_ROW) ||
+          KeyValue.getRowComparator(tableName).compareRows(endKey, 0,
+              endKey.length, row, 0, row.length) > 0) {
+        return regionInfo;
+      }
+      return null;
     }
 
     /*
@@ -913,18 +1012,34 @@ public class HConnectionManager {
       * info that contains the table and row we're seeking.
       */
     private HRegionLocation locateRegionInMeta(final byte [] parentTable,
-      final byte [] tableName, final byte [] row, boolean useCache,
-      Object regionLockObject)
+      final byte [] tableName, final byte [] row, boolean useCache)
     throws IOException {
       HRegionLocation location;
+      // Only the lookups of user regions count in the cache statistics
+      boolean userRegion = Bytes.equals(parentTable, HConstants.META_TABLE_NAME);
       // If we are supposed to be using the cache, look in the cache to see if
       // we already have the region.
       if (useCache) {
         location = getCachedLocation(tableName, row);
         if (location != null) {
+          if (userRegion) {
+            regionCacheHits.incrementAndGet();
+          }
           return location;
         }
+        if (userRegion) {
+          regionCacheMisses.incrementAndGet();
+        }
+      } else {
+        // Delete the cached location before waiting for the lookup lock, so
+        // that a location found in the cache under the lock is newer than
+        // the one we were told to ignore.
+        if (userRegion) {
+          regionRelocations.incrementAndGet();
+        }
+        deleteCachedLocation(tableName, row, null);
       }
+      RegionLookup lookup = getRegionLookup(tableName);
 
       // build the key of the meta region we should be looking for.
       // the extra 9's on the end are necessary to allow "exact" matches
@@ -966,27 +1081,36 @@ public class HConnectionManager {
 
           Result regionInfoRow = null;
           // This block guards against two threads trying to load the meta
-          // region at the same time. The first will load the meta region and
-          // the second will use the value that the first one found.
-          synchronized (regionLockObject) {
-            // If the parent table is META, we may want to pre-fetch some
-            // region info into the global region cache for this table.
-            if (Bytes.equals(parentTable, HConstants.META_TABLE_NAME) &&
-                (getRegionCachePrefetch(tableName)) )  {
-              prefetchRegionCache(tableName, row);
+          // region of the same table at the same time. The first will load
+          // the meta region and the second will use the value that the first
+          // one found.
+          synchronized (lookup) {
+            // Check the cache again for a hit in case some other thread made the
+            // same query while we were waiting on the lock.
+            location = getCachedLocation(tableName, row);
+            if (location != null) {
+              return location;
             }
 
-            // Check the cache again for a hit in case some other thread made the
-            // same query while we were waiting on the lock. If not supposed to
-            // be using the cache, delete any existing cached location so it won't
-            // interfere.
-            if (useCache) {
+            // Do not read the catalog again for a region that was just found
+            // without a server, the retry will.
+            HRegionInfo unassigned = getUnassignedRegion(tableName, row);
+            if (unassigned != null) {
+              throw new NoServerForRegionException("No server address " +
+                "listed in " + Bytes.toString(parentTable) + " for region " +
+                unassigned.getRegionNameAsString() + " containing row " +
+                Bytes.toStringBinary(row) + " a moment ago");
+            }
+
+            // If the parent table is META, we may want to pre-fetch some
+            // region info into the global region cache for this table. The
+            // scan starts with the region of the row.
+            if (userRegion && getRegionCachePrefetch(tableName)) {
+              prefetchRegionCache(tableName, row);
               location = getCachedLocation(tableName, row);
               if (location != null) {
                 return location;
               }
-            } else {
-              deleteCachedLocation(tableName, row, null);
             }
 
           // Query the root or meta region for the location of the meta region
@@ -1023,6 +1147,7 @@ public class HConnectionManager {
             serverAddress = Bytes.toString(value);
           }
           if (serverAddress.equals("")) {
+            cacheUnassignedRegion(tableName, regionInfo);
             throw new NoServerForRegionException("No server address listed " +
               "in " + Bytes.toString(parentTable) + " for region " +
               regionInfo.getRegionNameAsString() + " containing row " +
@@ -1252,6 +1377,22 @@ public class HConnectionManager {
         cachedRegionLocations.clear();
         cachedServers.clear();
       }
+      regionLookups.clear();
+    }
+
+    @Override
+    public long getRegionCacheHitCount() {
+      return regionCacheHits.get();
+    }
+
+    @Override
+    public long getRegionCacheMissCount() {
+      return regionCacheMisses.get();
+    }
+
+    @Override
+    public long getRegionRelocationCount() {
+      return regionRelocations.get();
     }
 
     /*
@@ -1267,6 +1408,7 @@ public class HConnectionManager {
         cachedServers.add(location.getServerAddress().toString());
         hasNewCache = (tableLocations.put(startKey, location) == null);
       }
+      getRegionLookup(tableName).unassignedRegions.remove(startKey);
       if (hasNewCache) {
         LOG.debug("Cached location for " +
             location.getRegionInfo().getRegionNameAsString() +
@@ -1526,6 +1668,167 @@ public class HConnectionManager {
       }
     }
 
+    @Override
+    public <T> CallFuture<T> getRegionServerWithRetriesAsync(
+        ServerCallable<T> callable) {
+      AsyncRetryingCall<T> call = new AsyncRetryingCall<T>(callable);
+      call.start();
+      return call.result;
+    }
+
+    /**
+     * A call made by getRegionServerWithRetriesAsync. It follows the retry
+     * policy of getRegionServerWithRetries, but its attempts complete in the
+     * threads reading the region server responses and the attempts after a
+     * failure run in the retry pool of the connection.
+     */
+    private class AsyncRetryingCall<T>
+        implements Runnable, CallFuture.Callback<T> {
+      private final ServerCallable<T> callable;
+      private final CallFuture<T> result = new CallFuture<T>();
+      private final List<Throwable> exceptions = new ArrayList<Throwable>();
+      private RegionOverloadedException roe = null;
+      private long callStartTime;
+      private int tries = 0;
+      private int serverRequestedRetries = 0;
+      private HServerAddress server = null;
+
+      AsyncRetryingCall(ServerCallable<T> callable) {
+        this.callable = callable;
+      }
+
+      void start() {
+        this.callStartTime = System.currentTimeMillis();
+        try {
+          // do not retry if region cannot be located. There are enough
+          // retries within instantiateRegionLocation.
+          callable.instantiateRegionLocation(false /* reload cache? */);
+        } catch (Throwable t) {
+          result.setException(t);
+          return;
+        }
+        attempt();
+      }
+
+      /** Retries the call */
+      public void run() {
+        try {
+          // do not reload cache. While we were waiting hopefully the cache
+          // has been re-populated.
+          callable.instantiateRegionLocation(false);
+        } catch (Throwable t) {
+          result.setException(t);
+          return;
+        }
+        attempt();
+      }
+
+      private void attempt() {
+        if (result.isDone()) {
+          // Cancelled
+          return;
+        }
+        try {
+          server = callable.getServerAddress();
+          if (inFastFailMode(server)) {
+            FailureInfo fInfo = repeatedFailuresMap.get(server);
+            if (fInfo != null) {
+              throw new PreemptiveFastFailException(
+                  fInfo.numConsecutiveFailures.get(),
+                  fInfo.timeOfFirstFailureMilliSec,
+                  fInfo.timeOfLatestAttemptMilliSec);
+            }
+          }
+          callable.instantiateServer();
+        } catch (Throwable t) {
+          onFailure(t);
+          return;
+        }
+        callable.callAsync().addCallback(this);
+      }
+
+      public void onSuccess(T value) {
+        if (server != null) {
+          repeatedFailuresMap.remove(server);
+        }
+        result.set(value);
+      }
+
+      public void onFailure(Throwable t) {
+        if (t instanceof PreemptiveFastFailException ||
+            t instanceof ClientSideDoNotRetryException) {
+          // Bail out of the retry loop, immediately
+          result.setException(t);
+          return;
+        }
+        Throwable t2;
+        try {
+          t2 = translateException(t);
+        } catch (Throwable e) {
+          // clear cache if needed
+          HRegionLocation prevLoc = callable.location;
+          if (e.getCause() instanceof NotServingRegionException &&
+              prevLoc.getRegionInfo() != null) {
+            deleteCachedLocation(callable.tableName,
+                prevLoc.getRegionInfo().getStartKey(),
+                prevLoc.getServerAddress());
+          }
+          // If we are not supposed to retry; Let it pass through.
+          result.setException(e);
+          return;
+        }
+        if (!(t2 instanceof RemoteException) && isNetworkException(t2)) {
+          try {
+            handleFailureToServer(server);
+          } catch (PreemptiveFastFailException pfe) {
+            result.setException(pfe);
+            return;
+          }
+        }
+
+        if (t2 instanceof RegionOverloadedException) {
+          // The server requested a wait. Do not count this time/tries
+          // against the client retries.
+          roe = (RegionOverloadedException) t2;
+          serverRequestedRetries++;
+          if (serverRequestedRetries > maxServerRequestedRetries) {
+            result.setException(RegionOverloadedException.create(roe,
+                exceptions, serverRequestedRetries));
+            return;
+          }
+          long pauseTime = roe.getBackoffTimeMillis();
+          LOG.debug("Got a BlockingWritesRetryLaterException: waiting for " +
+              pauseTime +"ms. serverRequestedRetries = " +
+              serverRequestedRetries);
+          tries = 0;
+          callStartTime = System.currentTimeMillis() + pauseTime;
+          scheduleAsyncRetry(this, pauseTime);
+          return;
+        }
+
+        exceptions.add(t2);
+        long pauseTime = getPauseTime(tries);
+        if (tries == numRetries - 1 ||
+            (System.currentTimeMillis() - callStartTime + pauseTime) >
+            rpcRetryTimeout) {
+          result.setException(new RetriesExhaustedException(
+              callable.getServerName(), callable.getRegionName(),
+              callable.getRow(), tries, exceptions));
+          return;
+        }
+        HRegionLocation prevLoc = callable.location;
+        if (prevLoc.getRegionInfo() != null) {
+          deleteCachedLocation(callable.tableName,
+              prevLoc.getRegionInfo().getStartKey(),
+              prevLoc.getServerAddress());
+        }
+        LOG.debug("getRegionServerWithRetriesAsync failed, retrying in " +
+            pauseTime + "ms. tries = " + tries, t2);
+        tries++;
+        scheduleAsyncRetry(this, pauseTime);
+      }
+    }
+
     @Override
     public <T> T getRegionServerWithoutRetries(ServerCallable<T> callable)
         throws IOException, RuntimeException {
@@ -2396,6 +2699,13 @@ public class HConnectionManager {
         master = null;
         masterChecked = false;
       }
+      synchronized (asyncRetryPoolLock) {
+        if (asyncRetryPool != null) {
+          // The retries already scheduled still run
+          asyncRetryPool.shutdown();
+          asyncRetryPool = null;
+        }
+      }
     }
 
     /**
@@ -83,6 +83,9 @@ public class HTable implements HTableInterface {
   private HBaseRPCOptions options;
 
   private long maxScannerResultSize;
+  private long scannerReadAheadBytes;
+  private int scannerParallelRegions;
+  private boolean scannerParallelOrdered;
 
   // Share this multiaction thread pool across all the HTable instance;
   // The total number of threads will be bounded #HTable * #RegionServer.
@@ -165,6 +168,14 @@ public class HTable implements HTableInterface {
     this.maxScannerResultSize = conf.getLong(
       HConstants.HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY,
       HConstants.DEFAULT_HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE);
+    this.scannerReadAheadBytes = conf.getLong(
+      HConstants.HBASE_CLIENT_SCANNER_READAHEAD_BYTES_KEY,
+      HConstants.DEFAULT_HBASE_CLIENT_SCANNER_READAHEAD_BYTES);
+    this.scannerParallelRegions = conf.getInt(
+      HConstants.HBASE_CLIENT_SCANNER_PARALLEL_REGIONS_KEY,
+      HConstants.DEFAULT_HBASE_CLIENT_SCANNER_PARALLEL_REGIONS);
+    this.scannerParallelOrdered = conf.getBoolean(
+      HConstants.HBASE_CLIENT_SCANNER_PARALLEL_ORDERED_KEY, true);
     this.maxKeyValueSize = conf.getInt("hbase.client.keyvalue.maxsize", -1);
     this.options = new HBaseRPCOptions ();
     String compressionAlgo = conf.get(HConstants.HBASE_RPC_COMPRESSION_KEY);
@@ -313,6 +324,69 @@ public class HTable implements HTableInterface {
     this.scannerCaching = scannerCaching;
   }
 
+  /**
+   * Gets the maximum number of bytes of results that a scanner will read
+   * ahead of the application, or zero if scanners do not read ahead.
+   * <p>
+   * The default value comes from {@code hbase.client.scanner.readahead.bytes}.
+   */
+  public long getScannerReadAheadBytes() {
+    return scannerReadAheadBytes;
+  }
+
+  /**
+   * Sets the maximum number of bytes of results that a scanner will read
+   * ahead of the application.
+   * <p>
+   * This will override the value specified by
+   * {@code hbase.client.scanner.readahead.bytes}. Scanners reading ahead
+   * fetch the next rows in the background while the application consumes
+   * the previous ones, at the expense of up to that many bytes of memory.
+   * @param readAheadBytes the maximum size of the rows read ahead, or zero to
+   * disable read-ahead.
+   */
+  public void setScannerReadAheadBytes(long readAheadBytes) {
+    this.scannerReadAheadBytes = readAheadBytes;
+  }
+
+  /**
+   * Gets the number of regions that a scanner reading ahead will scan
+   * concurrently.
+   * <p>
+   * The default value comes from {@code hbase.client.scanner.parallel.regions}.
+   */
+  public int getScannerParallelRegions() {
+    return scannerParallelRegions;
+  }
+
+  /**
+   * Whether a scanner reading several regions concurrently returns the rows
+   * in order.
+   * <p>
+   * The default value comes from {@code hbase.client.scanner.parallel.ordered}.
+   */
+  public boolean isScannerParallelOrdered() {
+    return scannerParallelOrdered;
+  }
+
+  /**
+   * Sets the number of regions that a scanner reading ahead will scan
+   * concurrently, and whether it returns the rows in order.
+   * <p>
+   * This will override the values specified by
+   * {@code hbase.client.scanner.parallel.regions} and
+   * {@code hbase.client.scanner.parallel.ordered}. This only applies to
+   * scanners reading ahead, see {@link #setScannerReadAheadBytes(long)}.
+   * Ordered scanners return the regions one after the other, unordered ones
+   * return the rows of all the regions being scanned as they arrive.
+   * @param numRegions the number of regions to scan at once.
+   * @param ordered whether to return the rows in order.
+   */
+  public void setScannerParallelRegions(int numRegions, boolean ordered) {
+    this.scannerParallelRegions = numRegions;
+    this.scannerParallelOrdered = ordered;
+  }
+
   /**
    * Explicitly clears the region cache to fetch the latest value from META.
    * This is a power user function: avoid unless you know the ramifications.
@@ -521,6 +595,18 @@ public class HTable implements HTableInterface {
    }
 
   public ResultScanner getScanner(final Scan scan) throws IOException {
+    if (scannerReadAheadBytes > 0) {
+      return new PrefetchingClientScanner(this, scan, scannerReadAheadBytes,
+          scannerParallelRegions, scannerParallelOrdered);
+    }
+    return getClientScanner(scan);
+  }
+
+  /**
+   * Opens a scanner that fetches the rows when the application asks for
+   * them, regardless of the read-ahead settings of this table.
+   */
+  ResultScanner getClientScanner(final Scan scan) throws IOException {
     ClientScanner s = new ClientScanner(scan);
     s.initialize();
     return s;
@@ -936,6 +1022,9 @@ public class HTable implements HTableInterface {
     private long lastNext;
     // Keep lastResult returned successfully in case we have to reset scanner.
     private Result lastResult = null;
+    // With partial rows, the last KeyValue returned before the scanner was
+    // reset. The KeyValues up to it are dropped from the new scanner.
+    private KeyValue resumeAfter = null;
 
     protected ClientScanner(final Scan scan) {
       if (CLIENT_LOG.isDebugEnabled()) {
@@ -952,6 +1041,12 @@ public class HTable implements HTableInterface {
       } else {
         this.caching = HTable.this.scannerCaching;
       }
+      // Use the configured response size limit if the Scan does not have one
+      if (this.scan.getMaxResponseSize() ==
+            HConstants.DEFAULT_HBASE_SCANNER_MAX_RESULT_SIZE &&
+          maxScannerResultSize < HConstants.DEFAULT_HBASE_SCANNER_MAX_RESULT_SIZE) {
+        this.scan.setMaxResponseSize((int) maxScannerResultSize, false);
+      }
 
       // Removed filter validation.  We have a new format now, only one of all
       // the current filters has a validate() method.  We can add it back,
@@ -1072,7 +1167,9 @@ public class HTable implements HTableInterface {
         // this when we reset scanner because it split under us.
         boolean skipFirst = false;
         boolean foundResults = false;
+        boolean resumedRowDone;
         do {
+          resumedRowDone = false;
           try {
             // Server returns a null values if scanning is to stop.  Else,
             // returns an empty array if scanning is to go on and we've just
@@ -1107,22 +1204,40 @@ public class HTable implements HTableInterface {
             // NSRE on a next and that we need to reset the scanner.
             if (this.lastResult != null) {
               this.scan.setStartRow(this.lastResult.getRow());
-              // Skip first row returned.  We already let it out on previous
-              // invocation.
-              skipFirst = true;
+              if (this.scan.isPartialRow()) {
+                // The last row may have been cut short, so resume it after
+                // the last KeyValue we let out instead of skipping it.
+                KeyValue[] kvs = this.lastResult.raw();
+                this.resumeAfter = kvs[kvs.length - 1];
+              } else {
+                // Skip first row returned.  We already let it out on previous
+                // invocation.
+                skipFirst = true;
+              }
             }
             // Clear region
             this.currentRegion = null;
           }
           lastNext = System.currentTimeMillis();
           if (values != null && values.length > 0) {
-            foundResults = true;
             for (Result rs : values) {
+              if (this.resumeAfter != null) {
+                rs = skipReturnedKeyValues(rs);
+                if (rs == null) {
+                  continue;
+                }
+              }
+              foundResults = true;
               cache.add(rs);
               this.lastResult = rs;
             }
+            // The reopened scanner only resent what we already let out of
+            // the partial row: ask the same scanner for the rest of the
+            // region instead of moving on to the next one.
+            resumedRowDone = !foundResults && this.resumeAfter != null;
           }
-        } while (!foundResults && nextScanner(this.caching, values == null));
+        } while (!foundResults &&
+            (resumedRowDone || nextScanner(this.caching, values == null)));
       }
       if (cache.size() > 0) {
         return cache.poll();
@@ -1130,6 +1245,26 @@ public class HTable implements HTableInterface {
       return null;
     }
 
+    /**
+     * Drops the KeyValues of a partial row that were already returned before
+     * the scanner was reset.
+     * @return the rest of the row, or null if it was all returned already
+     */
+    private Result skipReturnedKeyValues(Result rs) {
+      KeyValue[] kvs = rs.raw();
+      int skipped = 0;
+      while (skipped < kvs.length &&
+          KeyValue.COMPARATOR.compare(kvs[skipped], this.resumeAfter) <= 0) {
+        skipped++;
+      }
+      if (skipped == kvs.length) {
+        return null;
+      }
+      this.resumeAfter = null;
+      return skipped == 0 ? rs :
+        new Result(Arrays.copyOfRange(kvs, skipped, kvs.length));
+    }
+
     /**
      * Get <param>nbRows</param> rows.
      * How many RPCs are made is determined by the {@link Scan#setCaching(int)}
@@ -0,0 +1,382 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+/**
+ * A client scanner that reads ahead of the application in the background.
+ * <p>
+ * The rows are fetched by regular table scanners running in the shared
+ * {@link HTable} thread pool, and wait in buffers bounded by their size in
+ * bytes rather than by a number of rows, so that wide rows do not blow up
+ * the client heap. While the application consumes the rows of one RPC, the
+ * next RPC is already on its way.
+ * <p>
+ * When more than one region is to be scanned at a time, the scan is split
+ * on region boundaries and up to that many regions are scanned concurrently.
+ * The rows are then either returned in order, region after region, or in
+ * the order they arrive from the region servers, which lets the fastest
+ * regions go first. In both cases the byte bound covers all the regions
+ * being read.
+ * <p>
+ * This class is not thread safe: only one thread should consume it.
+ */
+public class PrefetchingClientScanner implements ResultScanner {
+  private static final Log LOG =
+    LogFactory.getLog(PrefetchingClientScanner.class);
+
+  private final HTable table;
+  private final Scan scan;
+  private final long maxBufferedBytes;
+  private final int numParallelRegions;
+  private final boolean ordered;
+
+  /** Row ranges still to be scanned, in row order */
+  private final List<Pair<byte[], byte[]>> ranges;
+  private int nextRange = 0;
+
+  /** Buffers of the regions being read, in row order, when ordered */
+  private final LinkedList<ResultBuffer> regionBuffers =
+    new LinkedList<ResultBuffer>();
+
+  /** The buffer shared by all the regions, when not ordered */
+  private final ResultBuffer sharedBuffer;
+
+  private boolean closed = false;
+
+  /**
+   * @param table the table to scan
+   * @param scan the scan to run, copied before it is split on regions
+   * @param maxBufferedBytes the maximum size of the results read ahead
+   * @param numParallelRegions the number of regions to scan concurrently
+   * @param ordered whether to return the rows in order when scanning more
+   *          than one region at a time
+   */
+  PrefetchingClientScanner(HTable table, Scan scan, long maxBufferedBytes,
+      int numParallelRegions, boolean ordered) throws IOException {
+    this.table = table;
+    this.scan = new Scan(scan);
+    this.maxBufferedBytes = maxBufferedBytes;
+    this.numParallelRegions = Math.max(1, numParallelRegions);
+    this.ordered = ordered || this.numParallelRegions == 1;
+
+    if (this.numParallelRegions == 1 || scan.isGetScan()) {
+      // Plain read-ahead, the table scanner moves from region to region
+      ranges = Collections.singletonList(new Pair<byte[], byte[]>(
+          scan.getStartRow(), scan.getStopRow()));
+    } else {
+      ranges = splitOnRegions(scan.getStartRow(), scan.getStopRow(),
+          table.getStartEndKeys());
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Reading ahead up to " + maxBufferedBytes + " bytes of " +
+          Bytes.toString(table.getTableName()) + " in " + ranges.size() +
+          " range(s), " + this.numParallelRegions + " at a time" +
+          (this.ordered ? "" : ", unordered"));
+    }
+
+    if (this.ordered) {
+      sharedBuffer = null;
+    } else {
+      sharedBuffer = new ResultBuffer(maxBufferedBytes, ranges.size());
+    }
+    startRanges();
+  }
+
+  /**
+   * Splits the given row range on the boundaries of the given regions.
+   * @param startRow the first row of the scan, or an empty array
+   * @param stopRow the row to stop the scan before, or an empty array
+   * @param startEndKeys the start and end keys of the regions, in order
+   * @return the non-empty row ranges of the scan in each region, in order
+   */
+  static List<Pair<byte[], byte[]>> splitOnRegions(byte[] startRow,
+      byte[] stopRow, Pair<byte[][], byte[][]> startEndKeys) {
+    byte[][] startKeys = startEndKeys.getFirst();
+    byte[][] endKeys = startEndKeys.getSecond();
+    List<Pair<byte[], byte[]>> ranges = new ArrayList<Pair<byte[], byte[]>>();
+    for (int i = 0; i < startKeys.length; i++) {
+      byte[] rangeStart = startKeys[i];
+      if (Bytes.compareTo(startRow, rangeStart) > 0) {
+        rangeStart = startRow;
+      }
+      byte[] rangeStop = endKeys[i];
+      if (stopRow.length > 0 && (rangeStop.length == 0 ||
+          Bytes.compareTo(stopRow, rangeStop) < 0)) {
+        rangeStop = stopRow;
+      }
+      if (rangeStop.length == 0 || Bytes.compareTo(rangeStart, rangeStop) < 0) {
+        ranges.add(new Pair<byte[], byte[]>(rangeStart, rangeStop));
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Starts scanning ranges until the configured number of regions are being
+   * read, or all the ranges have been started.
+   */
+  private synchronized void startRanges() {
+    while (!closed && nextRange < ranges.size()) {
+      ResultBuffer buffer;
+      if (ordered) {
+        if (regionBuffers.size() >= numParallelRegions) {
+          return;
+        }
+        buffer = new ResultBuffer(maxBufferedBytes / numParallelRegions, 1);
+        regionBuffers.add(buffer);
+      } else {
+        if (nextRange - (ranges.size() - sharedBuffer.getProducers()) >=
+            numParallelRegions) {
+          return;
+        }
+        buffer = sharedBuffer;
+      }
+      Pair<byte[], byte[]> range = ranges.get(nextRange++);
+      HTable.multiActionThreadPool.submit(new RangeScanner(range.getFirst(),
+          range.getSecond(), buffer));
+    }
+  }
+
+  @Override
+  public Result next() throws IOException {
+    if (!ordered) {
+      return sharedBuffer.take();
+    }
+    while (!regionBuffers.isEmpty()) {
+      Result result = regionBuffers.getFirst().take();
+      if (result != null) {
+        return result;
+      }
+      regionBuffers.removeFirst();
+      startRanges();
+    }
+    return null;
+  }
+
+  @Override
+  public Result[] next(int nbRows) throws IOException {
+    ArrayList<Result> results = new ArrayList<Result>(nbRows);
+    for (int i = 0; i < nbRows; i++) {
+      Result next = next();
+      if (next == null) {
+        break;
+      }
+      results.add(next);
+    }
+    return results.toArray(new Result[results.size()]);
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    if (sharedBuffer != null) {
+      sharedBuffer.close();
+    }
+    for (ResultBuffer buffer : regionBuffers) {
+      buffer.close();
+    }
+    regionBuffers.clear();
+  }
+
+  @Override
+  public Iterator<Result> iterator() {
+    return new Iterator<Result>() {
+      // The next result, read by hasNext()
+      Result next = null;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          try {
+            next = PrefetchingClientScanner.this.next();
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public Result next() {
+        if (!hasNext()) {
+          return null;
+        }
+        Result temp = next;
+        next = null;
+        return temp;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /** Scans one row range of the table into a buffer. */
+  private class RangeScanner implements Runnable {
+    private final byte[] startRow;
+    private final byte[] stopRow;
+    private final ResultBuffer buffer;
+
+    RangeScanner(byte[] startRow, byte[] stopRow, ResultBuffer buffer) {
+      this.startRow = startRow;
+      this.stopRow = stopRow;
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void run() {
+      IOException error = null;
+      ResultScanner scanner = null;
+      try {
+        Scan rangeScan = new Scan(scan);
+        rangeScan.setStartRow(startRow);
+        rangeScan.setStopRow(stopRow);
+        scanner = table.getClientScanner(rangeScan);
+        for (Result result = scanner.next(); result != null;
+            result = scanner.next()) {
+          if (!buffer.put(result)) {
+            // The application closed the scanner
+            break;
+          }
+        }
+      } catch (IOException e) {
+        error = e;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        error = new InterruptedIOException("Interrupted reading ahead");
+      } catch (RuntimeException e) {
+        error = new IOException(e);
+      } finally {
+        if (scanner != null) {
+          scanner.close();
+        }
+        buffer.producerDone(error);
+      }
+      if (!ordered) {
+        startRanges();
+      }
+    }
+  }
+
+  /**
+   * A queue of results bounded by their size in bytes, filled by one or more
+   * producers and read by one consumer.
+   */
+  static class ResultBuffer {
+    private final LinkedList<Result> results = new LinkedList<Result>();
+    private final long maxBytes;
+    private long bytes = 0;
+    private int producers;
+    private IOException error = null;
+    private boolean closed = false;
+
+    ResultBuffer(long maxBytes, int producers) {
+      this.maxBytes = maxBytes;
+      this.producers = producers;
+    }
+
+    /**
+     * Adds a result, waiting for room in the buffer first. A result larger
+     * than the whole buffer is added once the buffer is empty.
+     * @return false if the buffer was closed by its consumer
+     */
+    synchronized boolean put(Result result) throws InterruptedException {
+      long size = result.getWritableSize();
+      while (!closed && !results.isEmpty() && bytes + size > maxBytes) {
+        wait();
+      }
+      if (closed) {
+        return false;
+      }
+      results.add(result);
+      bytes += size;
+      notifyAll();
+      return true;
+    }
+
+    /**
+     * Takes the next result, waiting for one if the producers are not done.
+     * @return the next result, or null once all the producers are done and
+     *         the buffer is empty
+     * @throws IOException the first error a producer failed with
+     */
+    synchronized Result take() throws IOException {
+      while (results.isEmpty() && producers > 0 && error == null && !closed) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for results");
+        }
+      }
+      if (error != null) {
+        throw error;
+      }
+      Result result = results.poll();
+      if (result != null) {
+        bytes -= result.getWritableSize();
+        notifyAll();
+      }
+      return result;
+    }
+
+    /** Called by each producer when it is done, with the error it hit */
+    synchronized void producerDone(IOException e) {
+      producers--;
+      if (e != null && error == null) {
+        error = e;
+      }
+      notifyAll();
+    }
+
+    synchronized int getProducers() {
+      return producers;
+    }
+
+    synchronized long getBufferedBytes() {
+      return bytes;
+    }
+
+    /** Drops the buffered results and releases the waiting producers */
+    synchronized void close() {
+      closed = true;
+      results.clear();
+      bytes = 0;
+      notifyAll();
+    }
+  }
+}
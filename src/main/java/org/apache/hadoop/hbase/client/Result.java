@@ -593,9 +593,12 @@ public class Result implements Writable, WritableWithSize {
     Result [] results = new Result[numResults];
     int bufSize = in.readInt();
     byte [] buf = new byte[bufSize];
+    // The buffer holds the results as they were written, so read it in one
+    // go and wrap each result around its part of it.
+    HBaseClient.readFromSocket(in, buf, 0, bufSize);
     int offset = 0;
     for(int i=0;i<numResults;i++) {
-      int numKeys = in.readInt();
+      int numKeys = Bytes.toInt(buf, offset);
       offset += Bytes.SIZEOF_INT;
       if(numKeys == 0) {
         results[i] = new Result((ImmutableBytesWritable)null);
@@ -603,11 +606,8 @@ public class Result implements Writable, WritableWithSize {
       }
       int initialOffset = offset;
       for(int j=0;j<numKeys;j++) {
-        int keyLen = in.readInt();
-        Bytes.putInt(buf, offset, keyLen);
-        offset += Bytes.SIZEOF_INT;
-        in.readFully(buf, offset, keyLen);
-        offset += keyLen;
+        int keyLen = Bytes.toInt(buf, offset);
+        offset += Bytes.SIZEOF_INT + keyLen;
       }
       int totalLength = offset - initialOffset;
       results[i] = new Result(new ImmutableBytesWritable(buf, initialOffset,
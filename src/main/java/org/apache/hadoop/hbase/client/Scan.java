@@ -75,6 +75,9 @@ import java.util.TreeSet;
  * To limit the maximum number of values returned for each call to next(),
  * execute {@link #setBatch(int) setBatch}.
  * <p>
+ * To limit the size in bytes of the rows returned for each call to next(),
+ * execute {@link #setMaxResponseSize(int, boolean) setMaxResponseSize}.
+ * <p>
  * To limit the maximum number of values returned per row per Column Family,
  * execute {@link #setMaxResultsPerColumnFamily(int) setMaxResultsPerColumnFamily}.
  * <p>
@@ -368,7 +371,8 @@ public class Scan extends Operation implements Writable {
    * !!!NOTE!!!: this call will overwrite the caching setting and set it as
    * int.max_value. If you really want row-based constraint as well, use
    * setCaching(int caching), which will reset maxResponseSize to match your
-   * configuration and disable partial row. 
+   * configuration and disable partial row, followed by
+   * {@link #setMaxResponseSize(int, boolean)}.
    */
   public void setCaching(int responseSize, boolean partialRow) {
     this.maxResponseSize = responseSize;
@@ -376,6 +380,23 @@ public class Scan extends Operation implements Writable {
     this.caching = Integer.MAX_VALUE; 
   }
 
+  /**
+   * Limits the size of the rows returned by a single call to next(), on top
+   * of the number of rows set by {@link #setCaching(int)}. Whichever limit is
+   * reached first ends the call. Unlike {@link #setCaching(int, boolean)},
+   * this does not change the number of rows for caching.
+   * <p>
+   * We will add KV's till we exceed this setting if partialRow is true, and
+   * add entire rows till we exceed this setting if partialRow is false. With
+   * partial rows, the rest of a row comes with the next call to next().
+   * @param responseSize the maximum size of a response, in bytes
+   * @param partialRow whether the last row of a response may be incomplete
+   */
+  public void setMaxResponseSize(int responseSize, boolean partialRow) {
+    this.maxResponseSize = responseSize;
+    this.partialRow = partialRow;
+  }
+
   /**
    * Set if pre-fetching is enabled on the region server. If enabled, the 
    * region server will try to read the next scan result ahead of time. This 
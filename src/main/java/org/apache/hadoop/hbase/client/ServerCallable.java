@@ -22,6 +22,7 @@ package org.apache.hadoop.hbase.client;
 
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HServerAddress;
+import org.apache.hadoop.hbase.ipc.CallFuture;
 import org.apache.hadoop.hbase.ipc.HBaseRPC;
 import org.apache.hadoop.hbase.ipc.HBaseRPCOptions;
 import org.apache.hadoop.hbase.ipc.HRegionInterface;
@@ -82,6 +83,23 @@ public abstract class ServerCallable<T> implements Callable<T> {
     this.server = connection.getHRegionConnection(location.getServerAddress(), this.options);
   }
 
+  /**
+   * Runs the call without waiting for the region server. Must be called
+   * after a successful call to instantiateServer().
+   * <p>
+   * This default runs {@link #call()} in the calling thread. Callables that
+   * send their request through {@link HBaseRPC#callAsync} override it so
+   * that the caller does not block.
+   * @return the future result of the call
+   */
+  public CallFuture<T> callAsync() {
+    try {
+      return CallFuture.completed(call());
+    } catch (Exception e) {
+      return CallFuture.failed(e);
+    }
+  }
+
   /** @return the server name */
   public String getServerName() {
     if (location == null) {
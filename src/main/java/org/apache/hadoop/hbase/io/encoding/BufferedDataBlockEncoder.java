@@ -79,6 +79,7 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
       writer.finishAddingKeyValue(memstoreTS, inputBytes, keyOffset, keyLength, inputBytes,
           valueOffset, valueLength);
     }
+    writer.endBlock();
   }
 
   abstract static class BufferedEncodedWriter<STATE extends EncodingState>
@@ -164,6 +165,11 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
       out.writeInt(0);
     }
 
+    /** Nothing follows the key/value pairs by default. */
+    @Override
+    public void endBlock() throws IOException {
+    }
+
     /**
      * @param data a byte array containing encoded data
      * @param offset offset of encoded data in the given array
@@ -322,6 +328,13 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
       previous.invalidate();
     }
 
+    @Override
+    public int compareKey(RawComparator<byte[]> comparator, byte[] key,
+        int offset, int length) {
+      return comparator.compare(key, offset, length,
+          current.keyBuffer, 0, current.keyLength);
+    }
+
     @Override
     public boolean next() {
       if (!currentBuffer.hasRemaining()) {
@@ -129,6 +129,13 @@ public interface DataBlockEncoder {
      * such as unencoded length.
      */
     void reserveMetadataSpace() throws IOException;
+
+    /**
+     * Called after the last key/value pair of the block, while the stream is
+     * still open, so that the encoder can append metadata following the
+     * key/value pairs.
+     */
+    void endBlock() throws IOException;
   }
 
   /**
@@ -171,6 +178,19 @@ public interface DataBlockEncoder {
     /** Set position to beginning of given block */
     public void rewind();
 
+    /**
+     * Compares the given key with the key at the current position, without
+     * copying the current key.
+     * @param comparator the comparator of the keys
+     * @param key byte array containing the key
+     * @param offset key position the array
+     * @param length key length in bytes
+     * @return a negative number, zero or a positive number if the given key
+     *         is before, at or after the current key
+     */
+    public int compareKey(RawComparator<byte[]> comparator, byte[] key,
+        int offset, int length);
+
     /**
      * Move to next position
      * @return true on success, false if there is no more positions.
@@ -49,7 +49,9 @@ public enum DataBlockEncoding {
   // id 1 is reserved for the BITSET algorithm to be added later
   PREFIX(2, new PrefixKeyDeltaEncoder()),
   DIFF(3, new DiffKeyDeltaEncoder()),
-  FAST_DIFF(4, new FastDiffDeltaEncoder());
+  FAST_DIFF(4, new FastDiffDeltaEncoder()),
+  INDEXED(5, new IndexedDataBlockEncoder()),
+  PREFIX_TREE(6, new PrefixTreeDataBlockEncoder());
 
   private final short id;
   private final byte[] idInBytes;
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.RawComparator;
+
+/**
+ * Keeps the KeyValues unchanged and appends an index of their offsets to the
+ * block, so that seeks binary search the block instead of comparing every
+ * key from its start. Costs four bytes per KeyValue.
+ *
+ * Format:
+ * 4 bytes: total length of the KeyValues (the unencoded size)
+ * ... bytes: the KeyValues as in an unencoded block
+ * 4 bytes each: the offset of each KeyValue from the start of the block
+ * 4 bytes: the number of KeyValues
+ */
+public class IndexedDataBlockEncoder extends BufferedDataBlockEncoder {
+
+  @Override
+  public ByteBuffer decodeKeyValues(DataInputStream source,
+      int allocHeaderLength, boolean includesMemstoreTS, int totalEncodedSize)
+      throws IOException {
+    int decompressedSize = source.readInt();
+    ByteBuffer buffer = ByteBuffer.allocate(decompressedSize +
+        allocHeaderLength);
+    buffer.position(allocHeaderLength);
+    ByteBufferUtils.copyFromStreamToBuffer(buffer, source, decompressedSize);
+
+    // Skip the index
+    int indexSize = totalEncodedSize - Bytes.SIZEOF_INT - decompressedSize;
+    if (source.skipBytes(indexSize) != indexSize) {
+      throw new IOException("Could not skip the index of " + indexSize +
+          " bytes");
+    }
+    return buffer;
+  }
+
+  @Override
+  public ByteBuffer getFirstKeyInBlock(ByteBuffer block) {
+    int keyLength = block.getInt(Bytes.SIZEOF_INT);
+    return ByteBuffer.wrap(block.array(),
+        block.arrayOffset() + 3 * Bytes.SIZEOF_INT, keyLength).slice();
+  }
+
+  @Override
+  public IndexedWriter createWriter(DataOutputStream out,
+      boolean includesMemstoreTS) throws IOException {
+    return new IndexedWriter(out, includesMemstoreTS);
+  }
+
+  /**
+   * A writer that copies the KeyValues and writes their offsets at the end
+   * of the block.
+   */
+  private static class IndexedWriter extends BufferedEncodedWriter<EncodingState> {
+    private int[] offsets = new int[64];
+    private int count = 0;
+
+    public IndexedWriter(DataOutputStream out, boolean includesMemstoreTS)
+        throws IOException {
+      super(out, includesMemstoreTS);
+    }
+
+    @Override
+    EncodingState createState() {
+      return new EncodingState();
+    }
+
+    @Override
+    protected void updateInitial(byte[] key, int keyOffset, int keyLength,
+        byte[] value, int valueOffset, int valueLength) throws IOException {
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, 2 * count);
+      }
+      // The KeyValues written so far follow the unencoded length
+      offsets[count++] = Bytes.SIZEOF_INT + this.unencodedLength;
+
+      this.out.writeInt(keyLength);
+      this.out.writeInt(valueLength);
+      this.out.write(key, keyOffset, keyLength);
+      this.out.write(value, valueOffset, valueLength);
+    }
+
+    @Override
+    public void endBlock() throws IOException {
+      for (int i = 0; i < count; i++) {
+        this.out.writeInt(offsets[i]);
+      }
+      this.out.writeInt(count);
+    }
+  }
+
+  @Override
+  public EncodedSeeker createSeeker(RawComparator<byte[]> comparator,
+      final boolean includesMemstoreTS) {
+    return new IndexedSeeker(comparator, includesMemstoreTS);
+  }
+
+  /**
+   * Iterates the KeyValues like an unencoded block, and seeks with a binary
+   * search over the index.
+   */
+  private static class IndexedSeeker extends BufferedEncodedSeeker<SeekerState> {
+    private final boolean includesMemstoreTS;
+    // The whole block, with the index
+    private ByteBuffer block;
+    private int indexOffset;
+    private int count;
+
+    IndexedSeeker(RawComparator<byte[]> comparator,
+        boolean includesMemstoreTS) {
+      super(comparator);
+      this.includesMemstoreTS = includesMemstoreTS;
+    }
+
+    @Override
+    public void setCurrentBuffer(ByteBuffer buffer) {
+      block = buffer;
+      count = buffer.getInt(buffer.limit() - Bytes.SIZEOF_INT);
+      indexOffset = buffer.limit() - (count + 1) * Bytes.SIZEOF_INT;
+      // Iterating stops at the index
+      ByteBuffer keyValues = buffer.duplicate();
+      keyValues.position(0);
+      keyValues.limit(indexOffset);
+      super.setCurrentBuffer(keyValues);
+    }
+
+    @Override
+    protected void decodeNext() {
+      current.keyLength = currentBuffer.getInt();
+      current.valueLength = currentBuffer.getInt();
+      current.lastCommonPrefix = 0;
+      current.ensureSpaceForKey();
+      currentBuffer.get(current.keyBuffer, 0, current.keyLength);
+      current.valueOffset = currentBuffer.position();
+      ByteBufferUtils.skip(currentBuffer, current.valueLength);
+      if (includesMemstoreTS) {
+        current.memstoreTS = ByteBufferUtils.readVLong(currentBuffer);
+      } else {
+        current.memstoreTS = 0;
+      }
+      current.nextKvOffset = currentBuffer.position();
+    }
+
+    @Override
+    protected void decodeFirst() {
+      ByteBufferUtils.skip(currentBuffer, Bytes.SIZEOF_INT);
+      decodeNext();
+    }
+
+    private int getOffset(int i) {
+      return block.getInt(indexOffset + i * Bytes.SIZEOF_INT);
+    }
+
+    /** Compares the given key with the key of the i-th KeyValue */
+    private int compareTo(byte[] key, int offset, int length, int i) {
+      int kvOffset = getOffset(i);
+      return comparator.compare(key, offset, length, block.array(),
+          block.arrayOffset() + kvOffset + 2 * Bytes.SIZEOF_INT,
+          block.getInt(kvOffset));
+    }
+
+    private void moveTo(int i) {
+      currentBuffer.position(getOffset(i));
+      decodeNext();
+      previous.invalidate();
+    }
+
+    @Override
+    public int seekToKeyInBlock(byte[] key, int offset, int length,
+        boolean seekBefore) {
+      // Find the first KeyValue not less than the key
+      int low = 0;
+      int high = count;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (compareTo(key, offset, length, mid) > 0) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+
+      if (low < count && compareTo(key, offset, length, low) == 0) {
+        if (!seekBefore) {
+          moveTo(low);
+          return 0;
+        }
+        if (low == 0) {
+          // The caller (seekBefore) has to ensure that we are not at the
+          // first key in the block.
+          throw new IllegalStateException("Cannot seekBefore if " +
+              "positioned at the first key in the block: key=" +
+              Bytes.toStringBinary(key, offset, length));
+        }
+      }
+      // The last KeyValue less than the key, or the first one if there is
+      // none
+      moveTo(Math.max(low - 1, 0));
+      return 1;
+    }
+  }
+}
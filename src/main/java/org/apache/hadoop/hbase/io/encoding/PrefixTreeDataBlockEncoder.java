@@ -0,0 +1,777 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Stores the rows of a block in a trie, so that rows sharing a prefix store
+ * it only once, and every distinct family and qualifier of the block only
+ * once. Seeks descend the trie and binary search the cells of a row, reading
+ * the encoded block in place instead of decoding the KeyValues before the
+ * one sought.
+ *
+ * The block is written as the KeyValues arrive. Cells are written in order,
+ * and a trie node is written as soon as no later row can fall under it, so
+ * children precede their parents and the root comes last.
+ *
+ * Format:
+ * 4 bytes: total length of the KeyValues (the unencoded size)
+ * then, interleaved in the order they are written:
+ * <ul>
+ * <li>column: vint length, bytes; a family or qualifier the first time the
+ * block uses it</li>
+ * <li>cell: vint offset of the family, vint offset of the qualifier, vlong
+ * timestamp, 1 byte type, vint value length, value, optional vlong memstore
+ * timestamp</li>
+ * <li>node: vint token length, the row bytes the node adds to its parent's,
+ * vint number of cells of the row ending at the node, 4 bytes offset of each
+ * of them, vint number of children, 1 byte first token byte and 4 bytes
+ * offset of each of them</li>
+ * </ul>
+ * 4 bytes: the offset of the root node
+ *
+ * Offsets count from the start of the block, including the unencoded size.
+ * The trie expects rows in the byte order of user tables, so this encoding
+ * does not support the catalog tables.
+ */
+public class PrefixTreeDataBlockEncoder extends BufferedDataBlockEncoder {
+
+  @Override
+  public ByteBuffer decodeKeyValues(DataInputStream source,
+      int allocHeaderLength, boolean includesMemstoreTS, int totalEncodedSize)
+      throws IOException {
+    byte[] encoded = new byte[totalEncodedSize];
+    source.readFully(encoded);
+    int decompressedSize = Bytes.toInt(encoded);
+    ByteBuffer buffer = ByteBuffer.allocate(decompressedSize +
+        allocHeaderLength);
+    buffer.position(allocHeaderLength);
+    if (decompressedSize == 0) {
+      return buffer;
+    }
+
+    PrefixTreeSeeker seeker = new PrefixTreeSeeker(includesMemstoreTS);
+    seeker.setCurrentBuffer(ByteBuffer.wrap(encoded));
+    do {
+      buffer.putInt(seeker.getKeyLength());
+      buffer.putInt(seeker.valueLength);
+      seeker.writeKey(buffer);
+      buffer.put(encoded, seeker.valueOffset, seeker.valueLength);
+      if (includesMemstoreTS) {
+        ByteBufferUtils.writeVLong(buffer, seeker.memstoreTS);
+      }
+    } while (seeker.next());
+    return buffer;
+  }
+
+  @Override
+  public ByteBuffer getFirstKeyInBlock(ByteBuffer block) {
+    PrefixTreeSeeker seeker = new PrefixTreeSeeker(false);
+    seeker.setCurrentBuffer(block);
+    return seeker.getKeyDeepCopy();
+  }
+
+  @Override
+  public PrefixTreeWriter createWriter(DataOutputStream out,
+      boolean includesMemstoreTS) throws IOException {
+    return new PrefixTreeWriter(out, includesMemstoreTS);
+  }
+
+  /** A node of the row trie that is still open in the writer */
+  private static class RowNode {
+    // The range of the row this node covers, start inclusive, end exclusive
+    int start;
+    final int end;
+    int[] cells = new int[4];
+    int numCells = 0;
+    byte[] childBytes = new byte[4];
+    int[] children = new int[4];
+    int numChildren = 0;
+
+    RowNode(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    void addCell(int offset) {
+      if (numCells == cells.length) {
+        cells = Arrays.copyOf(cells, 2 * numCells);
+      }
+      cells[numCells++] = offset;
+    }
+
+    void addChild(byte firstByte, int offset) {
+      if (numChildren == children.length) {
+        childBytes = Arrays.copyOf(childBytes, 2 * numChildren);
+        children = Arrays.copyOf(children, 2 * numChildren);
+      }
+      childBytes[numChildren] = firstByte;
+      children[numChildren++] = offset;
+    }
+  }
+
+  /**
+   * A writer that keeps the path of the trie leading to the current row open
+   * and writes the nodes off it as the rows move on.
+   */
+  private static class PrefixTreeWriter
+      extends BufferedEncodedWriter<EncodingState> {
+    // The offset the next byte is written at, after the unencoded length
+    private int written = Bytes.SIZEOF_INT;
+
+    // The row of the previous KeyValue
+    private byte[] row = new byte[64];
+    private int rowLength;
+
+    // The open nodes, from the root to the node of the current row
+    private final List<RowNode> path = new ArrayList<RowNode>();
+
+    // Offsets of the families and qualifiers written so far
+    private final Map<ImmutableBytesWritable, Integer> columns =
+        new HashMap<ImmutableBytesWritable, Integer>();
+
+    public PrefixTreeWriter(DataOutputStream out, boolean includesMemstoreTS)
+        throws IOException {
+      super(out, includesMemstoreTS);
+      path.add(new RowNode(0, 0));
+    }
+
+    @Override
+    EncodingState createState() {
+      return new EncodingState();
+    }
+
+    @Override
+    protected void updateInitial(byte[] key, int keyOffset, int keyLength,
+        byte[] value, int valueOffset, int valueLength) throws IOException {
+      int rowOffset = keyOffset + Bytes.SIZEOF_SHORT;
+      int newRowLength = Bytes.toShort(key, keyOffset);
+      int familyOffset = rowOffset + newRowLength + Bytes.SIZEOF_BYTE;
+      int familyLength = key[familyOffset - 1];
+      int qualifierOffset = familyOffset + familyLength;
+      int qualifierLength = keyOffset + keyLength -
+          KeyValue.TIMESTAMP_TYPE_SIZE - qualifierOffset;
+      long timestamp = Bytes.toLong(key, qualifierOffset + qualifierLength);
+      byte type = key[keyOffset + keyLength - 1];
+
+      RowNode node = moveToRow(key, rowOffset, newRowLength);
+      int family = getColumn(key, familyOffset, familyLength);
+      int qualifier = getColumn(key, qualifierOffset, qualifierLength);
+
+      node.addCell(written);
+      writeVInt(family);
+      writeVInt(qualifier);
+      writeVLong(timestamp);
+      this.out.writeByte(type);
+      written += Bytes.SIZEOF_BYTE;
+      writeVInt(valueLength);
+      write(value, valueOffset, valueLength);
+    }
+
+    @Override
+    protected void finishAddingKeyValue(long memstoreTS, byte[] key,
+        int keyOffset, int keyLength, byte[] value, int valueOffset,
+        int valueLength) throws IOException {
+      // The memstore timestamp ends the cell
+      if (this.includesMemstoreTS) {
+        written += WritableUtils.getVIntSize(memstoreTS);
+      }
+      super.finishAddingKeyValue(memstoreTS, key, keyOffset, keyLength, value,
+          valueOffset, valueLength);
+    }
+
+    @Override
+    public void endBlock() throws IOException {
+      while (path.size() > 1) {
+        closeNode();
+      }
+      this.out.writeInt(writeNode(path.get(0)));
+    }
+
+    /**
+     * Closes the nodes the given row does not fall under, and opens the ones
+     * leading to it.
+     * @return the node of the given row
+     */
+    private RowNode moveToRow(byte[] key, int rowOffset, int newRowLength)
+        throws IOException {
+      RowNode node = path.get(path.size() - 1);
+      int comp = Bytes.compareTo(row, 0, rowLength, key, rowOffset,
+          newRowLength);
+      if (comp == 0) {
+        return node;
+      }
+      if (comp > 0) {
+        throw new IOException("Rows must be in ascending byte order, got " +
+            Bytes.toStringBinary(key, rowOffset, newRowLength) + " after " +
+            Bytes.toStringBinary(row, 0, rowLength));
+      }
+
+      int common = getCommonPrefixLength(row, 0, rowLength, key, rowOffset,
+          newRowLength);
+      while (path.size() > 1 && node.start >= common) {
+        closeNode();
+        node = path.get(path.size() - 1);
+      }
+      if (node.end > common) {
+        // The rows part within the node, split it at the common prefix
+        RowNode parent = new RowNode(node.start, common);
+        node.start = common;
+        parent.addChild(row[common], writeNode(node));
+        path.set(path.size() - 1, parent);
+      }
+
+      // The new row is longer than the common prefix as it sorts after the
+      // previous row
+      RowNode child = new RowNode(common, newRowLength);
+      path.add(child);
+      if (row.length < newRowLength) {
+        row = new byte[Math.max(newRowLength, 2 * row.length)];
+      }
+      System.arraycopy(key, rowOffset, row, 0, newRowLength);
+      rowLength = newRowLength;
+      return child;
+    }
+
+    /** Writes the last node of the path and adds it to its parent */
+    private void closeNode() throws IOException {
+      RowNode node = path.remove(path.size() - 1);
+      path.get(path.size() - 1).addChild(row[node.start], writeNode(node));
+    }
+
+    /** @return the offset of the node */
+    private int writeNode(RowNode node) throws IOException {
+      int offset = written;
+      writeVInt(node.end - node.start);
+      write(row, node.start, node.end - node.start);
+      writeVInt(node.numCells);
+      for (int i = 0; i < node.numCells; i++) {
+        this.out.writeInt(node.cells[i]);
+      }
+      written += node.numCells * Bytes.SIZEOF_INT;
+      writeVInt(node.numChildren);
+      for (int i = 0; i < node.numChildren; i++) {
+        this.out.writeByte(node.childBytes[i]);
+        this.out.writeInt(node.children[i]);
+      }
+      written += node.numChildren * CHILD_SIZE;
+      return offset;
+    }
+
+    /**
+     * Writes the family or qualifier if the block does not have it yet.
+     * @return its offset
+     */
+    private int getColumn(byte[] key, int offset, int length)
+        throws IOException {
+      Integer column = columns.get(
+          new ImmutableBytesWritable(key, offset, length));
+      if (column != null) {
+        return column;
+      }
+      column = written;
+      columns.put(new ImmutableBytesWritable(
+          Arrays.copyOfRange(key, offset, offset + length)), column);
+      writeVInt(length);
+      write(key, offset, length);
+      return column;
+    }
+
+    private void writeVInt(int i) throws IOException {
+      WritableUtils.writeVInt(this.out, i);
+      written += WritableUtils.getVIntSize(i);
+    }
+
+    private void writeVLong(long i) throws IOException {
+      WritableUtils.writeVLong(this.out, i);
+      written += WritableUtils.getVIntSize(i);
+    }
+
+    private void write(byte[] b, int offset, int length) throws IOException {
+      this.out.write(b, offset, length);
+      written += length;
+    }
+  }
+
+  /** Size of a child entry of a node: first byte and offset */
+  private static final int CHILD_SIZE = Bytes.SIZEOF_BYTE + Bytes.SIZEOF_INT;
+
+  /**
+   * @return whether blocks sorted by the given comparator can be encoded.
+   *         Seeks compare the keys in place the way the KeyComparator does,
+   *         so the comparators of the catalog tables are not supported.
+   */
+  public static boolean supportsComparator(
+      RawComparator<byte[]> comparator) {
+    return comparator.getClass() == KeyValue.KeyComparator.class;
+  }
+
+  @Override
+  public EncodedSeeker createSeeker(RawComparator<byte[]> comparator,
+      final boolean includesMemstoreTS) {
+    if (!supportsComparator(comparator)) {
+      throw new UnsupportedOperationException(
+          "Prefix tree encoding does not support " +
+          comparator.getClass().getName());
+    }
+    return new PrefixTreeSeeker(includesMemstoreTS);
+  }
+
+  /** A node of the row trie read by the seeker */
+  private static class Node {
+    // The range of the row this node covers, start inclusive, end exclusive
+    int start;
+    int end;
+    int tokenOffset;
+    int numCells;
+    int cellsOffset;
+    int numChildren;
+    int childrenOffset;
+    // The child the seeker descended into
+    int childIndex;
+  }
+
+  /**
+   * Walks the trie from the root to the row of the current cell, and moves
+   * over the cells in order by visiting the cells of a node before its
+   * children.
+   */
+  private static class PrefixTreeSeeker implements EncodedSeeker {
+    private final boolean includesMemstoreTS;
+    private ByteBuffer block;
+    private byte[] array;
+    private int arrayOffset;
+    private int rootOffset;
+
+    // The nodes from the root to the one of the current row
+    private Node[] path = new Node[0];
+    private int depth;
+    private byte[] row = new byte[64];
+
+    // The current cell
+    private int cellIndex;
+    private int familyOffset;
+    private int familyLength;
+    private int qualifierOffset;
+    private int qualifierLength;
+    private long timestamp;
+    private byte type;
+    private int valueOffset;
+    private int valueLength;
+    private long memstoreTS;
+
+    PrefixTreeSeeker(boolean includesMemstoreTS) {
+      this.includesMemstoreTS = includesMemstoreTS;
+    }
+
+    @Override
+    public void setCurrentBuffer(ByteBuffer buffer) {
+      block = buffer.duplicate();
+      array = buffer.array();
+      arrayOffset = buffer.arrayOffset();
+      rootOffset = buffer.getInt(buffer.limit() - Bytes.SIZEOF_INT);
+      rewind();
+    }
+
+    @Override
+    public void rewind() {
+      moveToRoot();
+      moveToFirst();
+    }
+
+    private void moveToRoot() {
+      depth = -1;
+      pushNode(rootOffset, 0);
+    }
+
+    private void pushNode(int offset, int start) {
+      depth++;
+      if (depth == path.length) {
+        path = Arrays.copyOf(path, Math.max(16, 2 * depth));
+        for (int i = depth; i < path.length; i++) {
+          path[i] = new Node();
+        }
+      }
+      Node node = path[depth];
+      block.position(offset);
+      int tokenLength = (int) ByteBufferUtils.readVLong(block);
+      node.start = start;
+      node.end = start + tokenLength;
+      node.tokenOffset = block.position();
+      ByteBufferUtils.skip(block, tokenLength);
+      node.numCells = (int) ByteBufferUtils.readVLong(block);
+      node.cellsOffset = block.position();
+      ByteBufferUtils.skip(block, node.numCells * Bytes.SIZEOF_INT);
+      node.numChildren = (int) ByteBufferUtils.readVLong(block);
+      node.childrenOffset = block.position();
+
+      if (row.length < node.end) {
+        row = Arrays.copyOf(row, Math.max(node.end, 2 * row.length));
+      }
+      System.arraycopy(array, arrayOffset + node.tokenOffset, row, start,
+          tokenLength);
+    }
+
+    /** Descends into the given child of the current node */
+    private void pushChild(int i) {
+      Node node = path[depth];
+      node.childIndex = i;
+      pushNode(block.getInt(node.childrenOffset + i * CHILD_SIZE + 1),
+          node.end);
+    }
+
+    private int getChildByte(Node node, int i) {
+      return array[arrayOffset + node.childrenOffset + i * CHILD_SIZE] & 0xff;
+    }
+
+    /** Moves to the first cell under the current node */
+    private void moveToFirst() {
+      while (path[depth].numCells == 0 && path[depth].numChildren > 0) {
+        pushChild(0);
+      }
+      moveToCell(0);
+    }
+
+    /** Moves to the last cell under the current node */
+    private void moveToLast() {
+      while (path[depth].numChildren > 0) {
+        pushChild(path[depth].numChildren - 1);
+      }
+      moveToCell(path[depth].numCells - 1);
+    }
+
+    private void moveToCell(int i) {
+      cellIndex = i;
+      block.position(block.getInt(path[depth].cellsOffset +
+          i * Bytes.SIZEOF_INT));
+      int family = (int) ByteBufferUtils.readVLong(block);
+      int qualifier = (int) ByteBufferUtils.readVLong(block);
+      timestamp = ByteBufferUtils.readVLong(block);
+      type = block.get();
+      valueLength = (int) ByteBufferUtils.readVLong(block);
+      valueOffset = block.position();
+      if (includesMemstoreTS) {
+        ByteBufferUtils.skip(block, valueLength);
+        memstoreTS = ByteBufferUtils.readVLong(block);
+      } else {
+        memstoreTS = 0;
+      }
+
+      block.position(family);
+      familyLength = (int) ByteBufferUtils.readVLong(block);
+      familyOffset = block.position();
+      block.position(qualifier);
+      qualifierLength = (int) ByteBufferUtils.readVLong(block);
+      qualifierOffset = block.position();
+    }
+
+    @Override
+    public boolean next() {
+      Node node = path[depth];
+      if (cellIndex + 1 < node.numCells) {
+        moveToCell(cellIndex + 1);
+        return true;
+      }
+      if (node.numChildren > 0) {
+        pushChild(0);
+        moveToFirst();
+        return true;
+      }
+
+      // Go up to the closest node with a next child
+      int up = depth - 1;
+      while (up >= 0 && path[up].childIndex + 1 >= path[up].numChildren) {
+        up--;
+      }
+      if (up < 0) {
+        return false;
+      }
+      depth = up;
+      pushChild(path[up].childIndex + 1);
+      moveToFirst();
+      return true;
+    }
+
+    /**
+     * Moves to the previous cell.
+     * @return false, without moving, if the current cell is the first one
+     */
+    private boolean previous() {
+      if (cellIndex > 0) {
+        moveToCell(cellIndex - 1);
+        return true;
+      }
+
+      // Go up to the closest node with a previous child or with cells
+      int up = depth - 1;
+      while (up >= 0 && path[up].childIndex == 0 &&
+          path[up].numCells == 0) {
+        up--;
+      }
+      if (up < 0) {
+        return false;
+      }
+      depth = up;
+      Node node = path[up];
+      if (node.childIndex > 0) {
+        pushChild(node.childIndex - 1);
+        moveToLast();
+      } else {
+        moveToCell(node.numCells - 1);
+      }
+      return true;
+    }
+
+    @Override
+    public int seekToKeyInBlock(byte[] key, int offset, int length,
+        boolean seekBefore) {
+      int comp = seekToCeiling(key, offset, length);
+      if (comp > 0) {
+        // All the cells are before the key, we are on the last one
+        return 1;
+      }
+      if (comp == 0 && !seekBefore) {
+        return 0;
+      }
+      if (!previous() && comp == 0) {
+        // The caller (seekBefore) has to ensure that we are not at the
+        // first key in the block.
+        throw new IllegalStateException("Cannot seekBefore if " +
+            "positioned at the first key in the block: key=" +
+            Bytes.toStringBinary(key, offset, length));
+      }
+      return 1;
+    }
+
+    /**
+     * Moves to the first cell not before the given key, or to the last cell
+     * if there is none.
+     * @return 0 if the cell is the key, a negative number if it is after the
+     *         key, a positive number if the key is after all the cells
+     */
+    private int seekToCeiling(byte[] key, int offset, int length) {
+      int rowLength = Bytes.toShort(key, offset);
+      int rowOffset = offset + Bytes.SIZEOF_SHORT;
+      moveToRoot();
+      while (true) {
+        Node node = path[depth];
+        // The row before the node start matches already
+        for (int i = node.start; i < node.end; i++) {
+          if (i == rowLength) {
+            // The row of the key is a prefix of the rows under the node
+            moveToFirst();
+            return -1;
+          }
+          int diff = (key[rowOffset + i] & 0xff) -
+              (array[arrayOffset + node.tokenOffset + i - node.start] & 0xff);
+          if (diff < 0) {
+            moveToFirst();
+            return -1;
+          } else if (diff > 0) {
+            return moveAfterNode();
+          }
+        }
+
+        if (rowLength == node.end) {
+          // Same row, binary search the cells
+          int low = 0;
+          int high = node.numCells;
+          int comp = 1;
+          while (low < high) {
+            int mid = (low + high) >>> 1;
+            moveToCell(mid);
+            int midComp = compareToCurrentColumn(key, offset, length,
+                rowLength);
+            if (midComp > 0) {
+              low = mid + 1;
+            } else {
+              high = mid;
+              comp = midComp;
+            }
+          }
+          if (low < node.numCells) {
+            moveToCell(low);
+            return comp;
+          }
+          if (node.numChildren > 0) {
+            pushChild(0);
+            moveToFirst();
+            return -1;
+          }
+          return moveAfterNode();
+        }
+
+        // Binary search the children by the next byte of the row
+        int b = key[rowOffset + node.end] & 0xff;
+        int low = 0;
+        int high = node.numChildren;
+        while (low < high) {
+          int mid = (low + high) >>> 1;
+          if (getChildByte(node, mid) < b) {
+            low = mid + 1;
+          } else {
+            high = mid;
+          }
+        }
+        if (low == node.numChildren) {
+          return moveAfterNode();
+        }
+        pushChild(low);
+        if (getChildByte(node, low) != b) {
+          moveToFirst();
+          return -1;
+        }
+      }
+    }
+
+    /**
+     * Moves to the first cell after the ones under the current node, or to
+     * the last cell if there is none.
+     */
+    private int moveAfterNode() {
+      moveToLast();
+      return next() ? -1 : 1;
+    }
+
+    @Override
+    public int compareKey(RawComparator<byte[]> comparator, byte[] key,
+        int offset, int length) {
+      int rowLength = Bytes.toShort(key, offset);
+      int comp = Bytes.compareTo(key, offset + Bytes.SIZEOF_SHORT, rowLength,
+          row, 0, path[depth].end);
+      if (comp != 0) {
+        return comp;
+      }
+      return compareToCurrentColumn(key, offset, length, rowLength);
+    }
+
+    /**
+     * Compares the column, timestamp and type of the given key with the ones
+     * of the current cell the way the KeyComparator does. The rows have to
+     * be the same.
+     */
+    private int compareToCurrentColumn(byte[] key, int offset, int length,
+        int rowLength) {
+      int columnOffset = offset + Bytes.SIZEOF_SHORT + rowLength +
+          Bytes.SIZEOF_BYTE;
+      int columnLength = offset + length - KeyValue.TIMESTAMP_TYPE_SIZE -
+          columnOffset;
+      byte keyType = key[offset + length - 1];
+
+      // A key without column and of the minimum type is the last on its row
+      if (columnLength == 0 && keyType == KeyValue.Type.Minimum.getCode()) {
+        return 1;
+      }
+      if (familyLength + qualifierLength == 0 &&
+          type == KeyValue.Type.Minimum.getCode()) {
+        return -1;
+      }
+
+      // The column of the key against the family followed by the qualifier
+      int familyPart = Math.min(columnLength, familyLength);
+      int comp = Bytes.compareTo(key, columnOffset, familyPart,
+          array, arrayOffset + familyOffset, familyPart);
+      if (comp != 0) {
+        return comp;
+      }
+      if (columnLength < familyLength) {
+        return -1;
+      }
+      comp = Bytes.compareTo(key, columnOffset + familyLength,
+          columnLength - familyLength,
+          array, arrayOffset + qualifierOffset, qualifierLength);
+      if (comp != 0) {
+        return comp;
+      }
+
+      // Later timestamps first
+      long keyTimestamp = Bytes.toLong(key, offset + length -
+          KeyValue.TIMESTAMP_TYPE_SIZE);
+      if (keyTimestamp < timestamp) {
+        return 1;
+      } else if (keyTimestamp > timestamp) {
+        return -1;
+      }
+      return (0xff & type) - (0xff & keyType);
+    }
+
+    int getKeyLength() {
+      return KeyValue.ROW_LENGTH_SIZE + path[depth].end +
+          KeyValue.FAMILY_LENGTH_SIZE + familyLength + qualifierLength +
+          KeyValue.TIMESTAMP_TYPE_SIZE;
+    }
+
+    /** Writes the key of the current cell to the given buffer */
+    void writeKey(ByteBuffer out) {
+      out.putShort((short) path[depth].end);
+      out.put(row, 0, path[depth].end);
+      out.put((byte) familyLength);
+      out.put(array, arrayOffset + familyOffset, familyLength);
+      out.put(array, arrayOffset + qualifierOffset, qualifierLength);
+      out.putLong(timestamp);
+      out.put(type);
+    }
+
+    @Override
+    public ByteBuffer getKeyDeepCopy() {
+      ByteBuffer keyBuffer = ByteBuffer.allocate(getKeyLength());
+      writeKey(keyBuffer);
+      return keyBuffer;
+    }
+
+    @Override
+    public ByteBuffer getValueShallowCopy() {
+      return ByteBuffer.wrap(array, arrayOffset + valueOffset, valueLength);
+    }
+
+    @Override
+    public ByteBuffer getKeyValueBuffer() {
+      int keyLength = getKeyLength();
+      ByteBuffer kvBuffer = ByteBuffer.allocate(
+          2 * Bytes.SIZEOF_INT + keyLength + valueLength);
+      kvBuffer.putInt(keyLength);
+      kvBuffer.putInt(valueLength);
+      writeKey(kvBuffer);
+      kvBuffer.put(array, arrayOffset + valueOffset, valueLength);
+      return kvBuffer;
+    }
+
+    @Override
+    public KeyValue getKeyValue() {
+      ByteBuffer kvBuf = getKeyValueBuffer();
+      KeyValue kv = new KeyValue(kvBuf.array(), kvBuf.arrayOffset());
+      kv.setMemstoreTS(memstoreTS);
+      return kv;
+    }
+  }
+}
@@ -34,6 +34,8 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hbase.KeyValue.KeyComparator;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.encoding.PrefixTreeDataBlockEncoder;
 import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
 import org.apache.hadoop.hbase.regionserver.metrics.SchemaConfigured;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -127,6 +129,15 @@ public abstract class AbstractHFileWriter extends SchemaConfigured
         ? dataBlockEncoder : NoOpDataBlockEncoder.INSTANCE;
     this.comparator = comparator != null ? comparator
         : Bytes.BYTES_RAWCOMPARATOR;
+    if ((this.blockEncoder.getEncodingOnDisk() ==
+            DataBlockEncoding.PREFIX_TREE ||
+        this.blockEncoder.getEncodingInCache() ==
+            DataBlockEncoding.PREFIX_TREE) &&
+        !PrefixTreeDataBlockEncoder.supportsComparator(this.comparator)) {
+      throw new IllegalArgumentException("Prefix tree encoding does not " +
+          "support " + this.comparator.getClass().getName() + ", writing " +
+          name);
+    }
 
     closeOutputStream = path != null;
     this.cacheConf = cacheConf;
@@ -0,0 +1,729 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.LruBlockCache.CacheStats;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaConfigured;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.FSUtils;
+
+/**
+ * A second-level block cache that keeps serialized {@link HFileBlock}s outside
+ * of the Java heap, either in direct {@link ByteBuffer}s or in a
+ * memory-mapped file.<p>
+ *
+ * The backing storage is divided into buckets of equal capacity. A bucket is
+ * assigned to a slot size class the first time a block of that class needs
+ * room, and is then cut into fixed-size slots of that class. Every block is
+ * stored in a slot of the smallest class it fits in. Once all slots of a
+ * bucket are free again the bucket is handed back, so that it can be
+ * reassigned to a different size class.<p>
+ *
+ * Only the index (block key to bucket and slot) lives on the heap, which lets
+ * a region server cache tens of gigabytes without making GC pauses longer.
+ * Blocks are copied back onto the heap when they are read.<p>
+ *
+ * This cache is meant to be used as the victim cache of {@link LruBlockCache}:
+ * blocks evicted from the LRU are demoted here (see
+ * {@link LruBlockCache#setVictimCache(BucketCache)}), and LRU misses are looked
+ * up here before going to the file system.<p>
+ *
+ * When a size class runs out of slots, the least recently used blocks of that
+ * class are freed in one batch. Single-access blocks go first and in-memory
+ * blocks go last, as in {@link LruBlockCache}.
+ */
+public class BucketCache implements BlockCache, HeapSize {
+
+  static final Log LOG = LogFactory.getLog(BucketCache.class);
+
+  /** IO engine keeping buckets in direct byte buffers */
+  public static final String OFFHEAP_IO_ENGINE = "offheap";
+
+  /** Prefix of the IO engine keeping buckets in a memory-mapped file */
+  public static final String FILE_IO_ENGINE_PREFIX = "file:";
+
+  /**
+   * Default slot sizes. Each one is a bit larger than a common block size to
+   * leave room for the block header.
+   */
+  public static final int[] DEFAULT_SLOT_SIZES = new int[] {
+      5 * 1024, 9 * 1024, 17 * 1024, 33 * 1024, 41 * 1024, 49 * 1024,
+      57 * 1024, 65 * 1024, 97 * 1024, 129 * 1024, 193 * 1024, 257 * 1024,
+      385 * 1024, 513 * 1024 };
+
+  /** Number of slots of the largest size class that fit in one bucket */
+  static final int SLOTS_PER_LARGEST_BUCKET = 4;
+
+  /** Fraction of a size class freed when it runs out of slots */
+  static final float DEFAULT_FREE_FACTOR = 0.10f;
+
+  /** Number of locks protecting readers from slot reuse */
+  private static final int NUM_LOCKS = 256;
+
+  /** Slot sizes, in ascending order */
+  private final int[] slotSizes;
+
+  /** Capacity of every bucket, in bytes */
+  private final int bucketCapacity;
+
+  /** All buckets of this cache */
+  private final Bucket[] buckets;
+
+  /** Per slot size bookkeeping, indexed like {@link #slotSizes} */
+  private final SizeClass[] sizeClasses;
+
+  /** Buckets not assigned to any size class. Guarded by allocationLock. */
+  private final LinkedList<Bucket> freeBuckets = new LinkedList<Bucket>();
+
+  /** Guards bucket and slot assignment */
+  private final Object allocationLock = new Object();
+
+  /** Ensures only one thread frees space at a time */
+  private final ReentrantLock freeSpaceLock = new ReentrantLock();
+
+  /**
+   * Readers hold the read lock of a key while copying a block out of its
+   * slot, which is only released under the write lock.
+   */
+  private final ReentrantReadWriteLock[] keyLocks;
+
+  /** The on-heap index of the cache */
+  private final ConcurrentHashMap<BlockCacheKey, BucketEntry> map;
+
+  /** Open file when using the memory-mapped file engine, otherwise null */
+  private final RandomAccessFile mappedFile;
+
+  /** Bytes taken by occupied slots */
+  private final AtomicLong size = new AtomicLong(0);
+
+  /** Heap used by the index */
+  private final AtomicLong heapSize = new AtomicLong(0);
+
+  /** Cache access count (sequential ID) */
+  private final AtomicLong count = new AtomicLong(0);
+
+  /** Blocks we could not cache because they were too large or out of room */
+  private final AtomicLong failedInsertCount = new AtomicLong(0);
+
+  /** Cache statistics */
+  private final CacheStats stats = new CacheStats();
+
+  private final String ioEngine;
+
+  private final long capacity;
+
+  /**
+   * @param ioEngine {@link #OFFHEAP_IO_ENGINE}, or
+   *          {@link #FILE_IO_ENGINE_PREFIX} followed by the path of the file to
+   *          map
+   * @param capacity total size of the buckets, in bytes
+   * @param slotSizes the sizes of the slots blocks are stored in
+   * @throws IOException if the backing file cannot be created or mapped
+   */
+  public BucketCache(String ioEngine, long capacity, int[] slotSizes)
+      throws IOException {
+    this.slotSizes = slotSizes.clone();
+    Arrays.sort(this.slotSizes);
+    if (this.slotSizes.length == 0 || this.slotSizes[0] <= 0) {
+      throw new IllegalArgumentException("Invalid slot sizes: "
+          + Arrays.toString(slotSizes));
+    }
+    this.bucketCapacity = SLOTS_PER_LARGEST_BUCKET
+        * this.slotSizes[this.slotSizes.length - 1];
+    long numBuckets = capacity / bucketCapacity;
+    if (numBuckets <= 0 || numBuckets > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Bucket cache capacity " + capacity
+          + " is not valid for a bucket capacity of " + bucketCapacity);
+    }
+    this.ioEngine = ioEngine;
+    this.capacity = numBuckets * bucketCapacity;
+
+    this.buckets = new Bucket[(int) numBuckets];
+    if (ioEngine.startsWith(FILE_IO_ENGINE_PREFIX)) {
+      String path = ioEngine.substring(FILE_IO_ENGINE_PREFIX.length());
+      mappedFile = new RandomAccessFile(path, "rw");
+      mappedFile.setLength(this.capacity);
+      FileChannel channel = mappedFile.getChannel();
+      for (int i = 0; i < buckets.length; ++i) {
+        buckets[i] = new Bucket(channel.map(FileChannel.MapMode.READ_WRITE,
+            (long) i * bucketCapacity, bucketCapacity));
+      }
+    } else if (ioEngine.equals(OFFHEAP_IO_ENGINE)) {
+      mappedFile = null;
+      for (int i = 0; i < buckets.length; ++i) {
+        buckets[i] = new Bucket(ByteBuffer.allocateDirect(bucketCapacity));
+      }
+    } else {
+      throw new IllegalArgumentException("Unknown bucket cache IO engine: "
+          + ioEngine);
+    }
+    freeBuckets.addAll(Arrays.asList(buckets));
+
+    this.sizeClasses = new SizeClass[this.slotSizes.length];
+    for (int i = 0; i < sizeClasses.length; ++i) {
+      sizeClasses[i] = new SizeClass(this.slotSizes[i]);
+    }
+    this.keyLocks = new ReentrantReadWriteLock[NUM_LOCKS];
+    for (int i = 0; i < keyLocks.length; ++i) {
+      keyLocks[i] = new ReentrantReadWriteLock();
+    }
+    this.map = new ConcurrentHashMap<BlockCacheKey, BucketEntry>();
+
+    LOG.info("Allocated bucket cache: ioEngine=" + ioEngine + ", capacity="
+        + this.capacity + ", buckets=" + buckets.length + ", bucketCapacity="
+        + bucketCapacity + ", slotSizes=" + Arrays.toString(this.slotSizes));
+  }
+
+  /**
+   * Parses the slot sizes from a comma-separated list of byte counts.
+   * @param slotSizes the list, or null to use {@link #DEFAULT_SLOT_SIZES}
+   */
+  public static int[] parseSlotSizes(String[] slotSizes) {
+    if (slotSizes == null || slotSizes.length == 0) {
+      return DEFAULT_SLOT_SIZES;
+    }
+    int[] sizes = new int[slotSizes.length];
+    for (int i = 0; i < slotSizes.length; ++i) {
+      sizes[i] = Integer.parseInt(slotSizes[i].trim());
+    }
+    return sizes;
+  }
+
+  // BlockCache implementation
+
+  /**
+   * Cache the block with the specified key. Only {@link HFileBlock}s can be
+   * serialized, other blocks are silently ignored. A block that is already
+   * cached is left as it is.
+   */
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf,
+      boolean inMemory) {
+    if (!(buf instanceof HFileBlock) || map.containsKey(cacheKey)) {
+      return;
+    }
+    HFileBlock block = (HFileBlock) buf;
+    int len = block.getSerializedLength();
+    int sizeClass = getSizeClass(len);
+    if (sizeClass < 0) {
+      failedInsertCount.incrementAndGet();
+      return;
+    }
+
+    BucketEntry entry = allocate(sizeClass, len);
+    if (entry == null) {
+      freeSpace(sizeClass);
+      entry = allocate(sizeClass, len);
+      if (entry == null) {
+        failedInsertCount.incrementAndGet();
+        return;
+      }
+    }
+
+    block.serialize(entry.getSlotBuffer());
+    entry.schema = block.getSchemaMetrics() == null ? null :
+        new SchemaConfigured(block);
+    entry.priority = inMemory ? BlockPriority.MEMORY : BlockPriority.SINGLE;
+    entry.accessTime = count.incrementAndGet();
+
+    ReentrantReadWriteLock lock = getLock(cacheKey);
+    lock.writeLock().lock();
+    try {
+      if (map.putIfAbsent(cacheKey, entry) != null) {
+        // Lost a race with another thread caching the same block.
+        freeSlot(entry);
+        return;
+      }
+      size.addAndGet(entry.getSlotSize());
+      heapSize.addAndGet(entryHeapSize(cacheKey));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    cacheBlock(cacheKey, buf, false);
+  }
+
+  @Override
+  public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching) {
+    boolean corrupt = false;
+    ReentrantReadWriteLock lock = getLock(cacheKey);
+    lock.readLock().lock();
+    try {
+      BucketEntry entry = map.get(cacheKey);
+      if (entry != null) {
+        HFileBlock block = HFileBlock.deserialize(entry.getSlotBuffer());
+        if (entry.schema != null) {
+          entry.schema.passSchemaMetricsTo(block);
+        }
+        entry.access(count.incrementAndGet());
+        stats.hit(caching);
+        return block;
+      }
+    } catch (IOException ioe) {
+      LOG.error("Could not read block " + cacheKey + " from bucket cache", ioe);
+      corrupt = true;
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (corrupt) {
+      evictBlock(cacheKey);
+    }
+    stats.miss(caching);
+    return null;
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    BucketEntry entry;
+    ReentrantReadWriteLock lock = getLock(cacheKey);
+    lock.writeLock().lock();
+    try {
+      entry = map.remove(cacheKey);
+      if (entry == null) {
+        return false;
+      }
+      size.addAndGet(-entry.getSlotSize());
+      heapSize.addAndGet(-entryHeapSize(cacheKey));
+      freeSlot(entry);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    stats.evicted(entry.priority);
+    return true;
+  }
+
+  /**
+   * Evicts all blocks of the given file right away.
+   * @return the number of blocks evicted
+   */
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    int numEvicted = 0;
+    for (BlockCacheKey cacheKey : map.keySet()) {
+      if (cacheKey.getHfileName().equals(hfileName) && evictBlock(cacheKey)) {
+        numEvicted++;
+      }
+    }
+    return numEvicted;
+  }
+
+  // Slot allocation
+
+  /**
+   * @return the index of the smallest size class that fits a block of the
+   *         given length, or -1 if the block is too large
+   */
+  int getSizeClass(int len) {
+    for (int i = 0; i < slotSizes.length; ++i) {
+      if (slotSizes[i] >= len) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Takes a free slot of the given size class, assigning a free bucket to the
+   * class if needed.
+   * @return the entry describing the slot, or null if there is no room
+   */
+  private BucketEntry allocate(int sizeClass, int len) {
+    synchronized (allocationLock) {
+      SizeClass sc = sizeClasses[sizeClass];
+      Bucket bucket = sc.notFullBuckets.peek();
+      if (bucket == null) {
+        bucket = freeBuckets.poll();
+        if (bucket == null) {
+          return null;
+        }
+        bucket.assign(sizeClass, sc.slotSize);
+        sc.notFullBuckets.add(bucket);
+        sc.bucketCount++;
+      }
+      int slot = bucket.allocateSlot();
+      if (bucket.isFull()) {
+        sc.notFullBuckets.poll();
+      }
+      sc.usedSlots++;
+      return new BucketEntry(bucket, slot, len);
+    }
+  }
+
+  /**
+   * Returns the slot of the given entry, and its bucket if it is now empty.
+   */
+  private void freeSlot(BucketEntry entry) {
+    synchronized (allocationLock) {
+      Bucket bucket = entry.bucket;
+      SizeClass sc = sizeClasses[bucket.sizeClass];
+      boolean wasFull = bucket.isFull();
+      bucket.freeSlot(entry.slot);
+      sc.usedSlots--;
+      if (bucket.isEmpty()) {
+        if (!wasFull) {
+          sc.notFullBuckets.remove(bucket);
+        }
+        sc.bucketCount--;
+        bucket.unassign();
+        freeBuckets.add(bucket);
+      } else if (wasFull) {
+        sc.notFullBuckets.add(bucket);
+      }
+    }
+  }
+
+  /**
+   * Frees room for blocks of the given size class. If the class holds blocks,
+   * its least recently used ones are evicted. Otherwise all blocks of the
+   * emptiest bucket are evicted so that the bucket can be reassigned.
+   */
+  private void freeSpace(int sizeClass) {
+    // Another thread is already freeing space, let it do the work.
+    if (!freeSpaceLock.tryLock()) return;
+    try {
+      long usedSlots;
+      synchronized (allocationLock) {
+        usedSlots = sizeClasses[sizeClass].usedSlots;
+      }
+      long bytesFreed = 0;
+      if (usedSlots > 0) {
+        int toFree = (int) Math.max(1,
+            Math.min(Integer.MAX_VALUE - 1, usedSlots * DEFAULT_FREE_FACTOR));
+        // Keep the toFree best eviction candidates, worst candidate on top.
+        PriorityQueue<Map.Entry<BlockCacheKey, BucketEntry>> candidates =
+            new PriorityQueue<Map.Entry<BlockCacheKey, BucketEntry>>(
+                toFree + 1, Collections.reverseOrder(EVICTION_ORDER));
+        for (Map.Entry<BlockCacheKey, BucketEntry> e : map.entrySet()) {
+          if (e.getValue().sizeClass != sizeClass) continue;
+          candidates.add(e);
+          if (candidates.size() > toFree) {
+            candidates.poll();
+          }
+        }
+        for (Map.Entry<BlockCacheKey, BucketEntry> e : candidates) {
+          if (evictBlock(e.getKey())) {
+            bytesFreed += e.getValue().getSlotSize();
+          }
+        }
+      } else {
+        Bucket victim = null;
+        synchronized (allocationLock) {
+          for (Bucket bucket : buckets) {
+            if (bucket.sizeClass >= 0 && (victim == null
+                || bucket.usedSlots() < victim.usedSlots())) {
+              victim = bucket;
+            }
+          }
+        }
+        if (victim != null) {
+          for (Map.Entry<BlockCacheKey, BucketEntry> e : map.entrySet()) {
+            if (e.getValue().bucket == victim && evictBlock(e.getKey())) {
+              bytesFreed += e.getValue().getSlotSize();
+            }
+          }
+        }
+      }
+      stats.evict();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Bucket cache freed " + bytesFreed + " bytes for slot size "
+            + slotSizes[sizeClass]);
+      }
+    } finally {
+      freeSpaceLock.unlock();
+    }
+  }
+
+  /** Orders entries from the first to the last to be evicted */
+  private static final Comparator<Map.Entry<BlockCacheKey, BucketEntry>>
+      EVICTION_ORDER = new Comparator<Map.Entry<BlockCacheKey, BucketEntry>>() {
+    @Override
+    public int compare(Map.Entry<BlockCacheKey, BucketEntry> a,
+        Map.Entry<BlockCacheKey, BucketEntry> b) {
+      BucketEntry ea = a.getValue();
+      BucketEntry eb = b.getValue();
+      int cmp = ea.priority.compareTo(eb.priority);
+      if (cmp != 0) return cmp;
+      if (ea.accessTime == eb.accessTime) return 0;
+      return ea.accessTime < eb.accessTime ? -1 : 1;
+    }
+  };
+
+  private ReentrantReadWriteLock getLock(BlockCacheKey cacheKey) {
+    return keyLocks[(cacheKey.hashCode() & 0x7fffffff) % keyLocks.length];
+  }
+
+  private static long entryHeapSize(BlockCacheKey cacheKey) {
+    return ClassSize.align(cacheKey.heapSize()) + BucketEntry.HEAP_SIZE
+        + ClassSize.CONCURRENT_HASHMAP_ENTRY;
+  }
+
+  /**
+   * A fixed-size region of the backing storage. Once assigned to a size class
+   * it is cut into slots of that class.
+   */
+  private static final class Bucket {
+    private final ByteBuffer buffer;
+    private int sizeClass = -1;
+    private int slotSize;
+    private int slotCount;
+    /** Stack of free slot indexes, the first freeCount are valid */
+    private int[] freeSlots;
+    private int freeCount;
+
+    Bucket(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    void assign(int sizeClass, int slotSize) {
+      this.sizeClass = sizeClass;
+      this.slotSize = slotSize;
+      this.slotCount = buffer.capacity() / slotSize;
+      this.freeSlots = new int[slotCount];
+      for (int i = 0; i < slotCount; ++i) {
+        freeSlots[i] = slotCount - 1 - i;
+      }
+      this.freeCount = slotCount;
+    }
+
+    void unassign() {
+      this.sizeClass = -1;
+      this.freeSlots = null;
+      this.slotCount = 0;
+      this.freeCount = 0;
+    }
+
+    int allocateSlot() {
+      return freeSlots[--freeCount];
+    }
+
+    void freeSlot(int slot) {
+      freeSlots[freeCount++] = slot;
+    }
+
+    boolean isFull() {
+      return freeCount == 0;
+    }
+
+    boolean isEmpty() {
+      return freeCount == slotCount;
+    }
+
+    int usedSlots() {
+      return slotCount - freeCount;
+    }
+  }
+
+  /** Bookkeeping of all buckets assigned to one slot size */
+  private static final class SizeClass {
+    private final int slotSize;
+    private final LinkedList<Bucket> notFullBuckets = new LinkedList<Bucket>();
+    private int bucketCount;
+    private long usedSlots;
+
+    SizeClass(int slotSize) {
+      this.slotSize = slotSize;
+    }
+  }
+
+  /** The on-heap location of a cached block */
+  private static final class BucketEntry {
+    static final long HEAP_SIZE = ClassSize.align(ClassSize.OBJECT
+        + 3 * ClassSize.REFERENCE + 4 * Bytes.SIZEOF_INT
+        + Bytes.SIZEOF_LONG);
+
+    private final Bucket bucket;
+    private final int slot;
+    private final int length;
+    private final int sizeClass;
+    private final int slotSize;
+    private volatile long accessTime;
+    private volatile BlockPriority priority;
+    private SchemaConfigured schema;
+
+    BucketEntry(Bucket bucket, int slot, int length) {
+      this.bucket = bucket;
+      this.slot = slot;
+      this.length = length;
+      this.sizeClass = bucket.sizeClass;
+      this.slotSize = bucket.slotSize;
+    }
+
+    int getSlotSize() {
+      return slotSize;
+    }
+
+    /** @return a view of the slot limited to the serialized block */
+    ByteBuffer getSlotBuffer() {
+      ByteBuffer slotBuf = bucket.buffer.duplicate();
+      slotBuf.position(slot * slotSize);
+      slotBuf.limit(slot * slotSize + length);
+      return slotBuf;
+    }
+
+    void access(long accessTime) {
+      this.accessTime = accessTime;
+      if (this.priority == BlockPriority.SINGLE) {
+        this.priority = BlockPriority.MULTI;
+      }
+    }
+  }
+
+  // Statistics and sizes
+
+  @Override
+  public CacheStats getStats() {
+    return stats;
+  }
+
+  /** @return the number of blocks that were too large or found no room */
+  public long getFailedInsertCount() {
+    return failedInsertCount.get();
+  }
+
+  /** @return the total capacity of the buckets, in bytes */
+  public long getMaxSize() {
+    return capacity;
+  }
+
+  @Override
+  public long size() {
+    return map.size();
+  }
+
+  @Override
+  public long getFreeSize() {
+    return capacity - size.get();
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return size.get();
+  }
+
+  @Override
+  public long getEvictedCount() {
+    return stats.getEvictedCount();
+  }
+
+  @Override
+  public long getBlockCount() {
+    return map.size();
+  }
+
+  /** @return the heap used by the index of this cache */
+  @Override
+  public long heapSize() {
+    return heapSize.get();
+  }
+
+  public void logStats() {
+    long usedSize = getCurrentSize();
+    float usedMB = ((float) usedSize) / ((float) (1024 * 1024));
+    float maxMB = ((float) capacity) / ((float) (1024 * 1024));
+    LOG.debug("Bucket Cache Stats: Sizes: " +
+        "Used=" + usedMB + "MB (" + usedSize + "), " +
+        "Max=" + maxMB + "MB (" + capacity + "), " +
+        "Index heap=" + heapSize() +
+      ", Counts: " +
+        "Blocks=" + size() + ", " +
+        "Access=" + stats.getRequestCount() + ", " +
+        "Hit=" + stats.getHitCount() + ", " +
+        "Miss=" + stats.getMissCount() + ", " +
+        "Evictions=" + stats.getEvictionCount() + ", " +
+        "Evicted=" + stats.getEvictedCount() + ", " +
+        "FailedInserts=" + getFailedInsertCount() +
+      ", Ratios: " +
+        "Hit Ratio=" + stats.getHitRatio() * 100 + "%");
+  }
+
+  @Override
+  public List<BlockCacheColumnFamilySummary> getBlockCacheColumnFamilySummaries(
+      Configuration conf) throws IOException {
+    Map<String, Path> sfMap = FSUtils.getTableStoreFilePathMap(
+        FileSystem.get(conf), FSUtils.getRootDir(conf));
+
+    Map<BlockCacheColumnFamilySummary, BlockCacheColumnFamilySummary> bcs =
+      new HashMap<BlockCacheColumnFamilySummary, BlockCacheColumnFamilySummary>();
+
+    for (Map.Entry<BlockCacheKey, BucketEntry> e : map.entrySet()) {
+      Path path = sfMap.get(e.getKey().getHfileName());
+      if (path != null) {
+        BlockCacheColumnFamilySummary lookup =
+          BlockCacheColumnFamilySummary.createFromStoreFilePath(path);
+        BlockCacheColumnFamilySummary bcse = bcs.get(lookup);
+        if (bcse == null) {
+          bcse = BlockCacheColumnFamilySummary.create(lookup);
+          bcs.put(lookup, bcse);
+        }
+        bcse.incrementBlocks();
+        bcse.incrementHeapSize(e.getValue().getSlotSize());
+      }
+    }
+    List<BlockCacheColumnFamilySummary> list =
+        new ArrayList<BlockCacheColumnFamilySummary>(bcs.values());
+    Collections.sort(list);
+    return list;
+  }
+
+  @Override
+  public void shutdown() {
+    if (mappedFile != null) {
+      try {
+        mappedFile.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close bucket cache file " + ioEngine, e);
+      }
+    }
+  }
+
+  /** Clears the cache. Used in tests. */
+  @Override
+  public void clearCache() {
+    for (BlockCacheKey cacheKey : map.keySet()) {
+      evictBlock(cacheKey);
+    }
+  }
+}
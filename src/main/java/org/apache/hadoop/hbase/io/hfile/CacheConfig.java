@@ -16,6 +16,7 @@
  */
 package org.apache.hadoop.hbase.io.hfile;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryUsage;
 
@@ -68,6 +69,28 @@ public class CacheConfig {
   public static final String EVICT_BLOCKS_ON_CLOSE_KEY =
       "hbase.rs.evictblocksonclose";
 
+  /**
+   * Configuration key for the size of the off-heap second-level
+   * {@link BucketCache}, in megabytes. The bucket cache is disabled if zero.
+   */
+  public static final String BUCKET_CACHE_SIZE_KEY = "hbase.rs.bucketcache.size";
+
+  /**
+   * Configuration key for where the bucket cache keeps its blocks: either
+   * {@link BucketCache#OFFHEAP_IO_ENGINE} or
+   * {@link BucketCache#FILE_IO_ENGINE_PREFIX} followed by the path of a file
+   * to memory-map.
+   */
+  public static final String BUCKET_CACHE_IOENGINE_KEY =
+      "hbase.rs.bucketcache.ioengine";
+
+  /**
+   * Configuration key for the comma-separated slot sizes of the bucket cache,
+   * in bytes.
+   */
+  public static final String BUCKET_CACHE_SLOT_SIZES_KEY =
+      "hbase.rs.bucketcache.slotsizes";
+
   // Defaults
 
   public static final boolean DEFAULT_CACHE_DATA_ON_READ = true;
@@ -77,6 +100,7 @@ public class CacheConfig {
   public static final boolean DEFAULT_CACHE_BLOOMS_ON_WRITE = false;
   public static final boolean DEFAULT_EVICT_ON_CLOSE = false;
   public static final boolean DEFAULT_COMPRESSED_CACHE = false;
+  public static final long DEFAULT_BUCKET_CACHE_SIZE = 0;
 
   /** Local reference to the block cache, null if completely disabled */
   private final BlockCache blockCache;
@@ -339,8 +363,26 @@ public class CacheConfig {
     long cacheSize = (long)(mu.getMax() * cachePercentage);
     LOG.info("Allocating LruBlockCache with maximum size " +
       StringUtils.humanReadableInt(cacheSize));
-    globalBlockCache = new LruBlockCache(cacheSize,
-        StoreFile.DEFAULT_BLOCKSIZE_SMALL);
+    LruBlockCache lruCache = new LruBlockCache(cacheSize,
+        StoreFile.DEFAULT_BLOCKSIZE_SMALL, conf);
+
+    long bucketCacheSize = conf.getLong(BUCKET_CACHE_SIZE_KEY,
+        DEFAULT_BUCKET_CACHE_SIZE) * 1024 * 1024;
+    if (bucketCacheSize > 0) {
+      String ioEngine = conf.get(BUCKET_CACHE_IOENGINE_KEY,
+          BucketCache.OFFHEAP_IO_ENGINE);
+      LOG.info("Allocating BucketCache with maximum size " +
+        StringUtils.humanReadableInt(bucketCacheSize) + " using " + ioEngine);
+      try {
+        lruCache.setVictimCache(new BucketCache(ioEngine, bucketCacheSize,
+            BucketCache.parseSlotSizes(
+                conf.getStrings(BUCKET_CACHE_SLOT_SIZES_KEY))));
+      } catch (IOException ioe) {
+        LOG.error("Could not allocate BucketCache, only using LruBlockCache",
+            ioe);
+      }
+    }
+    globalBlockCache = lruCache;
     return globalBlockCache;
   }
 }
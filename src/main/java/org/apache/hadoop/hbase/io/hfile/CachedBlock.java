@@ -34,8 +34,8 @@ import org.apache.hadoop.hbase.util.ClassSize;
 public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
 
   public final static long PER_BLOCK_OVERHEAD = ClassSize.align(
-    ClassSize.OBJECT + (3 * ClassSize.REFERENCE) + 3 * Bytes.SIZEOF_LONG +
-    ClassSize.STRING + ClassSize.BYTE_BUFFER);
+    ClassSize.OBJECT + (4 * ClassSize.REFERENCE) + 3 * Bytes.SIZEOF_LONG +
+    Bytes.SIZEOF_BOOLEAN + ClassSize.STRING + ClassSize.BYTE_BUFFER);
 
   static enum BlockPriority {
     /**
@@ -58,6 +58,11 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
   private long size;
   private long unencodedSize;
   private BlockPriority priority;
+  // Set on access, cleared by the striped eviction of the LruBlockCache
+  private volatile boolean referenced = false;
+  // The striped eviction queue this block is counted in, null once it is
+  // taken out or evicted. Guarded by the lock of the eviction segment.
+  private BlockPriority queuedPriority = null;
 
   public CachedBlock(BlockCacheKey cacheKey, Cacheable buf, long accessTime,
       boolean inMemory) {
@@ -90,6 +95,29 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
     if(this.priority == BlockPriority.SINGLE) {
       this.priority = BlockPriority.MULTI;
     }
+    if(!this.referenced) {
+      this.referenced = true;
+    }
+  }
+
+  /**
+   * Clears the flag set by {@link #access(long)}.
+   * @return true if the block was accessed since the flag was last cleared
+   */
+  boolean clearReferenced() {
+    if(!this.referenced) {
+      return false;
+    }
+    this.referenced = false;
+    return true;
+  }
+
+  BlockPriority getQueuedPriority() {
+    return this.queuedPriority;
+  }
+
+  void setQueuedPriority(BlockPriority queuedPriority) {
+    this.queuedPriority = queuedPriority;
   }
 
   public long heapSize() {
@@ -43,6 +43,11 @@ import com.google.common.io.NullOutputStream;
  * variable parts of the file. Also includes basic metadata on this file. The
  * trailer size is fixed within a given {@link HFile} format version only, but
  * we always store the version number as the last four-byte integer of the file.
+ * <p>
+ * From version 2 onwards, the highest byte of that integer holds the minor
+ * version of the format, which does not change the trailer. Minor version
+ * {@link HFileBlock#MINOR_VERSION_WITH_CHECKSUM} files end every block with a
+ * checksum. Readers which do not know about minor versions refuse these files.
  */
 public class FixedFileTrailer {
 
@@ -109,9 +114,31 @@ public class FixedFileTrailer {
   /** The {@link HFile} format version. */
   private final int version;
 
+  /** The {@link HFile} format minor version. */
+  private final int minorVersion;
+
   FixedFileTrailer(int version) {
+    this(version, HFileBlock.MINOR_VERSION_NO_CHECKSUM);
+  }
+
+  FixedFileTrailer(int version, int minorVersion) {
     this.version = version;
+    this.minorVersion = minorVersion;
     HFile.checkFormatVersion(version);
+    if (minorVersion != HFileBlock.MINOR_VERSION_NO_CHECKSUM &&
+        (version < 2 || minorVersion < 0 ||
+         minorVersion > HFileBlock.MINOR_VERSION_WITH_CHECKSUM)) {
+      throw new IllegalArgumentException("Invalid HFile minor version "
+          + minorVersion + " for version " + version);
+    }
+  }
+
+  /**
+   * @return the version and the minor version packed in the last integer of
+   *         the file
+   */
+  private static int materializeVersion(int version, int minorVersion) {
+    return version | (minorVersion << 24);
   }
 
   private static int[] computeTrailerSizeByVersion() {
@@ -195,7 +222,7 @@ public class FixedFileTrailer {
       Bytes.writeStringFixedSize(baosDos, comparatorClassName,
           MAX_COMPARATOR_NAME_LENGTH);
     }
-    baosDos.writeInt(version);
+    baosDos.writeInt(materializeVersion(version, minorVersion));
 
     outputStream.write(baos.toByteArray());
   }
@@ -237,9 +264,9 @@ public class FixedFileTrailer {
     }
 
     int versionRead = inputStream.readInt();
-    if (versionRead != version) {
-      throw new IOException("Version provided=" + version + ", read="
-          + versionRead);
+    if (versionRead != materializeVersion(version, minorVersion)) {
+      throw new IOException("Version provided=" + version + ", minor version "
+          + "provided=" + minorVersion + ", read=" + versionRead);
     }
   }
 
@@ -267,6 +294,9 @@ public class FixedFileTrailer {
       append(sb, "comparatorClassName=" + comparatorClassName);
     }
     append(sb, "version=" + version);
+    if (minorVersion != HFileBlock.MINOR_VERSION_NO_CHECKSUM) {
+      append(sb, "minorVersion=" + minorVersion);
+    }
 
     return sb.toString();
   }
@@ -301,10 +331,14 @@ public class FixedFileTrailer {
 
     // Read the version from the last int of the file.
     buf.position(buf.limit() - Bytes.SIZEOF_INT);
-    int version = buf.getInt();
+    int materializedVersion = buf.getInt();
+    int version = materializedVersion & 0x00ffffff;
+    int minorVersion = materializedVersion >>> 24;
 
+    FixedFileTrailer fft;
     try {
       HFile.checkFormatVersion(version);
+      fft = new FixedFileTrailer(version, minorVersion);
     } catch (IllegalArgumentException iae) {
       // In this context, an invalid version might indicate a corrupt HFile.
       throw new IOException(iae);
@@ -312,7 +346,6 @@ public class FixedFileTrailer {
 
     int trailerSize = getTrailerSize(version);
 
-    FixedFileTrailer fft = new FixedFileTrailer(version);
     fft.deserialize(new DataInputStream(new ByteArrayInputStream(buf.array(),
         buf.arrayOffset() + bufferSize - trailerSize, trailerSize)));
     return fft;
@@ -431,6 +464,10 @@ public class FixedFileTrailer {
     return version;
   }
 
+  public int getMinorVersion() {
+    return minorVersion;
+  }
+
   @SuppressWarnings("rawtypes")
   public void setComparatorClass(Class<? extends RawComparator> klass) {
     expectAtLeastVersion(2);
@@ -23,10 +23,12 @@ import java.io.Closeable;
 import java.io.DataInput;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -51,6 +53,7 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.FSUtils;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
 
 import com.google.common.base.Preconditions;
 
@@ -342,6 +345,30 @@ public class HFile {
   /** The configuration key for HFile version to use for new files */
   public static final String FORMAT_VERSION_KEY = "hfile.format.version";
 
+  /**
+   * The configuration key for ending every block of new version 2 files with
+   * a checksum
+   */
+  public static final String BLOCK_CHECKSUM_KEY = "hfile.block.checksum";
+
+  public static final boolean DEFAULT_BLOCK_CHECKSUM = false;
+
+  /**
+   * The configuration key for reading files with block checksums without
+   * HDFS checksum verification, and verifying the block checksums instead
+   */
+  public static final String VERIFY_BLOCK_CHECKSUM_KEY =
+      "hfile.block.checksum.verify";
+
+  public static final boolean DEFAULT_VERIFY_BLOCK_CHECKSUM = true;
+
+  /**
+   * File systems which do not verify HDFS checksums, by the file system
+   * reading the same files with checksums
+   */
+  private static final Map<FileSystem, FileSystem> noChecksumFileSystems =
+      new WeakHashMap<FileSystem, FileSystem>();
+
   public static int getFormatVersion(Configuration conf) {
     int version = conf.getInt(FORMAT_VERSION_KEY, MAX_FORMAT_VERSION);
     checkFormatVersion(version);
@@ -454,8 +481,12 @@ public class HFile {
     DataBlockEncoding getEncodingOnDisk();
   }
 
+  /**
+   * @param fs the file system the file was opened from, used to open it again
+   *          without HDFS checksums if its blocks have checksums. May be null.
+   */
   private static Reader pickReaderVersion(Path path, FSDataInputStream fsdis,
-      long size, boolean closeIStream, CacheConfig cacheConf,
+      FileSystem fs, long size, boolean closeIStream, CacheConfig cacheConf,
       DataBlockEncoding preferredEncodingInCache)
       throws IOException {
     FixedFileTrailer trailer = FixedFileTrailer.readFromStream(fsdis, size);
@@ -464,19 +495,62 @@ public class HFile {
       return new HFileReaderV1(path, trailer, fsdis, size, closeIStream,
           cacheConf);
     case 2:
-      return new HFileReaderV2(path, trailer, fsdis, size, closeIStream,
-          cacheConf, preferredEncodingInCache);
+      FSDataInputStream fsdisNoFsChecksum = null;
+      if (fs != null && trailer.getMinorVersion() >=
+            HFileBlock.MINOR_VERSION_WITH_CHECKSUM &&
+          fs.getConf().getBoolean(VERIFY_BLOCK_CHECKSUM_KEY,
+            DEFAULT_VERIFY_BLOCK_CHECKSUM)) {
+        fsdisNoFsChecksum = openWithoutFsChecksum(fs, path);
+      }
+      return new HFileReaderV2(path, trailer, fsdis, fsdisNoFsChecksum, size,
+          closeIStream, cacheConf, preferredEncodingInCache);
     default:
       throw new IOException("Cannot instantiate reader for HFile version " +
           trailer.getVersion());
     }
   }
 
+  /**
+   * Opens a file without HDFS checksum verification. Only meant for files
+   * whose blocks have checksums of their own.
+   *
+   * @return the stream, or null if the file could not be opened this way
+   */
+  static FSDataInputStream openWithoutFsChecksum(FileSystem fs, Path path) {
+    try {
+      FileSystem noChecksumFs;
+      synchronized (noChecksumFileSystems) {
+        noChecksumFs = noChecksumFileSystems.get(fs);
+        if (noChecksumFs == null) {
+          // FileSystem.get returns an instance shared with the whole process,
+          // so create one of our own to turn checksum verification off.
+          Configuration conf = fs.getConf();
+          URI uri = fs.getUri();
+          Class<?> clazz = conf.getClass("fs." + uri.getScheme() + ".impl",
+              null);
+          if (clazz == null) {
+            throw new IOException("No FileSystem for scheme: "
+                + uri.getScheme());
+          }
+          noChecksumFs = (FileSystem) ReflectionUtils.newInstance(clazz, conf);
+          noChecksumFs.initialize(uri, conf);
+          noChecksumFs.setVerifyChecksum(false);
+          noChecksumFileSystems.put(fs, noChecksumFs);
+        }
+      }
+      return noChecksumFs.open(path);
+    } catch (IOException e) {
+      LOG.warn("Could not open " + path + " without HDFS checksums, "
+          + "reading it with them", e);
+      return null;
+    }
+  }
+
   public static Reader createReaderWithEncoding(
       FileSystem fs, Path path, CacheConfig cacheConf,
       DataBlockEncoding preferredEncodingInCache) throws IOException {
     final boolean closeIStream = true;
-    return pickReaderVersion(path, fs.open(path),
+    return pickReaderVersion(path, fs.open(path), fs,
         fs.getFileStatus(path).getLen(), closeIStream, cacheConf,
         preferredEncodingInCache);
   }
@@ -491,7 +565,7 @@ public class HFile {
       FSDataInputStream fsdis, long size, CacheConfig cacheConf)
       throws IOException {
     final boolean closeIStream = false;
-    return pickReaderVersion(path, fsdis, size, closeIStream, cacheConf,
+    return pickReaderVersion(path, fsdis, null, size, closeIStream, cacheConf,
         DataBlockEncoding.NONE);
   }
 
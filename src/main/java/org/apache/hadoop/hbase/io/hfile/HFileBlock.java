@@ -32,7 +32,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoder;
@@ -77,8 +80,18 @@ import com.google.common.base.Preconditions;
  * </ul>
  * The version 2 block representation in the block cache is the same as above,
  * except that the data section is always uncompressed in the cache.
+ * <p>
+ * Starting with minor version {@link #MINOR_VERSION_WITH_CHECKSUM} of the
+ * version 2 format, every block ends with a CRC32 checksum
+ * ({@link #CHECKSUM_SIZE} bytes) of its header and on-disk data. The checksum
+ * is counted in the on-disk size of the block, so block offsets and the
+ * block index work the same way with and without checksums. This lets the
+ * reader verify blocks itself and read them without the HDFS checksums,
+ * which are stored in a separate file and cost an extra disk seek for every
+ * random read. The checksum is not part of the block in the cache.
  */
 public class HFileBlock extends SchemaConfigured implements Cacheable {
+  private static final Log LOG = LogFactory.getLog(HFileBlock.class);
 
   public static final boolean FILL_HEADER = true;
   public static final boolean DONT_FILL_HEADER = false;
@@ -90,12 +103,22 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
   /** Just an array of bytes of the right size. */
   public static final byte[] DUMMY_HEADER = new byte[HEADER_SIZE];
 
+  /** The minor version of files whose blocks have no checksum */
+  public static final int MINOR_VERSION_NO_CHECKSUM = 0;
+
+  /** The minor version of files whose blocks end with a checksum */
+  public static final int MINOR_VERSION_WITH_CHECKSUM = 1;
+
+  /** The size of the checksum at the end of a block, if any */
+  public static final int CHECKSUM_SIZE = Bytes.SIZEOF_INT;
+
   public static final int BYTE_BUFFER_HEAP_SIZE = (int) ClassSize.estimateBase(
       ByteBuffer.wrap(new byte[0], 0, 0).getClass(), false);
 
   // Static counters
   private static final AtomicLong numSeekRead = new AtomicLong();
   private static final AtomicLong numPositionalRead = new AtomicLong();
+  private static final AtomicLong numChecksumFailures = new AtomicLong();
 
   private static final int HFILE_BLOCK_OVERHEAD = ClassSize.align(
       // Base class size, including object overhead.
@@ -318,9 +341,10 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
     }
 
     // We might optionally allocate a few more bytes to read the next block's
-    // header.
-    assert buf.capacity() == uncompressedSizeWithoutHeader + HEADER_SIZE ||
-           buf.capacity() == uncompressedSizeWithoutHeader + 2 * HEADER_SIZE;
+    // header, and the checksum of an uncompressed block.
+    int capacity = buf.capacity() - uncompressedSizeWithoutHeader;
+    assert capacity == HEADER_SIZE || capacity == 2 * HEADER_SIZE ||
+           capacity == 2 * HEADER_SIZE + CHECKSUM_SIZE;
   }
 
   @Override
@@ -376,10 +400,21 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
 
   /** An additional sanity-check in case no compression is being used. */
   public void assumeUncompressed() throws IOException {
-    if (onDiskSizeWithoutHeader != uncompressedSizeWithoutHeader) {
+    assumeUncompressed(0);
+  }
+
+  /**
+   * An additional sanity-check in case no compression is being used.
+   *
+   * @param checksumSize the size of the checksum counted in the on-disk size
+   */
+  void assumeUncompressed(int checksumSize) throws IOException {
+    if (onDiskSizeWithoutHeader !=
+        uncompressedSizeWithoutHeader + checksumSize) {
       throw new IOException("Using no compression but "
           + "onDiskSizeWithoutHeader=" + onDiskSizeWithoutHeader + ", "
-          + "uncompressedSizeWithoutHeader=" + uncompressedSizeWithoutHeader);
+          + "uncompressedSizeWithoutHeader=" + uncompressedSizeWithoutHeader
+          + ", checksumSize=" + checksumSize);
     }
   }
 
@@ -494,6 +529,62 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
     return buf.heapSize();
   }
 
+  /**
+   * Space used after the header and data when a block is serialized by
+   * {@link #serialize(ByteBuffer)}: file offset, next block's on-disk size and
+   * the "include memstore timestamp" flag.
+   */
+  public static final int EXTRA_SERIALIZATION_SPACE = Bytes.SIZEOF_LONG
+      + Bytes.SIZEOF_INT + Bytes.SIZEOF_BOOLEAN;
+
+  /**
+   * @return the number of bytes {@link #serialize(ByteBuffer)} writes for
+   *         this block
+   */
+  public int getSerializedLength() {
+    return buf.limit() + EXTRA_SERIALIZATION_SPACE;
+  }
+
+  /**
+   * Serializes this block, header included, into the given buffer starting at
+   * its current position, e.g. to move it into an off-heap cache. The extra
+   * bytes reserved for peeking at the next block's header are not written.
+   *
+   * @param destination the buffer to write to, must have at least
+   *          {@link #getSerializedLength()} bytes remaining
+   */
+  public void serialize(ByteBuffer destination) {
+    destination.put(getBufferWithHeader());
+    destination.putLong(offset);
+    destination.putInt(nextBlockOnDiskSizeWithHeader);
+    destination.put(includesMemstoreTS ? (byte) 1 : (byte) 0);
+  }
+
+  /**
+   * Re-creates a block written by {@link #serialize(ByteBuffer)}. The data is
+   * always copied into a new on-heap buffer, so the source buffer can be
+   * reused as soon as this method returns.
+   *
+   * @param source buffer positioned at the beginning of the serialized block,
+   *          with the limit set to the end of it
+   * @return the deserialized block, without schema metrics configured
+   * @throws IOException if the block header cannot be parsed
+   */
+  public static HFileBlock deserialize(ByteBuffer source) throws IOException {
+    int headerAndDataLen = source.remaining() - EXTRA_SERIALIZATION_SPACE;
+    if (headerAndDataLen < HEADER_SIZE) {
+      throw new IOException("Serialized block is too short: "
+          + source.remaining() + " bytes");
+    }
+    ByteBuffer newBuf = ByteBuffer.allocate(headerAndDataLen);
+    source.get(newBuf.array(), newBuf.arrayOffset(), headerAndDataLen);
+    HFileBlock b = new HFileBlock(newBuf);
+    b.offset = source.getLong();
+    b.nextBlockOnDiskSizeWithHeader = source.getInt();
+    b.includesMemstoreTS = source.get() != 0;
+    return b;
+  }
+
   /**
    * Unified version 2 {@link HFile} block writer. The intended usage pattern
    * is as follows:
@@ -585,6 +676,9 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
     /** Whether we are including memstore timestamp after every key/value */
     private boolean includesMemstoreTS;
 
+    /** Whether to end every block with a checksum */
+    private final boolean useChecksums;
+
     public void appendEncodedKV(final long memstoreTS, final byte[] key,
         final int keyOffset, final int keyLength, final byte[] value,
         final int valueOffset, final int valueLength) throws IOException {
@@ -601,6 +695,19 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
      */
     public Writer(Compression.Algorithm compressionAlgorithm,
           HFileDataBlockEncoder dataBlockEncoder, boolean includesMemstoreTS) {
+      this(compressionAlgorithm, dataBlockEncoder, includesMemstoreTS, false);
+    }
+
+    /**
+     * @param compressionAlgorithm compression algorithm to use
+     * @param dataBlockEncoder data block encoding algorithm to use
+     * @param useChecksums whether to end every block with a checksum, as in
+     *          files of minor version {@link #MINOR_VERSION_WITH_CHECKSUM}
+     */
+    public Writer(Compression.Algorithm compressionAlgorithm,
+          HFileDataBlockEncoder dataBlockEncoder, boolean includesMemstoreTS,
+          boolean useChecksums) {
+      this.useChecksums = useChecksums;
       compressAlgo = compressionAlgorithm == null ? NONE : compressionAlgorithm;
       this.dataBlockEncoder = dataBlockEncoder != null
           ? dataBlockEncoder : NoOpDataBlockEncoder.INSTANCE;
@@ -698,6 +805,10 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
      * write state to "block ready".
      */
     private void finishBlock() throws IOException {
+      if (encodedWriter != null) {
+        // The encoder may append metadata after the last key/value pair
+        encodedWriter.endBlock();
+      }
       userDataStream.flush();
 
       // This does an array copy, so it is safe to cache this byte array.
@@ -711,10 +822,29 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
       encodeDataBlockForDisk();
 
       doCompression();
+      if (useChecksums) {
+        addChecksum();
+      }
       putHeader(uncompressedBytesWithHeader, 0, onDiskBytesWithHeader.length,
           uncompressedBytesWithHeader.length);
     }
 
+    /**
+     * Appends the checksum of the header and data to the on-disk bytes, and
+     * counts it in the on-disk size of the header.
+     */
+    private void addChecksum() {
+      int checksumOffset = onDiskBytesWithHeader.length;
+      byte[] withChecksum = new byte[checksumOffset + CHECKSUM_SIZE];
+      System.arraycopy(onDiskBytesWithHeader, 0, withChecksum, 0,
+          checksumOffset);
+      putHeader(withChecksum, 0, withChecksum.length,
+          uncompressedBytesWithHeader.length);
+      Bytes.putInt(withChecksum, checksumOffset,
+          computeChecksum(withChecksum, 0, checksumOffset));
+      onDiskBytesWithHeader = withChecksum;
+    }
+
     /**
      * Do compression if it is enabled, or re-use the uncompressed buffer if
      * it is not. Fills in the compressed block's header if doing compression.
@@ -1012,6 +1142,30 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
     BlockIterator blockRange(long startOffset, long endOffset);
   }
 
+  /**
+   * @return the CRC32 checksum of the given bytes, as stored at the end of a
+   *         block
+   */
+  static int computeChecksum(byte[] b, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(b, offset, length);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * @param b a buffer holding a block and its checksum
+   * @param offset the offset of the block in the buffer
+   * @param onDiskSizeWithHeader the on-disk size of the block, checksum
+   *          included
+   * @return true if the checksum at the end of the block matches
+   */
+  static boolean verifyChecksum(byte[] b, int offset,
+      int onDiskSizeWithHeader) {
+    int checksumOffset = offset + onDiskSizeWithHeader - CHECKSUM_SIZE;
+    return computeChecksum(b, offset, checksumOffset - offset) ==
+        Bytes.toInt(b, checksumOffset);
+  }
+
   /**
    * A common implementation of some methods of {@link FSReader} and some
    * tools for implementing HFile format version-specific block readers.
@@ -1069,6 +1223,7 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
      * Does a positional read or a seek and read into the given buffer. Returns
      * the on-disk size of the next block, or -1 if it could not be determined.
      *
+     * @param istream the stream to read from
      * @param dest destination buffer
      * @param destOffset offset in the destination buffer
      * @param size size of the block to be read
@@ -1078,8 +1233,8 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
      *         -1 if it could not be determined
      * @throws IOException
      */
-    protected int readAtOffset(byte[] dest, int destOffset, int size,
-        boolean peekIntoNextBlock, long fileOffset)
+    protected int readAtOffset(FSDataInputStream istream, byte[] dest,
+        int destOffset, int size, boolean peekIntoNextBlock, long fileOffset)
             throws IOException {
       if (peekIntoNextBlock &&
           destOffset + size + HEADER_SIZE > dest.length) {
@@ -1246,7 +1401,7 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
 
         // The first MAGIC_LENGTH bytes of what this will read will be
         // overwritten.
-        readAtOffset(buf.array(), buf.arrayOffset() + HEADER_DELTA,
+        readAtOffset(istream, buf.array(), buf.arrayOffset() + HEADER_DELTA,
             onDiskSize, false, offset);
 
         onDiskSizeWithoutHeader = uncompressedSizeWithMagic - MAGIC_LENGTH;
@@ -1284,7 +1439,6 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
   private static class PrefetchedHeader {
     long offset = -1;
     byte[] header = new byte[HEADER_SIZE];
-    ByteBuffer buf = ByteBuffer.wrap(header, 0, HEADER_SIZE);
   }
 
   /** Reads version 2 blocks from the filesystem. */
@@ -1297,6 +1451,15 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
     protected HFileDataBlockEncoder dataBlockEncoder =
         NoOpDataBlockEncoder.INSTANCE;
 
+    /** Whether the blocks of the file end with a checksum */
+    private final boolean useChecksums;
+
+    /**
+     * A stream reading the same file without HDFS checksum verification, or
+     * null. Only used when the blocks have checksums of their own.
+     */
+    private final FSDataInputStream istreamNoFsChecksum;
+
     private ThreadLocal<PrefetchedHeader> prefetchedHeaderForThread =
         new ThreadLocal<PrefetchedHeader>() {
           @Override
@@ -1307,12 +1470,35 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
 
     public FSReaderV2(FSDataInputStream istream, Algorithm compressAlgo,
         long fileSize) {
+      this(istream, null, compressAlgo, fileSize, MINOR_VERSION_NO_CHECKSUM);
+    }
+
+    /**
+     * @param istream the stream to read blocks from, verifying HDFS checksums
+     * @param istreamNoFsChecksum a stream reading the same file without HDFS
+     *          checksum verification, used instead of istream if the blocks
+     *          have checksums. May be null.
+     * @param compressAlgo compression algorithm used by the file
+     * @param fileSize the size of the file
+     * @param minorVersion the minor version of the file format, which tells
+     *          whether the blocks have checksums
+     */
+    public FSReaderV2(FSDataInputStream istream,
+        FSDataInputStream istreamNoFsChecksum, Algorithm compressAlgo,
+        long fileSize, int minorVersion) {
       super(istream, compressAlgo, fileSize);
+      this.useChecksums = minorVersion >= MINOR_VERSION_WITH_CHECKSUM;
+      this.istreamNoFsChecksum = useChecksums ? istreamNoFsChecksum : null;
     }
 
     /**
      * Reads a version 2 block. Tries to do as little memory allocation as
      * possible, using the provided on-disk size.
+     * <p>
+     * If the blocks have checksums and there is a stream without HDFS
+     * checksum verification, the block is read from that stream and checked
+     * against its own checksum. A block failing the check, or any error on
+     * that stream, makes us read the block again with HDFS checksums.
      *
      * @param offset the offset in the stream to read at
      * @param onDiskSizeWithHeaderL the on-disk size of the block, including
@@ -1343,161 +1529,175 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
 
       int onDiskSizeWithHeader = (int) onDiskSizeWithHeaderL;
 
-      HFileBlock b;
-      if (onDiskSizeWithHeader > 0) {
-        // We know the total on-disk size but not the uncompressed size. Read
-        // the entire block into memory, then parse the header and decompress
-        // from memory if using compression. This code path is used when
-        // doing a random read operation relying on the block index, as well as
-        // when the client knows the on-disk size from peeking into the next
-        // block's header (e.g. this block's header) when reading the previous
-        // block. This is the faster and more preferable case.
-
-        int onDiskSizeWithoutHeader = onDiskSizeWithHeader - HEADER_SIZE;
-        assert onDiskSizeWithoutHeader >= 0;
-
-        // See if we can avoid reading the header. This is desirable, because
-        // we will not incur a seek operation to seek back if we have already
-        // read this block's header as part of the previous read's look-ahead.
-        PrefetchedHeader prefetchedHeader = prefetchedHeaderForThread.get();
-        byte[] header = prefetchedHeader.offset == offset
-            ? prefetchedHeader.header : null;
-
-        // Size that we have to skip in case we have already read the header.
-        int preReadHeaderSize = header == null ? 0 : HEADER_SIZE;
-
-        if (compressAlgo == Compression.Algorithm.NONE) {
-          // Just read the whole thing. Allocate enough space to read the
-          // next block's header too.
-
-          ByteBuffer headerAndData = ByteBuffer.allocate(onDiskSizeWithHeader
-              + HEADER_SIZE);
-          headerAndData.limit(onDiskSizeWithHeader);
-
-          if (header != null) {
-            System.arraycopy(header, 0, headerAndData.array(), 0,
-                HEADER_SIZE);
+      if (istreamNoFsChecksum != null) {
+        try {
+          HFileBlock b = readBlockDataInternal(istreamNoFsChecksum, offset,
+              onDiskSizeWithHeader, true);
+          if (b != null) {
+            return b;
           }
+          LOG.warn("Checksum mismatch for the block at offset " + offset
+              + ", reading it again with HDFS checksums");
+        } catch (IOException e) {
+          LOG.warn("Failed to read the block at offset " + offset
+              + " without HDFS checksums, reading it again with them", e);
+        }
+        numChecksumFailures.incrementAndGet();
+        // The prefetched header might be what is corrupt.
+        prefetchedHeaderForThread.get().offset = -1;
+      }
+      return readBlockDataInternal(istream, offset, onDiskSizeWithHeader,
+          false);
+    }
 
-          int nextBlockOnDiskSizeWithHeader = readAtOffset(
-              headerAndData.array(), headerAndData.arrayOffset()
-                  + preReadHeaderSize, onDiskSizeWithHeader
-                  - preReadHeaderSize, true, offset + preReadHeaderSize);
-
-          b = new HFileBlock(headerAndData);
-          b.assumeUncompressed();
-          b.validateOnDiskSizeWithoutHeader(onDiskSizeWithoutHeader);
-          b.nextBlockOnDiskSizeWithHeader = nextBlockOnDiskSizeWithHeader;
-
-          if (b.nextBlockOnDiskSizeWithHeader > 0)
-            setNextBlockHeader(offset, b);
-        } else {
-          // Allocate enough space to fit the next block's header too.
-          byte[] onDiskBlock = new byte[onDiskSizeWithHeader + HEADER_SIZE];
-
-          int nextBlockOnDiskSize = readAtOffset(onDiskBlock,
-              preReadHeaderSize, onDiskSizeWithHeader - preReadHeaderSize,
-              true, offset + preReadHeaderSize);
-
-          if (header == null)
-            header = onDiskBlock;
-
-          try {
-            b = new HFileBlock(ByteBuffer.wrap(header, 0, HEADER_SIZE));
-          } catch (IOException ex) {
-            // Seen in load testing. Provide comprehensive debug info.
-            throw new IOException("Failed to read compressed block at "
-                + offset + ", onDiskSizeWithoutHeader=" + onDiskSizeWithHeader
-                + ", preReadHeaderSize=" + preReadHeaderSize
-                + ", header.length=" + header.length + ", " + "header bytes: "
-                + Bytes.toStringBinary(header, 0, HEADER_SIZE), ex);
-          }
-          b.validateOnDiskSizeWithoutHeader(onDiskSizeWithoutHeader);
-          b.nextBlockOnDiskSizeWithHeader = nextBlockOnDiskSize;
+    /**
+     * Reads a version 2 block from the given stream.
+     *
+     * @param is the stream to read from
+     * @param offset the offset in the stream to read at
+     * @param onDiskSizeWithHeader the on-disk size of the block, including
+     *          the header, or -1 if unknown
+     * @param doVerify whether to check the checksum of the block
+     * @return the block, or null if its checksum did not match
+     */
+    private HFileBlock readBlockDataInternal(FSDataInputStream is,
+        long offset, int onDiskSizeWithHeader, boolean doVerify)
+        throws IOException {
+      int checksumSize = useChecksums ? CHECKSUM_SIZE : 0;
+      PrefetchedHeader prefetchedHeader = prefetchedHeaderForThread.get();
+
+      if (onDiskSizeWithHeader <= 0) {
+        // We don't know the on-disk size. Read the header first, determine
+        // the on-disk size from it, and read the remaining data, thereby
+        // incurring two read operations. This might happen when we are doing
+        // the first read in a series of reads or a random read, and we don't
+        // have access to the block index. This is costly and should happen
+        // very rarely. Unless we have read this block's header as part of
+        // reading the previous block, in which case we don't read it again.
+        if (prefetchedHeader.offset != offset) {
+          readAtOffset(is, prefetchedHeader.header, 0, HEADER_SIZE, false,
+              offset);
+          prefetchedHeader.offset = offset;
+        }
+        BlockType.parse(prefetchedHeader.header, 0, MAGIC_LENGTH);
+        onDiskSizeWithHeader = Bytes.toInt(prefetchedHeader.header,
+            MAGIC_LENGTH) + HEADER_SIZE;
+        if (onDiskSizeWithHeader < HEADER_SIZE + checksumSize ||
+            (fileSize > 0 && offset + onDiskSizeWithHeader > fileSize)) {
+          prefetchedHeader.offset = -1;
+          throw new IOException("Invalid on-disk size " + onDiskSizeWithHeader
+              + " in the header of the block at offset " + offset
+              + " (file size " + fileSize + ")");
+        }
+      }
+
+      // We know the total on-disk size but not the uncompressed size. Read
+      // the entire block into memory, then parse the header and decompress
+      // from memory if using compression. This code path is used when
+      // doing a random read operation relying on the block index, as well as
+      // when the client knows the on-disk size from peeking into the next
+      // block's header (e.g. this block's header) when reading the previous
+      // block. This is the faster and more preferable case.
+
+      int onDiskSizeWithoutHeader = onDiskSizeWithHeader - HEADER_SIZE;
+      assert onDiskSizeWithoutHeader >= 0;
+
+      // See if we can avoid reading the header. This is desirable, because
+      // we will not incur a seek operation to seek back if we have already
+      // read this block's header as part of the previous read's look-ahead.
+      byte[] header = prefetchedHeader.offset == offset
+          ? prefetchedHeader.header : null;
 
-          DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
-              onDiskBlock, HEADER_SIZE, onDiskSizeWithoutHeader));
+      // Size that we have to skip in case we have already read the header.
+      int preReadHeaderSize = header == null ? 0 : HEADER_SIZE;
 
-          // This will allocate a new buffer but keep header bytes.
-          b.allocateBuffer(b.nextBlockOnDiskSizeWithHeader > 0);
+      HFileBlock b;
+      if (compressAlgo == Compression.Algorithm.NONE) {
+        // Just read the whole thing. Allocate enough space to read the
+        // next block's header too.
+
+        ByteBuffer headerAndData = ByteBuffer.allocate(onDiskSizeWithHeader
+            + HEADER_SIZE);
+        headerAndData.limit(onDiskSizeWithHeader);
 
-          decompress(b.buf.array(), b.buf.arrayOffset() + HEADER_SIZE, dis,
-              b.uncompressedSizeWithoutHeader);
+        if (header != null) {
+          System.arraycopy(header, 0, headerAndData.array(), 0,
+              HEADER_SIZE);
+        }
 
-          // Copy next block's header bytes into the new block if we have them.
-          if (nextBlockOnDiskSize > 0) {
-            System.arraycopy(onDiskBlock, onDiskSizeWithHeader, b.buf.array(),
-                b.buf.arrayOffset() + HEADER_SIZE
-                    + b.uncompressedSizeWithoutHeader, HEADER_SIZE);
+        int nextBlockOnDiskSizeWithHeader = readAtOffset(is,
+            headerAndData.array(), headerAndData.arrayOffset()
+                + preReadHeaderSize, onDiskSizeWithHeader
+                - preReadHeaderSize, true, offset + preReadHeaderSize);
 
-            setNextBlockHeader(offset, b);
+        if (doVerify && !verifyChecksum(headerAndData.array(),
+            headerAndData.arrayOffset(), onDiskSizeWithHeader)) {
+          return null;
+        }
+        if (checksumSize > 0) {
+          // Drop the checksum, moving the next block's header in its place.
+          int checksumOffset = headerAndData.arrayOffset()
+              + onDiskSizeWithHeader - checksumSize;
+          if (nextBlockOnDiskSizeWithHeader > 0) {
+            System.arraycopy(headerAndData.array(),
+                checksumOffset + checksumSize, headerAndData.array(),
+                checksumOffset, HEADER_SIZE);
           }
+          headerAndData.limit(onDiskSizeWithHeader - checksumSize);
         }
 
+        b = new HFileBlock(headerAndData);
+        b.assumeUncompressed(checksumSize);
+        b.validateOnDiskSizeWithoutHeader(onDiskSizeWithoutHeader);
+        b.nextBlockOnDiskSizeWithHeader = nextBlockOnDiskSizeWithHeader;
+
+        if (b.nextBlockOnDiskSizeWithHeader > 0)
+          setNextBlockHeader(offset, b);
       } else {
-        // We don't know the on-disk size. Read the header first, determine the
-        // on-disk size from it, and read the remaining data, thereby incurring
-        // two read operations. This might happen when we are doing the first
-        // read in a series of reads or a random read, and we don't have access
-        // to the block index. This is costly and should happen very rarely.
-
-        // Check if we have read this block's header as part of reading the
-        // previous block. If so, don't read the header again.
-        PrefetchedHeader prefetchedHeader = prefetchedHeaderForThread.get();
-        ByteBuffer headerBuf = prefetchedHeader.offset == offset ?
-            prefetchedHeader.buf : null;
-
-        if (headerBuf == null) {
-          // Unfortunately, we still have to do a separate read operation to
-          // read the header.
-          headerBuf = ByteBuffer.allocate(HEADER_SIZE);;
-          readAtOffset(headerBuf.array(), headerBuf.arrayOffset(), HEADER_SIZE,
-              false, offset);
+        // Allocate enough space to fit the next block's header too.
+        byte[] onDiskBlock = new byte[onDiskSizeWithHeader + HEADER_SIZE];
+
+        int nextBlockOnDiskSize = readAtOffset(is, onDiskBlock,
+            preReadHeaderSize, onDiskSizeWithHeader - preReadHeaderSize,
+            true, offset + preReadHeaderSize);
+
+        if (header != null) {
+          System.arraycopy(header, 0, onDiskBlock, 0, HEADER_SIZE);
+        }
+        if (doVerify &&
+            !verifyChecksum(onDiskBlock, 0, onDiskSizeWithHeader)) {
+          return null;
         }
 
-        b = new HFileBlock(headerBuf);
+        try {
+          b = new HFileBlock(ByteBuffer.wrap(onDiskBlock, 0, HEADER_SIZE));
+        } catch (IOException ex) {
+          // Seen in load testing. Provide comprehensive debug info.
+          throw new IOException("Failed to read compressed block at "
+              + offset + ", onDiskSizeWithoutHeader=" + onDiskSizeWithHeader
+              + ", preReadHeaderSize=" + preReadHeaderSize
+              + ", header bytes: "
+              + Bytes.toStringBinary(onDiskBlock, 0, HEADER_SIZE), ex);
+        }
+        b.validateOnDiskSizeWithoutHeader(onDiskSizeWithoutHeader);
+        b.nextBlockOnDiskSizeWithHeader = nextBlockOnDiskSize;
 
-        // This will also allocate enough room for the next block's header.
-        b.allocateBuffer(true);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+            onDiskBlock, HEADER_SIZE, onDiskSizeWithoutHeader - checksumSize));
 
-        if (compressAlgo == Compression.Algorithm.NONE) {
+        // This will allocate a new buffer but keep header bytes.
+        b.allocateBuffer(b.nextBlockOnDiskSizeWithHeader > 0);
 
-          // Avoid creating bounded streams and using a "codec" that does
-          // nothing.
-          b.assumeUncompressed();
-          b.nextBlockOnDiskSizeWithHeader = readAtOffset(b.buf.array(),
-              b.buf.arrayOffset() + HEADER_SIZE,
-              b.uncompressedSizeWithoutHeader, true, offset + HEADER_SIZE);
+        decompress(b.buf.array(), b.buf.arrayOffset() + HEADER_SIZE, dis,
+            b.uncompressedSizeWithoutHeader);
 
-          if (b.nextBlockOnDiskSizeWithHeader > 0) {
-            setNextBlockHeader(offset, b);
-          }
-        } else {
-          // Allocate enough space for the block's header and compressed data.
-          byte[] compressedBytes = new byte[b.getOnDiskSizeWithHeader()
-              + HEADER_SIZE];
-
-          b.nextBlockOnDiskSizeWithHeader = readAtOffset(compressedBytes,
-              HEADER_SIZE, b.onDiskSizeWithoutHeader, true, offset
-                  + HEADER_SIZE);
-          DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
-              compressedBytes, HEADER_SIZE, b.onDiskSizeWithoutHeader));
-
-          decompress(b.buf.array(), b.buf.arrayOffset() + HEADER_SIZE, dis,
-              b.uncompressedSizeWithoutHeader);
-
-          if (b.nextBlockOnDiskSizeWithHeader > 0) {
-            // Copy the next block's header into the new block.
-            int nextHeaderOffset = b.buf.arrayOffset() + HEADER_SIZE
-                + b.uncompressedSizeWithoutHeader;
-            System.arraycopy(compressedBytes,
-                compressedBytes.length - HEADER_SIZE,
-                b.buf.array(),
-                nextHeaderOffset,
-                HEADER_SIZE);
-
-            setNextBlockHeader(offset, b);
-          }
+        // Copy next block's header bytes into the new block if we have them.
+        if (nextBlockOnDiskSize > 0) {
+          System.arraycopy(onDiskBlock, onDiskSizeWithHeader, b.buf.array(),
+              b.buf.arrayOffset() + HEADER_SIZE
+                  + b.uncompressedSizeWithoutHeader, HEADER_SIZE);
+
+          setNextBlockHeader(offset, b);
         }
       }
 
@@ -1532,6 +1732,14 @@ public class HFileBlock extends SchemaConfigured implements Cacheable {
     return numPositionalRead.get();
   }
 
+  /**
+   * @return the number of blocks which failed checksum verification and were
+   *         read again with HDFS checksums
+   */
+  public static long getNumChecksumFailures() {
+    return numChecksumFailures.get();
+  }
+
   public boolean doesIncludeMemstoreTS() {
     return includesMemstoreTS;
   }
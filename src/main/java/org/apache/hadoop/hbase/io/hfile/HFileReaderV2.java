@@ -76,6 +76,9 @@ public class HFileReaderV2 extends AbstractHFileReader {
    */
   private List<HFileBlock> loadOnOpenBlocks = new ArrayList<HFileBlock>();
 
+  /** The stream not verifying HDFS checksums, if the blocks have checksums */
+  private FSDataInputStream istreamNoFsChecksum;
+
   /**
    * Opens a HFile. You must load the index before you can use it by calling
    * {@link #loadFileInfo()}.
@@ -96,10 +99,38 @@ public class HFileReaderV2 extends AbstractHFileReader {
       final boolean closeIStream, final CacheConfig cacheConf,
       DataBlockEncoding preferredEncodingInCache)
       throws IOException {
+    this(path, trailer, fsdis, null, size, closeIStream, cacheConf,
+        preferredEncodingInCache);
+  }
+
+  /**
+   * Opens a HFile. You must load the index before you can use it by calling
+   * {@link #loadFileInfo()}.
+   *
+   * @param path Path to HFile.
+   * @param trailer File trailer.
+   * @param fsdis input stream. Caller is responsible for closing the passed
+   *          stream.
+   * @param fsdisNoFsChecksum input stream of the same file not verifying
+   *          HDFS checksums, used instead of fsdis if the blocks have
+   *          checksums. May be null. The reader closes it.
+   * @param size Length of the stream.
+   * @param closeIStream Whether to close the stream.
+   * @param cacheConf Cache configuration.
+   * @param preferredEncodingInCache the encoding to use in cache in case we
+   *          have a choice. If the file is already encoded on disk, we will
+   *          still use its on-disk encoding in cache.
+   */
+  public HFileReaderV2(Path path, FixedFileTrailer trailer,
+      final FSDataInputStream fsdis, final FSDataInputStream fsdisNoFsChecksum,
+      final long size, final boolean closeIStream, final CacheConfig cacheConf,
+      DataBlockEncoding preferredEncodingInCache)
+      throws IOException {
     super(path, trailer, fsdis, size, closeIStream, cacheConf);
     trailer.expectVersion(2);
+    this.istreamNoFsChecksum = fsdisNoFsChecksum;
     HFileBlock.FSReaderV2 fsBlockReaderV2 = new HFileBlock.FSReaderV2(fsdis,
-        compressAlgo, fileSize);
+        fsdisNoFsChecksum, compressAlgo, fileSize, trailer.getMinorVersion());
     this.fsBlockReader = fsBlockReaderV2; // upcast
 
     // Comparator class name is stored in the trailer in version 2.
@@ -445,6 +476,10 @@ public class HFileReaderV2 extends AbstractHFileReader {
       istream.close();
       istream = null;
     }
+    if (istreamNoFsChecksum != null) {
+      istreamNoFsChecksum.close();
+      istreamNoFsChecksum = null;
+    }
   }
 
   protected abstract static class AbstractScannerV2
@@ -926,10 +961,27 @@ public class HFileReaderV2 extends AbstractHFileReader {
    * ScannerV2 that operates on encoded data blocks.
    */
   protected static class EncodedScannerV2 extends AbstractScannerV2 {
+    /** Times one in this many calls to next() for the decoding metrics */
+    private static final int NEXT_SAMPLING_MASK = 0xf;
+
     private DataBlockEncoder.EncodedSeeker seeker = null;
     private DataBlockEncoder dataBlockEncoder = null;
     private final boolean includesMemstoreTS;
 
+    /**
+     * The block visited before the current one, with its seeker still at the
+     * key the scanner left the block at. Seeking back into that block
+     * resumes from that key instead of decoding the block again from its
+     * start.
+     */
+    private HFileBlock previousBlock = null;
+    private DataBlockEncoder.EncodedSeeker previousSeeker = null;
+    private DataBlockEncoder previousEncoder = null;
+
+    /** Time spent decoding the current block, not reported yet */
+    private long decodeNanos = 0;
+    private int nextCalls = 0;
+
     public EncodedScannerV2(HFileReaderV2 reader, boolean cacheBlocks,
         boolean isCompaction, boolean includesMemstoreTS) {
       super(reader, cacheBlocks, isCompaction);
@@ -944,19 +996,21 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
     /**
      * Updates the current block to be the given {@link HFileBlock}. Seeks to
-     * the the first key/value pair.
+     * the the first key/value pair. The block left keeps its seeker as the
+     * previous block.
      *
      * @param newBlock the block to make current
      */
     private void updateCurrentBlock(HFileBlock newBlock) {
-      block = newBlock;
-
       // sanity checks
-      if (block.getBlockType() != BlockType.ENCODED_DATA) {
+      if (newBlock.getBlockType() != BlockType.ENCODED_DATA) {
         throw new IllegalStateException(
             "EncodedScannerV2 works only on encoded data blocks");
       }
 
+      swapWithPreviousBlock();
+      block = newBlock;
+
       short dataBlockEncoderId = block.getDataBlockEncodingId();
       if (dataBlockEncoder == null ||
           !DataBlockEncoding.isCorrectEncoder(dataBlockEncoder,
@@ -966,10 +1020,51 @@ public class HFileReaderV2 extends AbstractHFileReader {
         setDataBlockEncoder(encoder);
       }
 
+      long startTime = System.nanoTime();
       seeker.setCurrentBuffer(getEncodedBuffer(newBlock));
+      decodeNanos += System.nanoTime() - startTime;
       blockFetches++;
     }
 
+    /**
+     * Makes the previous block the current one, with the seeker where the
+     * scanner left it, and the current block the previous one.
+     */
+    private void swapWithPreviousBlock() {
+      reportDecodeTime();
+      HFileBlock leftBlock = block;
+      DataBlockEncoder.EncodedSeeker leftSeeker = seeker;
+      DataBlockEncoder leftEncoder = dataBlockEncoder;
+      block = previousBlock;
+      seeker = previousSeeker;
+      dataBlockEncoder = previousEncoder;
+      previousBlock = leftBlock;
+      previousSeeker = leftSeeker;
+      previousEncoder = leftEncoder;
+    }
+
+    /**
+     * @return whether the previous block has the given offset and encoding,
+     *         so that its seeker can be used for the given block
+     */
+    private boolean isPreviousBlock(HFileBlock newBlock) {
+      return previousBlock != null &&
+          newBlock.getBlockType() == BlockType.ENCODED_DATA &&
+          previousBlock.getOffset() == newBlock.getOffset() &&
+          previousBlock.getDataBlockEncodingId() ==
+              newBlock.getDataBlockEncodingId();
+    }
+
+    /** Adds the time spent decoding the current block to its encoding */
+    private void reportDecodeTime() {
+      if (decodeNanos > 0 && block != null) {
+        reader.getSchemaMetrics().updateOnDecode(
+            DataBlockEncoding.getEncodingById(block.getDataBlockEncodingId()),
+            decodeNanos);
+      }
+      decodeNanos = 0;
+    }
+
     private ByteBuffer getEncodedBuffer(HFileBlock newBlock) {
       ByteBuffer origBlock = newBlock.getBufferReadOnly();
       ByteBuffer encodedBlock = ByteBuffer.wrap(origBlock.array(),
@@ -994,27 +1089,49 @@ public class HFileReaderV2 extends AbstractHFileReader {
       long firstDataBlockOffset =
           reader.getTrailer().getFirstDataBlockOffset();
       if (block != null && block.getOffset() == firstDataBlockOffset) {
-        seeker.rewind();
+        rewind();
         return true;
       }
 
-      block = reader.readBlock(firstDataBlockOffset, -1, cacheBlocks,
-          isCompaction, BlockType.DATA);
-      if (block.getOffset() < 0) {
-        throw new IOException("Invalid block offset: " + block.getOffset());
+      HFileBlock firstBlock = reader.readBlock(firstDataBlockOffset, -1,
+          cacheBlocks, isCompaction, BlockType.DATA);
+      if (firstBlock.getOffset() < 0) {
+        throw new IOException("Invalid block offset: " + firstBlock.getOffset());
+      }
+      if (isPreviousBlock(firstBlock)) {
+        swapWithPreviousBlock();
+        rewind();
+      } else {
+        updateCurrentBlock(firstBlock);
       }
-      updateCurrentBlock(block);
       return true;
     }
 
+    private void rewind() {
+      long startTime = System.nanoTime();
+      seeker.rewind();
+      decodeNanos += System.nanoTime() - startTime;
+    }
+
     @Override
     public boolean next() throws IOException {
-      boolean isValid = seeker.next();
+      boolean isValid;
+      if ((++nextCalls & NEXT_SAMPLING_MASK) == 0) {
+        long startTime = System.nanoTime();
+        isValid = seeker.next();
+        decodeNanos += (System.nanoTime() - startTime) *
+            (NEXT_SAMPLING_MASK + 1);
+      } else {
+        isValid = seeker.next();
+      }
       if (!isValid) {
-        block = readNextDataBlock();
-        isValid = block != null;
+        HFileBlock nextBlock = readNextDataBlock();
+        isValid = nextBlock != null;
         if (isValid) {
-          updateCurrentBlock(block);
+          updateCurrentBlock(nextBlock);
+        } else {
+          reportDecodeTime();
+          block = null;
         }
       }
       return isValid;
@@ -1070,12 +1187,28 @@ public class HFileReaderV2 extends AbstractHFileReader {
         boolean rewind, byte[] key, int offset, int length, boolean seekBefore)
         throws IOException  {
       if (block == null || block.getOffset() != seekToBlock.getOffset()) {
-        updateCurrentBlock(seekToBlock);
-      } else if (rewind) {
-        seeker.rewind();
+        if (isPreviousBlock(seekToBlock)) {
+          // The seeker is wherever the scanner left that block
+          swapWithPreviousBlock();
+          rewind = true;
+        } else {
+          updateCurrentBlock(seekToBlock);
+          rewind = false;
+        }
+      }
+      long startTime = System.nanoTime();
+      if (rewind) {
+        // Resume from the current key if the seek goes forward from it
+        int compared = seeker.compareKey(reader.getComparator(), key, offset,
+            length);
+        if (compared < 0 || (compared == 0 && seekBefore)) {
+          seeker.rewind();
+        }
       }
       this.nextIndexedKey = nextIndexedKey;
-      return seeker.seekToKeyInBlock(key, offset, length, seekBefore);
+      int result = seeker.seekToKeyInBlock(key, offset, length, seekBefore);
+      decodeNanos += System.nanoTime() - startTime;
+      return result;
     }
   }
 
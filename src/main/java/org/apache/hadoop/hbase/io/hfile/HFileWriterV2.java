@@ -76,6 +76,9 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     new ArrayList<BlockWritable>();
 
   private final boolean includeMemstoreTS = true;
+
+  /** Whether every block ends with a checksum */
+  private boolean useChecksums;
   private long maxMemstoreTS = 0;
 
   static class WriterFactoryV2 extends HFile.WriterFactory {
@@ -103,8 +106,10 @@ public class HFileWriterV2 extends AbstractHFileWriter {
       throw new IllegalStateException("finishInit called twice");
 
     // HFile filesystem-level (non-caching) block writer
+    useChecksums = conf.getBoolean(HFile.BLOCK_CHECKSUM_KEY,
+        HFile.DEFAULT_BLOCK_CHECKSUM);
     fsBlockWriter = new HFileBlock.Writer(compressAlgo, blockEncoder,
-        includeMemstoreTS);
+        includeMemstoreTS, useChecksums);
 
     // Data block index writer
     boolean cacheIndexesOnWrite = cacheConf.shouldCacheIndexesOnWrite();
@@ -324,7 +329,9 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     finishBlock();
     writeInlineBlocks(true);
 
-    FixedFileTrailer trailer = new FixedFileTrailer(2);
+    FixedFileTrailer trailer = new FixedFileTrailer(2, useChecksums ?
+        HFileBlock.MINOR_VERSION_WITH_CHECKSUM :
+        HFileBlock.MINOR_VERSION_NO_CHECKSUM);
 
     // Write out the metadata blocks if any.
     if (metaNames.size() > 0) {
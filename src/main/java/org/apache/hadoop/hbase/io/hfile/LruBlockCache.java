@@ -21,11 +21,13 @@ package org.apache.hadoop.hbase.io.hfile;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -91,7 +93,24 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * size, and then while scanning determines the fewest least-recently-used
  * blocks necessary from each of the three priorities (would be 3 times bytes
  * to free).  It then uses the priority chunk sizes to evict fairly according
- * to the relative sizes and usage.
+ * to the relative sizes and usage.<p>
+ *
+ * With striped eviction (hbase.rs.blockcache.lru.eviction.striped) there is
+ * no such scan.  The cache is split into as many segments as the map
+ * concurrency level, each keeping a FIFO queue per priority of the blocks
+ * hashing to it.  A thread caching a block above the acceptable size evicts
+ * from its segment just enough to get back under it, using the CLOCK
+ * algorithm: a block accessed since it was queued is queued again instead,
+ * and a single-access block accessed again moves to the multi-access queue.
+ * The queue evicted from is the one whose priority is the most over its
+ * chunk of the cache, so priorities are honored as above.  The cache then
+ * stays close to the acceptable size rather than dropping to the minimum
+ * size at once.  The blocks of closed files are evicted from the segments
+ * as soon as the file is closed.<p>
+ *
+ * Optionally a {@link BucketCache} can be set as a victim cache. Blocks
+ * evicted by the eviction process are then demoted into it, and blocks not
+ * found here are looked up there.
  */
 public class LruBlockCache implements BlockCache, HeapSize {
 
@@ -174,6 +193,15 @@ public class LruBlockCache implements BlockCache, HeapSize {
   /** Overhead of the structure itself */
   private long overhead;
 
+  /** Second-level cache evicted blocks are demoted to, or null */
+  private BucketCache victimHandler = null;
+
+  /** Segments of the striped eviction, or null if it is disabled */
+  private final EvictionSegment[] segments;
+
+  /** Bytes queued in the segments, indexed by priority ordinal */
+  private final AtomicLong[] prioritySizes;
+
   /**
    * Default constructor.  Specify maximum size and expected average block
    * size (approximation is fine).
@@ -222,7 +250,8 @@ public class LruBlockCache implements BlockCache, HeapSize {
         conf.getFloat("hbase.rs.blockcache.lru.bucket.multi",
             DEFAULT_MULTI_FACTOR),
         conf.getFloat("hbase.rs.blockcache.lru.bucket.inmemory",
-            DEFAULT_MEMORY_FACTOR));
+            DEFAULT_MEMORY_FACTOR),
+        conf.getBoolean("hbase.rs.blockcache.lru.eviction.striped", false));
   }
 
   /**
@@ -243,6 +272,33 @@ public class LruBlockCache implements BlockCache, HeapSize {
       int mapInitialSize, float mapLoadFactor, int mapConcurrencyLevel,
       float minFactor, float acceptableFactor,
       float singleFactor, float multiFactor, float memoryFactor) {
+    this(maxSize, blockSize, evictionThread, mapInitialSize, mapLoadFactor,
+        mapConcurrencyLevel, minFactor, acceptableFactor, singleFactor,
+        multiFactor, memoryFactor, false);
+  }
+
+  /**
+   * Configurable constructor.  Use this constructor if not using defaults.
+   * @param maxSize maximum size of this cache, in bytes
+   * @param blockSize expected average size of blocks, in bytes
+   * @param evictionThread whether to run evictions in a bg thread or not
+   * @param mapInitialSize initial size of backing ConcurrentHashMap
+   * @param mapLoadFactor initial load factor of backing ConcurrentHashMap
+   * @param mapConcurrencyLevel initial concurrency factor for backing CHM,
+   * also the number of eviction segments
+   * @param minFactor percentage of total size that eviction will evict until
+   * @param acceptableFactor percentage of total size that triggers eviction
+   * @param singleFactor percentage of total size for single-access blocks
+   * @param multiFactor percentage of total size for multiple-access blocks
+   * @param memoryFactor percentage of total size for in-memory blocks
+   * @param stripedEviction whether to evict incrementally per segment rather
+   * than by scanning the whole cache
+   */
+  public LruBlockCache(long maxSize, long blockSize, boolean evictionThread,
+      int mapInitialSize, float mapLoadFactor, int mapConcurrencyLevel,
+      float minFactor, float acceptableFactor,
+      float singleFactor, float multiFactor, float memoryFactor,
+      boolean stripedEviction) {
     if (Math.abs(singleFactor + multiFactor + memoryFactor - 1.0) > 1e-8) {
       throw new IllegalArgumentException("Single, multi, and memory factors "
           + " should total 1.0: singleFactor=" + singleFactor
@@ -267,6 +323,22 @@ public class LruBlockCache implements BlockCache, HeapSize {
     this.count = new AtomicLong(0);
     this.elements = new AtomicLong(0);
     this.overhead = calculateOverhead(maxSize, blockSize, mapConcurrencyLevel);
+    if (stripedEviction) {
+      this.segments = new EvictionSegment[mapConcurrencyLevel];
+      for (int i = 0; i < this.segments.length; i++) {
+        this.segments[i] = new EvictionSegment();
+      }
+      this.prioritySizes =
+        new AtomicLong[CachedBlock.BlockPriority.values().length];
+      for (int i = 0; i < this.prioritySizes.length; i++) {
+        this.prioritySizes[i] = new AtomicLong(0);
+      }
+      this.overhead += calculateSegmentOverhead(maxSize, blockSize,
+          mapConcurrencyLevel);
+    } else {
+      this.segments = null;
+      this.prioritySizes = null;
+    }
     this.size = new AtomicLong(this.overhead);
     if(evictionThread) {
       this.evictionThread = new EvictionThread(this);
@@ -307,6 +379,15 @@ public class LruBlockCache implements BlockCache, HeapSize {
     long newSize = updateSizeMetrics(cb, false);
     map.put(cacheKey, cb);
     elements.incrementAndGet();
+    if (segments != null) {
+      int index = getSegmentIndex(cacheKey);
+      if (newSize > acceptableSize()) {
+        // Make room before queueing the new block, so it is not the victim
+        evictFromSegments(index, newSize - acceptableSize());
+      }
+      segments[index].add(cb);
+      return;
+    }
     if(newSize > acceptableSize() && !evictionInProgress) {
       runEviction();
     }
@@ -347,6 +428,12 @@ public class LruBlockCache implements BlockCache, HeapSize {
       schemaMetrics.updateOnCachePutOrEvict(
           cachedBlock.getBlockType().getCategory(), heapSizeDelta,
           unencodedSizeDelta);
+      if (cachedBlock.getBlockType() == BlockType.ENCODED_DATA &&
+          cachedBlock instanceof HFileBlock) {
+        schemaMetrics.updateOnEncodedCachePutOrEvict(
+            ((HFileBlock) cachedBlock).getDataBlockEncoding(),
+            unencodedSizeDelta - heapSizeDelta);
+      }
     }
     return size.addAndGet(heapSizeDelta);
   }
@@ -362,6 +449,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
     CachedBlock cb = map.get(cacheKey);
     if(cb == null) {
       stats.miss(caching);
+      if (victimHandler != null) {
+        return victimHandler.getBlock(cacheKey, caching);
+      }
       return null;
     }
     stats.hit(caching);
@@ -371,10 +461,16 @@ public class LruBlockCache implements BlockCache, HeapSize {
 
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
+    boolean evicted = false;
     CachedBlock cb = map.get(cacheKey);
-    if (cb == null) return false;
-    evictBlock(cb);
-    return true;
+    if (cb != null) {
+      evictBlock(cb);
+      evicted = true;
+    }
+    if (victimHandler != null) {
+      evicted |= victimHandler.evictBlock(cacheKey);
+    }
+    return evicted;
   }
 
   /**
@@ -384,12 +480,22 @@ public class LruBlockCache implements BlockCache, HeapSize {
    * <p>
    * This is used for evict-on-close to remove all blocks of a specific HFile.
    *
-   * @return 0
+   * @return the number of blocks evicted at once, 0 unless the eviction is
+   * striped or there is a victim cache
    */
   @Override
   public int evictBlocksByHfileName(String hfileName) {
     int numEvicted = 0;
-    recentlyClosedFiles.add(hfileName);
+    if (segments != null) {
+      for (EvictionSegment segment : segments) {
+        numEvicted += segment.evictFile(hfileName);
+      }
+    } else {
+      recentlyClosedFiles.add(hfileName);
+    }
+    if (victimHandler != null) {
+      numEvicted += victimHandler.evictBlocksByHfileName(hfileName);
+    }
     return numEvicted;
   }
 
@@ -424,10 +530,34 @@ public class LruBlockCache implements BlockCache, HeapSize {
   }
   
   protected long evictBlock(CachedBlock block) {
-    map.remove(block.getCacheKey());
+    return evictBlock(block, false);
+  }
+
+  /**
+   * Evicts the given block, demoting it to the victim cache if there is one
+   * and the block is evicted to make room.
+   *
+   * @param block the block to evict
+   * @param evictedByEvictionProcess true if evicted by the eviction process
+   *          rather than because it is no longer needed
+   * @return the heap size of the evicted block
+   */
+  protected long evictBlock(CachedBlock block,
+      boolean evictedByEvictionProcess) {
+    if (!map.remove(block.getCacheKey(), block)) {
+      // Evicted concurrently, or replaced by a new block with the same key
+      return 0;
+    }
     updateSizeMetrics(block, true);
     elements.decrementAndGet();
+    if (segments != null) {
+      segments[getSegmentIndex(block.getCacheKey())].uncount(block);
+    }
     stats.evicted(block);
+    if (evictedByEvictionProcess && victimHandler != null) {
+      victimHandler.cacheBlock(block.getCacheKey(), block.getBuffer(),
+          block.getPriority() == CachedBlock.BlockPriority.MEMORY);
+    }
     return block.heapSize();
   }
   
@@ -458,7 +588,10 @@ public class LruBlockCache implements BlockCache, HeapSize {
 
       if(bytesToFree <= 0) return;
 
-      doDelayedEviction();
+      // The segments evict the blocks of closed files on close
+      if (segments == null) {
+        doDelayedEviction();
+      }
 
       bytesToFree = size.get() - minSize();
       LOG.debug("Block cache LRU eviction started.  Attempting to free " +
@@ -466,6 +599,26 @@ public class LruBlockCache implements BlockCache, HeapSize {
 
       if(bytesToFree <= 0) return;
 
+      if (segments != null) {
+        // Each segment gives up its share, without looking at every block.
+        // Segments short of their share leave the rest to the next ones.
+        long bytesFreed = 0;
+        long freedInPass;
+        do {
+          freedInPass = 0;
+          for (int i = 0; i < segments.length && bytesFreed < bytesToFree;
+              i++) {
+            long freed = segments[i].evict(
+                (bytesToFree - bytesFreed) / (segments.length - i), true);
+            freedInPass += freed;
+            bytesFreed += freed;
+          }
+        } while (bytesFreed < bytesToFree && freedInPass > 0);
+        LOG.debug("Block cache striped eviction completed. " +
+            "Freed " + bytesFreed + " bytes.");
+        return;
+      }
+
       // Instantiate priority buckets
       BlockBucket bucketSingle = new BlockBucket(bytesToFree, blockSize,
           singleSize());
@@ -558,7 +711,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
       CachedBlock [] blocks = queue.get();
       long freedBytes = 0;
       for(int i=0; i<blocks.length; i++) {
-        freedBytes += evictBlock(blocks[i]);
+        freedBytes += evictBlock(blocks[i], true);
         if(freedBytes >= toFree) {
           return freedBytes;
         }
@@ -580,6 +733,240 @@ public class LruBlockCache implements BlockCache, HeapSize {
     }
   }
 
+  private int getSegmentIndex(BlockCacheKey cacheKey) {
+    // Spread the hash, block offsets often share their low bits
+    int h = cacheKey.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return (h & Integer.MAX_VALUE) % segments.length;
+  }
+
+  /**
+   * Incremental eviction of the striped mode.  Frees the bytes from the
+   * given segment, going on to the next ones only if it runs out of blocks
+   * or is being evicted from by another thread.
+   */
+  private void evictFromSegments(int index, long bytesToFree) {
+    long bytesFreed = 0;
+    for (int i = 0; i < segments.length && bytesFreed < bytesToFree; i++) {
+      bytesFreed += segments[(index + i) % segments.length].evict(
+          bytesToFree - bytesFreed, false);
+    }
+    if (bytesFreed > 0) {
+      stats.evict();
+    }
+  }
+
+  /**
+   * A segment of the cache for the striped eviction.  Queues the blocks
+   * hashing to it by priority, and evicts from the queues with the CLOCK
+   * algorithm.  Blocks evicted by other means stop counting towards their
+   * priority at once, and are dropped from the queues once they add up to
+   * a quarter of the blocks still counted.
+   */
+  private class EvictionSegment {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<CachedBlock> singleQueue =
+      new ArrayDeque<CachedBlock>();
+    private final ArrayDeque<CachedBlock> multiQueue =
+      new ArrayDeque<CachedBlock>();
+    private final ArrayDeque<CachedBlock> memoryQueue =
+      new ArrayDeque<CachedBlock>();
+    // Bytes of the queued blocks, counted or not
+    private long countedBytes = 0;
+    private long uncountedBytes = 0;
+
+    void add(CachedBlock block) {
+      lock.lock();
+      try {
+        enqueue(block, block.getPriority());
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Stops counting a block evicted by other means than this segment.
+     * The queues are purged once the blocks no longer counted add up to a
+     * quarter of those counted, so they do not hold on to much heap.
+     */
+    void uncount(CachedBlock block) {
+      lock.lock();
+      try {
+        CachedBlock.BlockPriority priority = block.getQueuedPriority();
+        if (priority != null) {
+          unqueue(block, priority);
+          uncountedBytes += block.heapSize();
+          if (uncountedBytes > countedBytes / 4) {
+            purge(null);
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Evicts the blocks of a closed file from this segment.
+     * @return number of blocks evicted
+     */
+    int evictFile(String hfileName) {
+      lock.lock();
+      try {
+        return purge(hfileName);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Drops the blocks no longer counted from the queues, and evicts those
+     * of the given file, if any.
+     * @return number of blocks evicted
+     */
+    private int purge(String hfileName) {
+      int numEvicted = 0;
+      for (CachedBlock.BlockPriority priority :
+          CachedBlock.BlockPriority.values()) {
+        for (Iterator<CachedBlock> it = queue(priority).iterator();
+            it.hasNext();) {
+          CachedBlock block = it.next();
+          if (block.getQueuedPriority() == null) {
+            it.remove();
+          } else if (hfileName != null &&
+              hfileName.equals(block.getCacheKey().getHfileName())) {
+            it.remove();
+            unqueue(block, priority);
+            if (evictBlock(block) > 0) {
+              numEvicted++;
+            }
+          }
+        }
+      }
+      uncountedBytes = 0;
+      return numEvicted;
+    }
+
+    /**
+     * Evicts blocks of this segment until the given number of bytes is
+     * freed or there is nothing left to evict.
+     * @param bytesToFree number of bytes to free
+     * @param wait whether to wait for a concurrent eviction of this segment
+     * to be done, or to give up at once
+     * @return number of bytes freed
+     */
+    long evict(long bytesToFree, boolean wait) {
+      if (wait) {
+        lock.lock();
+      } else if (!lock.tryLock()) {
+        return 0;
+      }
+      try {
+        long bytesFreed = 0;
+        // A block is looked at most three times: to move it to the multi
+        // queue, to clear its reference, and to evict it.  Bounds the loop
+        // if readers keep accessing the blocks.
+        long steps = 3L * (singleQueue.size() + multiQueue.size() +
+            memoryQueue.size());
+        while (bytesFreed < bytesToFree && steps-- > 0) {
+          CachedBlock.BlockPriority priority = nextPriority();
+          if (priority == null) {
+            break;
+          }
+          CachedBlock block = queue(priority).pollFirst();
+          if (block.getQueuedPriority() == null) {
+            // Evicted by other means, no longer counted
+            uncountedBytes -= block.heapSize();
+            continue;
+          }
+          unqueue(block, priority);
+          if (map.get(block.getCacheKey()) != block) {
+            // Already evicted
+            continue;
+          }
+          if (block.getPriority() != priority) {
+            // A single-access block accessed again
+            block.clearReferenced();
+            enqueue(block, block.getPriority());
+          } else if (block.clearReferenced()) {
+            // Second chance
+            enqueue(block, priority);
+          } else {
+            bytesFreed += evictBlock(block, true);
+          }
+        }
+        return bytesFreed;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void clear() {
+      lock.lock();
+      try {
+        for (CachedBlock.BlockPriority priority :
+            CachedBlock.BlockPriority.values()) {
+          ArrayDeque<CachedBlock> queue = queue(priority);
+          for (CachedBlock block : queue) {
+            if (block.getQueuedPriority() != null) {
+              unqueue(block, priority);
+            }
+          }
+          queue.clear();
+        }
+        uncountedBytes = 0;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void enqueue(CachedBlock block,
+        CachedBlock.BlockPriority priority) {
+      queue(priority).addLast(block);
+      block.setQueuedPriority(priority);
+      prioritySizes[priority.ordinal()].addAndGet(block.heapSize());
+      countedBytes += block.heapSize();
+    }
+
+    /** Stops counting a queued block, which stays in the queue if any */
+    private void unqueue(CachedBlock block,
+        CachedBlock.BlockPriority priority) {
+      block.setQueuedPriority(null);
+      prioritySizes[priority.ordinal()].addAndGet(-block.heapSize());
+      countedBytes -= block.heapSize();
+    }
+
+    private ArrayDeque<CachedBlock> queue(CachedBlock.BlockPriority priority) {
+      switch (priority) {
+        case SINGLE: return singleQueue;
+        case MULTI: return multiQueue;
+        default: return memoryQueue;
+      }
+    }
+
+    /*
+     * @return the priority most over its chunk of the cache among those with
+     * blocks in this segment, or null if the segment is empty
+     */
+    private CachedBlock.BlockPriority nextPriority() {
+      CachedBlock.BlockPriority next = null;
+      long maxOverflow = Long.MIN_VALUE;
+      for (CachedBlock.BlockPriority priority :
+          CachedBlock.BlockPriority.values()) {
+        if (queue(priority).isEmpty()) {
+          continue;
+        }
+        long overflow = prioritySizes[priority.ordinal()].get() -
+            prioritySize(priority);
+        if (overflow > maxOverflow) {
+          maxOverflow = overflow;
+          next = priority;
+        }
+      }
+      return next;
+    }
+  }
+
   /**
    * Get the maximum size of this cache.
    * @return max size in bytes
@@ -632,6 +1019,20 @@ public class LruBlockCache implements BlockCache, HeapSize {
     return this.stats.getEvictedCount();
   }
 
+  /**
+   * Sets the second-level cache that blocks evicted to make room are demoted
+   * to, and that is searched when a block is not found in this cache.
+   * @param handler the victim cache
+   */
+  public void setVictimCache(BucketCache handler) {
+    this.victimHandler = handler;
+  }
+
+  /** @return the victim cache, or null if there is none */
+  public BucketCache getVictimCache() {
+    return this.victimHandler;
+  }
+
   /*
    * Eviction thread.  Sits in waiting state until an eviction is triggered
    * when the cache size grows above the acceptable level.<p>
@@ -707,6 +1108,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
         "Hit Ratio=" + stats.getHitRatio()*100 + "%, " +
         "Miss Ratio=" + stats.getMissRatio()*100 + "%, " +
         "Evicted/Run=" + stats.evictedPerEviction());
+    if (victimHandler != null) {
+      victimHandler.logStats();
+    }
   }
 
   /**
@@ -768,8 +1172,12 @@ public class LruBlockCache implements BlockCache, HeapSize {
     }
 
     public void evicted(CachedBlock block) {
+      evicted(block.getPriority());
+    }
+
+    public void evicted(CachedBlock.BlockPriority priority) {
       evictedCount.incrementAndGet();
-      switch (block.getPriority()) {
+      switch (priority) {
         case SINGLE: evictedSingleCount.incrementAndGet(); break;
         case MULTI: evictedMultiCount.incrementAndGet(); break;
         case MEMORY: evictedMemoryCount.incrementAndGet(); break;
@@ -847,7 +1255,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
   }
 
   public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
-      (3 * Bytes.SIZEOF_LONG) + (9 * ClassSize.REFERENCE) +
+      (3 * Bytes.SIZEOF_LONG) + (12 * ClassSize.REFERENCE) +
       (5 * Bytes.SIZEOF_FLOAT) + Bytes.SIZEOF_BOOLEAN
       + ClassSize.OBJECT);
 
@@ -864,6 +1272,21 @@ public class LruBlockCache implements BlockCache, HeapSize {
         (concurrency * ClassSize.CONCURRENT_HASHMAP_SEGMENT);
   }
 
+  /**
+   * @return the overhead of the segments of the striped eviction, whose
+   * queues hold a reference per block, twice as many slots at most
+   */
+  public static long calculateSegmentOverhead(long maxSize, long blockSize,
+      int concurrency) {
+    return ((long)Math.ceil(maxSize*1.2/blockSize) * 2 * ClassSize.REFERENCE) +
+        (concurrency * ClassSize.align(ClassSize.OBJECT +
+            5 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_LONG +
+            ClassSize.REENTRANT_LOCK +
+            3 * ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE +
+                2 * Bytes.SIZEOF_INT))) +
+        CachedBlock.BlockPriority.values().length * ClassSize.ATOMIC_LONG;
+  }
+
   @Override
   public List<BlockCacheColumnFamilySummary> getBlockCacheColumnFamilySummaries(
       Configuration conf) throws IOException {
@@ -915,16 +1338,34 @@ public class LruBlockCache implements BlockCache, HeapSize {
   private long memorySize() {
     return (long)Math.floor(this.maxSize * this.memoryFactor * this.minFactor);
   }
+  private long prioritySize(CachedBlock.BlockPriority priority) {
+    switch (priority) {
+      case SINGLE: return singleSize();
+      case MULTI: return multiSize();
+      default: return memorySize();
+    }
+  }
 
   public void shutdown() {
     this.scheduleThreadPool.shutdown();
+    if (victimHandler != null) {
+      victimHandler.shutdown();
+    }
   }
 
   /** Clears the cache. Updates per-block-category counts accordingly. Used in tests. */
   @Override
   public void clearCache() {
     map.clear();
+    if (segments != null) {
+      for (EvictionSegment segment : segments) {
+        segment.clear();
+      }
+    }
     SchemaMetrics.clearBlockCacheMetrics();
+    if (victimHandler != null) {
+      victimHandler.clearCache();
+    }
   }
 
   /**
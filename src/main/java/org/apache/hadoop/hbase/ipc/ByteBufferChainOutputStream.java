@@ -0,0 +1,109 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An output stream writing into a chain of buffers taken from a
+ * {@link ByteBufferPool}.
+ * <p>
+ * Unlike {@link ByteBufferOutputStream} it never grows a buffer by copying
+ * it, and bytes written with {@link #write(byte[], int, int)}, such as the
+ * backing arrays of KeyValues, are copied once straight into the buffers the
+ * response is sent from. The buffers are gathered into a single write by the
+ * Responder.
+ * <p>
+ * Not thread safe!
+ */
+class ByteBufferChainOutputStream extends OutputStream {
+  private final ByteBufferPool pool;
+  private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+  private ByteBuffer current = null;
+  private long size = 0;
+
+  ByteBufferChainOutputStream(ByteBufferPool pool) {
+    this.pool = pool;
+  }
+
+  private void ensureRemaining() {
+    if (current == null || !current.hasRemaining()) {
+      current = pool.getBuffer();
+      buffers.add(current);
+    }
+  }
+
+  /**
+   * @return the number of bytes written
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * This flips the underlying buffers so be sure to use it _last_!
+   * @return the buffers holding the bytes written, ready to be read
+   */
+  public ByteBuffer[] getByteBuffers() {
+    for (ByteBuffer buffer : buffers) {
+      buffer.flip();
+    }
+    current = null;
+    return buffers.toArray(new ByteBuffer[buffers.size()]);
+  }
+
+  // OutputStream
+  @Override
+  public void write(int b) {
+    ensureRemaining();
+    current.put((byte) b);
+    size++;
+  }
+
+  @Override
+  public void write(byte[] b) {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    size += len;
+    while (len > 0) {
+      ensureRemaining();
+      int n = Math.min(len, current.remaining());
+      current.put(b, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void flush() {
+    // noop
+  }
+
+  @Override
+  public void close() {
+    // noop, the buffers go back to the pool once the response is sent
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct {@link ByteBuffer}s of a fixed size, which the server
+ * serializes its responses into.
+ * <p>
+ * The socket channel has to copy heap buffers into temporary direct buffers
+ * before it writes them, so serializing into direct buffers saves a full copy
+ * of every response. Direct buffers are expensive to allocate and only freed
+ * by the garbage collector, so the buffers of the responses that have been
+ * sent are kept here for the next ones.
+ * <p>
+ * The direct buffers handed out and not given back yet are not bounded by
+ * the pool size, so their total size is capped separately. Past the cap, a
+ * burst of large responses is serialized into heap buffers instead.
+ */
+class ByteBufferPool {
+  private final int bufferSize;
+  private final int maxCount;
+  private final long maxDirectBytes;
+
+  // The size of the direct buffers handed out or pooled
+  private final AtomicLong directBytes = new AtomicLong();
+
+  // A queue of buffers of sent responses
+  private final BlockingQueue<ByteBuffer> reclaimedBuffers;
+
+  // Statistics
+  private final AtomicLong createdBufferCount = new AtomicLong();
+  private final AtomicLong reusedBufferCount = new AtomicLong();
+  private final AtomicLong heapBufferCount = new AtomicLong();
+
+  /**
+   * @param bufferSize the size of the buffers
+   * @param maxCount the maximum number of buffers kept in the pool. With 0
+   *        the pool hands out heap buffers and keeps none.
+   * @param maxDirectBytes the maximum total size of the direct buffers
+   *        handed out or kept in the pool
+   */
+  ByteBufferPool(int bufferSize, int maxCount, long maxDirectBytes) {
+    this.bufferSize = bufferSize;
+    this.maxCount = maxCount;
+    this.maxDirectBytes = maxDirectBytes;
+    this.reclaimedBuffers =
+      new LinkedBlockingQueue<ByteBuffer>(Math.max(1, maxCount));
+  }
+
+  /**
+   * Poll a buffer from the pool, or allocate a new one if the pool is empty.
+   * The new buffer is a heap buffer if the direct buffers are at their cap.
+   * @return an empty buffer of bufferSize bytes
+   */
+  ByteBuffer getBuffer() {
+    if (maxCount <= 0) {
+      return ByteBuffer.allocate(bufferSize);
+    }
+    ByteBuffer buffer = reclaimedBuffers.poll();
+    if (buffer != null) {
+      buffer.clear();
+      reusedBufferCount.incrementAndGet();
+      return buffer;
+    }
+    if (directBytes.addAndGet(bufferSize) > maxDirectBytes) {
+      directBytes.addAndGet(-bufferSize);
+      heapBufferCount.incrementAndGet();
+      return ByteBuffer.allocate(bufferSize);
+    }
+    createdBufferCount.incrementAndGet();
+    return ByteBuffer.allocateDirect(bufferSize);
+  }
+
+  /**
+   * Add the buffers to the pool. Buffers beyond the pool capacity are left to
+   * the garbage collector, and no longer count towards the direct cap.
+   * @param buffers buffers that are not read anymore
+   */
+  void putbackBuffers(ByteBuffer[] buffers) {
+    if (maxCount <= 0) {
+      return;
+    }
+    for (ByteBuffer buffer : buffers) {
+      if (!buffer.isDirect() || buffer.capacity() != bufferSize) {
+        continue;
+      }
+      if (!reclaimedBuffers.offer(buffer)) {
+        // the pool is full
+        directBytes.addAndGet(-bufferSize);
+      }
+    }
+  }
+
+  /**
+   * @return the number of buffers in the pool
+   */
+  int getPoolSize() {
+    return reclaimedBuffers.size();
+  }
+
+  /**
+   * @return the size of the buffers in the pool
+   */
+  int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * @return the number of buffers the pool had to allocate
+   */
+  long getCreatedBufferCount() {
+    return createdBufferCount.get();
+  }
+
+  /**
+   * @return the number of buffers the pool handed out again
+   */
+  long getReusedBufferCount() {
+    return reusedBufferCount.get();
+  }
+
+  /**
+   * @return the number of heap buffers allocated because the direct buffers
+   *         were at their cap
+   */
+  long getHeapBufferCount() {
+    return heapBufferCount.get();
+  }
+
+  /**
+   * @return the total size of the direct buffers handed out or pooled
+   */
+  long getDirectBytes() {
+    return directBytes.get();
+  }
+}
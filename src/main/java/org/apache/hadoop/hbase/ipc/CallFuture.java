@@ -0,0 +1,204 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The pending result of an asynchronous call.
+ * <p>
+ * Callers can either block on {@link #get()} or register a {@link Callback}
+ * that runs once the value or the error is in. Callbacks run in the thread
+ * completing the future, which is usually the thread reading the responses
+ * of a region server connection: they must not block, or they hold up every
+ * call on that connection. A callback added after the future is done runs
+ * right away in the thread adding it.
+ * <p>
+ * Cancelling a future only fails it with a {@link CancellationException}, the
+ * call itself is not taken back.
+ *
+ * @param <V> the type of the value of the call
+ */
+public class CallFuture<V> implements Future<V> {
+  private static final Log LOG = LogFactory.getLog(CallFuture.class);
+
+  /**
+   * Notified when a call completes.
+   * @param <V> the type of the value of the call
+   */
+  public interface Callback<V> {
+    /**
+     * @param value the value of the call
+     */
+    public void onSuccess(V value);
+
+    /**
+     * @param error what failed the call, an IOException for remote and
+     *        network errors
+     */
+    public void onFailure(Throwable error);
+  }
+
+  private boolean done = false;
+  private V value;
+  private Throwable error;
+  private List<Callback<? super V>> callbacks =
+    new ArrayList<Callback<? super V>>(1);
+
+  /**
+   * @param value the value of the call
+   * @return a future already completed with the given value
+   */
+  public static <V> CallFuture<V> completed(V value) {
+    CallFuture<V> future = new CallFuture<V>();
+    future.set(value);
+    return future;
+  }
+
+  /**
+   * @param error the error of the call
+   * @return a future already failed with the given error
+   */
+  public static <V> CallFuture<V> failed(Throwable error) {
+    CallFuture<V> future = new CallFuture<V>();
+    future.setException(error);
+    return future;
+  }
+
+  /**
+   * Completes the future with a value.
+   * @return false if the future was already done
+   */
+  public boolean set(V value) {
+    return complete(value, null);
+  }
+
+  /**
+   * Fails the future.
+   * @return false if the future was already done
+   */
+  public boolean setException(Throwable error) {
+    if (error == null) {
+      throw new NullPointerException("error");
+    }
+    return complete(null, error);
+  }
+
+  private boolean complete(V value, Throwable error) {
+    List<Callback<? super V>> toNotify;
+    synchronized (this) {
+      if (done) {
+        return false;
+      }
+      this.value = value;
+      this.error = error;
+      this.done = true;
+      toNotify = callbacks;
+      callbacks = null;
+      notifyAll();
+    }
+    for (Callback<? super V> callback : toNotify) {
+      runCallback(callback);
+    }
+    return true;
+  }
+
+  private void runCallback(Callback<? super V> callback) {
+    try {
+      if (error == null) {
+        callback.onSuccess(value);
+      } else {
+        callback.onFailure(error);
+      }
+    } catch (RuntimeException e) {
+      LOG.warn("Callback " + callback + " threw", e);
+    }
+  }
+
+  /**
+   * Adds a callback, which runs right away if the future is done.
+   */
+  public void addCallback(Callback<? super V> callback) {
+    synchronized (this) {
+      if (!done) {
+        callbacks.add(callback);
+        return;
+      }
+    }
+    runCallback(callback);
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return setException(new CancellationException());
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return error instanceof CancellationException;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  private V getValue() throws ExecutionException {
+    if (error instanceof CancellationException) {
+      throw (CancellationException) error;
+    }
+    if (error != null) {
+      throw new ExecutionException(error);
+    }
+    return value;
+  }
+
+  @Override
+  public synchronized V get()
+      throws InterruptedException, ExecutionException {
+    while (!done) {
+      wait();
+    }
+    return getValue();
+  }
+
+  @Override
+  public synchronized V get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!done) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        throw new TimeoutException();
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    return getValue();
+  }
+}
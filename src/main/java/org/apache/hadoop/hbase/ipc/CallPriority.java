@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+/**
+ * The classes of calls an {@link HBaseServer} queues separately. Every class
+ * that has handlers of its own gets a queue of its own, the calls of the
+ * other classes go to the queue of the {@link #NORMAL} calls.
+ *
+ * @see CallPriorityFunction
+ */
+public enum CallPriority {
+  /** Catalog table, master to region server and administrative calls */
+  HIGH,
+  /** Small reads and writes, and the calls that are not classified */
+  NORMAL,
+  /** Scans and batched writes */
+  BULK
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+/**
+ * Decides which queue, and so which pool of handlers, an RPC call goes to.
+ * The server classifies every call as soon as it is read off the connection,
+ * so implementations should be cheap.
+ * <p>
+ * Set the implementation to use with
+ * {@link HBaseRPC.Server#CALL_PRIORITY_FUNCTION_CLASS}.
+ */
+public interface CallPriorityFunction {
+  /**
+   * @param methodName the name of the method called
+   * @param params the deserialized parameters of the call
+   * @return the priority of the call
+   */
+  public CallPriority getPriority(String methodName, Object[] params);
+}
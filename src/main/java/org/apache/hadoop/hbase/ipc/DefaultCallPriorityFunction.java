@@ -0,0 +1,97 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Classifies the calls of {@link HRegionInterface} and
+ * {@link HMasterRegionInterface} by their method name and parameters:
+ * <ul>
+ * <li>region server administration, master to region server calls and any
+ * call on a catalog region are {@link CallPriority#HIGH},</li>
+ * <li>scans, batched reads and batched writes are {@link CallPriority#BULK},
+ * </li>
+ * <li>everything else, such as single row gets and puts, is
+ * {@link CallPriority#NORMAL}.</li>
+ * </ul>
+ * Scanners are only known by their id once opened, so the <code>next</code>
+ * calls of catalog scanners are bulk calls too.
+ */
+public class DefaultCallPriorityFunction implements CallPriorityFunction {
+  private static final Set<String> HIGH_PRIORITY_METHODS =
+    new HashSet<String>(Arrays.asList(
+        "getProtocolVersion",
+        // HMasterRegionInterface
+        "regionServerStartup", "regionServerReport",
+        "getLastFlushedSequenceId",
+        // Administration of the region server
+        "getRegionInfo", "getOnlineRegionsAsArray", "flushRegion",
+        "getLastFlushTime", "getLastFlushTimes", "getCurrentTimeMillis",
+        "getStartCode", "getStoreFileList", "getHLogsList",
+        "getRegionsAssignment", "getHServerInfo", "closeRegion",
+        "updateFavoredNodes", "updateConfiguration", "stop"));
+
+  private static final Set<String> BULK_METHODS =
+    new HashSet<String>(Arrays.asList(
+        "openScanner", "next", "multiAction", "multiPut", "bulkLoadHFile"));
+
+  @Override
+  public CallPriority getPriority(String methodName, Object[] params) {
+    if (HIGH_PRIORITY_METHODS.contains(methodName)) {
+      return CallPriority.HIGH;
+    }
+    // The region name comes first, this catches the region lookups
+    if (params != null && params.length > 0 && params[0] instanceof byte[] &&
+        isCatalogRegion((byte[]) params[0])) {
+      return CallPriority.HIGH;
+    }
+    if (BULK_METHODS.contains(methodName)) {
+      return CallPriority.BULK;
+    }
+    if (params != null) {
+      // The list versions of get, put, delete and mutateRow
+      for (Object param : params) {
+        if (param instanceof List<?> && ((List<?>) param).size() > 1) {
+          return CallPriority.BULK;
+        }
+      }
+    }
+    return CallPriority.NORMAL;
+  }
+
+  private static boolean isCatalogRegion(byte[] regionName) {
+    return isRegionOf(regionName, HConstants.META_TABLE_NAME) ||
+      isRegionOf(regionName, HConstants.ROOT_TABLE_NAME);
+  }
+
+  private static boolean isRegionOf(byte[] regionName, byte[] tableName) {
+    return regionName.length > tableName.length &&
+      regionName[tableName.length] == HRegionInfo.DELIMITER &&
+      Bytes.startsWith(regionName, tableName);
+  }
+}
@@ -745,6 +745,33 @@ public class HBaseClient {
     }
   }
 
+  /** Call implementation completing a future instead of a waiting caller. */
+  private class AsyncCall extends Call {
+    private final CallFuture<HbaseObjectWritable> future;
+    private final InetSocketAddress address;
+
+    public AsyncCall(Writable param, InetSocketAddress address,
+        CallFuture<HbaseObjectWritable> future) {
+      super(param);
+      this.address = address;
+      this.future = future;
+    }
+
+    /** Complete the future, in the connection's receiver thread. */
+    @Override
+    protected void callComplete() {
+      this.done = true;
+      if (error == null) {
+        future.set(value);
+      } else if (error instanceof RemoteException) {
+        future.setException(error);
+      } else {
+        // local exception
+        future.setException(wrapException(address, error));
+      }
+    }
+  }
+
   /** Result collector for parallel calls. */
   private static class ParallelResults {
     protected final HbaseObjectWritable[] values;
@@ -892,6 +919,35 @@ public class HBaseClient {
     }
   }
 
+  /**
+   * Make a call without waiting for its value. The call is sent from the
+   * calling thread, which only blocks while setting up a new connection or
+   * writing the parameter to the socket.
+   *
+   * @param param writable parameter
+   * @param addr network address
+   * @param ticket the user the call is made as
+   * @param rpcTimeout the timeout of the call, 0 to only rely on pings
+   * @param options the options of the call
+   * @return the future value of the call. Its callbacks run in the thread
+   *         reading the responses of the connection.
+   */
+  public CallFuture<HbaseObjectWritable> callAsync(Writable param,
+      InetSocketAddress addr, UserGroupInformation ticket, int rpcTimeout,
+      HBaseRPCOptions options) {
+    CallFuture<HbaseObjectWritable> future =
+      new CallFuture<HbaseObjectWritable>();
+    AsyncCall call = new AsyncCall(param, addr, future);
+    call.options = options;
+    try {
+      Connection connection = getConnection(addr, ticket, rpcTimeout, call);
+      connection.sendParam(call);               // send the parameter
+    } catch (IOException e) {
+      future.setException(wrapException(addr, e));
+    }
+    return future;
+  }
+
   /**
    * Take an IOException and the address we were trying to connect to
    * and return an IOException with the input exception as the cause.
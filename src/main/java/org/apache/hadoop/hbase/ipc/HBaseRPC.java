@@ -39,6 +39,7 @@ import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.ipc.VersionedProtocol;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.ReflectionUtils;
 
 import org.codehaus.jackson.map.ObjectMapper;
 
@@ -283,6 +284,28 @@ public class HBaseRPC {
       return value.get();
     }
 
+    /**
+     * Makes the call without waiting for its value.
+     * @param method method to call
+     * @param args parameters of the call
+     * @return the future value of the call
+     */
+    CallFuture<Object> invokeAsync(Method method, Object[] args) {
+      final CallFuture<Object> result = new CallFuture<Object>();
+      client.callAsync(new Invocation(method, args), address, ticket,
+          rpcTimeout, options).addCallback(
+              new CallFuture.Callback<HbaseObjectWritable>() {
+        public void onSuccess(HbaseObjectWritable value) {
+          result.set(value.get());
+        }
+
+        public void onFailure(Throwable error) {
+          result.setException(error);
+        }
+      });
+      return result;
+    }
+
     /* close the IPC client that's responsible for this invoker's RPCs */
     synchronized protected void close() {
       if (!isClosed) {
@@ -441,6 +464,34 @@ public class HBaseRPC {
     }
   }
 
+  /**
+   * Calls a method of a proxy without waiting for its value. Proxies which
+   * do not go through the RPC client, like the region server handing out
+   * itself to local callers, are called synchronously.
+   *
+   * @param proxy a proxy returned by one of the getProxy methods
+   * @param method the method of the protocol to call
+   * @param args the parameters of the call
+   * @return the future value of the call. Its callbacks run in the thread
+   *         reading the responses of the connection, and must not block.
+   */
+  public static CallFuture<Object> callAsync(Object proxy, Method method,
+      Object... args) {
+    if (Proxy.isProxyClass(proxy.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+      if (handler instanceof Invoker) {
+        return ((Invoker) handler).invokeAsync(method, args);
+      }
+    }
+    try {
+      return CallFuture.completed(method.invoke(proxy, args));
+    } catch (InvocationTargetException e) {
+      return CallFuture.failed(e.getTargetException());
+    } catch (IllegalAccessException e) {
+      return CallFuture.failed(e);
+    }
+  }
+
   /**
    * Construct a server for a protocol implementation instance listening on a
    * port and address.
@@ -493,8 +544,13 @@ public class HBaseRPC {
     private static final int DEFAULT_WARN_RESPONSE_TIME = 10000; // milliseconds
     private static final int DEFAULT_WARN_RESPONSE_SIZE = 100 * 1024 * 1024;
 
+    /** The {@link CallPriorityFunction} that classifies the calls */
+    public static final String CALL_PRIORITY_FUNCTION_CLASS =
+      "ipc.server.call.priority.function.class";
+
     private final int warnResponseTime;
     private final int warnResponseSize;
+    private final CallPriorityFunction priorityFunction;
 
 
     /**
@@ -542,6 +598,18 @@ public class HBaseRPC {
       // Create a param formatter for TaskMonitor to use to pretty print
       //  the arguments passed over RPC. See ScanParamsFormatter for an example
       paramFormatHelper = new ParamFormatHelper(instance);
+
+      this.priorityFunction = ReflectionUtils.newInstance(
+          conf.getClass(CALL_PRIORITY_FUNCTION_CLASS,
+              DefaultCallPriorityFunction.class, CallPriorityFunction.class),
+          conf);
+    }
+
+    @Override
+    protected CallPriority getCallPriority(Writable param) {
+      Invocation call = (Invocation) param;
+      return priorityFunction.getPriority(call.getMethodName(),
+          call.getParameters());
     }
 
     /**
@@ -26,6 +26,8 @@ import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.metrics.MetricsRecord;
 import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 
@@ -71,6 +73,21 @@ public class HBaseRpcMetrics implements Updater {
   public MetricsTimeVaryingRate rpcQueueTime = new MetricsTimeVaryingRate("RpcQueueTime", registry);
   public MetricsTimeVaryingRate rpcProcessingTime = new MetricsTimeVaryingRate("RpcProcessingTime", registry);
 
+  // Length of and time spent in the call queue of each call priority
+  private final MetricsIntValue[] callQueueLen =
+    new MetricsIntValue[CallPriority.values().length];
+  private final MetricsTimeVaryingRate[] callQueueTime =
+    new MetricsTimeVaryingRate[CallPriority.values().length];
+  {
+    for (CallPriority priority : CallPriority.values()) {
+      String name = priority.toString().toLowerCase();
+      callQueueLen[priority.ordinal()] =
+        new MetricsIntValue("RpcQueueLength_" + name, registry);
+      callQueueTime[priority.ordinal()] =
+        new MetricsTimeVaryingRate("RpcQueueTime_" + name, registry);
+    }
+  }
+
   //public Map <String, MetricsTimeVaryingRate> metricsList = Collections.synchronizedMap(new HashMap<String, MetricsTimeVaryingRate>());
 
 
@@ -81,6 +98,14 @@ public class HBaseRpcMetrics implements Updater {
     return new MetricsTimeVaryingRate(key, this.registry);
   }
 
+  public void setCallQueueLen(CallPriority priority, int len) {
+    callQueueLen[priority.ordinal()].set(len);
+  }
+
+  public void incCallQueueTime(CallPriority priority, long time) {
+    callQueueTime[priority.ordinal()].inc(time);
+  }
+
   public void inc(String name, int amt) {
     MetricsTimeVaryingRate m = get(name);
     if (m == null) {
@@ -108,9 +133,11 @@ public class HBaseRpcMetrics implements Updater {
       // Iterate through the registry to propagate the different rpc metrics.
 
       for (String metricName : registry.getKeyList() ) {
-        MetricsTimeVaryingRate value = (MetricsTimeVaryingRate) registry.get(metricName);
+        MetricsBase value = registry.get(metricName);
         value.pushMetric(metricsRecord);
-        value.resetMinMax();
+        if (value instanceof MetricsTimeVaryingRate) {
+          ((MetricsTimeVaryingRate) value).resetMinMax();
+        }
       }
     }
     metricsRecord.update();
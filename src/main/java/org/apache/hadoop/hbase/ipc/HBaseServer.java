@@ -37,6 +37,7 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -99,6 +100,21 @@ public abstract class HBaseServer {
   private static final int MAX_CALL_QUEUE_MEMORY_SIZE = 1024*1024*1024;
   private SizeBasedThrottler callQueueThrottler;
 
+  /**
+   * Number of handlers of the {@link CallPriority#HIGH} calls. With no
+   * handlers the calls are queued with the normal ones.
+   */
+  public static final String HIGH_PRIORITY_HANDLER_COUNT =
+    "ipc.server.handler.high.count";
+  public static final int DEFAULT_HIGH_PRIORITY_HANDLER_COUNT = 3;
+
+  /**
+   * Number of handlers of the {@link CallPriority#BULK} calls. With no
+   * handlers the calls are queued with the normal ones.
+   */
+  public static final String BULK_HANDLER_COUNT = "ipc.server.handler.bulk.count";
+  public static final int DEFAULT_BULK_HANDLER_COUNT = 0;
+
   public static final Log LOG = LogFactory.getLog(HBaseServer.class.getName());
 
   protected static final ThreadLocal<HBaseServer> SERVER =
@@ -153,7 +169,8 @@ public abstract class HBaseServer {
 
   protected String bindAddress;
   protected int port;                             // port we listen on
-  private int handlerCount;                       // number of handler threads
+  private int[] handlerCounts;                    // number of handler threads
+                                                  // of each call priority
   protected Class<? extends Writable> paramClass; // class of call parameters
   protected int maxIdleTime;                      // the maximum idle time after
                                                   // which a client may be
@@ -183,8 +200,24 @@ public abstract class HBaseServer {
   private static final long DEFAULT_RESPONSE_QUEUES_MAX_SIZE = 1024 * 1024 * 1024; // 1G
   private static final String RESPONSE_QUEUES_MAX_SIZE = "ipc.server.response.queue.maxsize";
 
+  // Number of direct buffers kept to serialize responses into, 0 to use heap
+  // buffers instead
+  private static final String RESPONSE_BUFFER_POOL_SIZE =
+    "ipc.server.response.buffer.pool.size";
+  private static final int DEFAULT_RESPONSE_BUFFER_POOL_SIZE = 256;
+  // Total size of the direct buffers responses are serialized into, past
+  // which heap buffers are used
+  private static final String RESPONSE_BUFFER_MAX_DIRECT_SIZE =
+    "ipc.server.response.buffer.max.direct.size";
+  private static final long DEFAULT_RESPONSE_BUFFER_MAX_DIRECT_SIZE =
+    64 * 1024 * 1024;
+  final ByteBufferPool responseBufferPool;
+
   volatile protected boolean running = true;         // true while server runs
-  protected BlockingQueue<RawCall> callQueue; // queued calls
+  // queued calls of each priority, null for the priorities without handlers
+  protected BlockingQueue<RawCall>[] callQueues;
+  // whether calls are parsed and classified before they are queued
+  private boolean prioritizeCalls;
 
   protected final List<Connection> connectionList =
     Collections.synchronizedList(new LinkedList<Connection>());
@@ -234,7 +267,10 @@ public abstract class HBaseServer {
     protected Connection connection;              // connection to client
     protected long timestamp;      // the time received when response is null
                                    // the time served when response is not null
-    protected ByteBuffer response;                // the response for this call
+    protected ByteBuffer[] response;              // the response for this call
+    protected long responseSize;                  // total size of the response
+    protected ByteBufferPool responsePool;        // where the response buffers
+                                                  // go once sent
     protected Compression.Algorithm compressionAlgo =
       Compression.Algorithm.NONE;
     protected int version = CURRENT_VERSION;     // version used for the call
@@ -291,7 +327,38 @@ public abstract class HBaseServer {
     }
 
     public void setResponse(ByteBuffer response) {
+      setResponse(new ByteBuffer[] {response}, null);
+    }
+
+    /**
+     * @param response the buffers holding the response, in order
+     * @param pool the pool the buffers go back to once the response is sent,
+     *        or null
+     */
+    public void setResponse(ByteBuffer[] response, ByteBufferPool pool) {
       this.response = response;
+      this.responsePool = pool;
+      this.responseSize = 0;
+      for (ByteBuffer buffer : response) {
+        this.responseSize += buffer.remaining();
+      }
+    }
+
+    boolean hasRemainingResponse() {
+      for (ByteBuffer buffer : response) {
+        if (buffer.hasRemaining()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Gives the response buffers back once they are sent or dropped. */
+    void releaseResponse() {
+      if (responsePool != null) {
+        responsePool.putbackBuffers(response);
+        responsePool = null;
+      }
     }
 
     public ProfilingData getProfilingData(){
@@ -466,7 +533,7 @@ public abstract class HBaseServer {
         if (LOG.isTraceEnabled())
           LOG.trace("Server connection from " + c.toString() +
               "; # active connections: " + numConnections +
-              "; # queued calls: " + callQueue.size());
+              "; # queued calls: " + getCallQueueLen());
       }
     }
 
@@ -627,6 +694,8 @@ public abstract class HBaseServer {
     @Override
     public void run() {
       LOG.info(this.getName() + " started");
+      // Prioritized calls are parsed here
+      SERVER.set(HBaseServer.this);
       SelectionKey key = null;
       while(running) {
         try{
@@ -843,15 +912,16 @@ public abstract class HBaseServer {
           //
           // Send as much data as we can in the non-blocking fashion
           //
-          int numBytes = channelWrite(channel, call.response);
+          long numBytes = channelWrite(channel, call.response);
           if (numBytes < 0) {
             // Error flag is set, so returning here closes connection and
             // clears responseQueue.
             return true;
           }
-          if (!call.response.hasRemaining()) {
+          if (!call.hasRemainingResponse()) {
             responseQueue.poll();
-            responseQueuesSizeThrottler.decrease(call.response.limit());
+            responseQueuesSizeThrottler.decrease(call.responseSize);
+            call.releaseResponse();
             call.connection.decRpcCount();
             //noinspection RedundantIfStatement
             if (numElements == 1) {    // last call fully processes.
@@ -904,7 +974,7 @@ public abstract class HBaseServer {
     //
     void doRespond(Call call) throws IOException, InterruptedException {
       boolean closed;
-      responseQueuesSizeThrottler.increase(call.response.remaining());
+      responseQueuesSizeThrottler.increase(call.responseSize);
       synchronized (call.connection.responseQueue) {
         closed = call.connection.closed;
         if (!closed) {
@@ -918,7 +988,8 @@ public abstract class HBaseServer {
         // Connection was closed when we tried to submit response, but we
         // increased responseQueues size already. It shoud be
         // decreased here.
-        responseQueuesSizeThrottler.decrease(call.response.remaining());
+        responseQueuesSizeThrottler.decrease(call.responseSize);
+        call.releaseResponse();
       }
     }
 
@@ -941,12 +1012,14 @@ public abstract class HBaseServer {
   /**
    * This class is used to delay parsing of incomming requests. It is a storage for
    * ByteBuffer and timestamp. To parse raw ByteBuffer to get Call object with timestamp
-   * equal to read time, just call parse method.
+   * equal to read time, just call parse method. Calls that are prioritized
+   * are parsed before they are queued, and keep the parsed Call.
    */
   private class RawCall {
     private final ByteBuffer data;
     private final Connection connection;
     private final long timestamp; // When RawCall was created;
+    private Call call;
 
     public RawCall(Connection connection, ByteBuffer data){
       this.connection = connection;
@@ -954,7 +1027,14 @@ public abstract class HBaseServer {
       this.timestamp = System.currentTimeMillis();
     }
 
-    public Call parse() throws IOException{
+    public Call parse() throws IOException {
+      if (call == null) {
+        call = readCall();
+      }
+      return call;
+    }
+
+    private Call readCall() throws IOException {
       DataInputStream uncompressedIs =
           new DataInputStream(new ByteArrayInputStream(data.array()));
       Compression.Algorithm txCompression = Algorithm.NONE;
@@ -1159,9 +1239,24 @@ public abstract class HBaseServer {
 
     private void queueRawCall() throws InterruptedException {
       callQueueThrottler.increase(data.limit());
+      RawCall rawCall = new RawCall(this, data);
+      CallPriority priority = CallPriority.NORMAL;
+      if (prioritizeCalls) {
+        try {
+          priority = getQueuePriority(getCallPriority(rawCall.parse().param));
+        } catch (Exception e) {
+          // The handler would have dropped the call the same way
+          LOG.warn("Could not parse call from " + this + ": " +
+              StringUtils.stringifyException(e));
+          callQueueThrottler.decrease(data.limit());
+          return;
+        }
+      }
+      BlockingQueue<RawCall> callQueue = callQueues[priority.ordinal()];
       try {
         // queue the call
-        callQueue.put(new RawCall(this, data));
+        callQueue.put(rawCall);
+        rpcMetrics.setCallQueueLen(priority, callQueue.size());
       } catch (InterruptedException e)  {
         callQueueThrottler.decrease(data.limit());
       }
@@ -1191,14 +1286,19 @@ public abstract class HBaseServer {
     }
   }
 
-  /** Handles queued calls . */
+  /** Handles queued calls of a priority. */
   private class Handler extends HasThread {
-    static final int BUFFER_INITIAL_SIZE = 1024;
     private MonitoredRPCHandler status;
+    private final CallPriority priority;
+    private final BlockingQueue<RawCall> callQueue;
 
-    public Handler(int instanceNumber) {
+    public Handler(int instanceNumber, CallPriority priority) {
       this.setDaemon(true);
-      String name = "IPC Server handler "+ instanceNumber + " on " + port;
+      this.priority = priority;
+      this.callQueue = callQueues[priority.ordinal()];
+      String name = "IPC Server " + (priority == CallPriority.NORMAL ? "" :
+          priority.toString().toLowerCase() + " priority ") + "handler " +
+          instanceNumber + " on " + port;
       this.setName(name);
       this.status = TaskMonitor.get().createRPCStatus(name);
     }
@@ -1214,6 +1314,9 @@ public abstract class HBaseServer {
           status.pause("Waiting for a call");
           RawCall rawCall = callQueue.take(); // pop the queue; maybe blocked here
           callQueueThrottler.decrease(rawCall.data.limit());
+          rpcMetrics.setCallQueueLen(priority, callQueue.size());
+          rpcMetrics.incCallQueueTime(priority,
+              System.currentTimeMillis() - rawCall.timestamp);
           Call call = rawCall.parse();
           status.setStatus("Setting up call");
           status.setConnection(call.connection.getHostAddress(),
@@ -1257,7 +1360,6 @@ public abstract class HBaseServer {
           }
           HRegionServer.callContext.remove();
 
-          int size = BUFFER_INITIAL_SIZE;
           if (value instanceof WritableWithSize) {
             // get the size hint.
             WritableWithSize ohint = (WritableWithSize)value;
@@ -1270,12 +1372,13 @@ public abstract class HBaseServer {
                     new IOException("Result buffer size too large: " + hint);
                 errorClass = ioe.getClass().getName();
                 error = StringUtils.stringifyException(ioe);
-              } else {
-                size = ((int)hint);
               }
             }
           }
-          ByteBufferOutputStream buf = new ByteBufferOutputStream(size);
+          // The response is serialized straight into pooled buffers that
+          // the Responder writes to the socket
+          ByteBufferChainOutputStream buf =
+            new ByteBufferChainOutputStream(responseBufferPool);
           DataOutputStream rawOS = new DataOutputStream(buf);
           DataOutputStream out = rawOS;
           Compressor compressor = null;
@@ -1318,7 +1421,7 @@ public abstract class HBaseServer {
 
           out.flush();
           buf.flush();
-          call.setResponse(buf.getByteBuffer());
+          call.setResponse(buf.getByteBuffers(), responseBufferPool);
           responder.doRespond(call);
           if (compressor != null) {
             call.getRPCCompression().returnCompressor(compressor);
@@ -1356,7 +1459,8 @@ public abstract class HBaseServer {
   }
   /* Constructs a server listening on the named port and address.  Parameters passed must
    * be of the named class.  The <code>handlerCount</handlerCount> determines
-   * the number of handler threads that will be used to process calls.
+   * the number of handler threads that will be used to process normal calls,
+   * the handlers of high priority and bulk calls are configured apart.
    *
    */
   protected HBaseServer(String bindAddress, int port,
@@ -1367,9 +1471,16 @@ public abstract class HBaseServer {
     this.conf = conf;
     this.port = port;
     this.paramClass = paramClass;
-    this.handlerCount = handlerCount;
+    this.handlerCounts = new int[CallPriority.values().length];
+    this.handlerCounts[CallPriority.HIGH.ordinal()] = conf.getInt(
+        HIGH_PRIORITY_HANDLER_COUNT, DEFAULT_HIGH_PRIORITY_HANDLER_COUNT);
+    this.handlerCounts[CallPriority.NORMAL.ordinal()] = handlerCount;
+    this.handlerCounts[CallPriority.BULK.ordinal()] = conf.getInt(
+        BULK_HANDLER_COUNT, DEFAULT_BULK_HANDLER_COUNT);
     this.socketSendBufferSize = 0;
-    this.callQueue  = new LinkedBlockingQueue<RawCall>();
+    this.callQueues = createCallQueues(handlerCounts);
+    this.prioritizeCalls = callQueues[CallPriority.HIGH.ordinal()] != null ||
+      callQueues[CallPriority.BULK.ordinal()] != null;
     callQueueThrottler = new SizeBasedThrottler(MAX_CALL_QUEUE_MEMORY_SIZE);
     this.maxIdleTime = 2*conf.getInt("ipc.client.connection.maxidletime", 1000);
     this.maxConnectionsToNuke = conf.getInt("ipc.client.kill.max", 10);
@@ -1385,11 +1496,46 @@ public abstract class HBaseServer {
 
     this.responseQueuesSizeThrottler = new SizeBasedThrottler(
         conf.getLong(RESPONSE_QUEUES_MAX_SIZE, DEFAULT_RESPONSE_QUEUES_MAX_SIZE));
+    this.responseBufferPool = new ByteBufferPool(NIO_BUFFER_LIMIT,
+        conf.getInt(RESPONSE_BUFFER_POOL_SIZE, DEFAULT_RESPONSE_BUFFER_POOL_SIZE),
+        conf.getLong(RESPONSE_BUFFER_MAX_DIRECT_SIZE,
+            DEFAULT_RESPONSE_BUFFER_MAX_DIRECT_SIZE));
 
     // Create the responder here
     responder = new Responder();
   }
 
+  @SuppressWarnings("unchecked")
+  private static BlockingQueue<RawCall>[] createCallQueues(int[] handlerCounts) {
+    BlockingQueue<RawCall>[] queues =
+      new BlockingQueue[CallPriority.values().length];
+    for (CallPriority priority : CallPriority.values()) {
+      if (priority == CallPriority.NORMAL ||
+          handlerCounts[priority.ordinal()] > 0) {
+        queues[priority.ordinal()] = new LinkedBlockingQueue<RawCall>();
+      }
+    }
+    return queues;
+  }
+
+  /**
+   * @return the priority whose queue the calls of the given priority go to
+   */
+  private CallPriority getQueuePriority(CallPriority priority) {
+    return callQueues[priority.ordinal()] != null ?
+        priority : CallPriority.NORMAL;
+  }
+
+  /**
+   * Classifies a call before it is queued. Only called when some calls have
+   * handlers apart from the normal ones.
+   * @param param the deserialized parameter of the call
+   * @return the priority of the call, {@link CallPriority#NORMAL} by default
+   */
+  protected CallPriority getCallPriority(Writable param) {
+    return CallPriority.NORMAL;
+  }
+
   protected void closeConnection(Connection connection) {
     synchronized (connectionList) {
       if (connectionList.remove(connection))
@@ -1400,7 +1546,8 @@ public abstract class HBaseServer {
     long bytes = 0;
     synchronized (connection.responseQueue) {
       for (Call c : connection.responseQueue) {
-        bytes += c.response.limit();
+        bytes += c.responseSize;
+        c.releaseResponse();
       }
       connection.responseQueue.clear();
     }
@@ -1416,11 +1563,18 @@ public abstract class HBaseServer {
   public synchronized void start() {
     responder.start();
     listener.start();
+    int handlerCount = 0;
+    for (int count : handlerCounts) {
+      handlerCount += count;
+    }
     handlers = new Handler[handlerCount];
 
-    for (int i = 0; i < handlerCount; i++) {
-      handlers[i] = new Handler(i);
-      handlers[i].start();
+    int i = 0;
+    for (CallPriority priority : CallPriority.values()) {
+      for (int j = 0; j < handlerCounts[priority.ordinal()]; j++, i++) {
+        handlers[i] = new Handler(j, priority);
+        handlers[i].start();
+      }
     }
   }
 
@@ -1429,7 +1583,7 @@ public abstract class HBaseServer {
     LOG.info("Stopping server on " + port);
     running = false;
     if (handlers != null) {
-      for (int i = 0; i < handlerCount; i++) {
+      for (int i = 0; i < handlers.length; i++) {
         if (handlers[i] != null) {
           handlers[i].interrupt();
         }
@@ -1486,7 +1640,13 @@ public abstract class HBaseServer {
    * @return The number of rpc calls in the queue.
    */
   public int getCallQueueLen() {
-    return callQueue.size();
+    int len = 0;
+    for (BlockingQueue<RawCall> callQueue : callQueues) {
+      if (callQueue != null) {
+        len += callQueue.size();
+      }
+    }
+    return len;
   }
 
   /**
@@ -1524,6 +1684,46 @@ public abstract class HBaseServer {
            channel.write(buffer) : channelIO(null, channel, buffer);
   }
 
+  /**
+   * Writes the remaining bytes of a response held in several buffers. Direct
+   * buffers are gathered into a single write. Heap buffers are written one at
+   * a time through {@link #channelWrite(WritableByteChannel, ByteBuffer)}, so
+   * the jdk does not copy all of them into temporary direct buffers at once.
+   *
+   * @param channel gathering byte channel to write to
+   * @param buffers buffers to write, in order
+   * @return number of bytes written
+   * @throws java.io.IOException e
+   * @see GatheringByteChannel#write(ByteBuffer[], int, int)
+   */
+  protected static long channelWrite(GatheringByteChannel channel,
+                                     ByteBuffer[] buffers) throws IOException {
+    int first = 0;
+    while (first < buffers.length && !buffers[first].hasRemaining()) {
+      first++;
+    }
+    boolean direct = true;
+    for (int i = first; i < buffers.length && direct; i++) {
+      direct = buffers[i].isDirect();
+    }
+    if (direct) {
+      return first == buffers.length ? 0 :
+        channel.write(buffers, first, buffers.length - first);
+    }
+    long written = 0;
+    for (int i = first; i < buffers.length; i++) {
+      int ret = channelWrite(channel, buffers[i]);
+      if (ret < 0) {
+        return written > 0 ? written : ret;
+      }
+      written += ret;
+      if (buffers[i].hasRemaining()) {
+        break;
+      }
+    }
+    return written;
+  }
+
   /**
    * This is a wrapper around {@link ReadableByteChannel#read(ByteBuffer)}.
    * If the amount of data is large, it writes to channel in smaller chunks.
@@ -0,0 +1,390 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.mapreduce;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * Bulk imports KeyValues into an existing table without running a
+ * MapReduce job.
+ * <p>
+ * The KeyValues may be written in any order. They are buffered in memory
+ * and, whenever the buffer is full, sorted and spilled into one sorted run
+ * per family under a staging directory. When the writer is closed, the runs
+ * of each family are merged into one HFile per region, written with the
+ * compression, data block encoding and bloom filter of the family, so that
+ * every spill does not leave a small HFile in every region. A family that
+ * never spilled is written straight from the buffer. The HFiles are then
+ * handed to the region servers by {@link LoadIncrementalHFiles}, which
+ * splits again the HFiles of the regions that split in the meantime.
+ * <p>
+ * As with any bulk load, the KeyValues skip the write-ahead log and become
+ * visible only once the writer is closed. This class is not thread safe.
+ */
+public class BulkImportWriter implements Closeable {
+  private static final Log LOG = LogFactory.getLog(BulkImportWriter.class);
+
+  /** Size of the KeyValues buffered in memory before they are spilled */
+  public static final String BUFFER_SIZE_KEY = "hbase.bulkimport.buffer.size";
+  public static final long DEFAULT_BUFFER_SIZE = 64 * 1024 * 1024;
+
+  /** Name of the directory of the sorted runs, under the staging directory */
+  private static final String RUNS_DIR = "_runs";
+
+  private final Configuration conf;
+  private final HTable table;
+  private final HTableDescriptor tableDesc;
+  private final Path stagingDir;
+  private final FileSystem fs;
+  private final CacheConfig cacheConf;
+  private final long maxBufferSize;
+  private final byte[] now = Bytes.toBytes(System.currentTimeMillis());
+
+  /** KeyValues waiting to be spilled, by family */
+  private final Map<byte[], List<KeyValue>> buffers =
+    new TreeMap<byte[], List<KeyValue>>(Bytes.BYTES_COMPARATOR);
+  private long bufferSize = 0;
+  /** The sorted runs spilled so far, by family, oldest first */
+  private final Map<byte[], List<Path>> runs =
+    new TreeMap<byte[], List<Path>>(Bytes.BYTES_COMPARATOR);
+  private boolean closed = false;
+
+  /**
+   * @param table the table to import into
+   * @param stagingDir a directory that does not exist yet, preferably on the
+   *          file system of the cluster, to write the HFiles into
+   */
+  public BulkImportWriter(HTable table, Path stagingDir) throws IOException {
+    this.conf = table.getConfiguration();
+    this.table = table;
+    this.tableDesc = table.getTableDescriptor();
+    this.fs = stagingDir.getFileSystem(conf);
+    this.stagingDir = stagingDir.makeQualified(fs);
+    this.cacheConf = new CacheConfig(conf);
+    this.maxBufferSize = conf.getLong(BUFFER_SIZE_KEY, DEFAULT_BUFFER_SIZE);
+
+    if (fs.exists(this.stagingDir)) {
+      throw new IOException("Staging directory " + this.stagingDir +
+          " already exists");
+    }
+    if (!fs.mkdirs(this.stagingDir)) {
+      throw new IOException("Could not create " + this.stagingDir);
+    }
+  }
+
+  /**
+   * Adds a KeyValue to the import. KeyValues with the latest timestamp get
+   * the time the writer was created.
+   */
+  public void write(KeyValue kv) throws IOException {
+    if (closed) {
+      throw new IOException("Writer to " + stagingDir + " is closed");
+    }
+    byte[] family = kv.getFamily();
+    List<KeyValue> buffer = buffers.get(family);
+    if (buffer == null) {
+      if (!tableDesc.hasFamily(family)) {
+        throw new NoSuchColumnFamilyException("Column family " +
+            Bytes.toString(family) + " does not exist in table " +
+            tableDesc.getNameAsString());
+      }
+      buffer = new ArrayList<KeyValue>();
+      buffers.put(family, buffer);
+    }
+    kv.updateLatestStamp(now);
+    buffer.add(kv);
+    bufferSize += kv.heapSize() + ClassSize.REFERENCE;
+    if (bufferSize >= maxBufferSize) {
+      flush();
+    }
+  }
+
+  /** Adds the KeyValues of a put to the import. */
+  public void write(Put put) throws IOException {
+    for (List<KeyValue> kvs : put.getFamilyMap().values()) {
+      for (KeyValue kv : kvs) {
+        write(kv);
+      }
+    }
+  }
+
+  /**
+   * Sorts the buffered KeyValues and spills them into one sorted run per
+   * family, to be merged when the writer is closed.
+   */
+  public void flush() throws IOException {
+    if (bufferSize == 0) {
+      return;
+    }
+    int numRuns = 0;
+    for (Map.Entry<byte[], List<KeyValue>> entry : buffers.entrySet()) {
+      List<KeyValue> kvs = entry.getValue();
+      if (kvs.isEmpty()) {
+        continue;
+      }
+      Collections.sort(kvs, KeyValue.COMPARATOR);
+      spill(entry.getKey(), kvs);
+      kvs.clear();
+      numRuns++;
+    }
+    if (numRuns > 0) {
+      LOG.info("Spilled " + numRuns + " sorted runs under " + stagingDir);
+    }
+    bufferSize = 0;
+  }
+
+  /** Writes sorted KeyValues of one family into a new run. */
+  private void spill(byte[] family, List<KeyValue> kvs) throws IOException {
+    HColumnDescriptor familyDesc = tableDesc.getFamily(family);
+    Path runDir = new Path(new Path(stagingDir, RUNS_DIR),
+        Bytes.toString(family));
+    if (!fs.exists(runDir)) {
+      fs.mkdirs(runDir);
+    }
+    // Only read back by the merge, so neither encoded nor bloom filtered
+    StoreFile.Writer writer = new StoreFile.WriterBuilder(conf, cacheConf, fs,
+        familyDesc.getBlocksize())
+            .withOutputDir(runDir)
+            .withCompression(familyDesc.getCompression())
+            .build();
+    try {
+      for (KeyValue kv : kvs) {
+        writer.append(kv);
+      }
+    } finally {
+      writer.close();
+    }
+    List<Path> familyRuns = runs.get(family);
+    if (familyRuns == null) {
+      familyRuns = new ArrayList<Path>();
+      runs.put(family, familyRuns);
+    }
+    familyRuns.add(writer.getPath());
+  }
+
+  /**
+   * Merges the runs of one family into one HFile per region.
+   * @return the number of HFiles written
+   */
+  private int merge(byte[] family, List<Path> familyRuns, byte[][] startKeys)
+  throws IOException {
+    List<Run> openRuns = new ArrayList<Run>(familyRuns.size());
+    PriorityQueue<Run> heap = new PriorityQueue<Run>(familyRuns.size());
+    RegionFileWriter writer = new RegionFileWriter(family, startKeys);
+    try {
+      for (Path path : familyRuns) {
+        Run run = new Run(openRuns.size(), HFile.createReader(fs, path,
+            cacheConf));
+        openRuns.add(run);
+        if (run.seekTo()) {
+          heap.add(run);
+        }
+      }
+      while (!heap.isEmpty()) {
+        Run run = heap.poll();
+        writer.append(run.current);
+        if (run.next()) {
+          heap.add(run);
+        }
+      }
+    } finally {
+      for (Run run : openRuns) {
+        run.close();
+      }
+      writer.close();
+    }
+    return writer.numFiles;
+  }
+
+  /** A sorted run being merged, positioned on its next KeyValue. */
+  private static class Run implements Comparable<Run> {
+    private final int index;
+    private final HFile.Reader reader;
+    private HFileScanner scanner;
+    private KeyValue current;
+
+    Run(int index, HFile.Reader reader) {
+      this.index = index;
+      this.reader = reader;
+    }
+
+    boolean seekTo() throws IOException {
+      reader.loadFileInfo();
+      scanner = reader.getScanner(false, false);
+      return advance(scanner.seekTo());
+    }
+
+    boolean next() throws IOException {
+      return advance(scanner.next());
+    }
+
+    private boolean advance(boolean hasNext) {
+      current = hasNext ? scanner.getKeyValue() : null;
+      return hasNext;
+    }
+
+    void close() throws IOException {
+      reader.close(false);
+    }
+
+    @Override
+    public int compareTo(Run other) {
+      int comp = KeyValue.COMPARATOR.compare(current, other.current);
+      // Equal KeyValues keep the order they were written in
+      return comp != 0 ? comp : index - other.index;
+    }
+  }
+
+  /**
+   * Writes sorted KeyValues of one family into one HFile per region, split
+   * on the given region boundaries.
+   */
+  private class RegionFileWriter {
+    private final HColumnDescriptor familyDesc;
+    private final Path familyDir;
+    private final byte[][] startKeys;
+    private StoreFile.Writer writer = null;
+    // The start key of the next region, empty for the last region
+    private byte[] endKey = null;
+    int numFiles = 0;
+
+    RegionFileWriter(byte[] family, byte[][] startKeys) throws IOException {
+      this.familyDesc = tableDesc.getFamily(family);
+      this.familyDir = new Path(stagingDir, Bytes.toString(family));
+      this.startKeys = startKeys;
+      if (!fs.exists(familyDir)) {
+        fs.mkdirs(familyDir);
+      }
+    }
+
+    void append(KeyValue kv) throws IOException {
+      if (writer == null || (endKey.length > 0 &&
+          Bytes.compareTo(kv.getBuffer(), kv.getRowOffset(),
+              kv.getRowLength(), endKey, 0, endKey.length) >= 0)) {
+        close();
+        int region = getRegionIndex(startKeys, kv);
+        endKey = region + 1 < startKeys.length ?
+            startKeys[region + 1] : HConstants.EMPTY_END_ROW;
+        writer = LoadIncrementalHFiles.createStoreFileWriter(conf, fs,
+            cacheConf, familyDesc, StoreFile.getUniqueFile(fs, familyDir));
+        numFiles++;
+      }
+      writer.append(kv);
+    }
+
+    void close() throws IOException {
+      if (writer != null) {
+        writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY,
+            Bytes.toBytes(System.currentTimeMillis()));
+        // Same metadata as HFileOutputFormat
+        writer.appendMetadata(HConstants.NO_MIN_FLUSH_TIME, 0, false);
+        writer.close();
+        writer = null;
+      }
+    }
+  }
+
+  /**
+   * @return the index of the region, among the given start keys, that the
+   *         row of the KeyValue belongs to
+   */
+  static int getRegionIndex(byte[][] startKeys, KeyValue kv) {
+    int index = Bytes.binarySearch(startKeys, kv.getBuffer(),
+        kv.getRowOffset(), kv.getRowLength(), Bytes.BYTES_RAWCOMPARATOR);
+    // Between two start keys, the row belongs to the region of the lower one
+    return index >= 0 ? index : -(index + 1) - 1;
+  }
+
+  /**
+   * Merges the spilled runs and the remaining KeyValues into one HFile per
+   * region and family, loads them into the table and deletes the staging
+   * directory.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    byte[][] startKeys = table.getStartKeys();
+    int numFiles = 0;
+    for (Map.Entry<byte[], List<KeyValue>> entry : buffers.entrySet()) {
+      List<KeyValue> kvs = entry.getValue();
+      if (kvs.isEmpty() || runs.containsKey(entry.getKey())) {
+        continue;
+      }
+      // Nothing to merge with, write the buffer straight into the regions
+      Collections.sort(kvs, KeyValue.COMPARATOR);
+      RegionFileWriter writer = new RegionFileWriter(entry.getKey(),
+          startKeys);
+      try {
+        for (KeyValue kv : kvs) {
+          writer.append(kv);
+        }
+      } finally {
+        writer.close();
+      }
+      numFiles += writer.numFiles;
+      kvs.clear();
+    }
+    // The rest is added to the runs of its family
+    flush();
+    for (Map.Entry<byte[], List<Path>> entry : runs.entrySet()) {
+      numFiles += merge(entry.getKey(), entry.getValue(), startKeys);
+    }
+    closed = true;
+    fs.delete(new Path(stagingDir, RUNS_DIR), true);
+    LOG.info("Wrote " + numFiles + " HFiles under " + stagingDir);
+
+    // The loader moves or copies the HFiles into the regions. A copy leaves
+    // the source behind, so its result tells whether the load succeeded.
+    if (numFiles > 0
+        && !new LoadIncrementalHFiles(conf).doBulkLoad(stagingDir, table)) {
+      throw new IOException("Some HFiles could not be loaded, they are " +
+          "left under " + stagingDir);
+    }
+    fs.delete(stagingDir, true);
+  }
+}
@@ -21,10 +21,17 @@ package org.apache.hadoop.hbase.mapreduce;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Deque;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -55,6 +62,7 @@ import org.apache.hadoop.hbase.io.hfile.HFileScanner;
 import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.regionserver.StoreFile.BloomType;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.DaemonThreadFactory;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
@@ -74,10 +82,14 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
   public static String EXIT_ON_FIRST_FAILURE = "hbase.mapreduce.bulkload.failure.exitOnFirst";
   private boolean exitOnFirstFailure;
 
+  public static String LOAD_THREADS = "hbase.mapreduce.bulkload.threads";
+  private int numThreads;
+
   public LoadIncrementalHFiles(Configuration conf) {
     super(conf);
     assignSeqIds = conf.getBoolean(ASSIGN_SEQ_IDS, true);
     exitOnFirstFailure = conf.getBoolean(EXIT_ON_FIRST_FAILURE, true);
+    numThreads = conf.getInt(LOAD_THREADS, 1);
   }
 
   public LoadIncrementalHFiles() {
@@ -127,7 +139,8 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
       throw new FileNotFoundException("No families found in " + hfofDir);
     }
 
-    Deque<LoadQueueItem> ret = new LinkedList<LoadQueueItem>();
+    // Split halves are added back by the loading threads
+    Deque<LoadQueueItem> ret = new LinkedBlockingDeque<LoadQueueItem>();
     for (FileStatus stat : familyDirStatuses) {
       if (!stat.isDir()) {
         LOG.warn("Skipping non-directory " + stat.getPath());
@@ -152,9 +165,11 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
    * @param hfofDir the directory that was provided as the output path
    * of a job using HFileOutputFormat
    * @param table the table to load into
+   * @return true if every HFile was loaded, false if some failed and
+   * {@link #EXIT_ON_FIRST_FAILURE} is off
    * @throws TableNotFoundException if table does not yet exist
    */
-  public void doBulkLoad(Path hfofDir, HTable table)
+  public boolean doBulkLoad(Path hfofDir, HTable table)
     throws TableNotFoundException, IOException
   {
     HConnection conn = table.getConnection();
@@ -169,6 +184,9 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
     ArrayList<LoadQueueItem>  failedItems = new ArrayList<LoadQueueItem>();
     try {
       queue = discoverLoadQueue(hfofDir);
+      if (numThreads > 1) {
+        loadInParallel(queue, conn, table.getTableName(), failedItems);
+      }
       while (!queue.isEmpty()) {
         LoadQueueItem item = queue.remove();
         try {
@@ -202,6 +220,67 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
         LOG.error(err);
       }
     }
+    return failedItems.isEmpty();
+  }
+
+  /**
+   * Loads the queued HFiles using several threads, in rounds. The halves of
+   * the HFiles split during one round are loaded by the next round, until
+   * the queue is empty.
+   */
+  private void loadInParallel(final Deque<LoadQueueItem> queue,
+      final HConnection conn, final byte[] table,
+      List<LoadQueueItem> failedItems) throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads,
+        new DaemonThreadFactory("LoadIncrementalHFiles-" +
+            Bytes.toString(table) + "-"));
+    try {
+      while (!queue.isEmpty()) {
+        List<LoadQueueItem> round = new ArrayList<LoadQueueItem>();
+        for (LoadQueueItem item = queue.poll(); item != null;
+            item = queue.poll()) {
+          round.add(item);
+        }
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(round.size());
+        for (final LoadQueueItem item : round) {
+          futures.add(pool.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+              tryLoad(item, conn, table, queue);
+              return null;
+            }
+          }));
+        }
+
+        IOException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+          LoadQueueItem item = round.get(i);
+          try {
+            futures.get(i).get();
+          } catch (InterruptedException e) {
+            // Leave the rest of the round in the queue for the error report
+            for (int j = i; j < round.size(); j++) {
+              queue.add(round.get(j));
+            }
+            InterruptedIOException iie = new InterruptedIOException(
+                "Interrupted while loading " + item.hfilePath);
+            iie.initCause(e);
+            throw iie;
+          } catch (ExecutionException e) {
+            LOG.error("Caught exception while processing " + item.hfilePath,
+                e.getCause());
+            failedItems.add(item);
+            if (failure == null) {
+              failure = e.getCause() instanceof IOException ?
+                  (IOException) e.getCause() : new IOException(e.getCause());
+            }
+          }
+        }
+        // The other files of the round have been loaded by now
+        if (failure != null && exitOnFirstFailure) throw failure;
+      }
+    } finally {
+      pool.shutdownNow();
+    }
   }
 
   /**
@@ -252,8 +331,11 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
                 "region. Splitting...");
 
             HColumnDescriptor familyDesc = hri.getTableDesc().getFamily(item.family);
-            Path botOut = new Path(tmpDir, hri.getEncodedName() + ".bottom");
-            Path topOut = new Path(tmpDir, hri.getEncodedName() + ".top");
+            // Name the halves after the file too, other threads may be
+            // splitting another file on the same region
+            String prefix = hfilePath.getName() + "." + hri.getEncodedName();
+            Path botOut = new Path(tmpDir, prefix + ".bottom");
+            Path topOut = new Path(tmpDir, prefix + ".top");
             splitStoreFile(getConf(), hfilePath, familyDesc, hri.getEndKey(),
                 botOut, topOut);
 
@@ -300,27 +382,13 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
     CacheConfig cacheConf = new CacheConfig(conf);
     HalfStoreFileReader halfReader = null;
     StoreFile.Writer halfWriter = null;
-    HFileDataBlockEncoder dataBlockEncoder = new HFileDataBlockEncoderImpl(
-        familyDescriptor.getDataBlockEncodingOnDisk(),
-        familyDescriptor.getDataBlockEncoding());
     try {
       halfReader = new HalfStoreFileReader(fs, inFile, cacheConf,
           reference, DataBlockEncoding.NONE);
       Map<byte[], byte[]> fileInfo = halfReader.loadFileInfo();
 
-      int blocksize = familyDescriptor.getBlocksize();
-      Algorithm compression = familyDescriptor.getCompression();
-      BloomType bloomFilterType = familyDescriptor.getBloomFilterType();
-      float err = familyDescriptor.getBloomFilterErrorRate();
-
-      halfWriter = new StoreFile.WriterBuilder(conf, cacheConf,
-          fs, blocksize)
-              .withFilePath(outFile)
-              .withCompression(compression)
-              .withDataBlockEncoder(dataBlockEncoder)
-              .withBloomType(bloomFilterType)
-              .withBloomErrorRate(err)
-              .build();
+      halfWriter = createStoreFileWriter(conf, fs, cacheConf,
+          familyDescriptor, outFile);
       HFileScanner scanner = halfReader.getScanner(false, false);
       scanner.seekTo();
       do {
@@ -339,6 +407,32 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
     }
   }
 
+  /**
+   * Creates a writer for an HFile to be loaded into the given family, with
+   * the compression, data block encoding and bloom filter of the family.
+   */
+  static StoreFile.Writer createStoreFileWriter(Configuration conf,
+      FileSystem fs, CacheConfig cacheConf, HColumnDescriptor familyDescriptor,
+      Path outFile) throws IOException {
+    HFileDataBlockEncoder dataBlockEncoder = new HFileDataBlockEncoderImpl(
+        familyDescriptor.getDataBlockEncodingOnDisk(),
+        familyDescriptor.getDataBlockEncoding());
+    int blocksize = familyDescriptor.getBlocksize();
+    Algorithm compression = familyDescriptor.getCompression();
+    BloomType bloomFilterType = familyDescriptor.getBloomFilterType();
+    float err = familyDescriptor.getBloomFilterErrorRate();
+
+    return new StoreFile.WriterBuilder(conf, cacheConf, fs, blocksize)
+        .withFilePath(outFile)
+        .withCompression(compression)
+        .withDataBlockEncoder(dataBlockEncoder)
+        .withBloomType(bloomFilterType)
+        .withBloomPrefix(familyDescriptor.getBloomFilterPrefixLength(),
+            familyDescriptor.getBloomFilterPrefixDelimiter())
+        .withBloomErrorRate(err)
+        .build();
+  }
+
   private static boolean shouldCopyHFileMetaKey(byte[] key) {
     return !HFile.isReservedFileInfoKey(key);
   }
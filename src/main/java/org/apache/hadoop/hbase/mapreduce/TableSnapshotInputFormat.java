@@ -0,0 +1,375 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.ServerCallable;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreFileRegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Reads a table straight from its store files, without going through the
+ * region servers.
+ * <p>
+ * When the splits are computed, each region is flushed and asked for the
+ * list of its store files, which is a consistent view of the region. The
+ * map tasks then read these files from the file system and merge the
+ * versions and deletes themselves, so that analytics jobs neither take the
+ * handlers nor churn the block cache of the region servers.
+ * <p>
+ * The store files are not pinned: a file compacted away before its task
+ * reads it is replaced by the files the region has at that time, which hold
+ * the same cells plus the ones flushed since. The table and the scan are
+ * configured as for {@link TableInputFormat}.
+ */
+public class TableSnapshotInputFormat
+extends InputFormat<ImmutableBytesWritable, Result> implements Configurable {
+
+  private static final Log LOG =
+    LogFactory.getLog(TableSnapshotInputFormat.class);
+
+  /** Set to false to list the store files without flushing the regions. */
+  public static final String FLUSH_REGIONS = "hbase.mapreduce.snapshot.flush";
+
+  /** The configuration. */
+  private Configuration conf = null;
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public void setConf(Configuration configuration) {
+    this.conf = configuration;
+  }
+
+  /**
+   * Lists the store files of the regions in the range of the scan, one split
+   * per region.
+   *
+   * @param context  The current job context.
+   * @return The list of input splits.
+   * @throws IOException When listing the store files fails.
+   */
+  @Override
+  public List<InputSplit> getSplits(JobContext context) throws IOException {
+    Configuration jobConf = context.getConfiguration();
+    HTable table = new HTable(HBaseConfiguration.create(jobConf),
+        jobConf.get(TableInputFormat.INPUT_TABLE));
+    Scan scan = TableInputFormat.createScan(jobConf);
+    final boolean flush = jobConf.getBoolean(FLUSH_REGIONS, true);
+    final byte[][] families = scan.hasFamilies() ?
+        scan.getFamilies() : null;
+    HConnection conn = table.getConnection();
+    FileSystem fs = FSUtils.getRootDir(jobConf).getFileSystem(jobConf);
+
+    List<InputSplit> splits = new ArrayList<InputSplit>();
+    byte[] row = scan.getStartRow();
+    byte[] stopRow = scan.getStopRow();
+    do {
+      // Locates the region holding the row again if it moved or split
+      Pair<HRegionLocation, List<String>> region =
+        conn.getRegionServerWithRetries(
+          new ServerCallable<Pair<HRegionLocation, List<String>>>(conn,
+              table.getTableName(), row) {
+            public Pair<HRegionLocation, List<String>> call()
+                throws IOException {
+              byte[] regionName = location.getRegionInfo().getRegionName();
+              if (flush) {
+                server.flushRegion(regionName);
+              }
+              List<String> files = families == null ?
+                  server.getStoreFileList(regionName) :
+                  server.getStoreFileList(regionName, families);
+              return new Pair<HRegionLocation, List<String>>(location, files);
+            }
+          });
+      HRegionInfo hri = region.getFirst().getRegionInfo();
+
+      long length = 0;
+      for (String file : region.getSecond()) {
+        try {
+          length += fs.getFileStatus(new Path(file)).getLen();
+        } catch (FileNotFoundException e) {
+          // Compacted away already, the task will look for its replacement
+        }
+      }
+      splits.add(new StoreFileSplit(hri,
+          region.getFirst().getServerAddress().getHostname(),
+          region.getSecond(), length));
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Split for " + hri.getRegionNameAsString() + ": " +
+            region.getSecond().size() + " store files, " + length + " bytes");
+      }
+      row = hri.getEndKey();
+    } while (row.length > 0 &&
+        (stopRow.length == 0 || Bytes.compareTo(row, stopRow) < 0));
+    return splits;
+  }
+
+  @Override
+  public RecordReader<ImmutableBytesWritable, Result> createRecordReader(
+      InputSplit split, TaskAttemptContext context) {
+    return new StoreFileRecordReader();
+  }
+
+  /**
+   * The store files of one region, and the region itself, which carries the
+   * descriptor of the table.
+   */
+  public static class StoreFileSplit extends InputSplit implements Writable {
+    private HRegionInfo regionInfo;
+    private String regionLocation;
+    private List<String> storeFiles;
+    private long length;
+
+    /** Default constructor. */
+    public StoreFileSplit() {
+      this(new HRegionInfo(), "", new ArrayList<String>(), 0);
+    }
+
+    /**
+     * @param regionInfo the region the store files belong to
+     * @param location the host serving the region
+     * @param storeFiles the paths of the store files
+     * @param length the size of the store files
+     */
+    public StoreFileSplit(HRegionInfo regionInfo, String location,
+        List<String> storeFiles, long length) {
+      this.regionInfo = regionInfo;
+      this.regionLocation = location;
+      this.storeFiles = storeFiles;
+      this.length = length;
+    }
+
+    public HRegionInfo getRegionInfo() {
+      return regionInfo;
+    }
+
+    public List<String> getStoreFiles() {
+      return storeFiles;
+    }
+
+    /**
+     * The region server is likely to have written the store files locally.
+     */
+    @Override
+    public String[] getLocations() {
+      return new String[] { regionLocation };
+    }
+
+    @Override
+    public long getLength() {
+      return length;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      regionInfo = new HRegionInfo();
+      regionInfo.readFields(in);
+      regionLocation = Bytes.toString(Bytes.readByteArray(in));
+      int numFiles = in.readInt();
+      storeFiles = new ArrayList<String>(numFiles);
+      for (int i = 0; i < numFiles; i++) {
+        storeFiles.add(Bytes.toString(Bytes.readByteArray(in)));
+      }
+      length = in.readLong();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      regionInfo.write(out);
+      Bytes.writeByteArray(out, Bytes.toBytes(regionLocation));
+      out.writeInt(storeFiles.size());
+      for (String file : storeFiles) {
+        Bytes.writeByteArray(out, Bytes.toBytes(file));
+      }
+      out.writeLong(length);
+    }
+
+    @Override
+    public String toString() {
+      return regionLocation + ":" + regionInfo.getRegionNameAsString() +
+          " (" + storeFiles.size() + " store files)";
+    }
+  }
+
+  /**
+   * Iterates over the rows of the store files of a split.
+   */
+  static class StoreFileRecordReader
+  extends RecordReader<ImmutableBytesWritable, Result> {
+    private StoreFileRegionScanner scanner = null;
+    private boolean moreRows = true;
+    private ImmutableBytesWritable key = null;
+    private Result value = null;
+
+    @Override
+    public void initialize(InputSplit inputSplit, TaskAttemptContext context)
+        throws IOException {
+      StoreFileSplit split = (StoreFileSplit) inputSplit;
+      HRegionInfo hri = split.getRegionInfo();
+      Configuration conf = new Configuration(context.getConfiguration());
+      // Each block is read once, do not allocate a block cache in the task
+      conf.setFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY, 0);
+
+      Scan scan = TableInputFormat.createScan(conf);
+      if (Bytes.compareTo(hri.getStartKey(), scan.getStartRow()) > 0) {
+        scan.setStartRow(hri.getStartKey());
+      }
+      byte[] endKey = hri.getEndKey();
+      if (endKey.length > 0 && (scan.getStopRow().length == 0 ||
+          Bytes.compareTo(endKey, scan.getStopRow()) < 0)) {
+        scan.setStopRow(endKey);
+      }
+
+      Path rootDir = FSUtils.getRootDir(conf);
+      FileSystem fs = rootDir.getFileSystem(conf);
+      HTableDescriptor htd = hri.getTableDesc();
+      Path tableDir = HTableDescriptor.getTableDir(rootDir, htd.getName());
+      scanner = new StoreFileRegionScanner(conf, fs, htd, scan,
+          getFamilyFiles(fs, tableDir, hri, split.getStoreFiles()));
+    }
+
+    /**
+     * Groups the store files by family. The families that lost one of their
+     * files to a compaction read the files they have now instead.
+     */
+    static Map<byte[], List<Path>> getFamilyFiles(FileSystem fs,
+        Path tableDir, HRegionInfo hri, List<String> storeFiles)
+    throws IOException {
+      Map<byte[], List<Path>> familyFiles =
+        new TreeMap<byte[], List<Path>>(Bytes.BYTES_COMPARATOR);
+      List<byte[]> compacted = new ArrayList<byte[]>();
+      for (String file : storeFiles) {
+        Path path = new Path(file);
+        byte[] family = Bytes.toBytes(path.getParent().getName());
+        List<Path> paths = familyFiles.get(family);
+        if (paths == null) {
+          paths = new ArrayList<Path>();
+          familyFiles.put(family, paths);
+        }
+        paths.add(path);
+        if (!fs.exists(path)) {
+          compacted.add(family);
+        }
+      }
+
+      for (byte[] family : compacted) {
+        Path familyDir = Store.getStoreHomedir(tableDir, hri.getEncodedName(),
+            family);
+        FileStatus[] files = fs.listStatus(familyDir);
+        if (files == null) {
+          throw new FileNotFoundException("Store files of " +
+              hri.getRegionNameAsString() + " were removed from " + familyDir +
+              ", the region may have split since the job was submitted");
+        }
+        LOG.warn("Some store files in " + familyDir + " were compacted " +
+            "away, reading the current ones");
+        List<Path> paths = new ArrayList<Path>();
+        for (FileStatus file : files) {
+          if (!file.isDir() && file.getLen() > 0) {
+            paths.add(file.getPath());
+          }
+        }
+        familyFiles.put(family, paths);
+      }
+      return familyFiles;
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+      if (!moreRows) {
+        return false;
+      }
+      List<KeyValue> kvs = new ArrayList<KeyValue>();
+      moreRows = scanner.next(kvs);
+      if (kvs.isEmpty()) {
+        moreRows = false;
+        return false;
+      }
+      value = new Result(kvs);
+      key = new ImmutableBytesWritable(value.getRow());
+      return true;
+    }
+
+    @Override
+    public ImmutableBytesWritable getCurrentKey() {
+      return key;
+    }
+
+    @Override
+    public Result getCurrentValue() {
+      return value;
+    }
+
+    /**
+     * The progress is not tracked, as for the table record reader.
+     */
+    @Override
+    public float getProgress() {
+      return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (scanner != null) {
+        scanner.close();
+        scanner = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.NavigableSet;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * The StoreFile scanners of one {@link Store} shared by the gets of a batch.
+ * <p>
+ * The gets are sorted by row. Before the first of them runs, the Bloom filter
+ * and time range of every StoreFile are checked for all the gets in one pass
+ * over the file, so each get only reads the files that may hold its row. The
+ * gets then take turns on a single {@link StoreFileScanner} per file, in row
+ * order. Each get still starts with a seek, but a seek that lands in the
+ * block the scanner already holds does not load it again, so keys sharing a
+ * block cost one block read.
+ * <p>
+ * If the StoreFiles change during the batch the scanners are reopened for
+ * the remaining gets. Not thread safe, a batch is run by one handler.
+ */
+class BatchedGetScanners {
+  private final Store store;
+  // The scans of the batch in row order, null for those not reading the store
+  private final Scan[] scans;
+  private final List<NavigableSet<byte[]>> columns;
+  private final long[] oldestUnexpiredTS;
+  private final boolean cacheBlocks;
+
+  private List<StoreFile> files = null;
+  private List<StoreFileScanner> scanners = null;
+  // For every file, the scans that passed its Bloom filter and time range
+  private BitSet[] passed = null;
+
+  /**
+   * @param store the store the gets read
+   * @param scans the scans of the gets, sorted by row, with null for the
+   *          gets that do not read the store
+   */
+  BatchedGetScanners(final Store store, final List<Scan> scans) {
+    this.store = store;
+    this.scans = scans.toArray(new Scan[scans.size()]);
+    this.columns = new ArrayList<NavigableSet<byte[]>>(scans.size());
+    this.oldestUnexpiredTS = new long[scans.size()];
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    boolean cache = false;
+    for (int i = 0; i < this.scans.length; i++) {
+      Scan scan = this.scans[i];
+      if (scan == null) {
+        columns.add(null);
+        continue;
+      }
+      columns.add(scan.getFamilyMap().get(store.getFamily().getName()));
+      // The same expiry StoreScanner uses for the scan
+      long currentTime = scan.getEffectiveTS() == HConstants.LATEST_TIMESTAMP ?
+          now : scan.getEffectiveTS();
+      oldestUnexpiredTS[i] = currentTime - store.ttl;
+      cache |= scan.getCacheBlocks();
+    }
+    this.cacheBlocks = cache;
+  }
+
+  /**
+   * Returns the scanners of the files the given scan may find its row in,
+   * reset for it. Must be called with the store's read lock held, and with
+   * increasing indexes.
+   * @param index the position of the scan in the batch
+   * @return the StoreFile scanners the scan should read
+   * @throws IOException
+   */
+  List<StoreFileScanner> getFileScanners(final int index) throws IOException {
+    List<StoreFile> current = store.getStorefiles();
+    if (files == null || !files.equals(current)) {
+      open(current, index);
+    }
+    List<StoreFileScanner> result = new ArrayList<StoreFileScanner>();
+    for (int i = 0; i < scanners.size(); i++) {
+      if (passed[i].get(index)) {
+        StoreFileScanner scanner = scanners.get(i);
+        scanner.resetForReuse();
+        result.add(scanner);
+      }
+    }
+    return result;
+  }
+
+  /*
+   * Opens a scanner on every file and checks the scans from the given one on
+   * against each file in turn.
+   */
+  private void open(final List<StoreFile> current, final int from)
+      throws IOException {
+    files = current;
+    scanners = StoreFileScanner.getScannersForStoreFiles(files, cacheBlocks);
+    passed = new BitSet[scanners.size()];
+    for (int i = 0; i < scanners.size(); i++) {
+      StoreFileScanner scanner = scanners.get(i);
+      passed[i] = new BitSet(scans.length);
+      for (int j = from; j < scans.length; j++) {
+        if (scans[j] != null && scanner.shouldUseScanner(scans[j],
+            columns.get(j), oldestUnexpiredTS[j])) {
+          passed[i].set(j);
+        }
+      }
+    }
+  }
+}
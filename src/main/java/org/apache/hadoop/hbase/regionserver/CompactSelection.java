@@ -47,6 +47,10 @@ public class CompactSelection {
   boolean isOffPeakCompaction = false;
   // Remember the set of expired storeFiles
 
+  // rows splitting the output into stripes, from the start row of the first
+  // stripe to the end row of the last; null if the output is not striped
+  private byte[][] stripeBoundaries = null;
+
 
   public CompactSelection(List<StoreFile> filesToCompact) {
     this.filesToCompact = filesToCompact;
@@ -100,6 +104,19 @@ public class CompactSelection {
     }
   }
   
+  /**
+   * @return the start row of the first output stripe, the rows splitting the
+   * output stripes and the end row of the last one, or null if the output
+   * of the compaction is not divided into stripes
+   */
+  byte[][] getStripeBoundaries() {
+    return stripeBoundaries;
+  }
+
+  void setStripeBoundaries(byte[][] stripeBoundaries) {
+    this.stripeBoundaries = stripeBoundaries;
+  }
+
   public boolean isOffPeakCompaction() {
     return this.isOffPeakCompaction;
   }
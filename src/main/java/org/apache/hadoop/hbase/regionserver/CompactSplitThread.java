@@ -43,6 +43,7 @@ public class CompactSplitThread {
   private final ThreadPoolExecutor largeCompactions;
   private final ThreadPoolExecutor smallCompactions;
   private final ThreadPoolExecutor splits;
+  private final CompactionThroughputController throughputController;
 
   /* The default priority for user-specified compaction requests.
    * The user gets top priority unless we have blocking compactions (Pri <= 0)
@@ -76,6 +77,14 @@ public class CompactSplitThread {
 
     this.splits = (ThreadPoolExecutor) Executors
         .newFixedThreadPool(splitThreads);
+    this.throughputController = new CompactionThroughputController(conf);
+  }
+
+  /**
+   * @return the controller shared by all compactions of this region server
+   */
+  public CompactionThroughputController getThroughputController() {
+    return throughputController;
   }
 
   @Override
@@ -39,6 +39,7 @@ import java.util.Random;
 public class CompactionManager {
 
   private static final Log LOG = LogFactory.getLog(CompactionManager.class);
+  private static final byte[][] NO_STRIPES = new byte[0][];
   private final static Calendar calendar = new GregorianCalendar();
 
   private Store store;
@@ -98,7 +99,7 @@ public class CompactionManager {
    * @return A CompactSelection contains the expired store files as
    *         filesToCompact
    */
-  private CompactSelection selectExpiredSFs
+  CompactSelection selectExpiredSFs
       (CompactSelection candidates, long maxExpiredTimeStamp) {
     if (candidates.filesToCompact == null || candidates.filesToCompact.size() == 0)
       return null;
@@ -244,31 +245,40 @@ public class CompactionManager {
           + candidates.getNumOutStandingOffPeakCompactions());
     }
 
-    // get store file sizes for incremental compacting selection.
+    // get store file sizes for incremental compacting selection. The files
+    // of a compaction split into sub-ranges are weighed as a single file,
+    // so that they are not compacted again for being small.
     int countOfFiles = candidates.getFilesToCompact().size();
-    long[] fileSizes = new long[countOfFiles];
-    long[] sumSize = new long[countOfFiles];
-    for (int i = countOfFiles - 1; i >= 0; --i) {
-      StoreFile file = candidates.getFilesToCompact().get(i);
-      fileSizes[i] = file.getReader().length();
+    List<Integer> unitStarts = getSelectionUnits(candidates.getFilesToCompact());
+    int countOfUnits = unitStarts.size();
+    long[] fileSizes = new long[countOfUnits];
+    long[] sumSize = new long[countOfUnits];
+    for (int i = countOfUnits - 1; i >= 0; --i) {
+      int unitEnd = (i + 1 < countOfUnits) ? unitStarts.get(i + 1) : countOfFiles;
+      for (int j = unitStarts.get(i); j < unitEnd; j++) {
+        fileSizes[i] += candidates.getFilesToCompact().get(j).getReader().length();
+      }
       // calculate the sum of fileSizes[i,i+maxFilesToCompact-1) for algo
       int tooFar = i + comConf.getMaxFilesToCompact() - 1;
       sumSize[i] = fileSizes[i]
-        + ((i + 1 < countOfFiles) ? sumSize[i + 1] : 0)
-        - ((tooFar < countOfFiles) ? fileSizes[tooFar] : 0);
+        + ((i + 1 < countOfUnits) ? sumSize[i + 1] : 0)
+        - ((tooFar < countOfUnits) ? fileSizes[tooFar] : 0);
     }
 
 
-    while (countOfFiles - start >= comConf.getMinFilesToCompact() &&
+    while (countOfUnits - start >= comConf.getMinFilesToCompact() &&
       fileSizes[start] > Math.max(comConf.getMinCompactSize(), (long) (sumSize[start + 1] * r))) {
       ++start;
     }
-    if (start < countOfFiles) {
-      LOG.info("Default compaction algorithm has selected " + (countOfFiles - start)
+    // Too few left, even if the sub-range files alone would be enough
+    int firstFile = (countOfUnits - start < comConf.getMinFilesToCompact()) ?
+        countOfFiles : unitStarts.get(start);
+    if (firstFile < countOfFiles) {
+      LOG.info("Default compaction algorithm has selected " + (countOfFiles - firstFile)
         + " files from " + countOfFiles + " candidates");
     }
 
-    candidates = candidates.getSubList(start, countOfFiles);
+    candidates = candidates.getSubList(firstFile, countOfFiles);
 
     return candidates;
   }
@@ -289,7 +299,7 @@ public class CompactionManager {
     if (lowTimestamp > 0l && lowTimestamp < (now - mcTime)) {
       // Major compaction time has elapsed.
       long elapsedTime = now - lowTimestamp;
-      if (filesToCompact.size() == 1 &&
+      if (getSelectionUnits(filesToCompact).size() == 1 &&
         filesToCompact.get(0).isMajorCompaction() &&
         (store.ttl == HConstants.FOREVER || elapsedTime < store.ttl)) {
         if (LOG.isDebugEnabled()) {
@@ -314,6 +324,27 @@ public class CompactionManager {
     return result;
   }
 
+  /**
+   * Groups the files the ratio selection weighs together: each file on its
+   * own, but the files of a compaction split into sub-ranges as one.
+   * @param files the files, ordered from oldest to newest
+   * @return the index of the first file of each group, in order
+   */
+  static List<Integer> getSelectionUnits(List<StoreFile> files) {
+    List<Integer> unitStarts = new ArrayList<Integer>(files.size());
+    for (int i = 0; i < files.size(); i++) {
+      if (i == 0 || !isSameSubRangeCompaction(files.get(i - 1), files.get(i))) {
+        unitStarts.add(i);
+      }
+    }
+    return unitStarts;
+  }
+
+  private static boolean isSameSubRangeCompaction(StoreFile left, StoreFile right) {
+    return left.isSubRangeCompactionResult() && right.isSubRangeCompactionResult() &&
+      left.getMaxSequenceId() == right.getMaxSequenceId();
+  }
+
   long getNextMajorCompactTime() {
     // default = 24hrs
     long ret = comConf.getMajorCompactionPeriod();
@@ -372,6 +403,14 @@ public class CompactionManager {
     return numCandidates > comConf.getMinFilesToCompact();
   }
 
+  /**
+   * @return the rows splitting the store into stripes, in order, at which
+   * flushes split their output; empty if the store is not striped
+   */
+  byte[][] getStripeSplitRows() {
+    return NO_STRIPES;
+  }
+
   /**
    * @return whether this is off-peak hour
    */
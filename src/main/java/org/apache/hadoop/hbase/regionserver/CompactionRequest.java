@@ -149,6 +149,15 @@ public class CompactionRequest implements Comparable<CompactionRequest>,
       this.server = server;
     }
 
+    /**
+     * @return the controller limiting the speed of this compaction, or null
+     * if it is not run by a region server
+     */
+    CompactionThroughputController getThroughputController() {
+      return server == null ? null :
+        server.compactSplitThread.getThroughputController();
+    }
+
     /** Gets the priority for the request */
     int getPriority() {
       return p;
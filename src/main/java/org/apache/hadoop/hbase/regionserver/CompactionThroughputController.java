@@ -0,0 +1,213 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Limits how fast the compactions of a region server go through their data.
+ * <p>
+ * All compactions of a region server share one limit, in bytes per second.
+ * It moves between a lower and a higher bound with the pressure to compact,
+ * which the region server computes from how close the memstores are to the
+ * global memstore limit and how close the stores are to blocking updates on
+ * their file count. At a pressure of 1 compactions are not throttled at all,
+ * since writers are waiting on them. Each running compaction gets an equal
+ * share of the limit.
+ * <p>
+ * The limit applies to the bytes a compaction reads, which bounds what it
+ * writes as well. Throttling is off unless a lower bound is configured.
+ */
+public class CompactionThroughputController {
+  static final Log LOG = LogFactory.getLog(CompactionThroughputController.class);
+
+  /** Limit in bytes per second when there is no pressure to compact */
+  public static final String LOWER_BOUND_KEY =
+    "hbase.regionserver.compaction.throughput.lower.bound";
+  /** Limit in bytes per second just below the point where writers block */
+  public static final String HIGHER_BOUND_KEY =
+    "hbase.regionserver.compaction.throughput.higher.bound";
+  /** How many bytes a compaction goes through between two checks */
+  public static final String CONTROL_SIZE_KEY =
+    "hbase.regionserver.compaction.throughput.control.size";
+
+  public static final long DEFAULT_LOWER_BOUND = 0;
+  public static final long DEFAULT_CONTROL_SIZE = 1024 * 1024;
+
+  /** Reported as the limit while compactions are not throttled */
+  public static final long NO_LIMIT = 0;
+
+  private final long lowerBound;
+  private final long higherBound;
+  private final long controlSize;
+
+  // The current limit for all compactions, in bytes per second
+  private volatile double maxThroughput = Double.MAX_VALUE;
+  private final AtomicInteger activeCompactions = new AtomicInteger();
+  private final AtomicLong throttledMillis = new AtomicLong();
+
+  /**
+   * Tracks how far one compaction got since it was last checked.
+   */
+  class Operation {
+    private long lastControlTime =
+      EnvironmentEdgeManager.currentTimeMillis();
+    private long bytesSinceControl = 0;
+    private long throttledMillis = 0;
+    private boolean finished = false;
+
+    /** @return the time this compaction spent sleeping, in milliseconds */
+    long getThrottledMillis() {
+      return throttledMillis;
+    }
+  }
+
+  public CompactionThroughputController(Configuration conf) {
+    this.lowerBound = conf.getLong(LOWER_BOUND_KEY, DEFAULT_LOWER_BOUND);
+    // With no higher bound the limit does not move until writers block
+    this.higherBound = Math.max(lowerBound,
+        conf.getLong(HIGHER_BOUND_KEY, lowerBound));
+    this.controlSize = Math.max(1,
+        conf.getLong(CONTROL_SIZE_KEY, DEFAULT_CONTROL_SIZE));
+    if (isEnabled()) {
+      this.maxThroughput = lowerBound;
+      LOG.info("Compaction throughput limited to between " +
+          StringUtils.humanReadableInt(lowerBound) + "/s and " +
+          StringUtils.humanReadableInt(higherBound) + "/s");
+    }
+  }
+
+  private boolean isEnabled() {
+    return lowerBound > 0;
+  }
+
+  /**
+   * Moves the limit to match the pressure to compact.
+   * @param pressure 0 when no store needs a compaction soon, 1 or more when
+   * writers are, or are about to be, blocked
+   */
+  public void tune(double pressure) {
+    if (!isEnabled()) {
+      return;
+    }
+    double limit;
+    if (pressure >= 1.0) {
+      limit = Double.MAX_VALUE;
+    } else {
+      limit = lowerBound + (higherBound - lowerBound) * Math.max(0.0, pressure);
+    }
+    if (limit != maxThroughput && LOG.isDebugEnabled()) {
+      LOG.debug("Compaction pressure is " + pressure + ", throughput limit " +
+          "is now " + (limit == Double.MAX_VALUE ? "off" :
+            StringUtils.humanReadableInt((long) limit) + "/s"));
+    }
+    this.maxThroughput = limit;
+  }
+
+  /**
+   * @return the current limit for all compactions, in bytes per second, or
+   * {@link #NO_LIMIT}
+   */
+  public long getMaxThroughput() {
+    double limit = this.maxThroughput;
+    return limit == Double.MAX_VALUE ? NO_LIMIT : (long) limit;
+  }
+
+  /**
+   * @return total time compactions have been held back for, in milliseconds
+   */
+  public long getThrottledMillis() {
+    return throttledMillis.get();
+  }
+
+  /** @return the number of compactions currently running */
+  int getActiveCompactions() {
+    return activeCompactions.get();
+  }
+
+  /**
+   * Called when a compaction starts. Every call must be paired with a call
+   * to {@link #finish(Operation)}.
+   */
+  Operation start() {
+    activeCompactions.incrementAndGet();
+    return new Operation();
+  }
+
+  void finish(Operation op) {
+    if (!op.finished) {
+      op.finished = true;
+      activeCompactions.decrementAndGet();
+    }
+  }
+
+  /**
+   * Accounts for bytes a compaction went through, and sleeps if it is going
+   * faster than its share of the limit.
+   * @param op the running compaction
+   * @param bytes bytes read since the last call
+   * @throws InterruptedIOException if interrupted while sleeping
+   */
+  void control(Operation op, long bytes) throws InterruptedIOException {
+    op.bytesSinceControl += bytes;
+    if (op.bytesSinceControl < controlSize) {
+      return;
+    }
+    double limit = this.maxThroughput;
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    if (limit != Double.MAX_VALUE) {
+      double share = limit / Math.max(1, activeCompactions.get());
+      long minTime = (long) (op.bytesSinceControl * 1000 / share);
+      long sleepTime = minTime - (now - op.lastControlTime);
+      if (sleepTime > 0) {
+        try {
+          Thread.sleep(sleepTime);
+        } catch (InterruptedException e) {
+          InterruptedIOException iioe = new InterruptedIOException(
+              "Interrupted while throttling a compaction");
+          iioe.initCause(e);
+          throw iioe;
+        }
+        op.throttledMillis += sleepTime;
+        throttledMillis.addAndGet(sleepTime);
+        now = EnvironmentEdgeManager.currentTimeMillis();
+      }
+    }
+    op.bytesSinceControl = 0;
+    op.lastControlTime = now;
+  }
+
+  @Override
+  public String toString() {
+    long limit = getMaxThroughput();
+    return "maxThroughput=" + (limit == NO_LIMIT ? "unlimited" :
+        StringUtils.humanReadableInt(limit) + "/s") +
+        ", activeCompactions=" + activeCompactions.get() +
+        ", throttledMillis=" + throttledMillis.get();
+  }
+}
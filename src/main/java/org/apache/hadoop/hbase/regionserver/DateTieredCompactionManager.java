@@ -0,0 +1,224 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * Compacts together only files whose data falls into the same time window,
+ * so the time range of each file stays narrow and scans of recent data skip
+ * the older files.
+ * <p>
+ * A file belongs to the window holding its newest timestamp. The newest
+ * window starts at the latest multiple of the base window size. Going back
+ * in time, windows grow by a factor of the windows per tier once there have
+ * been that many windows of a size, so old data ends up in few large files.
+ * Files older than the maximum age are frozen and never compacted again.
+ * <p>
+ * Only files next to each other in sequence id order and in the same window
+ * are compacted together. The files of the newest window are selected with
+ * the ratio based policy of {@link CompactionManager}; those of an older
+ * window are compacted into one file. Major compactions only run when
+ * requested, since they would merge all the windows; expired files are
+ * still dropped. Set {@link HConstants#COMPACTION_MANAGER_CLASS} to this
+ * class to use it.
+ */
+public class DateTieredCompactionManager extends CompactionManager {
+
+  private static final Log LOG =
+    LogFactory.getLog(DateTieredCompactionManager.class);
+
+  /** Size of the newest windows in milliseconds */
+  public static final String BASE_WINDOW_MILLIS_KEY =
+    "hbase.hstore.compaction.date.tiered.base.window.millis";
+  public static final long DEFAULT_BASE_WINDOW_MILLIS = 6 * 60 * 60 * 1000L;
+  /** Number of windows of a size before the windows grow by this factor */
+  public static final String WINDOWS_PER_TIER_KEY =
+    "hbase.hstore.compaction.date.tiered.windows.per.tier";
+  public static final int DEFAULT_WINDOWS_PER_TIER = 4;
+  /** Files with no data newer than this many milliseconds are frozen */
+  public static final String MAX_AGE_MILLIS_KEY =
+    "hbase.hstore.compaction.date.tiered.max.storefile.age.millis";
+
+  private final Store store;
+  private final long baseWindowMillis;
+  private final int windowsPerTier;
+  private final long maxAgeMillis;
+
+  DateTieredCompactionManager(Configuration configuration, Store store) {
+    super(configuration, store);
+    this.store = store;
+    this.baseWindowMillis = Math.max(1, configuration.getLong(
+        BASE_WINDOW_MILLIS_KEY, DEFAULT_BASE_WINDOW_MILLIS));
+    this.windowsPerTier = Math.max(2, configuration.getInt(
+        WINDOWS_PER_TIER_KEY, DEFAULT_WINDOWS_PER_TIER));
+    this.maxAgeMillis = configuration.getLong(MAX_AGE_MILLIS_KEY,
+        Long.MAX_VALUE);
+  }
+
+  @Override
+  CompactSelection selectCompaction(List<StoreFile> candidateFiles,
+      boolean forceMajor) throws IOException {
+    if (forceMajor || store.hasReferences(candidateFiles)) {
+      return super.selectCompaction(candidateFiles, forceMajor);
+    }
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    if (comConf.shouldDeleteExpired() && (store.ttl != Long.MAX_VALUE)) {
+      CompactSelection expiredSelection = selectExpiredSFs(
+          new CompactSelection(new ArrayList<StoreFile>(candidateFiles)),
+          now - store.ttl);
+      if (expiredSelection != null) {
+        return expiredSelection;
+      }
+    }
+
+    // Split the candidates into runs of files in the same window
+    long oldestUnfrozen = now - maxAgeMillis;
+    long oldest = Long.MAX_VALUE;
+    for (StoreFile file : candidateFiles) {
+      long maxTimestamp = file.getReader().getMaxTimestamp();
+      if (maxTimestamp >= oldestUnfrozen) {
+        oldest = Math.min(oldest, maxTimestamp);
+      }
+    }
+    long[] windowStarts = getWindowStarts(now, oldest);
+    List<List<StoreFile>> runs = new ArrayList<List<StoreFile>>();
+    List<Integer> runWindows = new ArrayList<Integer>();
+    List<StoreFile> run = null;
+    int runWindow = -1;
+    for (StoreFile file : candidateFiles) {
+      long maxTimestamp = file.getReader().getMaxTimestamp();
+      if (maxTimestamp < oldestUnfrozen || !isCompactable(file)) {
+        run = null;
+        continue;
+      }
+      int window = getWindow(windowStarts, maxTimestamp);
+      if (run == null || window != runWindow) {
+        run = new ArrayList<StoreFile>();
+        runs.add(run);
+        runWindows.add(window);
+        runWindow = window;
+      }
+      run.add(file);
+    }
+
+    // Newest data first, it is read the most
+    for (int i = runs.size() - 1; i >= 0; i--) {
+      List<StoreFile> files = runs.get(i);
+      if (runWindows.get(i) == 0) {
+        if (files.size() < comConf.getMinFilesToCompact()) {
+          continue;
+        }
+        CompactSelection selection =
+          applyCompactionPolicy(new CompactSelection(files));
+        if (selection.getFilesToCompact().size() <
+            comConf.getMinFilesToCompact()) {
+          // Also takes back an off peak promotion
+          selection.emptyFileList();
+          continue;
+        }
+        return limitFiles(selection);
+      }
+      if (files.size() >= 2) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Compacting " + files.size() + " files of " + store +
+              " in the window starting at " +
+              windowStarts[runWindows.get(i)]);
+        }
+        return limitFiles(new CompactSelection(files));
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Skipped minor compaction of " + store +
+          ". No admissible set of files found in any time window.");
+    }
+    return new CompactSelection(new ArrayList<StoreFile>());
+  }
+
+  /**
+   * @return the start of each window, newest first, back to the window
+   * holding the oldest timestamp; the newest window has no end
+   */
+  long[] getWindowStarts(final long now, final long oldestTimestamp) {
+    List<Long> starts = new ArrayList<Long>();
+    long size = baseWindowMillis;
+    long start = now - ((now % size) + size) % size;
+    starts.add(start);
+    int windowsInTier = 1;
+    while (start > oldestTimestamp && start > 0) {
+      // Only grow on a boundary of the larger size, so windows never move
+      if (windowsInTier >= windowsPerTier &&
+          size <= Long.MAX_VALUE / windowsPerTier &&
+          start % (size * windowsPerTier) == 0) {
+        size *= windowsPerTier;
+        windowsInTier = 0;
+      }
+      start -= size;
+      windowsInTier++;
+      starts.add(start);
+    }
+    long[] result = new long[starts.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = starts.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * @return the index of the window holding the timestamp, the last window
+   * for anything older
+   */
+  static int getWindow(final long[] windowStarts, final long timestamp) {
+    for (int i = 0; i < windowStarts.length; i++) {
+      if (timestamp >= windowStarts[i]) {
+        return i;
+      }
+    }
+    return windowStarts.length - 1;
+  }
+
+  private boolean isCompactable(final StoreFile file) {
+    if (file.getReader().length() > comConf.getMaxCompactSize() &&
+        !file.isReference()) {
+      return false;
+    }
+    // Bulk loaded files without a sequence id hold data of any age
+    return !(comConf.shouldExcludeBulk() && file.isBulkLoadResult() &&
+        file.getMaxSequenceId() <= 0);
+  }
+
+  private CompactSelection limitFiles(final CompactSelection selection) {
+    int excess = selection.getFilesToCompact().size() -
+        comConf.getMaxFilesToCompact();
+    if (excess > 0) {
+      selection.clearSubList(comConf.getMaxFilesToCompact(),
+          selection.getFilesToCompact().size());
+    }
+    return selection;
+  }
+}
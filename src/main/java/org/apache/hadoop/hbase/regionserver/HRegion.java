@@ -30,6 +30,7 @@ import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -313,6 +314,10 @@ public class HRegion implements HeapSize {
 
   public static final String METRIC_GETSIZE = "getsize";
   public static final String METRIC_NEXTSIZE = "nextsize";
+  /** Bytes returned by each call to next, with min, max and average */
+  public static final String METRIC_NEXT_RESPONSE_SIZE = "nextResponseSize";
+  /** Calls to next that returned fewer rows than asked to bound their size */
+  public static final String METRIC_NEXT_SIZE_LIMITED = "nextSizeLimitedCnt";
 
   // for simple numeric metrics (current block cache size)
   // These ones are not reset to zero when queried, unlike the previous.
@@ -1689,6 +1694,24 @@ public class HRegion implements HeapSize {
     return new RegionScanner(scan, additionalScanners);
   }
 
+  /*
+   * Returns a scanner for one get of a batch. The families of the scan are
+   * already verified.
+   */
+  private InternalScanner getBatchScanner(Scan scan,
+      Map<byte[], BatchedGetScanners> batches, int batchIndex)
+      throws IOException {
+    newScannerLock.readLock().lock();
+    try {
+      if (this.closed.get()) {
+        throw new NotServingRegionException("Region " + this + " closed");
+      }
+      return new RegionScanner(scan, null, batches, batchIndex);
+    } finally {
+      newScannerLock.readLock().unlock();
+    }
+  }
+
   /*
    * @param delete The passed delete is modified by this method. WARNING!
    */
@@ -2586,6 +2609,7 @@ public class HRegion implements HeapSize {
     HLog.Reader reader = HLog.getReader(this.fs, edits, conf);
     try {
       long currentEditSeqId = -1;
+      long maxSeqIdInLog = -1;
       long firstSeqIdInLog = -1;
       long skippedEdits = 0;
       long editsCount = 0;
@@ -2602,6 +2626,9 @@ public class HRegion implements HeapSize {
             firstSeqIdInLog = key.getLogSeqNum();
           }
           currentEditSeqId = key.getLogSeqNum();
+          // Logs written before appends took their sequence number and log
+          // position together may hold the entries slightly out of order.
+          maxSeqIdInLog = Math.max(maxSeqIdInLog, currentEditSeqId);
           boolean flush = false;
           for (KeyValue kv: val.getKeyValues()) {
             // Check this edit is for me. Also, guard against writing the special
@@ -2634,7 +2661,7 @@ public class HRegion implements HeapSize {
             flush = restoreEdit(store, kv);
             editsCount++;
           }
-          if (flush) internalFlushcache(null, currentEditSeqId, status);
+          if (flush) internalFlushcache(null, maxSeqIdInLog, status);
 
           // Every 'interval' edits, tell the reporter we're making progress.
           // Have seen 60k edits taking 3minutes to complete.
@@ -2670,7 +2697,7 @@ public class HRegion implements HeapSize {
       }
       msg = "Applied " + editsCount + ", skipped " + skippedEdits +
           ", firstSeqIdInLog=" + firstSeqIdInLog +
-          ", maxSeqIdInLog=" + currentEditSeqId;
+          ", maxSeqIdInLog=" + maxSeqIdInLog;
       status.markComplete(msg);
       if (LOG.isDebugEnabled()) {
         LOG.debug(msg);
@@ -2678,7 +2705,7 @@ public class HRegion implements HeapSize {
       if(editsCount == 0){
         return -1;
       } else {
-        return currentEditSeqId;
+        return maxSeqIdInLog;
       }
     } finally {
       reader.close();
@@ -3015,6 +3042,17 @@ public class HRegion implements HeapSize {
     private Future<ScanResult> prefetchScanFuture = null;
 
     RegionScanner(Scan scan, List<KeyValueScanner> additionalScanners) throws IOException {
+      this(scan, additionalScanners, null, 0);
+    }
+
+    /**
+     * @param batches the StoreFile scanners shared by a batch of gets, by
+     *          family, or null if the scan is not part of a batch
+     * @param batchIndex the position of the get in the batch
+     */
+    RegionScanner(Scan scan, List<KeyValueScanner> additionalScanners,
+        Map<byte[], BatchedGetScanners> batches, int batchIndex)
+        throws IOException {
       //DebugPrint.println("HRegionScanner.<init>");
 
       this.originalScan = scan;
@@ -3045,7 +3083,13 @@ public class HRegion implements HeapSize {
       for (Map.Entry<byte[], NavigableSet<byte[]>> entry :
           scan.getFamilyMap().entrySet()) {
         Store store = stores.get(entry.getKey());
-        StoreScanner scanner = store.getScanner(scan, entry.getValue());
+        StoreScanner scanner;
+        if (batches != null) {
+          scanner = store.getScanner(scan, entry.getValue(),
+              batches.get(entry.getKey()), batchIndex);
+        } else {
+          scanner = store.getScanner(scan, entry.getValue());
+        }
         scanners.add(scanner);
       }
       this.storeHeap = new KeyValueHeap(scanners, comparator);
@@ -3161,6 +3205,9 @@ public class HRegion implements HeapSize {
           } while (moreRows
               && (getOriginalScan().getCurrentPartialResponseSize() < 
                   maxResponseSize && currentNbRows < nbRows));
+          if (moreRows && currentNbRows < nbRows && !isFilterDone()) {
+            incrNumericMetric(METRIC_NEXT_SIZE_LIMITED, 1);
+          }
           scanResult = new ScanResult(moreRows, 
               outResults.toArray(new Result[0]));
         } catch (IOException e) {
@@ -3883,7 +3930,70 @@ public class HRegion implements HeapSize {
    * @throws IOException read exceptions
    */
   public Result get(final Get get, final Integer lockid) throws IOException {
-    // Verify families are all valid
+    checkGetFamilies(get);
+    List<KeyValue> result = get(get);
+
+    return new Result(result);
+  }
+
+  /**
+   * Does a batch of gets in row order. The gets share the StoreFile
+   * scanners of each store, and every StoreFile's Bloom filter is checked
+   * for all of them at once, so gets whose rows fall in the same block of a
+   * StoreFile read it only once.
+   * @param gets the gets
+   * @return the results, in the order of the gets
+   * @throws IOException read exceptions
+   */
+  public Result[] get(final List<Get> gets) throws IOException {
+    final Get[] getArray = gets.toArray(new Get[gets.size()]);
+    Integer[] order = new Integer[getArray.length];
+    for (int i = 0; i < getArray.length; i++) {
+      checkGetFamilies(getArray[i]);
+      order[i] = i;
+    }
+    // A stable sort, gets of the same row keep their order
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer left, Integer right) {
+        return Bytes.compareTo(getArray[left].getRow(),
+            getArray[right].getRow());
+      }
+    });
+
+    List<Scan> scans = new ArrayList<Scan>(order.length);
+    for (Integer index : order) {
+      scans.add(new Scan(getArray[index]));
+    }
+    Map<byte[], BatchedGetScanners> batches =
+      new TreeMap<byte[], BatchedGetScanners>(Bytes.BYTES_COMPARATOR);
+    for (byte[] family : regionInfo.getTableDesc().getFamiliesKeys()) {
+      List<Scan> familyScans = new ArrayList<Scan>(scans.size());
+      boolean used = false;
+      for (Scan scan : scans) {
+        boolean reads = scan.getFamilyMap().containsKey(family);
+        familyScans.add(reads ? scan : null);
+        used |= reads;
+      }
+      if (used) {
+        batches.put(family,
+            new BatchedGetScanners(stores.get(family), familyScans));
+      }
+    }
+
+    Result[] results = new Result[order.length];
+    for (int i = 0; i < order.length; i++) {
+      Get get = getArray[order[i]];
+      results[order[i]] = new Result(get(get, scans.get(i), batches, i));
+    }
+    return results;
+  }
+
+  /*
+   * Verifies the families of the get, or adds all the families if it has
+   * none.
+   */
+  private void checkGetFamilies(final Get get) throws IOException {
     if (get.hasFamilies()) {
       for (byte [] family: get.familySet()) {
         checkFamily(family);
@@ -3893,23 +4003,33 @@ public class HRegion implements HeapSize {
         get.addFamily(family);
       }
     }
-    List<KeyValue> result = get(get);
-
-    return new Result(result);
   }
 
   /*
    * Do a get based on the get parameter.
    */
   private List<KeyValue> get(final Get get) throws IOException {
+    return get(get, new Scan(get), null, 0);
+  }
+
+  /*
+   * Do a get based on the get parameter, as part of a batch if batches is
+   * not null.
+   */
+  private List<KeyValue> get(final Get get, final Scan scan,
+      final Map<byte[], BatchedGetScanners> batches, final int batchIndex)
+      throws IOException {
     long now = EnvironmentEdgeManager.currentTimeMillis();
-    Scan scan = new Scan(get);
 
     List<KeyValue> results = new ArrayList<KeyValue>();
 
     InternalScanner scanner = null;
     try {
-      scanner = getScanner(scan);
+      if (batches == null) {
+        scanner = getScanner(scan);
+      } else {
+        scanner = getBatchScanner(scan, batches, batchIndex);
+      }
       scanner.next(results, HRegion.METRIC_GETSIZE);
     } finally {
       if (scanner != null)
@@ -110,6 +110,7 @@ import org.apache.hadoop.hbase.client.RowMutations;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.ServerConnection;
 import org.apache.hadoop.hbase.client.ServerConnectionManager;
+import org.apache.hadoop.hbase.io.hfile.BucketCache;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.LruBlockCache;
 import org.apache.hadoop.hbase.io.hfile.LruBlockCache.CacheStats;
@@ -274,6 +275,11 @@ public class HRegionServer implements HRegionInterface,
    * Threadpool for doing scanner prefetches
    */
   public static ThreadPoolExecutor scanPrefetchThreadPool;
+  /*
+   * Threadpool seeking the StoreFiles of new scanners in parallel, null if
+   * the seeks are serial
+   */
+  public static ThreadPoolExecutor parallelSeekThreadPool;
 
 
   // An array of HLog and HLog roller.  log is protected rather than private to avoid
@@ -281,7 +287,9 @@ public class HRegionServer implements HRegionInterface,
   protected volatile HLog[] hlogs;  
   protected LogRoller[] hlogRollers;
   
-  private volatile int currentHLogIndex = 0;
+  // Where the search for the least loaded HLog starts, so that regions opened
+  // concurrently are spread even before they are online
+  private final AtomicInteger nextHLogIndex = new AtomicInteger(0);
   private Map<String, Integer> regionNameToHLogIDMap =
       new ConcurrentHashMap<String, Integer>();
 
@@ -351,6 +359,11 @@ public class HRegionServer implements HRegionInterface,
   // large GC issues.
   private static long responseSizeLimit;
   public static boolean enableServerSideProfilingForAllCalls;
+
+  // maximum size (in bytes) of the rows returned by a call to next. Unlike
+  // responseSizeLimit, the scanner stops adding rows once this is reached
+  // instead of failing the call.
+  private final int scannerMaxResultSize;
   
   private int numRowRequests = 0;
 
@@ -411,6 +424,9 @@ public class HRegionServer implements HRegionInterface,
 
     this.responseSizeLimit = conf.getLong("hbase.regionserver.results.size.max",
         (long)Integer.MAX_VALUE); // set the max to 2G
+    this.scannerMaxResultSize = conf.getInt(
+        HConstants.HBASE_REGIONSERVER_SCANNER_MAX_RESULT_SIZE_KEY,
+        HConstants.DEFAULT_HBASE_SCANNER_MAX_RESULT_SIZE);
     this.enableServerSideProfilingForAllCalls = conf.getBoolean(
         "hbase.regionserver.enable.serverside.profiling", false);
 
@@ -824,6 +840,9 @@ public class HRegionServer implements HRegionInterface,
     
     // shutdown the prefetch threads
     scanPrefetchThreadPool.shutdownNow();
+    if (parallelSeekThreadPool != null) {
+      parallelSeekThreadPool.shutdownNow();
+    }
 
     if (killed) {
       // Just skip out w/o closing regions.
@@ -1348,6 +1367,7 @@ public class HRegionServer implements HRegionInterface,
     long totalStaticBloomSize = 0;
     int rowReadCnt = 0;
     int rowUpdateCnt = 0;
+    double compactionPressure = 0.0;
 
     // Note that this is a map of Doubles instead of Longs. This is because we
     // do effective integer division, which would perhaps truncate more than it
@@ -1375,6 +1395,8 @@ public class HRegionServer implements HRegionInterface,
                   StoreMetricType.STORE_FILE_COUNT, tmpStorefiles);
               storefiles += tmpStorefiles;
             }
+            compactionPressure = Math.max(compactionPressure,
+                store.getCompactionPressure());
 
             {
               long tmpStorefileIndexSize = store.getStorefilesIndexSize();
@@ -1438,6 +1460,20 @@ public class HRegionServer implements HRegionInterface,
     this.metrics.compactionQueueSize.set(compactSplitThread.
       getCompactionQueueSize());
 
+    // Compactions speed up as memstores fill up or stores pile up files
+    if (this.cacheFlusher != null && this.cacheFlusher.globalMemStoreLimit > 0) {
+      compactionPressure = Math.max(compactionPressure,
+          (double) this.globalMemstoreSize.get() /
+          this.cacheFlusher.globalMemStoreLimit);
+    }
+    CompactionThroughputController throughputController =
+      compactSplitThread.getThroughputController();
+    throughputController.tune(compactionPressure);
+    this.metrics.compactionThroughputLimit.set(
+        throughputController.getMaxThroughput());
+    this.metrics.compactionThrottledTime.set(
+        throughputController.getThrottledMillis());
+
     LruBlockCache lruBlockCache = (LruBlockCache)cacheConfig.getBlockCache();
     if (lruBlockCache != null) {
       this.metrics.blockCacheCount.set(lruBlockCache.size());
@@ -1457,6 +1493,20 @@ public class HRegionServer implements HRegionInterface,
       double ratio = cacheStats.getIncrementalHitRatio();
       int percent = (int) (ratio * 100);
       this.metrics.blockCacheHitRatio.set(percent);
+
+      BucketCache bucketCache = lruBlockCache.getVictimCache();
+      if (bucketCache != null) {
+        CacheStats bucketStats = bucketCache.getStats();
+        this.metrics.bucketCacheSize.set(bucketCache.getCurrentSize());
+        this.metrics.bucketCacheFree.set(bucketCache.getFreeSize());
+        this.metrics.bucketCacheCount.set(bucketCache.size());
+        this.metrics.bucketCacheHitCount.set(bucketStats.getHitCount());
+        this.metrics.bucketCacheMissCount.set(bucketStats.getMissCount());
+        this.metrics.bucketCacheEvictedCount.set(
+            bucketStats.getEvictedCount());
+        this.metrics.bucketCacheHitRatio.set(
+            (int) (bucketStats.getIncrementalHitRatio() * 100));
+      }
     }
     
     long bytesRead = 0;
@@ -1586,6 +1636,12 @@ public class HRegionServer implements HRegionInterface,
     scanPrefetchThreadPool = 
       Threads.getBlockingThreadPool(numHandlers, 60, TimeUnit.SECONDS, 
           new DaemonThreadFactory("scan-prefetch-"));
+    if (conf.getBoolean(StoreScanner.PARALLEL_SEEK_ENABLE_KEY, false)) {
+      parallelSeekThreadPool = Threads.getBlockingThreadPool(
+          conf.getInt(StoreScanner.PARALLEL_SEEK_THREADS_KEY,
+              StoreScanner.DEFAULT_PARALLEL_SEEK_THREADS),
+          60, TimeUnit.SECONDS, new DaemonThreadFactory("parallel-seek-"));
+    }
 
     LOG.info("HRegionServer started at: " +
       this.serverInfo.getServerAddress().toString());
@@ -1669,6 +1725,53 @@ public class HRegionServer implements HRegionInterface,
   public int getTotalHLogCnt() {
     return this.hlogs.length;
   }
+
+  /**
+   * Picks the HLog a region writes to. A region keeps the HLog it had the
+   * last time it was open on this server; otherwise it gets the HLog with the
+   * fewest online regions, so that the write load is spread over all of them.
+   * @return the index of the HLog in {@link #getLog(int)}
+   */
+  int getHLogIndexForRegion(final HRegionInfo regionInfo) {
+    String regionName = regionInfo.getRegionNameAsString();
+    synchronized (this.regionNameToHLogIDMap) {
+      Integer hLogIndex = this.regionNameToHLogIDMap.get(regionName);
+      if (hLogIndex == null) {
+        int[] regionCounts = getRegionCountPerHLog();
+        int start = (this.nextHLogIndex.getAndIncrement() & Integer.MAX_VALUE)
+            % regionCounts.length;
+        int best = start;
+        for (int i = 1; i < regionCounts.length; i++) {
+          int candidate = (start + i) % regionCounts.length;
+          if (regionCounts[candidate] < regionCounts[best]) {
+            best = candidate;
+          }
+        }
+        hLogIndex = Integer.valueOf(best);
+        this.regionNameToHLogIDMap.put(regionName, hLogIndex);
+      }
+      return hLogIndex.intValue();
+    }
+  }
+
+  /**
+   * @return the number of online regions writing to each HLog, indexed like
+   *         {@link #getLog(int)}
+   */
+  public int[] getRegionCountPerHLog() {
+    int[] regionCounts = new int[this.hlogs.length];
+    for (HRegion region : this.onlineRegions.values()) {
+      HLog log = region.getLog();
+      if (log != null) {
+        int index = log.getHLogIndexID();
+        if (index >= 0 && index < regionCounts.length &&
+            this.hlogs[index] == log) {
+          regionCounts[index]++;
+        }
+      }
+    }
+    return regionCounts;
+  }
   
   /**
    * Sets a flag that will cause all the HRegionServer threads to shut down
@@ -2044,12 +2147,8 @@ public class HRegionServer implements HRegionInterface,
         
         // Assign one of the HLogs to the new opening region.
         // If the region has been opened before, assign the previous HLog instance to that region.
-        Integer hLogIndex = null;
-        if ((hLogIndex = regionNameToHLogIDMap.get(regionInfo.getRegionNameAsString())) == null) {
-          hLogIndex = Integer.valueOf((this.currentHLogIndex++) % (this.hlogs.length));
-          this.regionNameToHLogIDMap.put(regionInfo.getRegionNameAsString(), hLogIndex);
-        }
-        region = instantiateRegion(regionInfo, this.hlogs[hLogIndex.intValue()]);
+        int hLogIndex = getHLogIndexForRegion(regionInfo);
+        region = instantiateRegion(regionInfo, this.hlogs[hLogIndex]);
         LOG.info("Initiate the region: " + regionInfo.getRegionNameAsString() + " with HLog #" + 
             hLogIndex);
         
@@ -2382,15 +2481,13 @@ public class HRegionServer implements HRegionInterface,
   public Result[] get(byte[] regionName, List<Get> gets)
       throws IOException {
     checkOpen();
-    Result[] rets = new Result[gets.size()];
     try {
       HRegion region = getRegion(regionName);
-      int i = 0;
       for (Get get : gets) {
-        rets[i] = region.get(get, getLockFromId(get.getLockId()));
-        i++;
+        // Checks the lock ids and renews their leases
+        getLockFromId(get.getLockId());
       }
-      return rets;
+      return region.get(gets);
     } catch(Throwable t) {
       throw convertThrowableToIOE(cleanup(t));
     }
@@ -2567,6 +2664,10 @@ public class HRegionServer implements HRegionInterface,
     }
     try {
       HRegion r = getRegion(regionName);
+      if (scan.getMaxResponseSize() > scannerMaxResultSize) {
+        // Bound the responses whatever the client asked for
+        scan.setMaxResponseSize(scannerMaxResultSize, scan.isPartialRow());
+      }
       return addScanner(r.getScanner(scan));
     } catch (Throwable t) {
       throw convertThrowableToIOE(cleanup(t, "Failed openScanner"));
@@ -2646,7 +2747,14 @@ public class HRegionServer implements HRegionInterface,
         throw e;
       }
       this.leases.renewLease(scannerName);
-      return s.nextRows(nbRows, HRegion.METRIC_NEXTSIZE);
+      Result[] results = s.nextRows(nbRows, HRegion.METRIC_NEXTSIZE);
+      long responseSize = 0;
+      for (Result result : results) {
+        responseSize += result.getWritableSize();
+      }
+      HRegion.incrTimeVaryingMetric(HRegion.METRIC_NEXT_RESPONSE_SIZE,
+          responseSize);
+      return results;
     } catch (Throwable t) {
       if (t instanceof NotServingRegionException) {
         String scannerName = String.valueOf(scannerId);
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+import org.apache.hadoop.hbase.KeyValue;
+
+/**
+ * An immutable {@link NavigableSet} of {@link KeyValue}s backed by a sorted
+ * array.
+ * <p>
+ * The MemStore flattens its snapshot into one of these while the snapshot is
+ * flushed. Compared to the {@link KeyValueSkipListSet} it was made from, it
+ * drops the per entry skip list nodes and looks keys up by binary search,
+ * so readers scanning the snapshot do not chase pointers.
+ * <p>
+ * Subsets and the descending set are views over a range of the same array.
+ * The set and its iterators do not support removal.
+ */
+class KeyValueArraySet extends AbstractSet<KeyValue>
+    implements NavigableSet<KeyValue> {
+  private final KeyValue[] kvs;
+  // The range of kvs this set covers, start inclusive, end exclusive
+  private final int start;
+  private final int end;
+  private final KeyValue.KVComparator comparator;
+  // Whether this is a view of the range in reverse order. The index helpers
+  // always work in ascending order, so such a view swaps ceilings for floors
+  // and heads for tails.
+  private final boolean descending;
+
+  /**
+   * @param sorted the KeyValues, in the order of <code>comparator</code>
+   * @param comparator the comparator the KeyValues are sorted by
+   */
+  KeyValueArraySet(final SortedSet<KeyValue> sorted,
+      final KeyValue.KVComparator comparator) {
+    // Do not size the copy with sorted.size(), it walks a skip list.
+    List<KeyValue> copy = new ArrayList<KeyValue>();
+    for (KeyValue kv : sorted) {
+      copy.add(kv);
+    }
+    this.kvs = copy.toArray(new KeyValue[copy.size()]);
+    this.start = 0;
+    this.end = this.kvs.length;
+    this.comparator = comparator;
+    this.descending = false;
+  }
+
+  private KeyValueArraySet(final KeyValue[] kvs, final int start,
+      final int end, final KeyValue.KVComparator comparator,
+      final boolean descending) {
+    this.kvs = kvs;
+    this.start = start;
+    this.end = end;
+    this.comparator = comparator;
+    this.descending = descending;
+  }
+
+  /*
+   * @return index of the first entry greater than (or equal to, if inclusive)
+   * the key, or end if there is none
+   */
+  private int ceilingIndex(final KeyValue key, final boolean inclusive) {
+    int index = Arrays.binarySearch(kvs, start, end, key, comparator);
+    if (index >= 0) {
+      return inclusive ? index : index + 1;
+    }
+    return -(index + 1);
+  }
+
+  /*
+   * @return index of the last entry less than (or equal to, if inclusive)
+   * the key, or start - 1 if there is none
+   */
+  private int floorIndex(final KeyValue key, final boolean inclusive) {
+    int index = Arrays.binarySearch(kvs, start, end, key, comparator);
+    if (index >= 0) {
+      return inclusive ? index : index - 1;
+    }
+    return -(index + 1) - 1;
+  }
+
+  private KeyValue get(final int index) {
+    return index >= start && index < end ? kvs[index] : null;
+  }
+
+  private KeyValueArraySet range(final int from, final int to) {
+    return new KeyValueArraySet(kvs, from, Math.max(from, to), comparator,
+        descending);
+  }
+
+  public KeyValue ceiling(KeyValue e) {
+    return get(descending ? floorIndex(e, true) : ceilingIndex(e, true));
+  }
+
+  public KeyValue higher(KeyValue e) {
+    return get(descending ? floorIndex(e, false) : ceilingIndex(e, false));
+  }
+
+  public KeyValue floor(KeyValue e) {
+    return get(descending ? ceilingIndex(e, true) : floorIndex(e, true));
+  }
+
+  public KeyValue lower(KeyValue e) {
+    return get(descending ? ceilingIndex(e, false) : floorIndex(e, false));
+  }
+
+  public KeyValue first() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return descending ? kvs[end - 1] : kvs[start];
+  }
+
+  public KeyValue last() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return descending ? kvs[start] : kvs[end - 1];
+  }
+
+  public KeyValue pollFirst() {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public KeyValue pollLast() {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  private KeyValueArraySet lowerRange(final KeyValue key,
+      final boolean inclusive) {
+    return range(start, floorIndex(key, inclusive) + 1);
+  }
+
+  private KeyValueArraySet upperRange(final KeyValue key,
+      final boolean inclusive) {
+    return range(ceilingIndex(key, inclusive), end);
+  }
+
+  public SortedSet<KeyValue> headSet(final KeyValue toElement) {
+    return headSet(toElement, false);
+  }
+
+  public NavigableSet<KeyValue> headSet(final KeyValue toElement,
+      boolean inclusive) {
+    return descending ? upperRange(toElement, inclusive) :
+      lowerRange(toElement, inclusive);
+  }
+
+  public SortedSet<KeyValue> tailSet(KeyValue fromElement) {
+    return tailSet(fromElement, true);
+  }
+
+  public NavigableSet<KeyValue> tailSet(KeyValue fromElement,
+      boolean inclusive) {
+    return descending ? lowerRange(fromElement, inclusive) :
+      upperRange(fromElement, inclusive);
+  }
+
+  public SortedSet<KeyValue> subSet(KeyValue fromElement, KeyValue toElement) {
+    return subSet(fromElement, true, toElement, false);
+  }
+
+  public NavigableSet<KeyValue> subSet(KeyValue fromElement,
+      boolean fromInclusive, KeyValue toElement, boolean toInclusive) {
+    if (descending) {
+      return range(ceilingIndex(toElement, toInclusive),
+          floorIndex(fromElement, fromInclusive) + 1);
+    }
+    return range(ceilingIndex(fromElement, fromInclusive),
+        floorIndex(toElement, toInclusive) + 1);
+  }
+
+  public NavigableSet<KeyValue> descendingSet() {
+    return new KeyValueArraySet(kvs, start, end, comparator, !descending);
+  }
+
+  public Comparator<? super KeyValue> comparator() {
+    return descending ? Collections.reverseOrder(this.comparator) :
+      this.comparator;
+  }
+
+  public Iterator<KeyValue> iterator() {
+    return descending ? backwardIterator() : forwardIterator();
+  }
+
+  public Iterator<KeyValue> descendingIterator() {
+    return descending ? forwardIterator() : backwardIterator();
+  }
+
+  private Iterator<KeyValue> forwardIterator() {
+    return new Iterator<KeyValue>() {
+      private int next = start;
+
+      public boolean hasNext() {
+        return next < end;
+      }
+
+      public KeyValue next() {
+        if (next >= end) {
+          throw new NoSuchElementException();
+        }
+        return kvs[next++];
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException("Immutable");
+      }
+    };
+  }
+
+  private Iterator<KeyValue> backwardIterator() {
+    return new Iterator<KeyValue>() {
+      private int next = end - 1;
+
+      public boolean hasNext() {
+        return next >= start;
+      }
+
+      public KeyValue next() {
+        if (next < start) {
+          throw new NoSuchElementException();
+        }
+        return kvs[next--];
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException("Immutable");
+      }
+    };
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof KeyValue &&
+      Arrays.binarySearch(kvs, start, end, (KeyValue) o, comparator) >= 0;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return start == end;
+  }
+
+  @Override
+  public int size() {
+    return end - start;
+  }
+}
@@ -33,6 +33,8 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
@@ -47,6 +49,12 @@ import org.apache.hadoop.hbase.util.CollectionBackedScanner;
  * to snapshot and is cleared.  We continue to serve edits out of new memstore
  * and backing snapshot until flusher reports in that the flush succeeded. At
  * this point we let the snapshot go.
+ * <p>
+ * Unless disabled with hbase.hregion.memstore.mslab.enabled, KeyValues are
+ * copied into the chunks of a {@link MemStoreLAB} when they are added, so
+ * that flushing a memstore frees whole chunks instead of leaving the old
+ * generation fragmented. The heap size then accounts for the chunks rather
+ * than for the bytes of each KeyValue.
  * TODO: Adjust size of the memstore when we remove items because they have
  * been deleted.
  * TODO: With new KVSLS, need to make sure we update HeapSize with difference
@@ -55,6 +63,15 @@ import org.apache.hadoop.hbase.util.CollectionBackedScanner;
 public class MemStore implements HeapSize {
   private static final Log LOG = LogFactory.getLog(MemStore.class);
 
+  /**
+   * Whether the snapshot is flattened into a {@link KeyValueArraySet} when it
+   * is flushed.
+   */
+  static final String FLAT_SNAPSHOT_KEY = "hbase.hregion.memstore.flat.snapshot";
+  static final boolean FLAT_SNAPSHOT_DEFAULT = true;
+
+  private Configuration conf;
+
   // MemStore.  Use a KeyValueSkipListSet rather than SkipListSet because of the
   // better semantics.  The Map will overwrite if passed a key it already had
   // whereas the Set will not add new KV if key is same though value might be
@@ -62,8 +79,9 @@ public class MemStore implements HeapSize {
   // reference passed.
   volatile KeyValueSkipListSet kvset;
 
-  // Snapshot of memstore.  Made for flusher.
-  volatile KeyValueSkipListSet snapshot;
+  // Snapshot of memstore.  Made for flusher.  Starts out as the kvset it was
+  // made from, and is flattened into a KeyValueArraySet by the flusher.
+  volatile NavigableSet<KeyValue> snapshot;
 
   final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
@@ -81,18 +99,32 @@ public class MemStore implements HeapSize {
   TimeRangeTracker timeRangeTracker;
   TimeRangeTracker snapshotTimeRangeTracker;
 
+  // Allocators for the KeyValues of kvset and snapshot, null if disabled
+  volatile MemStoreLAB allocator;
+  volatile MemStoreLAB snapshotAllocator;
+
   /**
    * Default constructor. Used for tests.
    */
   public MemStore() {
-    this(KeyValue.COMPARATOR);
+    this(HBaseConfiguration.create(), KeyValue.COMPARATOR);
   }
 
   /**
-   * Constructor.
+   * Constructor. Used for tests.
    * @param c Comparator
    */
   public MemStore(final KeyValue.KVComparator c) {
+    this(HBaseConfiguration.create(), c);
+  }
+
+  /**
+   * Constructor.
+   * @param conf Configuration
+   * @param c Comparator
+   */
+  public MemStore(final Configuration conf, final KeyValue.KVComparator c) {
+    this.conf = conf;
     this.comparator = c;
     this.comparatorIgnoreTimestamp =
       this.comparator.getComparatorIgnoringTimestamps();
@@ -102,6 +134,15 @@ public class MemStore implements HeapSize {
     timeRangeTracker = new TimeRangeTracker();
     snapshotTimeRangeTracker = new TimeRangeTracker();
     this.size = new AtomicLong(DEEP_OVERHEAD);
+    this.allocator = createAllocator();
+  }
+
+  private MemStoreLAB createAllocator() {
+    if (this.conf.getBoolean(MemStoreLAB.USEMSLAB_KEY,
+        MemStoreLAB.USEMSLAB_DEFAULT)) {
+      return new MemStoreLAB(this.conf);
+    }
+    return null;
   }
 
   void dump() {
@@ -134,6 +175,8 @@ public class MemStore implements HeapSize {
           this.timeRangeTracker = new TimeRangeTracker();
           // Reset heap to not include any keys
           this.size.set(DEEP_OVERHEAD);
+          this.snapshotAllocator = this.allocator;
+          this.allocator = createAllocator();
         }
       }
     } finally {
@@ -149,10 +192,40 @@ public class MemStore implements HeapSize {
    * @see {@link #snapshot()}
    * @see {@link #clearSnapshot(SortedSet<KeyValue>)}
    */
-  KeyValueSkipListSet getSnapshot() {
+  NavigableSet<KeyValue> getSnapshot() {
     return this.snapshot;
   }
 
+  /**
+   * Replaces the passed snapshot with an immutable, array backed copy of it,
+   * unless it is disabled by hbase.hregion.memstore.flat.snapshot. The copy
+   * is made without holding the lock, so it does not hold up writers.
+   * Readers created from then on binary search the array instead of walking
+   * the skip list, and the skip list nodes can be collected as soon as the
+   * scanners still reading them are done.
+   * @param ss The snapshot made by a previous call to {@link #snapshot()}
+   * @return The snapshot to flush and to pass to
+   * {@link #clearSnapshot(SortedSet<KeyValue>)} afterwards.
+   */
+  SortedSet<KeyValue> flattenSnapshot(final SortedSet<KeyValue> ss) {
+    if (!this.conf.getBoolean(FLAT_SNAPSHOT_KEY, FLAT_SNAPSHOT_DEFAULT) ||
+        ss instanceof KeyValueArraySet || ss.isEmpty()) {
+      return ss;
+    }
+    KeyValueArraySet flat = new KeyValueArraySet(ss, this.comparator);
+    this.lock.writeLock().lock();
+    try {
+      if (this.snapshot != ss) {
+        // Cleared or replaced in the meantime, leave it alone.
+        return ss;
+      }
+      this.snapshot = flat;
+      return flat;
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
   /**
    * The passed snapshot was successfully persisted; it can be let go.
    * @param ss The snapshot to clean out.
@@ -173,6 +246,11 @@ public class MemStore implements HeapSize {
         this.snapshot = new KeyValueSkipListSet(this.comparator);
         this.snapshotTimeRangeTracker = new TimeRangeTracker();
       }
+      // The chunks go back to the pool once the scanners on them are closed
+      if (this.snapshotAllocator != null) {
+        this.snapshotAllocator.close();
+        this.snapshotAllocator = null;
+      }
     } finally {
       this.lock.writeLock().unlock();
     }
@@ -184,16 +262,13 @@ public class MemStore implements HeapSize {
    * @return approximate size of the passed key and value.
    */
   long add(final KeyValue kv) {
-    long s = -1;
     this.lock.readLock().lock();
     try {
-      s = heapSizeChange(kv, this.kvset.add(kv));
-      timeRangeTracker.includeTimestamp(kv);
-      this.size.addAndGet(s);
+      MemStoreLAB.Allocation alloc = allocate(kv);
+      return internalAdd(alloc == null ? kv : copyTo(kv, alloc), alloc);
     } finally {
       this.lock.readLock().unlock();
     }
-    return s;
   }
 
   /**
@@ -202,18 +277,52 @@ public class MemStore implements HeapSize {
    * @return approximate size of the passed key and value.
    */
   long delete(final KeyValue delete) {
-    long s = 0;
     this.lock.readLock().lock();
     try {
-      s += heapSizeChange(delete, this.kvset.add(delete));
-      timeRangeTracker.includeTimestamp(delete);
+      MemStoreLAB.Allocation alloc = allocate(delete);
+      return internalAdd(alloc == null ? delete : copyTo(delete, alloc), alloc);
     } finally {
       this.lock.readLock().unlock();
     }
+  }
+
+  /*
+   * Inserts the KeyValue in kvset. Callers must hold the read lock.
+   * @param kv the KeyValue, already copied into alloc if there is one
+   * @param alloc the allocation kv was copied into, or null
+   * @return approximate size change of this memstore.
+   */
+  private long internalAdd(final KeyValue kv,
+      final MemStoreLAB.Allocation alloc) {
+    long s = heapSizeChange(kv, this.kvset.add(kv), alloc != null);
+    if (alloc != null) {
+      // Account for the chunks rather than for the bytes of the KeyValue
+      s += alloc.getNewChunkBytes();
+    }
+    timeRangeTracker.includeTimestamp(kv);
     this.size.addAndGet(s);
     return s;
   }
 
+  /*
+   * @return a slice of the current MemStoreLAB to copy the KeyValue into, or
+   * null if there is no MemStoreLAB or the KeyValue is too large for it.
+   */
+  private MemStoreLAB.Allocation allocate(final KeyValue kv) {
+    MemStoreLAB mslab = this.allocator;
+    return mslab == null ? null : mslab.allocateBytes(kv.getLength());
+  }
+
+  private static KeyValue copyTo(final KeyValue kv,
+      final MemStoreLAB.Allocation alloc) {
+    int len = kv.getLength();
+    System.arraycopy(kv.getBuffer(), kv.getOffset(), alloc.getData(),
+        alloc.getOffset(), len);
+    KeyValue newKv = new KeyValue(alloc.getData(), alloc.getOffset(), len);
+    newKv.setMemstoreTS(kv.getMemstoreTS());
+    return newKv;
+  }
+
   /**
    * @param kv Find the row that comes after this one.  If null, we return the
    * first.
@@ -313,7 +422,7 @@ public class MemStore implements HeapSize {
       // Did we go beyond the target row? If so break.
       if (state.isTooFar(kv, firstOnRow)) break;
       if (state.isExpired(kv)) {
-        i.remove();
+        removeExpired(set, i);
         continue;
       }
       // If we added something, this row is a contender. break.
@@ -373,8 +482,12 @@ public class MemStore implements HeapSize {
       KeyValue newKv = new KeyValue(row, family, qualifier,
           now,
           Bytes.toBytes(newValue));
+      MemStoreLAB.Allocation alloc = allocate(newKv);
+      if (alloc != null) {
+        newKv = copyTo(newKv, alloc);
+      }
 
-      long addedSize = add(newKv);
+      long addedSize = internalAdd(newKv, alloc);
 
       // now find and RM the old one(s) to prevent version explosion:
     KeyValue firstKv = KeyValue.createFirstOnRow(
@@ -404,7 +517,11 @@ public class MemStore implements HeapSize {
 
           if (kv.getType() == KeyValue.Type.Put.getCode()) {
             // false means there was a change, so give us the size.
-            addedSize -= heapSizeChange(kv, true);
+            // The bytes of a KeyValue in a MemStoreLAB chunk stay allocated.
+            long removedSize = heapSizeChange(kv, true, this.allocator != null &&
+                this.allocator.isAllocated(kv.getLength()));
+            addedSize -= removedSize;
+            this.size.addAndGet(-removedSize);
 
             it.remove();
           }
@@ -445,7 +562,7 @@ public class MemStore implements HeapSize {
     for (Iterator<KeyValue> i = head.descendingIterator(); i.hasNext();) {
       KeyValue found = i.next();
       if (state.isExpired(found)) {
-        i.remove();
+        removeExpired(set, i);
         continue;
       }
       return new Member(head, found);
@@ -453,6 +570,17 @@ public class MemStore implements HeapSize {
     return null;
   }
 
+  /*
+   * Removes the expired KeyValue the iterator is on, unless the set is a
+   * flattened snapshot.  Those are immutable, the flush skips what expired.
+   */
+  private static void removeExpired(final SortedSet<KeyValue> set,
+      final Iterator<KeyValue> i) {
+    if (!(set instanceof KeyValueArraySet)) {
+      i.remove();
+    }
+  }
+
   /**
    * @return scanner on memstore and snapshot in this order.
    */
@@ -509,7 +637,12 @@ public class MemStore implements HeapSize {
 
     // The kvset and snapshot at the time of creating this scanner
     volatile KeyValueSkipListSet kvsetAtCreation;
-    volatile KeyValueSkipListSet snapshotAtCreation;
+    volatile NavigableSet<KeyValue> snapshotAtCreation;
+
+    // The allocators holding the bytes of kvsetAtCreation and
+    // snapshotAtCreation, which must not be recycled while we read them
+    private MemStoreLAB allocatorAtCreation;
+    private MemStoreLAB snapshotAllocatorAtCreation;
 
     /*
     Some notes...
@@ -534,6 +667,14 @@ public class MemStore implements HeapSize {
 
       kvsetAtCreation = kvset;
       snapshotAtCreation = snapshot;
+      if (allocator != null) {
+        this.allocatorAtCreation = allocator;
+        this.allocatorAtCreation.incScannerCount();
+      }
+      if (snapshotAllocator != null) {
+        this.snapshotAllocatorAtCreation = snapshotAllocator;
+        this.snapshotAllocatorAtCreation.incScannerCount();
+      }
 
       //DebugPrint.println(" MS new@" + hashCode());
     }
@@ -651,6 +792,15 @@ public class MemStore implements HeapSize {
 
       this.kvsetIt = null;
       this.snapshotIt = null;
+
+      if (this.allocatorAtCreation != null) {
+        this.allocatorAtCreation.decScannerCount();
+        this.allocatorAtCreation = null;
+      }
+      if (this.snapshotAllocatorAtCreation != null) {
+        this.snapshotAllocatorAtCreation.decScannerCount();
+        this.snapshotAllocatorAtCreation = null;
+      }
     }
 
     /**
@@ -670,7 +820,12 @@ public class MemStore implements HeapSize {
   }
 
   public final static long FIXED_OVERHEAD = ClassSize.align(
-      ClassSize.OBJECT + (9 * ClassSize.REFERENCE));
+      ClassSize.OBJECT + (12 * ClassSize.REFERENCE));
+
+  /** Heap size of a KeyValue object whose bytes are in a MemStoreLAB chunk */
+  private final static long CHUNKED_KEYVALUE_OVERHEAD = ClassSize.align(
+      ClassSize.OBJECT + ClassSize.REFERENCE + (2 * Bytes.SIZEOF_INT) +
+      Bytes.SIZEOF_LONG);
 
   public final static long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD +
       ClassSize.REENTRANT_LOCK + ClassSize.ATOMIC_LONG +
@@ -693,6 +848,25 @@ public class MemStore implements HeapSize {
         0;
   }
 
+  /*
+   * Calculate how the MemStore size has changed.  The bytes of a KeyValue
+   * held in a MemStoreLAB chunk are accounted for with the chunk.
+   * @param kv
+   * @param notpresent True if the kv was NOT present in the set.
+   * @param inChunk True if the kv is backed by a MemStoreLAB chunk.
+   * @return Size
+   */
+  private long heapSizeChange(final KeyValue kv, final boolean notpresent,
+      final boolean inChunk) {
+    if (!inChunk) {
+      return heapSizeChange(kv, notpresent);
+    }
+    return notpresent ?
+        ClassSize.align(ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY +
+            CHUNKED_KEYVALUE_OVERHEAD) :
+        0;
+  }
+
   /**
    * Get the entire heap usage for this MemStore not including keys in the
    * snapshot.
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * A pool of {@link MemStoreLAB} chunks, shared by all the memstores of a
+ * region server.
+ * <p>
+ * When a memstore snapshot is flushed, the chunks of its MemStoreLAB are put
+ * back here instead of being left to the garbage collector, and the next
+ * MemStoreLAB to need a chunk takes one from the pool. This keeps the
+ * long-lived chunks in the old generation rather than allocating and
+ * collecting 2MB arrays at the write rate.
+ * <p>
+ * The pool holds at most hbase.hregion.memstore.chunkpool.maxsize times the
+ * global memstore limit worth of chunks, so it never holds more memory than
+ * the memstores were allowed to use.
+ */
+public class MemStoreChunkPool {
+  private static final Log LOG = LogFactory.getLog(MemStoreChunkPool.class);
+
+  static final String CHUNK_POOL_MAXSIZE_KEY =
+    "hbase.hregion.memstore.chunkpool.maxsize";
+  static final float POOL_MAX_SIZE_DEFAULT = 0.0f;
+
+  // Static reference to the MemStoreChunkPool
+  private static MemStoreChunkPool globalInstance;
+  // Boolean whether we have disabled the memstore chunk pool entirely.
+  private static boolean chunkPoolDisabled = false;
+
+  private final int maxCount;
+  private final int chunkSize;
+
+  // A queue of reclaimed chunks
+  private final BlockingQueue<byte[]> reclaimedChunks;
+
+  // Statistics
+  private final AtomicLong createdChunkCount = new AtomicLong();
+  private final AtomicLong reusedChunkCount = new AtomicLong();
+
+  MemStoreChunkPool(int chunkSize, int maxCount) {
+    this.chunkSize = chunkSize;
+    this.maxCount = maxCount;
+    this.reclaimedChunks = new LinkedBlockingQueue<byte[]>(maxCount);
+  }
+
+  /**
+   * Poll a chunk from the pool, or allocate a new one if the pool is empty.
+   * @return a chunk of chunkSize bytes
+   */
+  byte[] getChunk() {
+    byte[] chunk = reclaimedChunks.poll();
+    if (chunk == null) {
+      chunk = new byte[chunkSize];
+      createdChunkCount.incrementAndGet();
+    } else {
+      reusedChunkCount.incrementAndGet();
+    }
+    return chunk;
+  }
+
+  /**
+   * Add the chunks to the pool. Chunks beyond the pool capacity are left to
+   * the garbage collector.
+   * @param chunks chunks no memstore and no scanner refers to anymore
+   */
+  void putbackChunks(Collection<byte[]> chunks) {
+    for (byte[] chunk : chunks) {
+      if (!reclaimedChunks.offer(chunk)) {
+        // the pool is full
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return the number of chunks in the pool
+   */
+  int getPoolSize() {
+    return reclaimedChunks.size();
+  }
+
+  /**
+   * @return the size of the chunks in the pool
+   */
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * @return the maximum number of chunks the pool holds
+   */
+  int getMaxCount() {
+    return maxCount;
+  }
+
+  /**
+   * @return the number of chunks the pool had to allocate
+   */
+  long getCreatedChunkCount() {
+    return createdChunkCount.get();
+  }
+
+  /**
+   * @return the number of chunks the pool handed out again
+   */
+  long getReusedChunkCount() {
+    return reusedChunkCount.get();
+  }
+
+  /**
+   * Drops all the chunks of the pool.
+   */
+  void clearChunks() {
+    reclaimedChunks.clear();
+  }
+
+  /**
+   * @param conf
+   * @return the global MemStoreChunkPool instance, or null if the pool or the
+   *         MemStoreLAB is disabled
+   */
+  static synchronized MemStoreChunkPool getPool(Configuration conf) {
+    if (globalInstance != null) return globalInstance;
+    if (chunkPoolDisabled) return null;
+
+    float poolSizePercentage = conf.getFloat(CHUNK_POOL_MAXSIZE_KEY,
+        POOL_MAX_SIZE_DEFAULT);
+    if (poolSizePercentage <= 0) {
+      chunkPoolDisabled = true;
+      return null;
+    }
+    if (poolSizePercentage > 1.0) {
+      throw new IllegalArgumentException(CHUNK_POOL_MAXSIZE_KEY +
+          " must be between 0.0 and 1.0");
+    }
+    long heapMax = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+        .getMax();
+    long globalMemStoreLimit = MemStoreFlusher.globalMemStoreLimit(heapMax,
+        MemStoreFlusher.DEFAULT_UPPER, MemStoreFlusher.UPPER_KEY, conf);
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY,
+        MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    int maxCount = (int) (globalMemStoreLimit * poolSizePercentage / chunkSize);
+    if (maxCount <= 0) {
+      chunkPoolDisabled = true;
+      return null;
+    }
+    LOG.info("Allocating MemStoreChunkPool with chunk size " +
+        StringUtils.humanReadableInt(chunkSize) + ", max count " + maxCount);
+    globalInstance = new MemStoreChunkPool(chunkSize, maxCount);
+    return globalInstance;
+  }
+}
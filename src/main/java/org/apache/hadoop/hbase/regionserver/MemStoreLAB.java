@@ -0,0 +1,312 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A memstore-local allocation buffer.
+ * <p>
+ * The MemStoreLAB is basically a bump-the-pointer allocator that allocates
+ * big (2MB) byte[] chunks from the heap (or from a {@link MemStoreChunkPool})
+ * and then doles them out to threads that request slices into the array.
+ * <p>
+ * The purpose of this class is to combat heap fragmentation in the
+ * regionserver. By ensuring that all KeyValues in a given memstore refer
+ * only to large chunks of contiguous memory, we ensure that large blocks
+ * get freed up when the memstore is flushed.
+ * <p>
+ * Without the MSLAB, the byte arrays allocated during insertion end up
+ * interleaved throughout the heap, and the old generation gets progressively
+ * more fragmented until a stop-the-world compacting collection occurs.
+ * <p>
+ * Every memstore generation (the active set and its snapshot) has its own
+ * MemStoreLAB. Once the snapshot is flushed the MemStoreLAB is closed, and
+ * its chunks go back to the pool as soon as no scanner reads them anymore.
+ */
+public class MemStoreLAB {
+  static final String USEMSLAB_KEY = "hbase.hregion.memstore.mslab.enabled";
+  static final boolean USEMSLAB_DEFAULT = true;
+
+  static final String CHUNK_SIZE_KEY = "hbase.hregion.memstore.mslab.chunksize";
+  static final int CHUNK_SIZE_DEFAULT = 2048 * 1024;
+
+  static final String MAX_ALLOC_KEY =
+    "hbase.hregion.memstore.mslab.max.allocation";
+  static final int MAX_ALLOC_DEFAULT = 256 * 1024;
+
+  private final AtomicReference<Chunk> curChunk = new AtomicReference<Chunk>();
+
+  // Every chunk of this allocator, to give them back to the pool on close
+  private final ConcurrentLinkedQueue<Chunk> chunks =
+    new ConcurrentLinkedQueue<Chunk>();
+
+  private final int chunkSize;
+  private final int maxAlloc;
+  private final MemStoreChunkPool chunkPool;
+
+  // Whether the memstore generation this allocator belongs to is gone
+  private volatile boolean closed = false;
+  // Number of scanners still reading KeyValues out of our chunks
+  private final AtomicInteger openScannerCount = new AtomicInteger(0);
+  private final AtomicBoolean reclaimed = new AtomicBoolean(false);
+
+  public MemStoreLAB(Configuration conf) {
+    this(conf, MemStoreChunkPool.getPool(conf));
+  }
+
+  MemStoreLAB(Configuration conf, MemStoreChunkPool pool) {
+    this.chunkSize = conf.getInt(CHUNK_SIZE_KEY, CHUNK_SIZE_DEFAULT);
+    this.maxAlloc = conf.getInt(MAX_ALLOC_KEY, MAX_ALLOC_DEFAULT);
+    // The pool only holds chunks of the region server wide chunk size
+    this.chunkPool = pool != null && pool.getChunkSize() == chunkSize ?
+        pool : null;
+
+    // if we don't exclude allocations >CHUNK_SIZE, we'd infiniteloop on one!
+    Preconditions.checkArgument(maxAlloc <= chunkSize,
+        MAX_ALLOC_KEY + " must be less than " + CHUNK_SIZE_KEY);
+  }
+
+  /**
+   * @return true if KeyValues of the given length are copied into this
+   *         allocator by {@link #allocateBytes(int)}
+   */
+  boolean isAllocated(int size) {
+    return size <= maxAlloc;
+  }
+
+  /**
+   * Allocate a slice of the given length.
+   *
+   * If the size is larger than the maximum size specified for this
+   * allocator, returns null.
+   */
+  public Allocation allocateBytes(int size) {
+    Preconditions.checkArgument(size >= 0, "negative size");
+
+    // Callers should satisfy large allocations directly from JVM since they
+    // don't cause fragmentation as badly.
+    if (size > maxAlloc) {
+      return null;
+    }
+
+    int newChunkBytes = 0;
+    while (true) {
+      Chunk c = curChunk.get();
+      if (c == null) {
+        c = new Chunk(chunkSize);
+        if (curChunk.compareAndSet(null, c)) {
+          // we won race - now we need to actually do the expensive allocation
+          // step
+          c.init(chunkPool);
+          chunks.add(c);
+          newChunkBytes += chunkSize;
+        } else {
+          // lost race, retry with the chunk somebody else installed
+          continue;
+        }
+      }
+
+      int allocOffset = c.alloc(size);
+      if (allocOffset != -1) {
+        // We succeeded - this is the common case - small alloc
+        // from a big buffer
+        return new Allocation(c.data, allocOffset, newChunkBytes);
+      }
+
+      // not enough space!
+      // try to retire this chunk
+      curChunk.compareAndSet(c, null);
+    }
+  }
+
+  /**
+   * Called when the memstore generation using this allocator is gone. The
+   * chunks go back to the pool once the last scanner on them is closed.
+   */
+  void close() {
+    this.closed = true;
+    if (openScannerCount.get() == 0) {
+      recycleChunks();
+    }
+  }
+
+  /**
+   * Called by a scanner when it starts reading out of this allocator.
+   */
+  void incScannerCount() {
+    openScannerCount.incrementAndGet();
+  }
+
+  /**
+   * Called by a scanner when it no longer reads out of this allocator.
+   */
+  void decScannerCount() {
+    int count = openScannerCount.decrementAndGet();
+    if (closed && count == 0) {
+      recycleChunks();
+    }
+  }
+
+  private void recycleChunks() {
+    if (chunkPool != null && reclaimed.compareAndSet(false, true)) {
+      List<byte[]> data = new ArrayList<byte[]>(chunks.size());
+      for (Chunk c : chunks) {
+        data.add(c.data);
+      }
+      chunks.clear();
+      chunkPool.putbackChunks(data);
+    }
+  }
+
+  /**
+   * A chunk of memory out of which allocations are sliced.
+   */
+  private static class Chunk {
+    /** Actual underlying data */
+    private byte[] data;
+
+    private static final int UNINITIALIZED = -1;
+    /**
+     * Offset for the next allocation, or the sentinel value -1
+     * which implies that the chunk is still uninitialized.
+     */
+    private final AtomicInteger nextFreeOffset =
+      new AtomicInteger(UNINITIALIZED);
+
+    /** Total number of allocations satisfied from this buffer */
+    private final AtomicInteger allocCount = new AtomicInteger();
+
+    /** Size of chunk in bytes */
+    private final int size;
+
+    /**
+     * Create an uninitialized chunk. Note that memory is not allocated yet, so
+     * this is cheap.
+     * @param size in bytes
+     */
+    private Chunk(int size) {
+      this.size = size;
+    }
+
+    /**
+     * Actually claim the memory for this chunk. This should only be called from
+     * the thread that constructed the chunk. It is thread-safe against other
+     * threads calling alloc(), who will block until the allocation is complete.
+     */
+    public void init(MemStoreChunkPool pool) {
+      assert nextFreeOffset.get() == UNINITIALIZED;
+      data = pool == null ? new byte[size] : pool.getChunk();
+      // Mark that it's ready for use
+      boolean initted = nextFreeOffset.compareAndSet(UNINITIALIZED, 0);
+      // We should always succeed the above CAS since only one thread
+      // calls init()!
+      Preconditions.checkState(initted,
+          "Multiple threads tried to init same chunk");
+    }
+
+    /**
+     * Try to allocate <code>size</code> bytes from the chunk.
+     * @return the offset of the successful allocation, or -1 to indicate
+     * not-enough-space
+     */
+    public int alloc(int size) {
+      while (true) {
+        int oldOffset = nextFreeOffset.get();
+        if (oldOffset == UNINITIALIZED) {
+          // The chunk doesn't have its data allocated yet.
+          // Since we found this in curChunk, we know that whoever
+          // CAS-ed it there is allocating it right now. So spin-loop
+          // shouldn't spin long!
+          Thread.yield();
+          continue;
+        }
+
+        if (oldOffset + size > data.length) {
+          return -1; // alloc doesn't fit
+        }
+
+        // Try to atomically claim this chunk
+        if (nextFreeOffset.compareAndSet(oldOffset, oldOffset + size)) {
+          // we got the alloc
+          allocCount.incrementAndGet();
+          return oldOffset;
+        }
+        // we raced and lost alloc, try again
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Chunk@" + System.identityHashCode(this) +
+        " allocs=" + allocCount.get() + " waste=" +
+        (data.length - nextFreeOffset.get());
+    }
+  }
+
+  /**
+   * The result of a single allocation. Contains the chunk that the
+   * allocation points into, and the offset in this array where the
+   * slice begins.
+   */
+  public static class Allocation {
+    private final byte[] data;
+    private final int offset;
+    private final int newChunkBytes;
+
+    private Allocation(byte[] data, int off, int newChunkBytes) {
+      this.data = data;
+      this.offset = off;
+      this.newChunkBytes = newChunkBytes;
+    }
+
+    @Override
+    public String toString() {
+      return "Allocation(data=" + data +
+        " with capacity=" + data.length +
+        ", off=" + offset + ")";
+    }
+
+    byte[] getData() {
+      return data;
+    }
+
+    int getOffset() {
+      return offset;
+    }
+
+    /**
+     * @return the size of the chunks this allocation had to start, which the
+     *         memstore accounts for instead of the size of the allocation
+     */
+    int getNewChunkBytes() {
+      return newChunkBytes;
+    }
+  }
+}
@@ -25,16 +25,22 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.logging.Log;
@@ -55,6 +61,7 @@ import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.Compression;
 import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileBlockIndex;
 import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoder;
 import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoderImpl;
 import org.apache.hadoop.hbase.io.hfile.HFileScanner;
@@ -68,9 +75,11 @@ import org.apache.hadoop.hbase.regionserver.metrics.SchemaConfigured;
 import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.DaemonThreadFactory;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.InjectionEvent;
 import org.apache.hadoop.hbase.util.InjectionHandler;
+import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.util.StringUtils;
 
 import com.google.common.base.Preconditions;
@@ -103,6 +112,31 @@ import com.google.common.collect.Lists;
  */
 public class Store extends SchemaConfigured implements HeapSize {
   static final Log LOG = LogFactory.getLog(Store.class);
+
+  /**
+   * Number of sub-ranges a large compaction is split into and compacted
+   * concurrently. 1 compacts in a single thread.
+   */
+  public static final String PARALLEL_COMPACTION_SUBRANGES_KEY =
+    "hbase.hstore.compaction.parallel.subranges";
+  /** Compactions smaller than this many bytes are never split */
+  public static final String PARALLEL_COMPACTION_MIN_SIZE_KEY =
+    "hbase.hstore.compaction.parallel.min.size";
+  public static final long DEFAULT_PARALLEL_COMPACTION_MIN_SIZE =
+    4L * 1024 * 1024 * 1024;
+  /**
+   * Number of threads compacting sub-ranges, shared by all the stores of the
+   * region server
+   */
+  public static final String PARALLEL_COMPACTION_THREADS_KEY =
+    "hbase.hstore.compaction.parallel.threads";
+  public static final int DEFAULT_PARALLEL_COMPACTION_THREADS = 8;
+
+  // Created on the first compaction split into sub-ranges
+  private static ThreadPoolExecutor subRangeCompactionPool = null;
+
+  private static final byte[][] NO_SPLIT_ROWS = new byte[0][];
+
   protected final MemStore memstore;
   // This stores directory in the filesystem.
   private final Path homedir;
@@ -125,6 +159,9 @@ public class Store extends SchemaConfigured implements HeapSize {
   static int closeCheckInterval = 0;
   private final long desiredMaxFileSize;
   private final int blockingStoreFileCount;
+  // How many sub-ranges to compact concurrently, and from which size on
+  private final int compactionSubRanges;
+  private final long parallelCompactionMinSize;
   private volatile long storeSize = 0L;
   private final Object flushLock = new Object();
   final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
@@ -215,7 +252,7 @@ public class Store extends SchemaConfigured implements HeapSize {
     LOG.info("time to purge deletes set to " + timeToPurgeDeletes +
         "ms in store " + this);
 
-    this.memstore = new MemStore(this.comparator);
+    this.memstore = new MemStore(this.conf, this.comparator);
     this.storeNameStr = getColumnFamilyName();
 
     // Setting up cache configuration for this family
@@ -230,6 +267,10 @@ public class Store extends SchemaConfigured implements HeapSize {
     this.desiredMaxFileSize = maxFileSize;
     this.blockingStoreFileCount =
       conf.getInt("hbase.hstore.blockingStoreFiles", -1);
+    this.compactionSubRanges = Math.max(1,
+        conf.getInt(PARALLEL_COMPACTION_SUBRANGES_KEY, 1));
+    this.parallelCompactionMinSize = conf.getLong(
+        PARALLEL_COMPACTION_MIN_SIZE_KEY, DEFAULT_PARALLEL_COMPACTION_MIN_SIZE);
 
     if (Store.closeCheckInterval == 0) {
       Store.closeCheckInterval = conf.getInt(
@@ -632,10 +673,11 @@ public class Store extends SchemaConfigured implements HeapSize {
    * @param snapshot
    * @param snapshotTimeRangeTracker
    * @param status
-   * @return true if a compaction is needed
+   * @return the store files created, more than one if the store is divided
+   * into stripes, or null if the snapshot is empty
    * @throws IOException
    */
-  private StoreFile flushCache(final long logCacheFlushId,
+  private List<StoreFile> flushCache(final long logCacheFlushId,
       SortedSet<KeyValue> snapshot,
       TimeRangeTracker snapshotTimeRangeTracker,
       MonitoredTask status) throws IOException {
@@ -651,14 +693,14 @@ public class Store extends SchemaConfigured implements HeapSize {
    * @param logCacheFlushId
    * @param snapshotTimeRangeTracker
    * @param status
-   * @return StoreFile created.
+   * @return StoreFiles created, one per stripe that has rows in the snapshot
+   * if the store is divided into stripes.
    * @throws IOException
    */
-  private StoreFile internalFlushCache(final SortedSet<KeyValue> snapshot,
-      final long logCacheFlushId,
+  private List<StoreFile> internalFlushCache(
+      final SortedSet<KeyValue> snapshot, final long logCacheFlushId,
       TimeRangeTracker snapshotTimeRangeTracker,
       MonitoredTask status) throws IOException {
-    StoreFile.Writer writer;
     // Find the smallest read point across all the Scanners.
     long smallestReadPoint = region.getSmallestReadPoint();
     long flushed = 0;
@@ -677,7 +719,10 @@ public class Store extends SchemaConfigured implements HeapSize {
         Long.MIN_VALUE, getAggregator(),
         flashBackQueryLimit); // include all deletes
 
-    String fileName;
+    // A striped store gets a file for each stripe the snapshot has rows in
+    byte[][] stripeSplitRows = compactionManager.getStripeSplitRows();
+    boolean striped = stripeSplitRows.length > 0;
+    List<StoreFile.Writer> writers = new ArrayList<StoreFile.Writer>();
     try {
       // TODO:  We can fail in the below block before we complete adding this
       // flush to list of store files.  Add cleanup of anything put on filesystem
@@ -685,9 +730,8 @@ public class Store extends SchemaConfigured implements HeapSize {
       synchronized (flushLock) {
         status.setStatus("Flushing " + this + ": creating writer");
         // A. Write the map out to the disk
-        writer = createWriterInTmp(snapshot.size());
-        writer.setTimeRangeTracker(snapshotTimeRangeTracker);
-        fileName = writer.getPath().getName();
+        StoreFile.Writer writer = null;
+        int stripe = 0;
         int entries = 0;
         try {
           final List<KeyValue> kvs = new ArrayList<KeyValue>();
@@ -695,6 +739,26 @@ public class Store extends SchemaConfigured implements HeapSize {
           do {
             hasMore = scanner.next(kvs);
             if (!kvs.isEmpty()) {
+              if (striped && stripe < stripeSplitRows.length &&
+                  isPastStopRow(kvs.get(0), stripeSplitRows[stripe])) {
+                // This row belongs to a later stripe
+                if (writer != null) {
+                  StoreFile.Writer full = writer;
+                  writer = null;
+                  closeFlushedFile(full, logCacheFlushId,
+                      getStripeStartRow(stripeSplitRows, stripe),
+                      getStripeEndRow(stripeSplitRows, stripe), status);
+                }
+                while (stripe < stripeSplitRows.length &&
+                    isPastStopRow(kvs.get(0), stripeSplitRows[stripe])) {
+                  stripe++;
+                }
+              }
+              if (writer == null) {
+                writer = createWriterInTmp(snapshot.size());
+                writer.setTimeRangeTracker(snapshotTimeRangeTracker);
+                writers.add(writer);
+              }
               for (KeyValue kv : kvs) {
                 // If we know that this KV is going to be included always, then let us
                 // set its memstoreTS to 0. This will help us save space when writing to disk.
@@ -711,34 +775,49 @@ public class Store extends SchemaConfigured implements HeapSize {
               kvs.clear();
             }
           } while (hasMore);
+          if (writer == null) {
+            // Nothing made it through, but the flush still gets a file
+            writer = createWriterInTmp(snapshot.size());
+            writer.setTimeRangeTracker(snapshotTimeRangeTracker);
+            writers.add(writer);
+          }
         } finally {
-          // Write out the log sequence number that corresponds to this output
-          // Write current time in metadata as minFlushTime
-          // hfile.  The hfile is current up to and including logCacheFlushId.
-          status.setStatus("Flushing " + this + ": appending metadata");
-          writer.appendMetadata(EnvironmentEdgeManager.currentTimeMillis(), logCacheFlushId, false);
-          status.setStatus("Flushing " + this + ": closing flushed file");
-          writer.close();
+          if (writer != null) {
+            closeFlushedFile(writer, logCacheFlushId,
+                striped ? getStripeStartRow(stripeSplitRows, stripe) : null,
+                striped ? getStripeEndRow(stripeSplitRows, stripe) : null,
+                status);
+          }
         }
       }
     } finally {
       scanner.close();
     }
 
-    Path dstPath = new Path(homedir, fileName);
+    List<StoreFile> storeFiles = new ArrayList<StoreFile>(writers.size());
+    for (StoreFile.Writer writer : writers) {
+      Path dstPath = new Path(homedir, writer.getPath().getName());
 
-    validateStoreFile(writer.getPath());
+      validateStoreFile(writer.getPath());
 
-    // Write-out finished successfully, move into the right spot
-    LOG.info("Renaming flushed file at " + writer.getPath() + " to " + dstPath);
-    fs.rename(writer.getPath(), dstPath);
+      // Write-out finished successfully, move into the right spot
+      LOG.info("Renaming flushed file at " + writer.getPath() + " to " + dstPath);
+      fs.rename(writer.getPath(), dstPath);
 
-    StoreFile sf = new StoreFile(this.fs, dstPath, this.conf, this.cacheConf,
-        this.family.getBloomFilterType(), this.dataBlockEncoder);
-    passSchemaMetricsTo(sf);
+      StoreFile sf = new StoreFile(this.fs, dstPath, this.conf, this.cacheConf,
+          this.family.getBloomFilterType(), this.dataBlockEncoder);
+      passSchemaMetricsTo(sf);
 
-    StoreFile.Reader r = sf.createReader();
-    this.storeSize += r.length();
+      StoreFile.Reader r = sf.createReader();
+      this.storeSize += r.length();
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Added " + sf + ", entries=" + r.getEntries() +
+          ", sequenceid=" + logCacheFlushId +
+          ", filesize=" + StringUtils.humanReadableInt(r.length()) +
+          " to " + this.region.regionInfo.getRegionNameAsString());
+      }
+      storeFiles.add(sf);
+    }
     // This increments the metrics associated with total flushed bytes for this
     // family. The overall flush count is stored in the static metrics and
     // retrieved from HRegion.recentFlushes, which is set within
@@ -747,13 +826,44 @@ public class Store extends SchemaConfigured implements HeapSize {
     getSchemaMetrics().updatePersistentStoreMetric(
         SchemaMetrics.StoreMetricType.FLUSH_SIZE, flushed);
     if (LOG.isInfoEnabled()) {
-      LOG.info("Added " + sf + ", entries=" + r.getEntries() +
-        ", sequenceid=" + logCacheFlushId +
-        ", memsize=" + StringUtils.humanReadableInt(flushed) +
-        ", filesize=" + StringUtils.humanReadableInt(r.length()) +
-        " to " + this.region.regionInfo.getRegionNameAsString());
+      LOG.info("Flushed " + StringUtils.humanReadableInt(flushed) +
+        " of " + this + " into " + storeFiles.size() + " file(s)");
+    }
+    return storeFiles;
+  }
+
+  /*
+   * Appends the flush metadata to a flushed file and closes it.
+   * @param stripeStartRow first row of the stripe of the file, or null if
+   * the store is not striped
+   * @param stripeEndRow row ending the stripe of the file
+   */
+  private void closeFlushedFile(final StoreFile.Writer writer,
+      final long logCacheFlushId, final byte[] stripeStartRow,
+      final byte[] stripeEndRow, final MonitoredTask status)
+      throws IOException {
+    // Write out the log sequence number that corresponds to this output
+    // Write current time in metadata as minFlushTime
+    // hfile.  The hfile is current up to and including logCacheFlushId.
+    status.setStatus("Flushing " + this + ": appending metadata");
+    writer.appendMetadata(EnvironmentEdgeManager.currentTimeMillis(), logCacheFlushId, false);
+    if (stripeStartRow != null) {
+      writer.appendStripeMetadata(stripeStartRow, stripeEndRow);
     }
-    return sf;
+    status.setStatus("Flushing " + this + ": closing flushed file");
+    writer.close();
+  }
+
+  private static byte[] getStripeStartRow(final byte[][] stripeSplitRows,
+      final int stripe) {
+    return stripe == 0 ? HConstants.EMPTY_START_ROW
+        : stripeSplitRows[stripe - 1];
+  }
+
+  private static byte[] getStripeEndRow(final byte[][] stripeSplitRows,
+      final int stripe) {
+    return stripe == stripeSplitRows.length ? HConstants.EMPTY_END_ROW
+        : stripeSplitRows[stripe];
   }
 
   /*
@@ -787,6 +897,8 @@ public class Store extends SchemaConfigured implements HeapSize {
             .withDataBlockEncoder(dataBlockEncoder)
             .withComparator(comparator)
             .withBloomType(family.getBloomFilterType())
+            .withBloomPrefix(family.getBloomFilterPrefixLength(),
+                family.getBloomFilterPrefixDelimiter())
             .withMaxKeyCount(maxKeyCount)
             .withFavoredNodes(region.getFavoredNodes())
             .withCompression(compression)
@@ -799,19 +911,19 @@ public class Store extends SchemaConfigured implements HeapSize {
   }
 
   /*
-   * Change storefiles adding into place the Reader produced by this new flush.
-   * @param sf
-   * @param set That was used to make the passed file <code>p</code>.
+   * Change storefiles adding into place the Readers produced by this new flush.
+   * @param sfs
+   * @param set That was used to make the passed files.
    * @throws IOException
    * @return Whether compaction is required.
    */
-  private boolean updateStorefiles(final StoreFile sf,
+  private boolean updateStorefiles(final List<StoreFile> sfs,
                                    final SortedSet<KeyValue> set)
   throws IOException {
     this.lock.writeLock().lock();
     try {
       ArrayList<StoreFile> newList = new ArrayList<StoreFile>(storefiles);
-      newList.add(sf);
+      newList.addAll(sfs);
       storefiles = sortAndClone(newList);
 
       this.memstore.clearSnapshot(set);
@@ -936,13 +1048,24 @@ public class Store extends SchemaConfigured implements HeapSize {
         + " into " + region.getTmpDir() + ", seqid=" + maxId + ", totalSize="
         + StringUtils.humanReadableInt(cr.getSize()));
 
-    StoreFile sf = null;
+    List<StoreFile> sfs = null;
     try {
       status.setStatus("Compacting " + filesToCompact.size() + " file(s)");
       long compactionStartTime = EnvironmentEdgeManager.currentTimeMillis();
-      StoreFile.Writer writer = compactStores(filesToCompact, cr.isMajor(), maxId);
+      byte[][] stripeBoundaries =
+        cr.getCompactSelection().getStripeBoundaries();
+      List<StoreFile.Writer> writers = stripeBoundaries != null ?
+          compactStores(filesToCompact, cr.isMajor(), maxId,
+              cr.getThroughputController(), stripeBoundaries, true) :
+          compactStores(filesToCompact, cr.isMajor(), maxId,
+              cr.getThroughputController(),
+              getCompactionSplitRows(filesToCompact, cr.getSize()));
       // Move the compaction into place.
-      sf = completeCompaction(filesToCompact, writer);
+      sfs = completeCompaction(filesToCompact, writers);
+      long newSize = 0;
+      for (StoreFile sf : sfs) {
+        newSize += sf.getReader().length();
+      }
 
       // Report that the compaction is complete.
       status.markComplete("Completed compaction");
@@ -954,8 +1077,10 @@ public class Store extends SchemaConfigured implements HeapSize {
           + StringUtils.formatTimeDiff(compactionStartTime, cr.getSelectionTime()) + ", and took "
           + StringUtils.formatTimeDiff(EnvironmentEdgeManager.currentTimeMillis(),
                                        compactionStartTime)
-          + " to execute. New storefile name=" + (sf == null ? "none" : sf.toString())
-          + ", size=" + (sf == null? "none" : StringUtils.humanReadableInt(sf.getReader().length()))
+          + " to execute. New storefile name" + (sfs.size() > 1 ? "s=" + sfs
+              : "=" + (sfs.isEmpty() ? "none" : sfs.get(0).toString()))
+          + ", size=" + (sfs.isEmpty() ? "none"
+              : StringUtils.humanReadableInt(newSize))
           + "; total size for store is "
           + StringUtils.humanReadableInt(storeSize));
     } catch (IOException ioe) {
@@ -1147,6 +1272,85 @@ public class Store extends SchemaConfigured implements HeapSize {
   StoreFile.Writer compactStores(final Collection<StoreFile> filesToCompact,
                                final boolean majorCompaction, final long maxCompactingSequcenceId)
       throws IOException {
+    return compactStores(filesToCompact, majorCompaction,
+        maxCompactingSequcenceId, null);
+  }
+
+  /**
+   * Do a minor/major compaction, going no faster than the throughput
+   * controller allows.
+   *
+   * @param filesToCompact which files to compact
+   * @param majorCompaction true to major compact (prune all deletes, max versions, etc)
+   * @param maxCompactingSequcenceId The maximum sequence id among the filesToCompact
+   * @param throughputController limits the compaction speed, or null to
+   * compact at full speed
+   * @return Product of compaction or null if all cells expired or deleted and
+   * nothing made it through the compaction.
+   * @throws IOException
+   */
+  StoreFile.Writer compactStores(final Collection<StoreFile> filesToCompact,
+      final boolean majorCompaction, final long maxCompactingSequcenceId,
+      final CompactionThroughputController throughputController)
+      throws IOException {
+    List<StoreFile.Writer> writers = compactStores(filesToCompact,
+        majorCompaction, maxCompactingSequcenceId, throughputController,
+        NO_SPLIT_ROWS);
+    return writers.isEmpty() ? null : writers.get(0);
+  }
+
+  /**
+   * Do a minor/major compaction, splitting the rows of the files into
+   * sub-ranges that are compacted concurrently, each into its own file.
+   *
+   * @param filesToCompact which files to compact
+   * @param majorCompaction true to major compact (prune all deletes, max versions, etc)
+   * @param maxCompactingSequcenceId The maximum sequence id among the filesToCompact
+   * @param throughputController limits the compaction speed, or null to
+   * compact at full speed
+   * @param splitRows the rows starting each sub-range but the first, in
+   * order; with no split rows the files are compacted in the calling thread
+   * @return Products of compaction in row order, empty if all cells expired
+   * or deleted and nothing made it through the compaction.
+   * @throws IOException
+   */
+  List<StoreFile.Writer> compactStores(
+      final Collection<StoreFile> filesToCompact,
+      final boolean majorCompaction, final long maxCompactingSequcenceId,
+      final CompactionThroughputController throughputController,
+      final byte[][] splitRows) throws IOException {
+    byte[][] boundaries = new byte[splitRows.length + 2][];
+    boundaries[0] = HConstants.EMPTY_START_ROW;
+    System.arraycopy(splitRows, 0, boundaries, 1, splitRows.length);
+    boundaries[boundaries.length - 1] = HConstants.EMPTY_END_ROW;
+    return compactStores(filesToCompact, majorCompaction,
+        maxCompactingSequcenceId, throughputController, boundaries, false);
+  }
+
+  /**
+   * Do a minor/major compaction of the rows between each two consecutive
+   * boundaries into its own file, compacting up to
+   * {@link #PARALLEL_COMPACTION_SUBRANGES_KEY} ranges concurrently.
+   *
+   * @param filesToCompact which files to compact
+   * @param majorCompaction true to major compact (prune all deletes, max versions, etc)
+   * @param maxCompactingSequcenceId The maximum sequence id among the filesToCompact
+   * @param throughputController limits the compaction speed, or null to
+   * compact at full speed
+   * @param boundaries the start row of the first range, the rows splitting
+   * the ranges and the stop row of the last range, in order
+   * @param stripeOutput whether to record its range as the stripe of each
+   * new file
+   * @return Products of compaction in row order, empty if all cells expired
+   * or deleted and nothing made it through the compaction.
+   * @throws IOException
+   */
+  List<StoreFile.Writer> compactStores(
+      final Collection<StoreFile> filesToCompact,
+      final boolean majorCompaction, final long maxCompactingSequcenceId,
+      final CompactionThroughputController throughputController,
+      final byte[][] boundaries, final boolean stripeOutput)
+      throws IOException {
     // calculate maximum key count (for blooms), and minFlushTime after compaction
     long maxKeyCount = 0;
     long minFlushTime = Long.MAX_VALUE;
@@ -1171,7 +1375,52 @@ public class Store extends SchemaConfigured implements HeapSize {
       }
     }
     LOG.info("Estimated total keyCount for output of compaction = " + maxKeyCount);
+    if (minFlushTime == Long.MAX_VALUE) {
+      minFlushTime = HConstants.NO_MIN_FLUSH_TIME;
+    }
 
+    // Find the smallest read point across all the Scanners.
+    long smallestReadPoint = region.getSmallestReadPoint();
+    // Create the writer whether or not there are output KVs,
+    // iff the maxSequenceID among the compaction candidates is
+    // equal to the maxSequenceID among all the on-disk hfiles. [HBASE-7267]
+    boolean forceWriter = maxCompactingSequcenceId == this.getMaxSequenceId(true);
+
+    if (boundaries.length == 2) {
+      StoreFile.Writer writer = compactRange(filesToCompact, majorCompaction,
+          maxCompactingSequcenceId, maxKeyCount, minFlushTime,
+          smallestReadPoint, boundaries[0], boundaries[1], forceWriter,
+          stripeOutput, false, null, throughputController);
+      return writer == null ? Collections.<StoreFile.Writer>emptyList()
+          : Collections.singletonList(writer);
+    }
+    return compactSubRanges(filesToCompact, majorCompaction,
+        maxCompactingSequcenceId, maxKeyCount, minFlushTime,
+        smallestReadPoint, boundaries, forceWriter, stripeOutput,
+        throughputController);
+  }
+
+  /*
+   * Compacts the rows from startRow (inclusive) to stopRow (exclusive) of the
+   * given files into a new file in the tmp dir. The file is deleted if the
+   * compaction fails.
+   * @param forceWriter create the file even if no KeyValue makes it through
+   * @param stripeOutput record the range as the stripe of the file
+   * @param subRangeOutput mark the file as one of the sub-range files of a
+   * compaction
+   * @param aborted stops the compaction when set, may be null
+   * @return the closed writer of the new file, or null if there is none
+   */
+  private StoreFile.Writer compactRange(
+      final Collection<StoreFile> filesToCompact,
+      final boolean majorCompaction, final long maxCompactingSequcenceId,
+      final long maxKeyCount, final long minFlushTime,
+      final long smallestReadPoint, final byte[] startRow,
+      final byte[] stopRow, final boolean forceWriter,
+      final boolean stripeOutput, final boolean subRangeOutput,
+      final AtomicBoolean aborted,
+      final CompactionThroughputController throughputController)
+      throws IOException {
     // For each file, obtain a scanner:
     List<StoreFileScanner> scanners = StoreFileScanner
       .getScannersForStoreFiles(filesToCompact, false, true);
@@ -1179,14 +1428,16 @@ public class Store extends SchemaConfigured implements HeapSize {
     // Make the instantiation lazy in case compaction produces no product; i.e.
     // where all source cells are expired or deleted.
     StoreFile.Writer writer = null;
-    // Find the smallest read point across all the Scanners.
-    long smallestReadPoint = region.getSmallestReadPoint();
+    boolean done = false;
     MultiVersionConsistencyControl.setThreadReadPoint(smallestReadPoint);
+    CompactionThroughputController.Operation throttle =
+      throughputController == null ? null : throughputController.start();
     try {
       InternalScanner scanner = null;
       try {
         Scan scan = new Scan();
         scan.setMaxVersions(family.getMaxVersions());
+        scan.setStartRow(startRow);
         /* include deletes, unless we are doing a major compaction */
         long retainDeletesUntil = (majorCompaction) ?
           (this.timeToPurgeDeletes <= 0 ? Long.MAX_VALUE :
@@ -1199,14 +1450,15 @@ public class Store extends SchemaConfigured implements HeapSize {
         // we have to use a do/while loop.
         ArrayList<KeyValue> kvs = new ArrayList<KeyValue>();
         boolean hasMore;
-        // Create the writer whether or not there are output KVs, 
-        // iff the maxSequenceID among the compaction candidates is 
-        // equal to the maxSequenceID among all the on-disk hfiles. [HBASE-7267]
-        if (maxCompactingSequcenceId == this.getMaxSequenceId(true)) {
+        if (forceWriter) {
           writer = createWriterInTmp(maxKeyCount, compression, true);
         }
         do {
           hasMore = scanner.next(kvs, 1);
+          if (!kvs.isEmpty() && isPastStopRow(kvs.get(0), stopRow)) {
+            // The next sub-range starts here
+            break;
+          }
           if (!kvs.isEmpty()) {
             if (writer == null) {
               writer = createWriterInTmp(maxKeyCount, compression, true);
@@ -1225,6 +1477,9 @@ public class Store extends SchemaConfigured implements HeapSize {
               } else {
                 writer.append(kv);
               }
+              if (throttle != null) {
+                throughputController.control(throttle, kv.getLength());
+              }
               // check periodically to see if a system stop is requested
               if (Store.closeCheckInterval > 0) {
                 bytesWritten += kv.getLength();
@@ -1234,13 +1489,17 @@ public class Store extends SchemaConfigured implements HeapSize {
                     bytesWritten);
                   bytesWritten = 0;
                   if (!this.region.areWritesEnabled()) {
-                    writer.close();
-                    fs.delete(writer.getPath(), false);
                     throw new InterruptedIOException(
                         "Aborting compaction of store " + this +
                         " in region " + this.region +
                     " because user requested stop.");
                   }
+                  if (aborted != null && aborted.get()) {
+                    throw new InterruptedIOException(
+                        "Aborting compaction of store " + this +
+                        " in region " + this.region +
+                        " because another sub-range failed.");
+                  }
                 }
               }
             }
@@ -1249,23 +1508,227 @@ public class Store extends SchemaConfigured implements HeapSize {
         } while (hasMore);
         getSchemaMetrics().updatePersistentStoreMetric(
           SchemaMetrics.StoreMetricType.COMPACTION_WRITE_SIZE, bytesWritten);
+        done = true;
       } finally {
         if (scanner != null) {
           scanner.close();
         }
       }
     } finally {
-      if (writer != null) {
-        if (minFlushTime == Long.MAX_VALUE) {
-          minFlushTime = HConstants.NO_MIN_FLUSH_TIME;
+      if (throttle != null) {
+        throughputController.finish(throttle);
+        if (throttle.getThrottledMillis() > 0) {
+          LOG.info("Compaction of " + this + " was throttled for " +
+              throttle.getThrottledMillis() + "ms");
         }
+      }
+      if (writer != null && !done) {
+        discardWriter(writer);
+      } else if (writer != null) {
         writer.appendMetadata(minFlushTime, maxCompactingSequcenceId, majorCompaction);
+        if (stripeOutput) {
+          writer.appendStripeMetadata(startRow, stopRow);
+        }
+        if (subRangeOutput) {
+          writer.appendSubRangeMetadata();
+        }
         writer.close();
       }
     }
     return writer;
   }
 
+  /*
+   * Closes the writer of a failed compaction and deletes its file.
+   */
+  private void discardWriter(final StoreFile.Writer writer) {
+    try {
+      writer.close();
+    } catch (IOException e) {
+      LOG.warn("Failed closing " + writer.getPath() + " of a failed " +
+          "compaction of " + this, e);
+    }
+    try {
+      fs.delete(writer.getPath(), false);
+    } catch (IOException e) {
+      LOG.warn("Failed deleting " + writer.getPath() + " of a failed " +
+          "compaction of " + this + ", it is left in the tmp dir", e);
+    }
+  }
+
+  private boolean isPastStopRow(final KeyValue kv, final byte[] stopRow) {
+    return stopRow.length > 0 && comparator.getRawComparator().compareRows(
+        kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(),
+        stopRow, 0, stopRow.length) >= 0;
+  }
+
+  /*
+   * Compacts each of the sub-ranges between the boundaries concurrently,
+   * each into its own file, in the pool shared by all the stores. If any
+   * sub-range fails, the others are stopped and all their files are deleted.
+   * @return the closed writers of the new files, in row order
+   */
+  private List<StoreFile.Writer> compactSubRanges(
+      final Collection<StoreFile> filesToCompact,
+      final boolean majorCompaction, final long maxCompactingSequcenceId,
+      final long maxKeyCount, final long minFlushTime,
+      final long smallestReadPoint, final byte[][] boundaries,
+      final boolean forceWriter, final boolean stripeOutput,
+      final CompactionThroughputController throughputController)
+      throws IOException {
+    int numRanges = boundaries.length - 1;
+    LOG.info("Compacting " + this + " in " + numRanges + " sub-ranges");
+    ExecutorService pool = getSubRangeCompactionPool(conf);
+    List<Future<StoreFile.Writer>> futures =
+      new ArrayList<Future<StoreFile.Writer>>(numRanges);
+    final AtomicBoolean aborted = new AtomicBoolean(false);
+    for (int i = 0; i < numRanges; i++) {
+      final byte[] startRow = boundaries[i];
+      final byte[] stopRow = boundaries[i + 1];
+      // One file is enough to carry the sequence id
+      final boolean force = forceWriter && i == 0;
+      futures.add(pool.submit(new Callable<StoreFile.Writer>() {
+        public StoreFile.Writer call() throws IOException {
+          if (aborted.get()) {
+            return null;
+          }
+          return compactRange(filesToCompact, majorCompaction,
+              maxCompactingSequcenceId, maxKeyCount, minFlushTime,
+              smallestReadPoint, startRow, stopRow, force, stripeOutput,
+              !stripeOutput, aborted, throughputController);
+        }
+      }));
+    }
+
+    // Wait for every sub-range, even after a failure, so that no file is
+    // written once the files of the others are deleted
+    List<StoreFile.Writer> writers = new ArrayList<StoreFile.Writer>();
+    IOException failure = null;
+    boolean interrupted = false;
+    for (Future<StoreFile.Writer> future : futures) {
+      while (true) {
+        try {
+          StoreFile.Writer writer = future.get();
+          if (writer != null) {
+            writers.add(writer);
+          }
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+          if (failure == null) {
+            failure = new InterruptedIOException(
+                "Interrupted compacting sub-ranges of " + this);
+            failure.initCause(e);
+          }
+          aborted.set(true);
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause() instanceof IOException ?
+                (IOException) e.getCause() : new IOException(e.getCause());
+          }
+          aborted.set(true);
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      for (StoreFile.Writer writer : writers) {
+        fs.delete(writer.getPath(), false);
+      }
+      throw failure;
+    }
+    return writers;
+  }
+
+  private static synchronized ExecutorService getSubRangeCompactionPool(
+      final Configuration conf) {
+    if (subRangeCompactionPool == null) {
+      subRangeCompactionPool = Threads.getBoundedCachedThreadPool(
+          conf.getInt(PARALLEL_COMPACTION_THREADS_KEY,
+              DEFAULT_PARALLEL_COMPACTION_THREADS),
+          60, TimeUnit.SECONDS,
+          new DaemonThreadFactory("StoreCompactionSubRange-"));
+    }
+    return subRangeCompactionPool;
+  }
+
+  /**
+   * Picks the rows at which to split a compaction into sub-ranges of about
+   * the same size, from the root block index keys of the files.
+   *
+   * @param filesToCompact the files to compact
+   * @param compactionSize the total size of the files
+   * @return the split rows in order, or an empty array if the compaction is
+   * too small to split or parallel compactions are disabled
+   */
+  byte[][] getCompactionSplitRows(final Collection<StoreFile> filesToCompact,
+      final long compactionSize) {
+    if (compactionSubRanges <= 1 ||
+        compactionSize < parallelCompactionMinSize) {
+      return NO_SPLIT_ROWS;
+    }
+    return getSplitRows(filesToCompact, compactionSubRanges);
+  }
+
+  /**
+   * Picks the rows splitting the given files into ranges of about the same
+   * size, from the root block index keys of the files.
+   *
+   * @param files the files to split
+   * @param numRanges the number of ranges wanted
+   * @return the split rows in order, fewer than numRanges - 1 of them if the
+   * files have too few index keys
+   */
+  byte[][] getSplitRows(final Collection<StoreFile> files,
+      final int numRanges) {
+    final KeyValue.KeyComparator rawComparator = comparator.getRawComparator();
+    // Each root index entry stands for an equal part of its file
+    TreeMap<byte[], Long> weights = new TreeMap<byte[], Long>(
+        new Comparator<byte[]>() {
+          public int compare(byte[] left, byte[] right) {
+            return rawComparator.compareRows(left, 0, left.length,
+                right, 0, right.length);
+          }
+        });
+    long totalWeight = 0;
+    for (StoreFile file : files) {
+      StoreFile.Reader r = file.getReader();
+      if (r == null) {
+        continue;
+      }
+      HFileBlockIndex.BlockIndexReader index =
+        r.getHFileReader().getDataBlockIndexReader();
+      int numKeys = index.getRootBlockCount();
+      if (numKeys == 0) {
+        continue;
+      }
+      long weight = Math.max(1, r.length() / numKeys);
+      for (int i = 0; i < numKeys; i++) {
+        byte[] row = KeyValue.createKeyValueFromKey(
+            index.getRootBlockKey(i)).getRow();
+        Long previous = weights.get(row);
+        weights.put(row, previous == null ? weight : previous + weight);
+        totalWeight += weight;
+      }
+    }
+
+    List<byte[]> splitRows = new ArrayList<byte[]>();
+    long rangeWeight = totalWeight / numRanges;
+    long weight = 0;
+    for (Map.Entry<byte[], Long> e : weights.entrySet()) {
+      // The first row never splits, the first sub-range would be empty
+      if (weight >= rangeWeight * (splitRows.size() + 1) &&
+          splitRows.size() < numRanges - 1) {
+        splitRows.add(e.getKey());
+      }
+      weight += e.getValue();
+    }
+    return splitRows.toArray(new byte[splitRows.size()][]);
+  }
+
   /**
    * Validates a store file by opening and closing it. In HFileV2 this should
    * not be an expensive operation.
@@ -1315,14 +1778,33 @@ public class Store extends SchemaConfigured implements HeapSize {
   StoreFile completeCompaction(final Collection<StoreFile> compactedFiles,
                                        final StoreFile.Writer compactedFile)
       throws IOException {
-    // 1. Moving the new files into place -- if there is a new file (may not
+    List<StoreFile> result = completeCompaction(compactedFiles,
+        compactedFile == null ? Collections.<StoreFile.Writer>emptyList()
+            : Collections.singletonList(compactedFile));
+    return result.isEmpty() ? null : result.get(0);
+  }
+
+  /*
+   * Moves the files of a compaction split into sub-ranges into place. The
+   * store switches from the compacted files to all the new files at once.
+   *
+   * @param compactedFiles list of files that were compacted
+   * @param compactedWriters StoreFiles that are the result of the compaction
+   * @return StoreFiles created. May be empty.
+   * @throws IOException
+   */
+  List<StoreFile> completeCompaction(final Collection<StoreFile> compactedFiles,
+      final List<StoreFile.Writer> compactedWriters) throws IOException {
+    // 1. Moving the new files into place -- if there are new files (may not
     // be if all cells were expired or deleted).
-    StoreFile result = null;
-    if (compactedFile != null) {
+    List<StoreFile> result = new ArrayList<StoreFile>(compactedWriters.size());
+    for (StoreFile.Writer compactedFile : compactedWriters) {
       Path origPath = compactedFile.getPath();
-      Path destPath = new Path(homedir, origPath.getName());
-
       validateStoreFile(origPath);
+    }
+    for (StoreFile.Writer compactedFile : compactedWriters) {
+      Path origPath = compactedFile.getPath();
+      Path destPath = new Path(homedir, origPath.getName());
 
       // Move file into the right spot
       LOG.info("Renaming compacted file at " + origPath + " to " + destPath);
@@ -1330,10 +1812,12 @@ public class Store extends SchemaConfigured implements HeapSize {
         LOG.error("Failed move of compacted file " + origPath + " to " +
             destPath);
       }
-      result = new StoreFile(this.fs, destPath, this.conf, this.cacheConf,
-          this.family.getBloomFilterType(), this.dataBlockEncoder);
-      passSchemaMetricsTo(result);
-      result.createReader();
+      StoreFile sf = new StoreFile(this.fs, destPath, this.conf,
+          this.cacheConf, this.family.getBloomFilterType(),
+          this.dataBlockEncoder);
+      passSchemaMetricsTo(sf);
+      sf.createReader();
+      result.add(sf);
     }
     try {
       try {
@@ -1346,10 +1830,8 @@ public class Store extends SchemaConfigured implements HeapSize {
         newStoreFiles.removeAll(compactedFiles);
         filesCompacting.removeAll(compactedFiles); // safe bc: lock.writeLock()
 
-        // If a StoreFile result, move it into place.  May be null.
-        if (result != null) {
-          newStoreFiles.add(result);
-        }
+        // If there are StoreFile results, move them into place.
+        newStoreFiles.addAll(result);
 
         this.storefiles = sortAndClone(newStoreFiles);
       } finally {
@@ -1370,7 +1852,7 @@ public class Store extends SchemaConfigured implements HeapSize {
     } catch (IOException e) {
       e = RemoteExceptionHandler.checkIOException(e);
       LOG.error("Failed replacing compacted files in " + this.storeNameStr +
-        ". Compacted file is " + (result == null? "none": result.toString()) +
+        ". Compacted files are " + (result.isEmpty() ? "none" : result.toString()) +
         ".  Files replaced " + compactedFiles.toString() +
         " some of which may have been already removed", e);
     }
@@ -1683,6 +2165,24 @@ public class Store extends SchemaConfigured implements HeapSize {
     }
   }
 
+  /**
+   * Return a scanner for one get of a batch, over the memstore and the
+   * StoreFile scanners the gets of the batch share.
+   * @param batch the StoreFile scanners of the batch
+   * @param index the position of the get in the batch
+   * @throws IOException
+   */
+  StoreScanner getScanner(Scan scan, final NavigableSet<byte []> targetCols,
+      BatchedGetScanners batch, int index) throws IOException {
+    lock.readLock().lock();
+    try {
+      return new StoreScanner(this, scan, targetCols,
+          batch.getFileScanners(index), getAggregator());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
   @Override
   public String toString() {
     return this.storeNameStr;
@@ -1772,6 +2272,25 @@ public class Store extends SchemaConfigured implements HeapSize {
     return this.blockingStoreFileCount - this.storefiles.size();
   }
 
+  /**
+   * @return how close this store is to blocking updates on its number of
+   * files, from 0 when it has no more files than a minor compaction needs,
+   * to 1 when updates are blocked
+   */
+  double getCompactionPressure() {
+    int minFiles = compactionManager.comConf.getMinFilesToCompact();
+    int storefileCount = this.storefiles.size();
+    if (this.blockingStoreFileCount <= 0) {
+      return 0.0;
+    }
+    if (this.blockingStoreFileCount <= minFiles) {
+      return storefileCount >= this.blockingStoreFileCount ? 1.0 : 0.0;
+    }
+    double pressure = (double) (storefileCount - minFiles) /
+        (this.blockingStoreFileCount - minFiles);
+    return Math.max(0.0, Math.min(1.0, pressure));
+  }
+
   boolean throttleCompaction(long compactionSize) {
     return compactionManager.throttleCompaction(compactionSize);
   }
@@ -1825,7 +2344,7 @@ public class Store extends SchemaConfigured implements HeapSize {
 
     private long cacheFlushId;
     private SortedSet<KeyValue> snapshot;
-    private StoreFile storeFile;
+    private List<StoreFile> storeFiles;
     private TimeRangeTracker snapshotTimeRangeTracker;
 
     private StoreFlusherImpl(long cacheFlushId) {
@@ -1841,18 +2360,20 @@ public class Store extends SchemaConfigured implements HeapSize {
 
     @Override
     public void flushCache(MonitoredTask status) throws IOException {
-      storeFile = Store.this.flushCache(cacheFlushId, snapshot,
+      // Outside of the region update lock, so writes go on while we copy.
+      snapshot = memstore.flattenSnapshot(snapshot);
+      storeFiles = Store.this.flushCache(cacheFlushId, snapshot,
           snapshotTimeRangeTracker, status);
     }
 
     @Override
     public boolean commit() throws IOException {
-      if (storeFile == null) {
+      if (storeFiles == null) {
         return false;
       }
-      // Add new file to store files.  Clear snapshot too while we have
+      // Add new files to store files.  Clear snapshot too while we have
       // the Store write lock.
-      return Store.this.updateStorefiles(storeFile, snapshot);
+      return Store.this.updateStorefiles(storeFiles, snapshot);
     }
   }
 
@@ -1874,8 +2395,8 @@ public class Store extends SchemaConfigured implements HeapSize {
 
   public static final long FIXED_OVERHEAD =
       ClassSize.align(SchemaConfigured.SCHEMA_CONFIGURED_UNALIGNED_HEAP_SIZE +
-          + (19 * ClassSize.REFERENCE) + (6 * Bytes.SIZEOF_LONG)
-          + (4 * Bytes.SIZEOF_INT) + 2 * Bytes.SIZEOF_BOOLEAN);
+          + (19 * ClassSize.REFERENCE) + (7 * Bytes.SIZEOF_LONG)
+          + (5 * Bytes.SIZEOF_INT) + 2 * Bytes.SIZEOF_BOOLEAN);
 
   public static final long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD +
       ClassSize.OBJECT + ClassSize.REENTRANT_LOCK +
@@ -45,6 +45,9 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue.KVComparator;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.io.HalfStoreFileReader;
 import org.apache.hadoop.hbase.io.Reference;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
@@ -101,7 +104,12 @@ public class StoreFile extends SchemaConfigured {
     /**
      * Bloom enabled with Table row & column (family+qualifier) as Key
      */
-    ROWCOL
+    ROWCOL,
+    /**
+     * Bloom enabled with a prefix of the Table row as Key, either a fixed
+     * number of bytes or up to a delimiter as set in the column family
+     */
+    PREFIX
   }
 
   // Keys for fileinfo values in HFile
@@ -116,6 +124,17 @@ public class StoreFile extends SchemaConfigured {
   public static final byte[] MAJOR_COMPACTION_KEY =
       Bytes.toBytes("MAJOR_COMPACTION_KEY");
 
+  /** First row of the stripe the file belongs to in FileInfo */
+  public static final byte[] STRIPE_START_KEY =
+      Bytes.toBytes("STRIPE_START_KEY");
+
+  /** Row ending the stripe the file belongs to in FileInfo, exclusive */
+  public static final byte[] STRIPE_END_KEY = Bytes.toBytes("STRIPE_END_KEY");
+
+  /** Set in FileInfo on the files of a compaction split into sub-ranges */
+  public static final byte[] SUBRANGE_COMPACTION_KEY =
+      Bytes.toBytes("SUBRANGE_COMPACTION_KEY");
+
   /** Bloom filter Type in FileInfo */
   static final byte[] BLOOM_FILTER_TYPE_KEY =
       Bytes.toBytes("BLOOM_FILTER_TYPE");
@@ -124,6 +143,14 @@ public class StoreFile extends SchemaConfigured {
   public static final byte[] DELETE_FAMILY_COUNT =
       Bytes.toBytes("DELETE_FAMILY_COUNT");
 
+  /** Fixed prefix length of a prefix Bloom filter in FileInfo */
+  static final byte[] BLOOM_FILTER_PREFIX_LENGTH_KEY =
+      Bytes.toBytes("BLOOM_FILTER_PREFIX_LENGTH");
+
+  /** Delimiter ending the prefix of a prefix Bloom filter in FileInfo */
+  static final byte[] BLOOM_FILTER_PREFIX_DELIMITER_KEY =
+      Bytes.toBytes("BLOOM_FILTER_PREFIX_DELIMITER");
+
   /** Last Bloom filter key in FileInfo */
   private static final byte[] LAST_BLOOM_KEY = Bytes.toBytes("LAST_BLOOM_KEY");
 
@@ -428,6 +455,71 @@ public class StoreFile extends SchemaConfigured {
     return Bytes.toLong(metadataMap.get(BULKLOAD_TIME_KEY));
   }
 
+  /**
+   * @return true if this file belongs to a stripe, a range of rows of a
+   * store divided by {@link StripeCompactionManager}
+   */
+  boolean isStriped() {
+    return metadataMap.containsKey(STRIPE_START_KEY);
+  }
+
+  /**
+   * @return true if this file is one of the files written by a compaction
+   * split into row sub-ranges, which all have the same max sequence id
+   */
+  boolean isSubRangeCompactionResult() {
+    return metadataMap.containsKey(SUBRANGE_COMPACTION_KEY);
+  }
+
+  /**
+   * @return the first row of the stripe of this file, empty for the first
+   * stripe, or null if the file is not striped
+   */
+  byte[] getStripeStartRow() {
+    return metadataMap.get(STRIPE_START_KEY);
+  }
+
+  /**
+   * @return the row ending the stripe of this file, empty for the last
+   * stripe, or null if the file is not striped
+   */
+  byte[] getStripeEndRow() {
+    return metadataMap.get(STRIPE_END_KEY);
+  }
+
+  /**
+   * Finds the prefix of a row that goes into a prefix Bloom filter: its first
+   * prefixLength bytes, or its bytes up to and including the first delimiter.
+   *
+   * @param row the array holding the row, or the start of some rows
+   * @param offset the offset of the row in the array
+   * @param length the length of the row
+   * @param prefixLength the fixed prefix length, or 0 to use the delimiter
+   * @param delimiter the bytes ending the prefix if there is no fixed length
+   * @param wholeRow whether the bytes are a whole row, which is its own
+   *          prefix if it is shorter than the prefix length or has no
+   *          delimiter; otherwise they are the start of rows and the prefix
+   *          of those rows is not known in that case
+   * @return the length of the prefix, or -1 if it is not known
+   */
+  static int getBloomPrefixLength(final byte[] row, final int offset,
+      final int length, final int prefixLength, final byte[] delimiter,
+      final boolean wholeRow) {
+    if (prefixLength > 0) {
+      if (length >= prefixLength) {
+        return prefixLength;
+      }
+    } else if (delimiter != null && delimiter.length > 0) {
+      for (int i = 0; i + delimiter.length <= length; i++) {
+        if (Bytes.equals(row, offset + i, delimiter.length,
+            delimiter, 0, delimiter.length)) {
+          return i + delimiter.length;
+        }
+      }
+    }
+    return wholeRow ? length : -1;
+  }
+
   /**
    * Opens reader on this store file.  Called by Constructor.
    * @return Reader for the store file.
@@ -635,6 +727,8 @@ public class StoreFile extends SchemaConfigured {
     private HFileDataBlockEncoder dataBlockEncoder;
     private KeyValue.KVComparator comparator = KeyValue.COMPARATOR;
     private BloomType bloomType = BloomType.NONE;
+    private int bloomPrefixLength = 0;
+    private byte[] bloomPrefixDelimiter = null;
     private long maxKeyCount = 0;
     private Path dir;
     private Path filePath;
@@ -703,6 +797,18 @@ public class StoreFile extends SchemaConfigured {
       return this;
     }
 
+    /**
+     * @param prefixLength the number of leading row bytes a PREFIX Bloom
+     *          filter is built on, or 0 to end the prefix at the delimiter
+     * @param delimiter the bytes ending the prefix, or null
+     * @return this (for chained invocation)
+     */
+    public WriterBuilder withBloomPrefix(int prefixLength, byte[] delimiter) {
+      this.bloomPrefixLength = prefixLength;
+      this.bloomPrefixDelimiter = delimiter;
+      return this;
+    }
+
     /**
      * @param maxKeyCount estimated maximum number of keys we expect to add
      * @return this (for chained invocation)
@@ -757,6 +863,13 @@ public class StoreFile extends SchemaConfigured {
         bloomType = BloomType.NONE;
       }
 
+      if (bloomType == BloomType.PREFIX && bloomPrefixLength <= 0 &&
+          (bloomPrefixDelimiter == null || bloomPrefixDelimiter.length == 0)) {
+        LOG.warn("Neither a prefix length nor a delimiter is set for the " +
+            "prefix Bloom filter of " + filePath + ", using a row Bloom filter");
+        bloomType = BloomType.ROW;
+      }
+
       if (dataBlockEncoder == null) {
         dataBlockEncoder = NoOpDataBlockEncoder.INSTANCE;
       }
@@ -849,6 +962,8 @@ public class StoreFile extends SchemaConfigured {
     private final BloomFilterWriter generalBloomFilterWriter;
     private final BloomFilterWriter deleteFamilyBloomFilterWriter;
     private final BloomType bloomType;
+    private final int bloomPrefixLength;
+    private final byte[] bloomPrefixDelimiter;
     private byte[] lastBloomKey;
     private int lastBloomKeyOffset, lastBloomKeyLen;
     private final KVComparator kvComparator;
@@ -882,6 +997,8 @@ public class StoreFile extends SchemaConfigured {
           .create();
 
       this.kvComparator = wb.comparator;
+      this.bloomPrefixLength = wb.bloomPrefixLength;
+      this.bloomPrefixDelimiter = wb.bloomPrefixDelimiter;
 
       generalBloomFilterWriter = BloomFilterFactory.createGeneralBloomAtWrite(
           wb.conf, wb.cacheConf, wb.bloomType,
@@ -941,6 +1058,29 @@ public class StoreFile extends SchemaConfigured {
         appendMetadata(HConstants.NO_MIN_FLUSH_TIME, maxSequenceId, majorCompaction);
     }
 
+    /**
+     * Records the stripe this file belongs to.
+     * Call before {@link #close()} since its written as meta data to this file.
+     * @param startRow first row of the stripe, empty for the first stripe
+     * @param endRow row ending the stripe, exclusive, empty for the last stripe
+     * @throws IOException problem writing to FS
+     */
+    public void appendStripeMetadata(final byte[] startRow,
+        final byte[] endRow) throws IOException {
+      writer.appendFileInfo(STRIPE_START_KEY, startRow);
+      writer.appendFileInfo(STRIPE_END_KEY, endRow);
+    }
+
+    /**
+     * Marks this file as one of the files of a compaction split into row
+     * sub-ranges.
+     * Call before {@link #close()} since its written as meta data to this file.
+     * @throws IOException problem writing to FS
+     */
+    public void appendSubRangeMetadata() throws IOException {
+      writer.appendFileInfo(SUBRANGE_COMPACTION_KEY, Bytes.toBytes(true));
+    }
+
     /**
      * Add TimestampRange to Metadata
      */
@@ -993,12 +1133,19 @@ public class StoreFile extends SchemaConfigured {
           case ROWCOL:
             newKey = ! kvComparator.matchingRowColumn(kv, lastKv);
             break;
+          case PREFIX:
+            newKey = ! Bytes.equals(kv.getBuffer(), kv.getRowOffset(),
+                getBloomPrefixLength(kv.getBuffer(), kv.getRowOffset(),
+                    kv.getRowLength(), bloomPrefixLength,
+                    bloomPrefixDelimiter, true),
+                lastBloomKey, lastBloomKeyOffset, lastBloomKeyLen);
+            break;
           case NONE:
             newKey = false;
             break;
           default:
             throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+                " (ROW, ROWCOL or PREFIX expected)");
           }
         }
         if (newKey) {
@@ -1006,9 +1153,10 @@ public class StoreFile extends SchemaConfigured {
            * http://2.bp.blogspot.com/_Cib_A77V54U/StZMrzaKufI/AAAAAAAAADo/ZhK7bGoJdMQ/s400/KeyValue.png
            * Key = RowLen + Row + FamilyLen + Column [Family + Qualifier] + TimeStamp
            *
-           * 2 Types of Filtering:
+           * 3 Types of Filtering:
            *  1. Row = Row
            *  2. RowCol = Row + Qualifier
+           *  3. Prefix = Row prefix
            */
           byte[] bloomKey;
           int bloomKeyOffset, bloomKeyLen;
@@ -1029,9 +1177,16 @@ public class StoreFile extends SchemaConfigured {
             bloomKeyOffset = 0;
             bloomKeyLen = bloomKey.length;
             break;
+          case PREFIX:
+            bloomKey = kv.getBuffer();
+            bloomKeyOffset = kv.getRowOffset();
+            bloomKeyLen = getBloomPrefixLength(bloomKey, bloomKeyOffset,
+                kv.getRowLength(), bloomPrefixLength, bloomPrefixDelimiter,
+                true);
+            break;
           default:
             throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+                " (ROW, ROWCOL or PREFIX expected)");
           }
           generalBloomFilterWriter.add(bloomKey, bloomKeyOffset, bloomKeyLen);
           if (lastBloomKey != null
@@ -1114,6 +1269,14 @@ public class StoreFile extends SchemaConfigured {
         writer.addGeneralBloomFilter(generalBloomFilterWriter);
         writer.appendFileInfo(BLOOM_FILTER_TYPE_KEY,
             Bytes.toBytes(bloomType.toString()));
+        if (bloomType == BloomType.PREFIX) {
+          writer.appendFileInfo(BLOOM_FILTER_PREFIX_LENGTH_KEY,
+              Bytes.toBytes(bloomPrefixLength));
+          if (bloomPrefixDelimiter != null) {
+            writer.appendFileInfo(BLOOM_FILTER_PREFIX_DELIMITER_KEY,
+                bloomPrefixDelimiter);
+          }
+        }
         if (lastBloomKey != null) {
           writer.appendFileInfo(LAST_BLOOM_KEY, Arrays.copyOfRange(
               lastBloomKey, lastBloomKeyOffset, lastBloomKeyOffset
@@ -1175,6 +1338,8 @@ public class StoreFile extends SchemaConfigured {
     protected BloomFilter generalBloomFilter = null;
     protected BloomFilter deleteFamilyBloomFilter = null;
     protected BloomType bloomFilterType;
+    private int bloomPrefixLength = 0;
+    private byte[] bloomPrefixDelimiter = null;
     private final HFile.Reader reader;
     protected TimeRangeTracker timeRangeTracker = null;
     protected long sequenceID = -1;
@@ -1292,12 +1457,22 @@ public class StoreFile extends SchemaConfigured {
      *         False if the Bloom filter is applicable and the scan fails it.
      */
     boolean passesBloomFilter(Scan scan, final SortedSet<byte[]> columns) {
-      if (!scan.isGetScan())
+      if (!scan.isGetScan()) {
+        if (this.bloomFilterType == BloomType.PREFIX) {
+          // All the rows of a prefix scan share their Bloom key
+          byte[] prefix = getScanBloomPrefix(scan);
+          if (prefix != null) {
+            return passesGeneralBloomFilter(prefix, 0, prefix.length, null,
+                0, 0);
+          }
+        }
         return true;
+      }
 
       byte[] row = scan.getStartRow();
       switch (this.bloomFilterType) {
         case ROW:
+        case PREFIX:
           return passesGeneralBloomFilter(row, 0, row.length, null, 0, 0);
 
         case ROWCOL:
@@ -1316,6 +1491,57 @@ public class StoreFile extends SchemaConfigured {
       }
     }
 
+    /**
+     * @return the prefix Bloom key of all the rows the scan can return, or
+     *         null if they do not share one. The rows share the common
+     *         prefix of the start and stop rows, and the prefix of a
+     *         {@link PrefixFilter}.
+     */
+    private byte[] getScanBloomPrefix(Scan scan) {
+      byte[] prefix = null;
+      byte[] startRow = scan.getStartRow();
+      byte[] stopRow = scan.getStopRow();
+      if (stopRow.length > 0) {
+        int common = 0;
+        while (common < startRow.length && common < stopRow.length &&
+            startRow[common] == stopRow[common]) {
+          common++;
+        }
+        prefix = Arrays.copyOf(startRow, common);
+      }
+      byte[] filterPrefix = getFilterPrefix(scan.getFilter());
+      if (filterPrefix != null &&
+          (prefix == null || filterPrefix.length > prefix.length)) {
+        prefix = filterPrefix;
+      }
+      if (prefix == null) {
+        return null;
+      }
+      int prefixLength = getBloomPrefixLength(prefix, 0, prefix.length,
+          bloomPrefixLength, bloomPrefixDelimiter, false);
+      return prefixLength < 0 ? null : Arrays.copyOf(prefix, prefixLength);
+    }
+
+    /*
+     * @return the prefix of a PrefixFilter, also one of a list of filters
+     * that must all pass, or null
+     */
+    private byte[] getFilterPrefix(Filter filter) {
+      if (filter instanceof PrefixFilter) {
+        return ((PrefixFilter) filter).getPrefix();
+      }
+      if (filter instanceof FilterList && ((FilterList) filter).getOperator()
+          == FilterList.Operator.MUST_PASS_ALL) {
+        for (Filter f : ((FilterList) filter).getFilters()) {
+          byte[] prefix = getFilterPrefix(f);
+          if (prefix != null) {
+            return prefix;
+          }
+        }
+      }
+      return null;
+    }
+
     public boolean passesDeleteFamilyBloomFilter(byte[] row, int rowOffset,
         int rowLen) {
       // Cache Bloom filter as a local variable in case it is set to null by
@@ -1381,6 +1607,16 @@ public class StoreFile extends SchemaConfigured {
               colOffset, colLen);
           break;
 
+        case PREFIX:
+          if (col != null) {
+            throw new RuntimeException("Prefix Bloom filter called with " +
+                "column specified");
+          }
+          key = Arrays.copyOfRange(row, rowOffset, rowOffset +
+              getBloomPrefixLength(row, rowOffset, rowLen, bloomPrefixLength,
+                  bloomPrefixDelimiter, true));
+          break;
+
         default:
           return true;
       }
@@ -1465,6 +1701,11 @@ public class StoreFile extends SchemaConfigured {
       }
 
       lastBloomKey = fi.get(LAST_BLOOM_KEY);
+      b = fi.get(BLOOM_FILTER_PREFIX_LENGTH_KEY);
+      if (b != null) {
+        bloomPrefixLength = Bytes.toInt(b);
+      }
+      bloomPrefixDelimiter = fi.get(BLOOM_FILTER_PREFIX_DELIMITER_KEY);
       byte[] cnt = fi.get(DELETE_FAMILY_COUNT);
       if (cnt != null) {
         deleteFamilyCnt = Bytes.toLong(cnt);
@@ -1624,8 +1865,13 @@ public class StoreFile extends SchemaConfigured {
       this.deleteFamilyBloomFilter = null;
     }
 
+    /**
+     * @return the newest timestamp in the file, or Long.MAX_VALUE if the
+     * file has no time range
+     */
     public long getMaxTimestamp() {
-      return timeRangeTracker.maximumTimestamp;
+      return timeRangeTracker == null ? Long.MAX_VALUE
+          : timeRangeTracker.maximumTimestamp;
     }
   }
 
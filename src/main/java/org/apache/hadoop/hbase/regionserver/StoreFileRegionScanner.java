@@ -0,0 +1,276 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.IncompatibleFilterException;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoderImpl;
+import org.apache.hadoop.hbase.regionserver.kvaggregator.DefaultKeyValueAggregator;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Scans a fixed set of store files of one region straight from the file
+ * system, without going through a region server.
+ * <p>
+ * The versions, deletes, TTLs and filters are applied the same way a region
+ * scanner applies them, one {@link StoreScanner} per family. The memstore is
+ * not seen: the region should be flushed before its store files are listed.
+ */
+public class StoreFileRegionScanner implements InternalScanner {
+  private static final Log LOG =
+    LogFactory.getLog(StoreFileRegionScanner.class);
+
+  private final KeyValueHeap storeHeap;
+  private final List<StoreFile> storeFiles = new ArrayList<StoreFile>();
+  private final byte[] stopRow;
+  private final Filter filter;
+  private final int batch;
+  // Gets include their stop row, scans do not
+  private final int isScan;
+  private final List<KeyValue> skipped = new ArrayList<KeyValue>();
+
+  /**
+   * @param conf the configuration, which also sets up the block cache
+   * @param fs the file system of the store files
+   * @param htd the descriptor of the table the region belongs to
+   * @param scan the scan to run
+   * @param familyFiles the store files to read, by family. The families of
+   *          the scan, or all the families when the scan names none, that
+   *          have no store file are empty.
+   */
+  public StoreFileRegionScanner(Configuration conf, FileSystem fs,
+      HTableDescriptor htd, Scan scan, Map<byte[], List<Path>> familyFiles)
+  throws IOException {
+    this.filter = scan.getFilter();
+    this.batch = scan.getBatch();
+    this.stopRow = Bytes.equals(scan.getStopRow(), HConstants.EMPTY_END_ROW) ?
+        null : scan.getStopRow();
+    this.isScan = scan.isGetScan() ? -1 : 0;
+
+    Map<byte[], NavigableSet<byte[]>> families;
+    if (scan.hasFamilies()) {
+      families = scan.getFamilyMap();
+    } else {
+      families = new TreeMap<byte[], NavigableSet<byte[]>>(
+          Bytes.BYTES_COMPARATOR);
+      for (byte[] family : htd.getFamiliesKeys()) {
+        families.put(family, null);
+      }
+    }
+
+    CacheConfig cacheConf = new CacheConfig(conf);
+    List<StoreScanner> scanners = new ArrayList<StoreScanner>();
+    try {
+      for (Map.Entry<byte[], NavigableSet<byte[]>> entry :
+          families.entrySet()) {
+        HColumnDescriptor family = htd.getFamily(entry.getKey());
+        if (family == null) {
+          throw new NoSuchColumnFamilyException("Column family " +
+              Bytes.toString(entry.getKey()) + " does not exist in " +
+              htd.getNameAsString());
+        }
+        List<Path> paths = familyFiles.get(entry.getKey());
+        if (paths == null || paths.isEmpty()) {
+          continue;
+        }
+        scanners.add(getStoreScanner(conf, fs, cacheConf, family, scan,
+            entry.getValue(), paths));
+      }
+      this.storeHeap = new KeyValueHeap(scanners, KeyValue.COMPARATOR);
+    } catch (IOException e) {
+      for (StoreScanner scanner : scanners) {
+        scanner.close();
+      }
+      closeStoreFiles();
+      throw e;
+    }
+  }
+
+  private StoreScanner getStoreScanner(Configuration conf, FileSystem fs,
+      CacheConfig cacheConf, HColumnDescriptor family, Scan scan,
+      NavigableSet<byte[]> columns, List<Path> paths) throws IOException {
+    HFileDataBlockEncoderImpl dataBlockEncoder = new HFileDataBlockEncoderImpl(
+        family.getDataBlockEncodingOnDisk(), family.getDataBlockEncoding());
+    List<StoreFile> files = new ArrayList<StoreFile>(paths.size());
+    for (Path path : paths) {
+      StoreFile file = new StoreFile(fs, path, conf, cacheConf,
+          family.getBloomFilterType(), dataBlockEncoder);
+      storeFiles.add(file);
+      files.add(file);
+    }
+    List<KeyValueScanner> fileScanners = new ArrayList<KeyValueScanner>(
+        StoreFileScanner.getScannersForStoreFiles(files, scan.getCacheBlocks()));
+
+    // Same TTL and versions as the store would use
+    long ttl = family.getTimeToLive();
+    if (ttl == HConstants.FOREVER || ttl == -1) {
+      ttl = Long.MAX_VALUE;
+    } else {
+      ttl *= 1000;
+    }
+    Scan familyScan = new Scan(scan);
+    familyScan.setMaxVersions(Math.min(scan.getMaxVersions(),
+        family.getMaxVersions()));
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Scanning " + files.size() + " store files of family " +
+          family.getNameAsString());
+    }
+    return new StoreScanner(familyScan, family.getName(), ttl,
+        KeyValue.COMPARATOR, columns, fileScanners,
+        DefaultKeyValueAggregator.getInstance());
+  }
+
+  @Override
+  public boolean next(List<KeyValue> results) throws IOException {
+    return next(results, batch);
+  }
+
+  @Override
+  public boolean next(List<KeyValue> results, String metric)
+      throws IOException {
+    return next(results, batch);
+  }
+
+  @Override
+  public boolean next(List<KeyValue> results, int limit, String metric)
+      throws IOException {
+    return next(results, limit);
+  }
+
+  @Override
+  public boolean next(List<KeyValue> results, int limit) throws IOException {
+    boolean moreRows;
+    if (results.isEmpty()) {
+      moreRows = nextInternal(results, limit);
+    } else {
+      List<KeyValue> rowResults = new ArrayList<KeyValue>();
+      moreRows = nextInternal(rowResults, limit);
+      results.addAll(rowResults);
+    }
+    resetFilter();
+    if (filter != null && filter.filterAllRemaining()) {
+      return false;
+    }
+    return moreRows;
+  }
+
+  /**
+   * Reads the next row into an empty list, following
+   * HRegion.RegionScanner#nextInternal.
+   */
+  private boolean nextInternal(List<KeyValue> results, int limit)
+      throws IOException {
+    while (true) {
+      byte[] currentRow = peekRow();
+      if (isStopRow(currentRow)) {
+        if (filter != null && filter.hasFilterRow()) {
+          filter.filterRow(results);
+        }
+        if (filter != null && filter.filterRow()) {
+          results.clear();
+        }
+        return false;
+      } else if (filter != null &&
+          filter.filterRowKey(currentRow, 0, currentRow.length)) {
+        nextRow(currentRow);
+        results.clear();
+      } else {
+        byte[] nextRow;
+        do {
+          storeHeap.next(results, limit - results.size());
+          if (limit > 0 && results.size() == limit) {
+            if (filter != null && filter.hasFilterRow()) {
+              throw new IncompatibleFilterException(
+                  "Filter with filterRow(List<KeyValue>) incompatible with " +
+                  "scan with limit!");
+            }
+            return true;
+          }
+        } while (Bytes.equals(currentRow, nextRow = peekRow()));
+
+        final boolean stopRow = isStopRow(nextRow);
+        if (filter != null && filter.hasFilterRow()) {
+          filter.filterRow(results);
+        }
+        if (results.isEmpty() || (filter != null && filter.filterRow())) {
+          nextRow(currentRow);
+          results.clear();
+          if (!stopRow) continue;
+        }
+        return !stopRow;
+      }
+    }
+  }
+
+  private void nextRow(byte[] currentRow) throws IOException {
+    while (Bytes.equals(currentRow, peekRow())) {
+      storeHeap.next(skipped);
+      skipped.clear();
+    }
+    resetFilter();
+  }
+
+  private void resetFilter() {
+    if (filter != null) {
+      filter.reset();
+    }
+  }
+
+  private byte[] peekRow() {
+    KeyValue kv = storeHeap.peek();
+    return kv == null ? null : kv.getRow();
+  }
+
+  private boolean isStopRow(byte[] currentRow) {
+    return currentRow == null || (stopRow != null &&
+        Bytes.compareTo(stopRow, currentRow) <= isScan);
+  }
+
+  @Override
+  public void close() throws IOException {
+    storeHeap.close();
+    closeStoreFiles();
+  }
+
+  private void closeStoreFiles() throws IOException {
+    for (StoreFile file : storeFiles) {
+      file.closeReader(false);
+    }
+    storeFiles.clear();
+  }
+}
@@ -213,6 +213,19 @@ class StoreFileScanner implements KeyValueScanner {
     cur = null;
   }
 
+  /**
+   * Forgets the position of this scanner so that another query can use it,
+   * starting with a seek. The HFile scanner keeps its current block, so a
+   * seek that lands in the same block does not load it again.
+   */
+  void resetForReuse() {
+    cur = null;
+    isReseekable = false;
+    realSeekDone = true;
+    delayedReseek = false;
+    delayedSeekKV = null;
+  }
+
   /**
    *
    * @param s
@@ -281,6 +294,11 @@ class StoreFileScanner implements KeyValueScanner {
         haveToSeek = reader.passesGeneralBloomFilter(kv.getBuffer(),
             kv.getRowOffset(), kv.getRowLength(), kv.getBuffer(),
             kv.getQualifierOffset(), kv.getQualifierLength());
+      } else if (reader.getBloomFilterType() == StoreFile.BloomType.PREFIX &&
+          !reader.passesGeneralBloomFilter(kv.getBuffer(), kv.getRowOffset(),
+              kv.getRowLength(), null, 0, 0)) {
+        // No row with this prefix in the file
+        haveToSeek = false;
       } else if (this.matcher != null && !matcher.hasNullColumnInQuery() &&
           kv.isDeleteFamily()) {
         // if there is no such delete family kv in the store file,
@@ -21,10 +21,15 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.NavigableSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -65,6 +70,17 @@ public class StoreScanner extends NonLazyKeyValueScanner
   private final NavigableSet<byte[]> columns;
   private final long oldestUnexpiredTS;
 
+  /**
+   * Whether the region server seeks the StoreFiles of a scanner at the same
+   * time when it opens the scanner.
+   */
+  public static final String PARALLEL_SEEK_ENABLE_KEY =
+      "hbase.storescanner.parallel.seek.enable";
+  /** The number of threads seeking StoreFiles in parallel */
+  public static final String PARALLEL_SEEK_THREADS_KEY =
+      "hbase.storescanner.parallel.seek.threads";
+  public static final int DEFAULT_PARALLEL_SEEK_THREADS = 10;
+
   /** We don't ever expect to change this, the constant is just for clarity. */
   static final boolean LAZY_SEEK_ENABLED_BY_DEFAULT = true;
 
@@ -116,6 +132,24 @@ public class StoreScanner extends NonLazyKeyValueScanner
    */
   StoreScanner(Store store, Scan scan, final NavigableSet<byte[]> columns,
       KeyValueAggregator keyValueAggregator) throws IOException {
+    this(store, scan, columns, null, keyValueAggregator);
+  }
+
+  /**
+   * Opens a scanner across memstore, snapshot, and the given StoreFile
+   * scanners. Assumes we are not in a compaction.
+   *
+   * @param store who we scan
+   * @param scan the spec
+   * @param columns which columns we are scanning
+   * @param fileScanners scanners of the StoreFiles to read, already checked
+   *          against the scan's Bloom filter and time range, or null to read
+   *          all the StoreFiles of the store
+   * @throws IOException
+   */
+  StoreScanner(Store store, Scan scan, final NavigableSet<byte[]> columns,
+      List<StoreFileScanner> fileScanners,
+      KeyValueAggregator keyValueAggregator) throws IOException {
     this(store, scan.getCacheBlocks(), scan, columns, store.ttl, keyValueAggregator);
     matcher =
         new ScanQueryMatcher(scan, store.getFamily().getName(), columns,
@@ -124,8 +158,18 @@ public class StoreScanner extends NonLazyKeyValueScanner
             Long.MAX_VALUE, // do not include the deletes
             oldestUnexpiredTS);
 
-    // Pass columns to try to filter out unnecessary StoreFiles.
-    List<KeyValueScanner> scanners = getScannersNoCompaction();
+    List<KeyValueScanner> scanners;
+    if (fileScanners == null) {
+      // Pass columns to try to filter out unnecessary StoreFiles.
+      scanners = getScannersNoCompaction();
+    } else {
+      scanners = new ArrayList<KeyValueScanner>(fileScanners.size() + 2);
+      for (StoreFileScanner scanner : fileScanners) {
+        scanner.setScanQueryMatcher(matcher);
+        scanners.add(scanner);
+      }
+      scanners.addAll(selectScannersFrom(store.memstore.getScanners()));
+    }
 
     // Seek all scanners to the start of the Row (or if the exact matching row
     // key does not exist, then to the start of the next matching Row).
@@ -135,6 +179,10 @@ public class StoreScanner extends NonLazyKeyValueScanner
       for (KeyValueScanner scanner : scanners) {
         scanner.requestSeek(matcher.getStartKey(), false, true);
       }
+    } else if (HRegionServer.parallelSeekThreadPool != null &&
+        scanners.size() > 1) {
+      parallelSeek(scanners, matcher.getStartKey(),
+          HRegionServer.parallelSeekThreadPool);
     } else {
       for (KeyValueScanner scanner : scanners) {
         scanner.seek(matcher.getStartKey());
@@ -199,7 +247,10 @@ public class StoreScanner extends NonLazyKeyValueScanner
     heap = new KeyValueHeap(scanners, store.comparator);
   }
 
-  /** Constructor for testing. */
+  /**
+   * Opens a scanner across the given scanners without a store. Used for
+   * testing and by {@link StoreFileRegionScanner}.
+   */
   StoreScanner(final Scan scan, final byte [] colFamily, final long ttl,
       final KeyValue.KVComparator comparator,
       final NavigableSet<byte[]> columns,
@@ -250,6 +301,58 @@ public class StoreScanner extends NonLazyKeyValueScanner
         SchemaMetrics.generateSchemaMetricsPrefix(tableName, family);
   }
 
+  /**
+   * Seeks the StoreFile scanners to the key at the same time on the given
+   * pool, so that a read missing the block cache waits for the slowest file
+   * rather than for all of them in turn. The other scanners seek in the
+   * calling thread.
+   */
+  private void parallelSeek(final List<? extends KeyValueScanner> scanners,
+      final KeyValue kv, final ExecutorService pool) throws IOException {
+    // StoreFile scanners skip the KeyValues newer than the thread read point
+    final long readPoint = MultiVersionConsistencyControl.getThreadReadPoint();
+    List<Future<Boolean>> seeks = new ArrayList<Future<Boolean>>(
+        scanners.size());
+    for (final KeyValueScanner scanner : scanners) {
+      if (scanner instanceof StoreFileScanner) {
+        seeks.add(pool.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws IOException {
+            MultiVersionConsistencyControl.setThreadReadPoint(readPoint);
+            return scanner.seek(kv);
+          }
+        }));
+      } else {
+        scanner.seek(kv);
+      }
+    }
+
+    // Wait for all the seeks, even after one failed, so that none of them
+    // is still running once we return.
+    IOException failure = null;
+    for (Future<Boolean> seek : seeks) {
+      try {
+        seek.get();
+      } catch (InterruptedException e) {
+        for (Future<Boolean> other : seeks) {
+          other.cancel(true);
+        }
+        Thread.currentThread().interrupt();
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted while seeking to " + kv).initCause(e);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          Throwable cause = e.getCause();
+          failure = cause instanceof IOException ? (IOException) cause :
+              new IOException("Could not seek to " + kv, cause);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
   /**
    * Get a filtered list of scanners. Assumes we are not in a compaction.
    * @return list of scanners to seek
@@ -0,0 +1,328 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Divides a store into stripes, ranges of rows each with its own store
+ * files, and compacts one stripe at a time.
+ * <p>
+ * The files of a stripe record its rows in their file info. Flushes split
+ * their output at the stripe boundaries, so new data goes straight into the
+ * stripes. Files without a stripe, written before the store had stripes or
+ * bulk loaded, and files spanning several stripes make up level 0; once
+ * there are enough of them they are compacted into the stripes.
+ * <p>
+ * Minor compactions are selected within one stripe with the ratio based
+ * policy of {@link CompactionManager}, so a busy stripe does not make the
+ * others be rewritten. A stripe that grows past the split size is compacted
+ * into two. The first compaction of the whole store past the split size
+ * divides it into stripes. Major compactions keep the stripes.
+ * <p>
+ * A striped store keeps more files than a store compacted as a whole, so
+ * <code>hbase.hstore.blockingStoreFiles</code> should be raised with it.
+ * Set {@link HConstants#COMPACTION_MANAGER_CLASS} to this class to use it.
+ */
+public class StripeCompactionManager extends CompactionManager {
+
+  private static final Log LOG =
+    LogFactory.getLog(StripeCompactionManager.class);
+
+  /** Stripes larger than this many bytes are split in two */
+  public static final String SPLIT_SIZE_KEY = "hbase.hstore.stripe.split.size";
+  public static final long DEFAULT_SPLIT_SIZE = 2L * 1024 * 1024 * 1024;
+  /** Number of level 0 files that get compacted into the stripes */
+  public static final String L0_MIN_FILES_KEY =
+    "hbase.hstore.stripe.l0.min.files";
+  public static final int DEFAULT_L0_MIN_FILES = 4;
+
+  private final Store store;
+  private final long splitSize;
+  private final int l0MinFiles;
+  private final Comparator<byte[]> rowComparator;
+
+  StripeCompactionManager(Configuration configuration, Store store) {
+    super(configuration, store);
+    this.store = store;
+    this.splitSize = configuration.getLong(SPLIT_SIZE_KEY, DEFAULT_SPLIT_SIZE);
+    this.l0MinFiles = Math.max(1,
+        configuration.getInt(L0_MIN_FILES_KEY, DEFAULT_L0_MIN_FILES));
+    final KeyValue.KeyComparator rawComparator =
+      store.getComparator().getRawComparator();
+    this.rowComparator = new Comparator<byte[]>() {
+      public int compare(byte[] left, byte[] right) {
+        return rawComparator.compareRows(left, 0, left.length,
+            right, 0, right.length);
+      }
+    };
+  }
+
+  /**
+   * The store files arranged by stripe.
+   */
+  class Stripes {
+    // rows splitting the stripes, in order
+    final byte[][] splitRows;
+    // files of each stripe, oldest first
+    final List<List<StoreFile>> stripeFiles;
+    // files not in exactly one stripe, oldest first
+    final List<StoreFile> level0 = new ArrayList<StoreFile>();
+
+    Stripes(final List<StoreFile> files) {
+      TreeSet<byte[]> rows = new TreeSet<byte[]>(rowComparator);
+      for (StoreFile file : files) {
+        if (file.isStriped()) {
+          addSplitRow(rows, file.getStripeStartRow());
+          addSplitRow(rows, file.getStripeEndRow());
+        }
+      }
+      splitRows = rows.toArray(new byte[rows.size()][]);
+      stripeFiles = new ArrayList<List<StoreFile>>(splitRows.length + 1);
+      for (int i = 0; i <= splitRows.length; i++) {
+        stripeFiles.add(new ArrayList<StoreFile>());
+      }
+      for (StoreFile file : files) {
+        int stripe = file.isStriped() ? getStripe(file) : -1;
+        if (stripe < 0) {
+          level0.add(file);
+        } else {
+          stripeFiles.get(stripe).add(file);
+        }
+      }
+    }
+
+    private void addSplitRow(final TreeSet<byte[]> rows, final byte[] row) {
+      if (row != null && row.length > 0) {
+        rows.add(row);
+      }
+    }
+
+    /*
+     * @return the stripe of the file, or -1 if its rows are not exactly
+     * those of one stripe
+     */
+    private int getStripe(final StoreFile file) {
+      byte[] startRow = file.getStripeStartRow();
+      int stripe = 0;
+      if (startRow.length > 0) {
+        stripe = Arrays.binarySearch(splitRows, startRow, rowComparator) + 1;
+        if (stripe <= 0) {
+          return -1;
+        }
+      }
+      return Bytes.equals(file.getStripeEndRow(), getEndRow(stripe))
+          ? stripe : -1;
+    }
+
+    int getStripeCount() {
+      return splitRows.length + 1;
+    }
+
+    byte[] getStartRow(final int stripe) {
+      return stripe == 0 ? HConstants.EMPTY_START_ROW : splitRows[stripe - 1];
+    }
+
+    byte[] getEndRow(final int stripe) {
+      return stripe == splitRows.length ? HConstants.EMPTY_END_ROW
+          : splitRows[stripe];
+    }
+
+    /**
+     * @return the boundaries of a compaction writing into all the stripes
+     */
+    byte[][] getAllBoundaries() {
+      byte[][] boundaries = new byte[splitRows.length + 2][];
+      for (int i = 0; i < boundaries.length - 1; i++) {
+        boundaries[i] = getStartRow(i);
+      }
+      boundaries[boundaries.length - 1] = HConstants.EMPTY_END_ROW;
+      return boundaries;
+    }
+  }
+
+  Stripes getStripes() {
+    return new Stripes(store.getStorefiles());
+  }
+
+  @Override
+  byte[][] getStripeSplitRows() {
+    return getStripes().splitRows;
+  }
+
+  @Override
+  CompactSelection selectCompaction(List<StoreFile> candidateFiles,
+      boolean forceMajor) throws IOException {
+    List<StoreFile> storeFiles = store.getStorefiles();
+    Stripes stripes = new Stripes(storeFiles);
+    if (stripes.splitRows.length == 0) {
+      // Not striped yet, divide the store once it is compacted as a whole
+      CompactSelection selection =
+        super.selectCompaction(candidateFiles, forceMajor);
+      List<StoreFile> files = selection.getFilesToCompact();
+      if (files.size() == storeFiles.size()) {
+        long size = getTotalSize(files);
+        if (size > splitSize) {
+          int numStripes = (int) Math.min(Integer.MAX_VALUE,
+              (2 * size + splitSize - 1) / splitSize);
+          byte[][] splitRows = store.getSplitRows(files, numStripes);
+          if (splitRows.length > 0) {
+            LOG.info("Dividing " + store + " of " +
+                StringUtils.humanReadableInt(size) + " into " +
+                (splitRows.length + 1) + " stripes");
+            selection.setStripeBoundaries(toBoundaries(
+                HConstants.EMPTY_START_ROW, splitRows,
+                HConstants.EMPTY_END_ROW));
+          }
+        }
+      }
+      return selection;
+    }
+
+    boolean allCandidates = candidateFiles.size() == storeFiles.size();
+    if (store.hasReferences(candidateFiles) || (allCandidates &&
+        candidateFiles.size() < comConf.getMaxFilesToCompact() &&
+        (forceMajor || isMajorCompaction(candidateFiles)))) {
+      // Compact everything, keeping the stripes
+      CompactSelection selection = new CompactSelection(
+          new ArrayList<StoreFile>(candidateFiles));
+      selection.setStripeBoundaries(stripes.getAllBoundaries());
+      return selection;
+    }
+
+    // Level 0 overlaps every stripe, so it goes first
+    List<StoreFile> level0 = new ArrayList<StoreFile>();
+    for (StoreFile file : stripes.level0) {
+      if (candidateFiles.contains(file)) {
+        level0.add(file);
+      }
+    }
+    if (level0.size() >= l0MinFiles) {
+      if (level0.size() > comConf.getMaxFilesToCompact()) {
+        level0.subList(comConf.getMaxFilesToCompact(), level0.size()).clear();
+      }
+      LOG.debug("Compacting " + level0.size() + " level 0 files of " + store +
+          " into " + stripes.getStripeCount() + " stripes");
+      CompactSelection selection = new CompactSelection(level0);
+      selection.setStripeBoundaries(stripes.getAllBoundaries());
+      return selection;
+    }
+
+    // Then the stripe that compacts the most files in one go
+    CompactSelection best = null;
+    for (int i = 0; i < stripes.getStripeCount(); i++) {
+      List<StoreFile> stripeFiles = stripes.stripeFiles.get(i);
+      List<StoreFile> files = new ArrayList<StoreFile>(stripeFiles.size());
+      for (StoreFile file : stripeFiles) {
+        if (candidateFiles.contains(file)) {
+          files.add(file);
+        }
+      }
+      if (files.isEmpty()) {
+        continue;
+      }
+      byte[] startRow = stripes.getStartRow(i);
+      byte[] endRow = stripes.getEndRow(i);
+
+      long size = getTotalSize(stripeFiles);
+      if (files.size() == stripeFiles.size() && size > splitSize &&
+          files.size() <= comConf.getMaxFilesToCompact()) {
+        byte[][] splitRows = store.getSplitRows(files, 2);
+        if (splitRows.length > 0) {
+          LOG.info("Splitting stripe [" + Bytes.toStringBinary(startRow) +
+              ", " + Bytes.toStringBinary(endRow) + ") of " + store +
+              " of " + StringUtils.humanReadableInt(size) + " at " +
+              Bytes.toStringBinary(splitRows[0]));
+          if (best != null) {
+            best.emptyFileList();
+          }
+          CompactSelection selection = new CompactSelection(files);
+          selection.setStripeBoundaries(
+              toBoundaries(startRow, splitRows, endRow));
+          return selection;
+        }
+      }
+
+      if (files.size() < comConf.getMinFilesToCompact()) {
+        continue;
+      }
+      CompactSelection selection =
+        applyCompactionPolicy(new CompactSelection(files));
+      int selected = selection.getFilesToCompact().size();
+      if (selected > comConf.getMaxFilesToCompact()) {
+        selection.clearSubList(comConf.getMaxFilesToCompact(), selected);
+        selected = comConf.getMaxFilesToCompact();
+      }
+      if (selected < comConf.getMinFilesToCompact() || (best != null &&
+          selected <= best.getFilesToCompact().size())) {
+        // Also takes back an off peak promotion
+        selection.emptyFileList();
+        continue;
+      }
+      if (best != null) {
+        best.emptyFileList();
+      }
+      selection.setStripeBoundaries(new byte[][] { startRow, endRow });
+      best = selection;
+    }
+    if (best == null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Skipped minor compaction of " + store +
+            ". No admissible set of files found in its " +
+            stripes.getStripeCount() + " stripes.");
+      }
+      return new CompactSelection(new ArrayList<StoreFile>());
+    }
+    return best;
+  }
+
+  private static byte[][] toBoundaries(final byte[] startRow,
+      final byte[][] splitRows, final byte[] endRow) {
+    byte[][] boundaries = new byte[splitRows.length + 2][];
+    boundaries[0] = startRow;
+    System.arraycopy(splitRows, 0, boundaries, 1, splitRows.length);
+    boundaries[boundaries.length - 1] = endRow;
+    return boundaries;
+  }
+
+  private static long getTotalSize(final List<StoreFile> files) {
+    long size = 0;
+    for (StoreFile file : files) {
+      StoreFile.Reader r = file.getReader();
+      if (r != null) {
+        size += r.length();
+      }
+    }
+    return size;
+  }
+}
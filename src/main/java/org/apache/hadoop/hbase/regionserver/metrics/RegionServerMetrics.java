@@ -110,6 +110,41 @@ public class RegionServerMetrics implements Updater {
    */
   public final MetricsIntValue blockCacheHitRatio = new MetricsIntValue("blockCacheHitRatio", registry);
 
+  /**
+   * Off-heap bucket cache (second-level block cache) used size.
+   */
+  public final MetricsLongValue bucketCacheSize = new MetricsLongValue("bucketCacheSize", registry);
+
+  /**
+   * Bucket cache free size.
+   */
+  public final MetricsLongValue bucketCacheFree = new MetricsLongValue("bucketCacheFree", registry);
+
+  /**
+   * Bucket cache item count.
+   */
+  public final MetricsLongValue bucketCacheCount = new MetricsLongValue("bucketCacheCount", registry);
+
+  /**
+   * Bucket cache hit count.
+   */
+  public final MetricsLongValue bucketCacheHitCount = new MetricsLongValue("bucketCacheHitCount", registry);
+
+  /**
+   * Bucket cache miss count.
+   */
+  public final MetricsLongValue bucketCacheMissCount = new MetricsLongValue("bucketCacheMissCount", registry);
+
+  /**
+   * Bucket cache evict count.
+   */
+  public final MetricsLongValue bucketCacheEvictedCount = new MetricsLongValue("bucketCacheEvictedCount", registry);
+
+  /**
+   * Bucket cache hit ratio.
+   */
+  public final MetricsIntValue bucketCacheHitRatio = new MetricsIntValue("bucketCacheHitRatio", registry);
+
   /*
    * Count of rows read or updated to the regionservers since last call to metrics update
    */
@@ -167,6 +202,19 @@ public class RegionServerMetrics implements Updater {
   public final MetricsIntValue compactionQueueSize =
     new MetricsIntValue("compactionQueueSize", registry);
 
+  /**
+   * Current compaction throughput limit in bytes per second, 0 if compactions
+   * are not throttled.
+   */
+  public final MetricsLongValue compactionThroughputLimit =
+    new MetricsLongValue("compactionThroughputLimit", registry);
+
+  /**
+   * Total time compactions were held back by the throughput limit, in ms.
+   */
+  public final MetricsLongValue compactionThrottledTime =
+    new MetricsLongValue("compactionThrottledTime", registry);
+
   /**
    * filesystem read latency for seek-and-read operations
    */
@@ -203,6 +251,23 @@ public class RegionServerMetrics implements Updater {
   public final MetricsTimeVaryingRate fsGroupSyncLatency =
     new MetricsTimeVaryingRate("fsGroupSyncLatency", registry);
 
+  /**
+   * time from publishing an HLog entry until it is synced
+   */
+  public final MetricsTimeVaryingRate fsAppendSyncLatency =
+    new MetricsTimeVaryingRate("fsAppendSyncLatency", registry);
+
+  /**
+   * percentiles (in ms, upper bound of the histogram bucket) of the time from
+   * publishing an HLog entry until it is synced, over the last period
+   */
+  public final MetricsLongValue fsAppendSyncLatencyP50 =
+    new MetricsLongValue("fsAppendSyncLatencyP50", registry);
+  public final MetricsLongValue fsAppendSyncLatencyP95 =
+    new MetricsLongValue("fsAppendSyncLatencyP95", registry);
+  public final MetricsLongValue fsAppendSyncLatencyP99 =
+    new MetricsLongValue("fsAppendSyncLatencyP99", registry);
+
   /**
    * Memstore Insert time (in ms).
    */
@@ -311,6 +376,8 @@ public class RegionServerMetrics implements Updater {
       this.regions.pushMetric(this.metricsRecord);
       this.requests.pushMetric(this.metricsRecord);
       this.compactionQueueSize.pushMetric(this.metricsRecord);
+      this.compactionThroughputLimit.pushMetric(this.metricsRecord);
+      this.compactionThrottledTime.pushMetric(this.metricsRecord);
       this.blockCacheSize.pushMetric(this.metricsRecord);
       this.blockCacheFree.pushMetric(this.metricsRecord);
       this.blockCacheCount.pushMetric(this.metricsRecord);
@@ -321,6 +388,13 @@ public class RegionServerMetrics implements Updater {
       this.blockCacheEvictedMultiCount.pushMetric(this.metricsRecord);
       this.blockCacheEvictedMemoryCount.pushMetric(this.metricsRecord);
       this.blockCacheHitRatio.pushMetric(this.metricsRecord);
+      this.bucketCacheSize.pushMetric(this.metricsRecord);
+      this.bucketCacheFree.pushMetric(this.metricsRecord);
+      this.bucketCacheCount.pushMetric(this.metricsRecord);
+      this.bucketCacheHitCount.pushMetric(this.metricsRecord);
+      this.bucketCacheMissCount.pushMetric(this.metricsRecord);
+      this.bucketCacheEvictedCount.pushMetric(this.metricsRecord);
+      this.bucketCacheHitRatio.pushMetric(this.metricsRecord);
       this.rowReadCnt.pushMetric(this.metricsRecord);
       this.rowUpdatedCnt.pushMetric(this.metricsRecord);
 
@@ -337,6 +411,12 @@ public class RegionServerMetrics implements Updater {
       addHLogMetric(HLog.getWriteSize(), this.fsWriteSize);
       addHLogMetric(HLog.getSyncTime(), this.fsSyncLatency);
       addHLogMetric(HLog.getGSyncTime(), this.fsGroupSyncLatency);
+      addHLogMetric(HLog.getAppendSyncTime(), this.fsAppendSyncLatency);
+      HLog.LatencyHistogram appendSyncHistogram =
+        HLog.getAppendSyncHistogram();
+      this.fsAppendSyncLatencyP50.set(appendSyncHistogram.getPercentile(0.5));
+      this.fsAppendSyncLatencyP95.set(appendSyncHistogram.getPercentile(0.95));
+      this.fsAppendSyncLatencyP99.set(appendSyncHistogram.getPercentile(0.99));
 
       // HFile metrics
       collectHFileMetric(fsReadLatency,
@@ -364,6 +444,10 @@ public class RegionServerMetrics implements Updater {
       this.fsWriteSize.pushMetric(this.metricsRecord);
       this.fsSyncLatency.pushMetric(this.metricsRecord);
       this.fsGroupSyncLatency.pushMetric(this.metricsRecord);
+      this.fsAppendSyncLatency.pushMetric(this.metricsRecord);
+      this.fsAppendSyncLatencyP50.pushMetric(this.metricsRecord);
+      this.fsAppendSyncLatencyP95.pushMetric(this.metricsRecord);
+      this.fsAppendSyncLatencyP99.pushMetric(this.metricsRecord);
       this.memstoreInsertTime.pushMetric(this.metricsRecord);
       this.rowLockTime.pushMetric(this.metricsRecord);
       this.mvccWaitTime.pushMetric(this.metricsRecord);
@@ -421,6 +505,7 @@ public class RegionServerMetrics implements Updater {
     this.fsWriteSize.resetMinMax();
     this.fsSyncLatency.resetMinMax();
     this.fsGroupSyncLatency.resetMinMax();
+    this.fsAppendSyncLatency.resetMinMax();
     this.memstoreInsertTime.resetMinMax();
     this.rowLockTime.resetMinMax();
     this.mvccWaitTime.resetMinMax();
@@ -479,6 +564,10 @@ public class RegionServerMetrics implements Updater {
       Integer.valueOf(this.memstoreSizeMB.get()));
     sb = Strings.appendKeyValue(sb, "compactionQueueSize",
       Integer.valueOf(this.compactionQueueSize.get()));
+    sb = Strings.appendKeyValue(sb, "compactionThroughputLimit",
+      Long.valueOf(this.compactionThroughputLimit.get()));
+    sb = Strings.appendKeyValue(sb, "compactionThrottledTime",
+      Long.valueOf(this.compactionThrottledTime.get()));
     sb = Strings.appendKeyValue(sb, "numWrites",
       Float.valueOf(this.rowUpdatedCnt.getPreviousIntervalValue()));
     sb = Strings.appendKeyValue(sb, "numReads",
@@ -512,6 +601,12 @@ public class RegionServerMetrics implements Updater {
         Long.valueOf(this.blockCacheEvictedMemoryCount.get()));
     sb = Strings.appendKeyValue(sb, this.blockCacheHitRatio.getName(),
         Long.valueOf(this.blockCacheHitRatio.get()));
+    sb = Strings.appendKeyValue(sb, this.bucketCacheSize.getName(),
+        Long.valueOf(this.bucketCacheSize.get()));
+    sb = Strings.appendKeyValue(sb, this.bucketCacheCount.getName(),
+        Long.valueOf(this.bucketCacheCount.get()));
+    sb = Strings.appendKeyValue(sb, this.bucketCacheHitRatio.getName(),
+        Long.valueOf(this.bucketCacheHitRatio.get()));
     
     sb = Strings.appendKeyValue(sb, this.bytesRead.getName(),
         Long.valueOf(this.bytesRead.get()));
@@ -40,6 +40,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
@@ -197,6 +198,25 @@ public class SchemaMetrics {
     }
   };
 
+  /** Metrics kept for each data block encoding */
+  public static enum EncodingMetricType {
+    /** Unencoded size minus actual size of the encoded blocks in cache */
+    CACHE_SAVED_SIZE("blockCacheSavedSize"),
+    /** Nanoseconds spent decoding, with a count of the blocks visited */
+    DECODE_TIME("decodeTimeNs");
+
+    private final String metricStr;
+
+    private EncodingMetricType(String metricStr) {
+      this.metricStr = metricStr;
+    }
+
+    @Override
+    public String toString() {
+      return metricStr;
+    }
+  };
+
   // Constants
   /**
    * A string used when column family or table name is unknown, and in some
@@ -209,6 +229,7 @@ public class SchemaMetrics {
   public static final String TABLE_PREFIX = "tbl.";
   public static final String CF_PREFIX = "cf.";
   public static final String BLOCK_TYPE_PREFIX = "bt.";
+  public static final String ENCODING_PREFIX = "enc.";
   public static final String CF_UNKNOWN_PREFIX = CF_PREFIX + UNKNOWN + ".";
   public static final String CF_BAD_FAMILY_PREFIX = CF_PREFIX + "__badfamily.";
 
@@ -244,6 +265,10 @@ public class SchemaMetrics {
   private static final int NUM_STORE_METRIC_TYPES =
       StoreMetricType.values().length;
 
+  private static final int NUM_ENCODING_METRICS =
+      DataBlockEncoding.values().length *
+      EncodingMetricType.values().length;
+
   /** Conf key controlling whether we include table name in metric names */
   private static final String SHOW_TABLE_NAME_CONF_KEY =
       "hbase.metrics.showTableName";
@@ -280,6 +305,7 @@ public class SchemaMetrics {
         sb.append((sb.length() == 0 ? "" : "|") + smt);
       }
     }
+    sb.append("|" + EncodingMetricType.CACHE_SAVED_SIZE);
     PERSISTENT_METRIC_RE = Pattern.compile(".*" + WORD_BOUNDARY_RE_STR +
         "(" + META_BLOCK_CATEGORY_STR + ")?(" + sb + ")$");
   }
@@ -302,6 +328,8 @@ public class SchemaMetrics {
   private final String[] bloomMetricNames = new String[2];
   private final String[] storeMetricNames = new String[NUM_STORE_METRIC_TYPES];
   private final String[] storeMetricNamesMax = new String[NUM_STORE_METRIC_TYPES];
+  private final String[] encodingMetricNames =
+      new String[NUM_ENCODING_METRICS];
 
   private SchemaMetrics(final String tableName, final String cfName) {
     String metricPrefix =
@@ -351,6 +379,14 @@ public class SchemaMetrics {
       storeMetricNames[storeMetric.ordinal()] = coreName;
       storeMetricNamesMax[storeMetric.ordinal()] = coreName + ".max";
     }
+
+    for (DataBlockEncoding encoding : DataBlockEncoding.values()) {
+      for (EncodingMetricType metricType : EncodingMetricType.values()) {
+        encodingMetricNames[getEncodingMetricIndex(encoding, metricType)] =
+            (metricPrefix + ENCODING_PREFIX + encoding + "." +
+                metricType).intern();
+      }
+    }
   }
 
   /**
@@ -403,6 +439,17 @@ public class SchemaMetrics {
         metricType)];
   }
 
+  private static final int getEncodingMetricIndex(DataBlockEncoding encoding,
+      EncodingMetricType metricType) {
+    return encoding.ordinal() * EncodingMetricType.values().length +
+        metricType.ordinal();
+  }
+
+  public String getEncodingMetricName(DataBlockEncoding encoding,
+      EncodingMetricType metricType) {
+    return encodingMetricNames[getEncodingMetricIndex(encoding, metricType)];
+  }
+
   public String getBloomMetricName(boolean isInBloom) {
     return bloomMetricNames[isInBloom ? 1 : 0];
   }
@@ -563,6 +610,38 @@ public class SchemaMetrics {
     }
   }
 
+  /**
+   * Updates the cache space saved by the given encoding for both the
+   * configured table/CF and all table/CFs. The saved size is "persistent",
+   * i.e. it does not get reset when metrics are collected.
+   * @param encoding the encoding of the data block cached or evicted
+   * @param savedSizeDelta the unencoded size minus the size of the block
+   *          being cached (positive) or evicted (negative)
+   */
+  public void updateOnEncodedCachePutOrEvict(DataBlockEncoding encoding,
+      long savedSizeDelta) {
+    HRegion.incrNumericPersistentMetric(getEncodingMetricName(encoding,
+        EncodingMetricType.CACHE_SAVED_SIZE), savedSizeDelta);
+    if (this != ALL_SCHEMA_METRICS) {
+      ALL_SCHEMA_METRICS.updateOnEncodedCachePutOrEvict(encoding,
+          savedSizeDelta);
+    }
+  }
+
+  /**
+   * Adds the time spent decoding a data block of the given encoding, for
+   * both the configured table/CF and all table/CFs.
+   * @param encoding the encoding of the data block
+   * @param timeNs the time spent decoding the block, in nanoseconds
+   */
+  public void updateOnDecode(DataBlockEncoding encoding, long timeNs) {
+    HRegion.incrTimeVaryingMetric(getEncodingMetricName(encoding,
+        EncodingMetricType.DECODE_TIME), timeNs);
+    if (this != ALL_SCHEMA_METRICS) {
+      ALL_SCHEMA_METRICS.updateOnDecode(encoding, timeNs);
+    }
+  }
+
   /**
    * Increments both the per-CF and the aggregate counter of bloom
    * positives/negatives as specified by the argument.
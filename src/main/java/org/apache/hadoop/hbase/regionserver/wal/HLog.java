@@ -36,15 +36,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
@@ -55,8 +58,8 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -161,7 +164,6 @@ public class HLog implements Syncable {
   private final long blocksize;
   private final int flushlogentries;
   private final String prefix;
-  private final AtomicLong unflushedEntries = new AtomicLong(0);
   private final Path oldLogDir;
   private volatile long syncTillHere = 0;
   private final List<LogActionsListener> actionListeners =
@@ -222,6 +224,9 @@ public class HLog implements Syncable {
 
   private final AtomicLong logSeqNum = new AtomicLong(0);
 
+  // Taken by appends to get a sequence number and a ring buffer slot together
+  private final Object seqNumLock = new Object();
+
   // The timestamp (in ms) when the log file was created.
   private volatile long filenum = -1;
 
@@ -236,13 +241,10 @@ public class HLog implements Syncable {
   // synchronized is insufficient because a cache flush spans two method calls.
   private final ReentrantReadWriteLock cacheFlushLock = new ReentrantReadWriteLock();
 
-  // We synchronize on updateLock to prevent updates and to prevent a log roll
-  // during an update
+  // We synchronize on updateLock to prevent writes to the current writer
+  // during a log roll
   private final Object updateLock = new Object();
 
-  // Lock to guarantee the ordering of log entries in HLOG
-  private final Object appendLock = new Object();
-
   private final boolean enabled;
 
   /*
@@ -307,6 +309,9 @@ public class HLog implements Syncable {
   // For measuring latency of syncs
   private static Metric syncTime = new Metric();
   private static Metric gsyncTime = new Metric();
+  // For measuring the time from publishing an entry to it being synced
+  private static Metric appendSyncTime = new Metric();
+  private static LatencyHistogram appendSyncHistogram = new LatencyHistogram();
 
   public static volatile long lastSplitTime = 0;
   public static volatile long lastSplitSize = 0;
@@ -327,59 +332,85 @@ public class HLog implements Syncable {
     return gsyncTime.get();
   }
 
+  public static Metric getAppendSyncTime() {
+    return appendSyncTime.get();
+  }
+
+  public static LatencyHistogram getAppendSyncHistogram() {
+    return appendSyncHistogram.get();
+  }
+
   /**
-   * Double list buffer for WAL that allows entries to be
-   * appended while sync is in progress
-   *
-   * CurrentList is for buffering appended entries;
-   * syncList contains entries being synced to persistent storage;
+   * Latency histogram with exponentially growing buckets: bucket 0 counts
+   * values below 1 ms, bucket i counts values in [2^(i-1), 2^i) ms and the
+   * last bucket counts everything above.
    */
-  private class DoubleListBuffer {
-    private LinkedList<Entry> currentList = new LinkedList<Entry>();
-    private LinkedList<Entry> syncList = new LinkedList<Entry>();
+  public static class LatencyHistogram {
+    public static final int NUM_BUCKETS = 16;
 
-    /**
-     * Append a log entry into the buffer
-     * @param entry log entry
-     */
-    synchronized private void appendToBuffer(Entry entry) {
-      currentList.add(entry);
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    void inc(final long millis) {
+      int bucket = millis <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+      counts.incrementAndGet(Math.min(bucket, NUM_BUCKETS - 1));
     }
 
     /**
-     * Sync buffered log entries into persistent storage
-     *
-     * @return number of log entries synced
+     * @return a copy of this histogram, resetting this one
      */
-    private int appendAndSync() throws IOException {
-      synchronized (this) {
-        if (currentList.isEmpty()) { // no thing to sync
-          return 0;
-        }
-
-        // otherwise swap the buffer in preparation for sync
-        assert syncList.isEmpty();
-        LinkedList<Entry> tmp = syncList;
-        syncList = currentList;
-        currentList = tmp;
+    LatencyHistogram get() {
+      LatencyHistogram copy = new LatencyHistogram();
+      for (int i = 0; i < NUM_BUCKETS; ++i) {
+        copy.counts.set(i, counts.getAndSet(i, 0));
       }
+      return copy;
+    }
+
+    /** @return the number of values in the given bucket */
+    public long getCount(int bucket) {
+      return counts.get(bucket);
+    }
 
-      // append entries to writer
-      int syncedEntries = syncList.size();
-      while (!syncList.isEmpty()) {
-        Entry entry = syncList.remove();
-        writer.append(entry);
+    /** @return the total number of values */
+    public long getTotalCount() {
+      long total = 0;
+      for (int i = 0; i < NUM_BUCKETS; ++i) {
+        total += counts.get(i);
       }
+      return total;
+    }
 
-      // sync the data
-      long now = System.currentTimeMillis();
-      writer.sync();
-      syncTime.inc(System.currentTimeMillis() - now);
-      return syncedEntries;
+    /**
+     * @param percentile between 0 and 1
+     * @return the upper bound in ms of the bucket the given percentile falls
+     *         in, or 0 if the histogram is empty
+     */
+    public long getPercentile(double percentile) {
+      long total = getTotalCount();
+      if (total == 0) {
+        return 0;
+      }
+      long threshold = (long) Math.ceil(total * percentile);
+      long seen = 0;
+      for (int i = 0; i < NUM_BUCKETS; ++i) {
+        seen += counts.get(i);
+        if (seen >= threshold) {
+          return 1L << i;
+        }
+      }
+      return 1L << (NUM_BUCKETS - 1);
     }
   }
 
-  private DoubleListBuffer logBuffer = new DoubleListBuffer();
+  /**
+   * Handlers publish entries here without taking a lock; the LogSyncer thread
+   * appends them to the writer in batches and syncs.
+   */
+  private final LogRingBuffer ringBuffer;
+
+  // Reused by the LogSyncer thread to drain the ring buffer
+  private final Entry[] drainedEntries;
+  private final long[] drainedPublishTimes;
 
   /**
    * HLog creating with a null actions listener.
@@ -437,6 +468,10 @@ public class HLog implements Syncable {
     this.logrollsize = (long)(this.blocksize * multi);
     this.optionalFlushInterval =
       conf.getLong("hbase.regionserver.optionallogflushinterval", 1 * 1000);
+    this.ringBuffer = new LogRingBuffer(
+      conf.getInt("hbase.regionserver.hlog.ringbuffer.size", 4096));
+    this.drainedEntries = new Entry[this.ringBuffer.getCapacity()];
+    this.drainedPublishTimes = new long[this.ringBuffer.getCapacity()];
 
     if (!fs.exists(oldLogDir)) {
       fs.mkdirs(oldLogDir);
@@ -457,6 +492,7 @@ public class HLog implements Syncable {
       ", rollsize=" + this.logrollsize +
       ", enabled=" + this.enabled +
       ", flushlogentries=" + this.flushlogentries +
+      ", ringbuffersize=" + this.ringBuffer.getCapacity() +
       ", optionallogflushinternal=" + this.optionalFlushInterval + "ms");
     if (actionListener != null) {
       addLogActionsListerner(actionListener);
@@ -501,6 +537,13 @@ public class HLog implements Syncable {
         Thread.currentThread().getName() + ".logSyncer-" + hlogIndexID);
   }
 
+  /**
+   * @return the index of this HLog among the HLogs of its region server
+   */
+  public int getHLogIndexID() {
+    return this.hlogIndexID;
+  }
+
   /**
    * @return Current state of the monotonically increasing file id.
    */
@@ -966,6 +1009,7 @@ public class HLog implements Syncable {
   public void close() throws IOException {
     try {
       logSyncerThread.syncerShuttingDown = true;
+      LockSupport.unpark(logSyncerThread.getThread());
       // wait for 2 seconds to gracefully close the syncer
       logSyncerThread.join(2000);
       if (logSyncerThread.isAlive()) {
@@ -1043,20 +1087,22 @@ public class HLog implements Syncable {
     long start = System.currentTimeMillis();
     byte[] regionName = info.getRegionName();
 
-    synchronized (this.appendLock) {
-      // The 'lastSeqWritten' map holds the sequence number of the oldest
-      // write for each region (i.e. the first edit added to the particular
-      // memstore). . When the cache is flushed, the entry for the
-      // region being flushed is removed if the sequence number of the flush
-      // is greater than or equal to the value in lastSeqWritten.
-      long seqNum = obtainSeqNum();
-      this.firstSeqWrittenInCurrentMemstore.putIfAbsent(regionName, seqNum);
-      HLogKey logKey = makeKey(regionName, tableName, seqNum, now);
-
-      doWrite(info, logKey, edits);
-      // Only count 1 row as an unflushed entry.
-      txid = this.unflushedEntries.incrementAndGet();
+    // The 'firstSeqWritten' map holds the sequence number of the oldest
+    // write for each region (i.e. the first edit added to the particular
+    // memstore). When the cache is flushed, the entry for the region being
+    // flushed is moved aside until the flush completes.
+    // The sequence number and the ring slot are taken together, so the
+    // entries reach the file in sequence number order.
+    long seqNum;
+    synchronized (this.seqNumLock) {
+      seqNum = obtainSeqNum();
+      txid = this.ringBuffer.claim();
     }
+    updateFirstSeqWritten(regionName, seqNum);
+    HLogKey logKey = makeKey(regionName, tableName, seqNum, now);
+
+    // Only count 1 row as an unflushed entry.
+    doWrite(info, txid, logKey, edits);
 
     // Update the metrics
     this.numEntries.incrementAndGet();
@@ -1094,25 +1140,54 @@ public class HLog implements Syncable {
   }
 
   /**
-   * This thread is responsible to call syncFs and buffer up the writers while
-   * it happens.
+   * Records the sequence number of the first edit of a region's memstore.
+   * Sequence numbers are handed out before entries are published without a
+   * common lock, so two handlers writing to the same region can get here out
+   * of order; keep the smallest one.
    */
-   class LogSyncer extends HasThread {
+  private void updateFirstSeqWritten(final byte [] regionName,
+      final long seqNum) {
+    Long oldest =
+      this.firstSeqWrittenInCurrentMemstore.putIfAbsent(regionName, seqNum);
+    while (oldest != null && oldest.longValue() > seqNum &&
+        !this.firstSeqWrittenInCurrentMemstore.replace(regionName, oldest,
+            seqNum)) {
+      oldest =
+        this.firstSeqWrittenInCurrentMemstore.putIfAbsent(regionName, seqNum);
+    }
+  }
+
+  /**
+   * A handler waiting for its transaction to be synced.
+   */
+  private static class SyncWaiter {
+    private final Thread thread;
+    private final long txid;
 
-    // Using fairness to make sure locks are given in order
-    private final ReentrantLock lock = new ReentrantLock(true);
+    SyncWaiter(Thread thread, long txid) {
+      this.thread = thread;
+      this.txid = txid;
+    }
+  }
 
-    // Condition used to wait until we have something to sync
-    private final Condition queueEmpty = lock.newCondition();
+  /**
+   * This thread is the single consumer of the ring buffer. It appends the
+   * published entries to the writer in batches, syncs, and then releases the
+   * handlers waiting on the synced transaction ids.
+   */
+   class LogSyncer extends HasThread {
 
-    // Condition used to signal that the sync is done
-    private final Condition syncDone = lock.newCondition();
+    // Handlers waiting for their transaction to be synced
+    private final Queue<SyncWaiter> waiters =
+      new ConcurrentLinkedQueue<SyncWaiter>();
 
     private long optionalFlushInterval;
 
-    // this variable is protected by this.lock
     volatile boolean syncerShuttingDown = false;
 
+    // set once the syncer thread is done, so nobody waits for it anymore
+    private volatile boolean syncerExited = false;
+
     LogSyncer(long optionalFlushInterval) {
       this.optionalFlushInterval = optionalFlushInterval;
       if (this.optionalFlushInterval <= 0) {
@@ -1126,14 +1201,19 @@ public class HLog implements Syncable {
     public void run() {
       try {
         long lastHFlushAt = EnvironmentEdgeManager.currentTimeMillis();
-        lock.lock();
-        // awaiting with a timeout doesn't always
-        // throw exceptions on interrupt
+        boolean idle = true;
         do {
           forceSync = false;
-          // wake up every 100ms to check if logsyncer has to shut down
-          queueEmpty.awaitNanos(100*1000000);
-          if (unflushedEntries.get() == syncTillHere) {
+          // Handlers wake us up right after publishing. Only skip waiting if
+          // somebody is already waiting on entries the last hflush left.
+          if (idle || waiters.isEmpty()) {
+            // wake up every 100ms to check if logsyncer has to shut down
+            LockSupport.parkNanos(this, 100 * 1000000);
+            if (Thread.interrupted()) {
+              throw new InterruptedException();
+            }
+          }
+          if (ringBuffer.getClaimedTxid() == syncTillHere) {
             // call hflush() if we haven't flushed for a while now
             // This force-sync is just a safety mechanism - we being
             // paranoid. If there hasn't been any syncing activity for
@@ -1143,70 +1223,84 @@ public class HLog implements Syncable {
                 this.optionalFlushInterval) {
               forceSync = true;
             } else {
+              idle = true;
               continue;
             }
           }
-          // We got the signal, let's hflush. We currently own the lock so new
-          // writes are waiting to acquire it in addToSyncQueue while the ones
-          // we hflush are waiting on await()
+          long syncedBefore = syncTillHere;
           hflush();
           lastHFlushAt = EnvironmentEdgeManager.currentTimeMillis();
+          // Less than flushlogentries pending: wait for more before retrying
+          idle = syncTillHere == syncedBefore;
 
-          // Release all the clients waiting on the hflush. Notice that we still
-          // own the lock until we get back to await at which point all the
-          // other threads waiting will first acquire and release locks
-          syncDone.signalAll();
+          // Release all the clients waiting on transactions synced so far.
+          releaseWaiters();
         } while (!syncerShuttingDown ||
-            (unflushedEntries.get() != syncTillHere));
+            (ringBuffer.getClaimedTxid() != syncTillHere));
         // The check above involves synchronization between syncerShuttingDown
-        // and unflushedEntries in append(). The check for syncerShutDown has to
+        // and the ring buffer in append(). The check for syncerShutDown has to
         // come before.
       } catch (InterruptedException e) {
         LOG.debug(getName() + " interrupted while waiting for sync requests");
-        if (unflushedEntries.get() != syncTillHere) {
+        if (ringBuffer.getClaimedTxid() != syncTillHere) {
           syncFailureAbortStrategy.abort("LogSyncer interrupted before it" +
               " could sync everything. Aborting JVM", e);
         }
       } finally {
         syncerShuttingDown = true;
-        syncDone.signalAll();
-        lock.unlock();
+        syncerExited = true;
+        for (SyncWaiter waiter : waiters) {
+          LockSupport.unpark(waiter.thread);
+        }
         LOG.info(getName() + " exiting");
       }
     }
 
+    /**
+     * Wakes up the handlers whose transaction has been synced.
+     */
+    private void releaseWaiters() {
+      long synced = syncTillHere;
+      for (Iterator<SyncWaiter> it = waiters.iterator(); it.hasNext();) {
+        SyncWaiter waiter = it.next();
+        if (waiter.txid <= synced) {
+          it.remove();
+          LockSupport.unpark(waiter.thread);
+        }
+      }
+    }
+
     /**
      * This method first signals the thread that there's a sync needed
      * and then waits for it to happen before returning.
      */
     public void addToSyncQueue(boolean force, long txid) {
-      while (true) {
-        // Don't bother if somehow our append was already hflushed
-        // Check this without even acquiring the lock, in the hope
-        // that our edits is already synced.
-        if (!force && syncTillHere >= txid) {
-          return;
-        }
-        if (force) {
-          forceSync = true;
-          force = false;
-        }
-        lock.lock();
-        try {
-          // Wake the thread
-          queueEmpty.signal();
-
-          // Wait for it to hflush
-          // This check is redone here because it is within the lock
-          if (syncTillHere < txid) {
-            syncDone.await();
-          }
-        } catch (InterruptedException e) {
-          LOG.warn(getName() + " was interrupted while waiting for sync", e);
-        } finally {
-          lock.unlock();
+      // Don't bother if somehow our append was already hflushed
+      if (syncTillHere >= txid) {
+        return;
+      }
+      if (force) {
+        forceSync = true;
+      }
+      SyncWaiter waiter = new SyncWaiter(Thread.currentThread(), txid);
+      waiters.add(waiter);
+      // Wake the thread
+      LockSupport.unpark(getThread());
+      boolean interrupted = false;
+      while (syncTillHere < txid && !syncerExited) {
+        LockSupport.parkNanos(this, 100 * 1000000);
+        if (Thread.interrupted()) {
+          interrupted = true;
         }
       }
+      if (syncTillHere < txid) {
+        waiters.remove(waiter);
+        LOG.warn(getName() + " exited before syncing txid " + txid);
+      }
+      if (interrupted) {
+        LOG.warn(getName() + " was interrupted while waiting for sync");
+        Thread.currentThread().interrupt();
+      }
     }
   }
 
@@ -1220,7 +1314,7 @@ public class HLog implements Syncable {
    * @param force For catalog regions, force the sync to happen
    */
   public void sync(boolean force) {
-    sync(force, this.unflushedEntries.get());
+    sync(force, this.ringBuffer.getClaimedTxid());
   }
 
   /**
@@ -1239,10 +1333,10 @@ public class HLog implements Syncable {
         return;
       }
       boolean isUnderReplication = false;
-      if (this.forceSync ||
-          this.unflushedEntries.get() - this.syncTillHere >= this.flushlogentries) {
+      if (this.forceSync || this.ringBuffer.getClaimedTxid() -
+          this.syncTillHere >= this.flushlogentries) {
         try {
-          this.syncTillHere += this.logBuffer.appendAndSync();
+          this.syncTillHere = appendAndSync();
         } catch (IOException e) {
           syncFailureAbortStrategy.abort(hlogName + "Could not sync hlog. Aborting", e);
         }
@@ -1275,6 +1369,39 @@ public class HLog implements Syncable {
     }
   }
 
+  /**
+   * Appends the entries published to the ring buffer to the writer and syncs
+   * them. Only called by the LogSyncer thread, holding the updateLock.
+   *
+   * @return the highest transaction id that is synced
+   */
+  private long appendAndSync() throws IOException {
+    int count = this.ringBuffer.drainTo(this.drainedEntries,
+        this.drainedPublishTimes);
+
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < count; i++) {
+      this.writer.append(this.drainedEntries[i]);
+      this.drainedEntries[i] = null;
+    }
+    long appended = System.currentTimeMillis();
+    if (count > 0) {
+      writeTime.inc(appended - now);
+    }
+
+    // sync the data
+    this.writer.sync();
+    syncTime.inc(System.currentTimeMillis() - appended);
+
+    long syncedNanos = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      long latencyMs = (syncedNanos - this.drainedPublishTimes[i]) / 1000000;
+      appendSyncTime.inc(latencyMs);
+      appendSyncHistogram.inc(latencyMs);
+    }
+    return this.ringBuffer.getConsumedTxid();
+  }
+
   /**
    * This method gets the datanode replication count for the current HLog.
    *
@@ -1304,9 +1431,15 @@ public class HLog implements Syncable {
     }
   }
 
-  protected void doWrite(HRegionInfo info, HLogKey logKey, WALEdit logEdit)
-  throws IOException {
-    this.logBuffer.appendToBuffer(new Entry(logKey, logEdit));
+  /**
+   * Publishes the entry to the ring buffer slot claimed for it. The LogSyncer
+   * thread writes it out.
+   * @param txid the transaction id of the claimed slot, to wait on with
+   *          {@link #sync(boolean, long)}
+   */
+  protected void doWrite(HRegionInfo info, long txid, HLogKey logKey,
+      WALEdit logEdit) throws IOException {
+    this.ringBuffer.publish(txid, new Entry(logKey, logEdit));
   }
 
   /** @return How many items have been added to the log */
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer, single-consumer ring buffer of log entries.
+ * <p>
+ * Producers claim a slot by incrementing a counter, so appending an entry
+ * never takes a lock. The claimed sequence number is the transaction id of
+ * the entry. The consumer takes published entries in transaction id order and
+ * never skips an entry that was claimed but not published yet, so after a
+ * drain every transaction id up to {@link #getConsumedTxid()} has been handed
+ * to the consumer.
+ * <p>
+ * A producer only waits when the buffer is full, until the consumer has taken
+ * the entry that used its slot one lap earlier.
+ */
+class LogRingBuffer {
+
+  /** Number of times a producer yields before parking on a full buffer */
+  private static final int MAX_SPINS = 100;
+
+  private static final long PARK_NANOS = 100 * 1000;
+
+  private final AtomicReferenceArray<HLog.Entry> slots;
+
+  /**
+   * Time in nanoseconds each slot was published at. Written before the slot
+   * itself, so the volatile write of the slot makes it visible to the
+   * consumer.
+   */
+  private final long[] publishTimes;
+
+  private final int mask;
+
+  /** The last transaction id handed out to a producer */
+  private final AtomicLong claimed = new AtomicLong(0);
+
+  /** The last transaction id taken by the consumer */
+  private volatile long consumed = 0;
+
+  /**
+   * @param capacity the number of slots, rounded up to a power of two
+   */
+  LogRingBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.slots = new AtomicReferenceArray<HLog.Entry>(size);
+    this.publishTimes = new long[size];
+    this.mask = size - 1;
+  }
+
+  /** @return the number of slots */
+  int getCapacity() {
+    return slots.length();
+  }
+
+  /**
+   * Publishes an entry, waiting for a free slot if the buffer is full. Can be
+   * called by any number of threads concurrently.
+   * @return the transaction id of the entry
+   */
+  long append(HLog.Entry entry) {
+    long txid = claim();
+    publish(txid, entry);
+    return txid;
+  }
+
+  /**
+   * Claims the next slot without waiting. The caller must then
+   * {@link #publish(long, HLog.Entry)} an entry to it, since the consumer does
+   * not get past a claimed slot until it is published.
+   * @return the transaction id of the claimed slot
+   */
+  long claim() {
+    return claimed.incrementAndGet();
+  }
+
+  /**
+   * Publishes an entry to a slot claimed with {@link #claim()}, waiting for
+   * the slot to be free if the buffer is full.
+   */
+  void publish(long txid, HLog.Entry entry) {
+    int spins = 0;
+    while (txid - slots.length() > consumed) {
+      if (++spins < MAX_SPINS) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(this, PARK_NANOS);
+      }
+    }
+    int index = (int) (txid & mask);
+    publishTimes[index] = System.nanoTime();
+    slots.set(index, entry);
+  }
+
+  /**
+   * Moves the published entries that follow the last consumed one, in
+   * transaction id order, into the given arrays. Stops at the first slot that
+   * is claimed but not published yet. Must only be called by one thread.
+   *
+   * @param entries receives the entries, at least {@link #getCapacity()} long
+   * @param times receives the time each entry was published at, in
+   *          nanoseconds, at least {@link #getCapacity()} long
+   * @return the number of entries taken
+   */
+  int drainTo(HLog.Entry[] entries, long[] times) {
+    long next = consumed + 1;
+    int count = 0;
+    while (count < slots.length()) {
+      int index = (int) (next & mask);
+      HLog.Entry entry = slots.get(index);
+      if (entry == null) {
+        break;
+      }
+      times[count] = publishTimes[index];
+      entries[count++] = entry;
+      slots.set(index, null);
+      next++;
+    }
+    if (count > 0) {
+      // Frees the slots for producers waiting on a full buffer.
+      consumed = next - 1;
+    }
+    return count;
+  }
+
+  /** @return the last transaction id handed out to a producer */
+  long getClaimedTxid() {
+    return claimed.get();
+  }
+
+  /** @return the last transaction id taken by the consumer */
+  long getConsumedTxid() {
+    return consumed;
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.ipc.CallFuture;
+import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestAsyncHTable {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("testFamily");
+  private static final byte[] QUALIFIER = Bytes.toBytes("testQualifier");
+  private static final int NUM_REGIONS = 10;
+  private static final int NUM_ROWS = 100;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniCluster(3);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row%03d", i));
+  }
+
+  private static void assertValue(int i, Result result) {
+    assertArrayEquals(row(i), result.getValue(FAMILY, QUALIFIER));
+  }
+
+  @Test
+  public void testSingleRowOperations() throws Exception {
+    byte[] table = Bytes.toBytes("testSingleRowOperations");
+    TEST_UTIL.createTable(table, FAMILY);
+    AsyncHTable ht = new AsyncHTable(TEST_UTIL.getConfiguration(), table);
+
+    List<CallFuture<Void>> puts = new ArrayList<CallFuture<Void>>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      Put put = new Put(row(i));
+      put.add(FAMILY, QUALIFIER, row(i));
+      puts.add(ht.put(put));
+    }
+    for (CallFuture<Void> put : puts) {
+      put.get();
+    }
+
+    List<CallFuture<Result>> gets = new ArrayList<CallFuture<Result>>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      gets.add(ht.get(new Get(row(i))));
+    }
+    for (int i = 0; i < NUM_ROWS; i++) {
+      assertValue(i, gets.get(i).get());
+    }
+
+    ht.delete(new Delete(row(0))).get();
+    assertTrue(ht.get(new Get(row(0))).get().isEmpty());
+  }
+
+  @Test
+  public void testBatchOperations() throws Exception {
+    byte[] table = Bytes.toBytes("testBatchOperations");
+    TEST_UTIL.createTable(table, new byte[][] { FAMILY }, 3,
+        row(1), row(NUM_ROWS - 1), NUM_REGIONS);
+    AsyncHTable ht = new AsyncHTable(TEST_UTIL.getConfiguration(), table);
+
+    List<Put> puts = new ArrayList<Put>();
+    List<Get> gets = new ArrayList<Get>();
+    // Out of order, so the batches are split across regions
+    for (int i = NUM_ROWS - 1; i >= 0; i--) {
+      Put put = new Put(row(i));
+      put.add(FAMILY, QUALIFIER, row(i));
+      puts.add(put);
+      gets.add(new Get(row(i)));
+    }
+    ht.put(puts).get();
+
+    Result[] results = ht.get(gets).get();
+    assertEquals(NUM_ROWS, results.length);
+    for (int i = 0; i < NUM_ROWS; i++) {
+      assertValue(NUM_ROWS - 1 - i, results[i]);
+    }
+
+    List<Delete> deletes = new ArrayList<Delete>();
+    for (int i = 0; i < NUM_ROWS; i += 2) {
+      deletes.add(new Delete(row(i)));
+    }
+    ht.delete(deletes).get();
+    results = ht.get(gets).get();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      int row = NUM_ROWS - 1 - i;
+      if (row % 2 == 0) {
+        assertTrue(results[i].isEmpty());
+      } else {
+        assertValue(row, results[i]);
+      }
+    }
+
+    assertEquals(0, ht.get(new ArrayList<Get>()).get().length);
+  }
+
+  @Test
+  public void testFailedPut() throws Exception {
+    byte[] table = Bytes.toBytes("testFailedPut");
+    TEST_UTIL.createTable(table, FAMILY);
+    AsyncHTable ht = new AsyncHTable(TEST_UTIL.getConfiguration(), table);
+
+    List<Put> puts = new ArrayList<Put>();
+    for (int i = 0; i < 3; i++) {
+      Put put = new Put(row(i));
+      // The second row goes to a family the table does not have
+      put.add(i == 1 ? Bytes.toBytes("noSuchFamily") : FAMILY, QUALIFIER,
+          row(i));
+      puts.add(put);
+    }
+    try {
+      ht.put(puts).get();
+      fail("Expected the put to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().toString(),
+          e.getCause() instanceof NoSuchColumnFamilyException);
+    }
+    // The other rows are in
+    assertValue(0, ht.get(new Get(row(0))).get());
+    assertValue(2, ht.get(new Get(row(2))).get());
+  }
+}
@@ -19,12 +19,18 @@
  */
 package org.apache.hadoop.hbase.client;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
 
@@ -62,4 +68,68 @@ public class TestHCM {
     HRegionLocation rl = conn.getCachedLocation(TABLE_NAME, ROW);
     assertNull("What is this location?? " + rl, rl);
   }
+
+  /**
+   * Test that lookups are served by the cache once a miss has prefetched
+   * the neighboring regions, and that the statistics count them.
+   * @throws Exception
+   */
+  @Test
+  public void testRegionCacheStatistics() throws Exception {
+    byte[] tableName = Bytes.toBytes("testRegionCacheStatistics");
+    HTable table = TEST_UTIL.createTable(tableName, FAM_NAM);
+    TEST_UTIL.createMultiRegions(table, FAM_NAM);
+    HConnection conn = table.getConnection();
+    conn.clearRegionCache();
+
+    long hits = conn.getRegionCacheHitCount();
+    long misses = conn.getRegionCacheMissCount();
+    long relocations = conn.getRegionRelocationCount();
+    HRegionLocation first = conn.locateRegion(tableName, ROW);
+    assertEquals(misses + 1, conn.getRegionCacheMissCount());
+
+    // The neighbors of the region came with the same .META. scan
+    conn.locateRegion(tableName, ROW);
+    conn.locateRegion(tableName, Bytes.toBytes("ccc"));
+    conn.locateRegion(tableName, Bytes.toBytes("ddd"));
+    assertEquals(hits + 3, conn.getRegionCacheHitCount());
+    assertEquals(misses + 1, conn.getRegionCacheMissCount());
+
+    HRegionLocation relocated = conn.relocateRegion(tableName, ROW);
+    assertEquals(relocations + 1, conn.getRegionRelocationCount());
+    assertEquals(first.getRegionInfo(), relocated.getRegionInfo());
+    assertEquals(first.getServerAddress(), relocated.getServerAddress());
+  }
+
+  /**
+   * Test that a region found without a server fails the lookups of its rows
+   * only until shortly before the first retry.
+   * @throws Exception
+   */
+  @Test
+  public void testUnassignedRegionExpiry() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setLong(HConstants.HBASE_CLIENT_PAUSE, 400);
+    HConnectionManager.TableServers conn =
+      (HConnectionManager.TableServers) HConnectionManager.getConnection(conf);
+    byte[] tableName = Bytes.toBytes("testUnassignedRegionExpiry");
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(FAM_NAM));
+    HRegionInfo regionInfo = new HRegionInfo(htd, Bytes.toBytes("bbb"),
+        Bytes.toBytes("ddd"));
+
+    long start = System.currentTimeMillis();
+    conn.cacheUnassignedRegion(tableName, regionInfo);
+    assertEquals(regionInfo, conn.getUnassignedRegion(tableName, ROW));
+    assertEquals(regionInfo, conn.getUnassignedRegion(tableName,
+        Bytes.toBytes("ccc")));
+    // Rows of other regions are looked up as usual
+    assertNull(conn.getUnassignedRegion(tableName, Bytes.toBytes("aaa")));
+    assertNull(conn.getUnassignedRegion(tableName, Bytes.toBytes("ddd")));
+
+    // The retry after the first pause reads the catalog again
+    Thread.sleep(Math.max(0, start + 400 - System.currentTimeMillis()));
+    assertNull(conn.getUnassignedRegion(tableName, ROW));
+    HConnectionManager.deleteConnectionInfo(conf, false);
+  }
 }
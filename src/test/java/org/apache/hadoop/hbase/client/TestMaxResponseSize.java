@@ -22,14 +22,18 @@ package org.apache.hadoop.hbase.client;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.ipc.HBaseRPCOptions;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -248,18 +252,155 @@ public class TestMaxResponseSize{
     rpcCntExp = (ROWS.length + nbRows - 1) / nbRows;
     testScan(ht, rowSize, kvSize, scanCntExp, rpcCntExp, kvListExp,
         responseSize, false);
+
+    /**
+     * Test with both a number of rows and a response size. Whichever limit
+     * is reached first ends each RPC call.
+     *
+     * x x x x|x x x x    [1]
+     * <     rpc1    >
+     * x x x x|x x x x    [1]
+     * <     rpc2    >
+     * x x x x|x x x x    [1]
+     * <     rpc3    >
+     */
+    Scan scan = new Scan();
+    scan.setCaching(ROWS.length);
+    scan.setMaxResponseSize(rowSize / 2, false);
+    testScan(ht, scan, ROWS.length, ROWS.length, kvListExp,
+        "Testing scan with caching = " + ROWS.length +
+        " and responseSize = " + rowSize / 2);
+
+    // Same with partial rows, each row takes two RPC calls
+    scan = new Scan();
+    scan.setCaching(ROWS.length);
+    scan.setMaxResponseSize(rowSize / 2, true);
+    testScan(ht, scan, 2 * ROWS.length, 2 * ROWS.length, kvListExp,
+        "Testing scan with caching = " + ROWS.length +
+        ", responseSize = " + rowSize / 2 + " and partial rows");
+
+    // The number of rows comes first when the response size is large
+    scan = new Scan();
+    scan.setCaching(1);
+    scan.setMaxResponseSize(rowSize * 10, false);
+    testScan(ht, scan, ROWS.length, ROWS.length, kvListExp,
+        "Testing scan with caching = 1 and responseSize = " + rowSize * 10);
   } 
 
+  /**
+   * Test that a scan with partial rows resumes a row that was cut short
+   * when the region moves under the scanner, even when the reopened scanner
+   * first resends only KeyValues that were already returned.
+   * @throws Exception
+   */
+  @Test
+  public void testPartialRowScannerReset() throws Exception {
+    byte [] TABLE = Bytes.toBytes("testPartialRowScannerReset");
+    byte [][] ROWS = makeNAscii(ROW, 3);
+    byte [][] QUALIFIERS = makeNAscii(QUALIFIER, 10);
+
+    TEST_UTIL.createTable(TABLE, FAMILY);
+    List<KeyValue> kvListExp = new ArrayList<KeyValue>();
+    int kvSize = (new KeyValue(ROWS[0], FAMILY, QUALIFIERS[0], 1, VALUE))
+      .getLength();
+    int rowSize = kvSize * QUALIFIERS.length;
+    HTable ht = new HTable(TEST_UTIL.getConfiguration(), TABLE);
+    for (int r = 0; r < ROWS.length; r++) {
+      Put put = new Put(ROWS[r]);
+      for (int q = 0; q < QUALIFIERS.length; q++) {
+        KeyValue kv = new KeyValue(ROWS[r], FAMILY, QUALIFIERS[q], 1, VALUE);
+        put.add(kv);
+        kvListExp.add(kv);
+      }
+      ht.put(put);
+    }
+    ht.flushCommits();
+
+    // Each row takes two RPC calls, fail each of them in turn
+    for (int failAt = 1; failAt <= 2 * ROWS.length; failAt++) {
+      HTable resetTable = new ResettingHTable(TABLE, failAt);
+      Scan scan = new Scan();
+      scan.setCaching(ROWS.length);
+      scan.setMaxResponseSize(rowSize / 2, true);
+      testScan(resetTable, scan, 2 * ROWS.length, 0, kvListExp,
+          "Testing partial row scan reset at call " + failAt);
+    }
+  }
+
+  /**
+   * Table whose scanners fail one next call with the same exception as a
+   * region that is no longer served, which makes them reset.
+   */
+  private static class ResettingHTable extends HTable {
+    private int nextCallsBeforeReset;
+
+    ResettingHTable(byte [] tableName, int nextCallsBeforeReset)
+    throws IOException {
+      super(TEST_UTIL.getConfiguration(), tableName);
+      this.nextCallsBeforeReset = nextCallsBeforeReset;
+    }
+
+    @Override
+    public ResultScanner getScanner(final Scan scan) throws IOException {
+      ClientScanner s = new ClientScanner(scan) {
+        @Override
+        protected ScannerCallable getScannerCallable(byte [] localStartKey,
+            int nbRows, HBaseRPCOptions options) {
+          getScan().setStartRow(localStartKey);
+          ScannerCallable callable = new ResettingScannerCallable(
+              getConnection(), getTableName(), getScan(), options);
+          callable.setCaching(nbRows);
+          return callable;
+        }
+      };
+      s.initialize();
+      return s;
+    }
+
+    private class ResettingScannerCallable extends ScannerCallable {
+      private boolean opened = false;
+      private boolean closing = false;
+
+      ResettingScannerCallable(HConnection connection, byte [] tableName,
+          Scan scan, HBaseRPCOptions options) {
+        super(connection, tableName, scan, options);
+      }
+
+      @Override
+      public void setClose() {
+        closing = true;
+        super.setClose();
+      }
+
+      @Override
+      public Result [] call() throws IOException {
+        if (opened && !closing && --nextCallsBeforeReset == 0) {
+          throw new DoNotRetryIOException("Reset scanner",
+              new NotServingRegionException());
+        }
+        opened = true;
+        return super.call();
+      }
+    }
+  }
+
   void testScan(HTable ht, int rowSize, int kvSize,
       int scanCntExp, int rpcCntExp, List<KeyValue> kvListExp, 
       int responseSize, boolean partialRow) throws Exception{ 
+    Scan scan = new Scan();
+    scan.setCaching(responseSize, partialRow);
+    testScan(ht, scan, scanCntExp, rpcCntExp, kvListExp,
+        "Testing scan with responseSize = " + responseSize + 
+        ", partialRow = " + partialRow);
+  }
+
+  void testScan(HTable ht, Scan scan, int scanCntExp, int rpcCntExp,
+      List<KeyValue> kvListExp, String msg) throws Exception {
     int scanCntAct = 0;
     boolean toLog  = true; 
-    Scan scan = new Scan();
     Result result;
     ResultScanner scanner;
     List<KeyValue> kvListScan = new ArrayList<KeyValue>();  
-    scan.setCaching(responseSize, partialRow);
     scanner = ht.getScanner(scan);
     kvListScan.clear();
     int rpcCntAct = 0;
@@ -275,9 +416,7 @@ public class TestMaxResponseSize{
     assertEquals(scanCntExp, scanCntAct);
     assertEquals(rpcCntExp, rpcCntAct);
     result = new Result(kvListScan);
-    verifyResult(result, kvListExp, toLog, 
-        "Testing scan with responseSize = " + responseSize + 
-        ", partialRow = " + partialRow);
+    verifyResult(result, kvListExp, toLog, msg);
   }
   
   private void verifyResult(Result result, List<KeyValue> kvList, boolean toLog,
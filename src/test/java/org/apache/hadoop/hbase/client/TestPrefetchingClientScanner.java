@@ -0,0 +1,190 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestPrefetchingClientScanner {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] TABLE = Bytes.toBytes("testPrefetchingScanner");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int NUM_REGIONS = 10;
+
+  private static HTable table;
+  private static int numRows;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniCluster(3);
+    table = TEST_UTIL.createTable(TABLE, new byte[][] { FAMILY }, 1,
+        Bytes.toBytes("bbb"), Bytes.toBytes("yyy"), NUM_REGIONS);
+    TEST_UTIL.waitUntilAllRegionsAssigned(NUM_REGIONS);
+    numRows = TEST_UTIL.loadTable(table, FAMILY);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  private static List<byte[]> scanRows(HTable t, Scan scan) throws Exception {
+    List<byte[]> rows = new ArrayList<byte[]>();
+    ResultScanner scanner = t.getScanner(scan);
+    for (Result result : scanner) {
+      rows.add(result.getRow());
+    }
+    scanner.close();
+    return rows;
+  }
+
+  private static void assertSameRows(List<byte[]> expected,
+      List<byte[]> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertArrayEquals(expected.get(i), actual.get(i));
+    }
+  }
+
+  @Test
+  public void testReadAheadScans() throws Exception {
+    HTable t = new HTable(TEST_UTIL.getConfiguration(), TABLE);
+    t.setScannerCaching(100);
+    Scan[] scans = { new Scan(), new Scan(Bytes.toBytes("ccc")),
+        new Scan(Bytes.toBytes("cde"), Bytes.toBytes("pqr")) };
+    for (Scan scan : scans) {
+      t.setScannerReadAheadBytes(0);
+      List<byte[]> expected = scanRows(t, scan);
+      assertFalse(expected.isEmpty());
+
+      // A buffer smaller than a row still lets the rows through one by one
+      for (long readAhead : new long[] { 1, 64 * 1024 }) {
+        t.setScannerReadAheadBytes(readAhead);
+        t.setScannerParallelRegions(1, true);
+        assertSameRows(expected, scanRows(t, scan));
+
+        t.setScannerParallelRegions(4, true);
+        assertSameRows(expected, scanRows(t, scan));
+
+        t.setScannerParallelRegions(4, false);
+        List<byte[]> unordered = scanRows(t, scan);
+        assertEquals(expected.size(), unordered.size());
+        Set<byte[]> rows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+        rows.addAll(unordered);
+        assertEquals(expected.size(), rows.size());
+        for (byte[] row : expected) {
+          assertTrue(rows.contains(row));
+        }
+      }
+    }
+    assertEquals(numRows, scanRows(t, new Scan()).size());
+  }
+
+  @Test
+  public void testCloseBeforeEnd() throws Exception {
+    HTable t = new HTable(TEST_UTIL.getConfiguration(), TABLE);
+    t.setScannerCaching(10);
+    t.setScannerReadAheadBytes(1024);
+    for (boolean ordered : HConstants.BOOLEAN_VALUES) {
+      t.setScannerParallelRegions(NUM_REGIONS, ordered);
+      ResultScanner scanner = t.getScanner(new Scan());
+      assertEquals(10, scanner.next(10).length);
+      scanner.close();
+      assertNull(scanner.next());
+    }
+  }
+
+  @Test
+  public void testSplitOnRegions() {
+    byte[] empty = HConstants.EMPTY_BYTE_ARRAY;
+    Pair<byte[][], byte[][]> regions = new Pair<byte[][], byte[][]>(
+        new byte[][] { empty, Bytes.toBytes("b"), Bytes.toBytes("d") },
+        new byte[][] { Bytes.toBytes("b"), Bytes.toBytes("d"), empty });
+
+    List<Pair<byte[], byte[]>> ranges =
+      PrefetchingClientScanner.splitOnRegions(empty, empty, regions);
+    assertEquals(3, ranges.size());
+    assertArrayEquals(empty, ranges.get(0).getFirst());
+    assertArrayEquals(Bytes.toBytes("b"), ranges.get(0).getSecond());
+    assertArrayEquals(Bytes.toBytes("d"), ranges.get(2).getFirst());
+    assertArrayEquals(empty, ranges.get(2).getSecond());
+
+    ranges = PrefetchingClientScanner.splitOnRegions(Bytes.toBytes("c"),
+        Bytes.toBytes("e"), regions);
+    assertEquals(2, ranges.size());
+    assertArrayEquals(Bytes.toBytes("c"), ranges.get(0).getFirst());
+    assertArrayEquals(Bytes.toBytes("d"), ranges.get(0).getSecond());
+    assertArrayEquals(Bytes.toBytes("d"), ranges.get(1).getFirst());
+    assertArrayEquals(Bytes.toBytes("e"), ranges.get(1).getSecond());
+
+    // A stop row on a region boundary does not open the next region
+    ranges = PrefetchingClientScanner.splitOnRegions(Bytes.toBytes("a"),
+        Bytes.toBytes("b"), regions);
+    assertEquals(1, ranges.size());
+  }
+
+  @Test
+  public void testResultBufferBound() throws Exception {
+    final Result result = new Result(new KeyValue[] { new KeyValue(
+        Bytes.toBytes("row"), FAMILY, Bytes.toBytes("q"), new byte[100]) });
+    final long size = result.getWritableSize();
+    final PrefetchingClientScanner.ResultBuffer buffer =
+      new PrefetchingClientScanner.ResultBuffer(2 * size, 1);
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 10; i++) {
+            buffer.put(result);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        buffer.producerDone(null);
+      }
+    };
+    producer.start();
+    for (int i = 0; i < 10; i++) {
+      assertTrue(buffer.getBufferedBytes() <= 2 * size);
+      assertTrue(buffer.take() != null);
+      Thread.sleep(5);
+    }
+    producer.join();
+    assertNull(buffer.take());
+    assertEquals(0, buffer.getBufferedBytes());
+  }
+}
@@ -17,6 +17,7 @@
 package org.apache.hadoop.hbase.io.encoding;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
@@ -30,9 +31,15 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Random;
 
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue.Type;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoderImpl;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -116,6 +123,35 @@ public class TestDataBlockEncoders {
             includesMemstoreTS));
   }
 
+  /**
+   * Test wide rows sharing a long row key prefix, which the prefix tree
+   * encoding stores once per block.
+   * @throws IOException On test failure.
+   */
+  @Test
+  public void testWideRowsWithLongRowKeys() throws IOException {
+    List<KeyValue> kvList = new ArrayList<KeyValue>();
+    byte[] family = Bytes.toBytes("f");
+    for (int row = 0; row < 20; ++row) {
+      byte[] rowKey = Bytes.toBytes(
+          String.format("a/long/row/key/prefix/shared/by/all/%04d", row));
+      for (int column = 0; column < 50; ++column) {
+        kvList.add(new KeyValue(rowKey, family,
+            Bytes.toBytes(String.format("q%04d", column)), 1L, Type.Put,
+            Bytes.toBytes(row * column)));
+      }
+    }
+    ByteBuffer dataset = RedundantKVGenerator.convertKvToByteBuffer(kvList,
+        includesMemstoreTS);
+    testEncodersOnDataset(dataset);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataBlockEncoding.PREFIX_TREE.getEncoder().encodeKeyValues(
+        new DataOutputStream(baos), dataset, includesMemstoreTS);
+    assertTrue("Prefix tree encoded " + dataset.limit() + " bytes into " +
+        baos.size(), baos.size() < dataset.limit() / 2);
+  }
+
   /**
    * Test whether compression -> decompression gives the consistent results on
    * pseudorandom sample.
@@ -168,6 +204,12 @@ public class TestDataBlockEncoders {
 
         KeyValue keyValue = sampleKv.get(keyValueId);
         checkSeekingConsistency(encodedSeekers, seekBefore, keyValue);
+        if (!seekBefore) {
+          // All the seekers agree, check one of them landed on the key
+          assertEquals(Bytes.toStringBinary(keyValue.getKey()),
+              Bytes.toStringBinary(
+                  encodedSeekers.get(0).getKeyValue().getKey()));
+        }
       }
     }
 
@@ -182,6 +224,120 @@ public class TestDataBlockEncoders {
     }
   }
 
+  /**
+   * Test the KeyValue every encoder lands on when seeking exact keys, keys
+   * between rows, keys whose row is a prefix of the next rows, last on row
+   * keys and keys past the last row.
+   */
+  @Test
+  public void testSeekingToKeys() throws IOException {
+    byte[] family = Bytes.toBytes("f");
+    String[][] cells = { { "a", "q1" }, { "a", "q2" }, { "ab", "q1" },
+        { "abc", "q1" }, { "b", "q1" }, { "b", "q2" }, { "bb", "q1" },
+        { "c", "q1" } };
+    List<KeyValue> kvList = new ArrayList<KeyValue>();
+    for (String[] cell : cells) {
+      kvList.add(new KeyValue(Bytes.toBytes(cell[0]), family,
+          Bytes.toBytes(cell[1]), 1L, Type.Put, Bytes.toBytes(cell[0])));
+    }
+    ByteBuffer dataset = RedundantKVGenerator.convertKvToByteBuffer(kvList,
+        includesMemstoreTS);
+
+    for (DataBlockEncoder encoder : DataBlockEncoding.getAllEncoders()) {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      encoder.encodeKeyValues(new DataOutputStream(baos), dataset,
+          includesMemstoreTS);
+      DataBlockEncoder.EncodedSeeker seeker =
+          encoder.createSeeker(KeyValue.KEY_COMPARATOR, includesMemstoreTS);
+      seeker.setCurrentBuffer(ByteBuffer.wrap(baos.toByteArray()));
+
+      for (int i = 0; i < kvList.size(); i++) {
+        checkSeek(encoder, seeker, kvList.get(i), false, kvList.get(i), 0);
+        if (i > 0) {
+          checkSeek(encoder, seeker, kvList.get(i), true, kvList.get(i - 1),
+              1);
+        }
+      }
+      for (boolean seekBefore : new boolean[] { false, true }) {
+        // Between rows
+        checkSeek(encoder, seeker, KeyValue.createFirstOnRow(
+            Bytes.toBytes("aa")), seekBefore, kvList.get(1), 1);
+        checkSeek(encoder, seeker, KeyValue.createFirstOnRow(
+            Bytes.toBytes("abd")), seekBefore, kvList.get(3), 1);
+        checkSeek(encoder, seeker, KeyValue.createFirstOnRow(
+            Bytes.toBytes("ba")), seekBefore, kvList.get(5), 1);
+        // Rows that are a prefix of the next rows
+        checkSeek(encoder, seeker, KeyValue.createFirstOnRow(
+            Bytes.toBytes("ab")), seekBefore, kvList.get(1), 1);
+        checkSeek(encoder, seeker, KeyValue.createLastOnRow(
+            Bytes.toBytes("a")), seekBefore, kvList.get(1), 1);
+        checkSeek(encoder, seeker, KeyValue.createLastOnRow(
+            Bytes.toBytes("ab")), seekBefore, kvList.get(2), 1);
+        // Last on row
+        checkSeek(encoder, seeker, KeyValue.createLastOnRow(
+            Bytes.toBytes("b")), seekBefore, kvList.get(5), 1);
+        checkSeek(encoder, seeker, KeyValue.createLastOnRow(
+            Bytes.toBytes("c")), seekBefore, kvList.get(7), 1);
+        // Past the last row
+        checkSeek(encoder, seeker, KeyValue.createFirstOnRow(
+            Bytes.toBytes("d")), seekBefore, kvList.get(7), 1);
+      }
+    }
+  }
+
+  private void checkSeek(DataBlockEncoder encoder,
+      DataBlockEncoder.EncodedSeeker seeker, KeyValue key, boolean seekBefore,
+      KeyValue expected, int expectedResult) {
+    String msg = encoder + " seeking " + (seekBefore ? "before " : "to ") +
+        Bytes.toStringBinary(key.getKey());
+    seeker.rewind();
+    assertEquals(msg, expectedResult, seeker.seekToKeyInBlock(key.getBuffer(),
+        key.getKeyOffset(), key.getKeyLength(), seekBefore));
+    KeyValue actual = seeker.getKeyValue();
+    assertEquals(msg, Bytes.toStringBinary(expected.getKey()),
+        Bytes.toStringBinary(actual.getKey()));
+    assertEquals(msg, Bytes.toStringBinary(expected.getValue()),
+        Bytes.toStringBinary(actual.getValue()));
+  }
+
+  /**
+   * Test the prefix tree encoding is refused for the catalog tables, whose
+   * rows are not sorted in byte order.
+   */
+  @Test
+  public void testPrefixTreeRejectsCatalogTables() throws IOException {
+    try {
+      DataBlockEncoding.PREFIX_TREE.getEncoder().createSeeker(
+          KeyValue.META_KEY_COMPARATOR, includesMemstoreTS);
+      fail("Created a prefix tree seeker for the meta table");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    try {
+      HFile.getWriterFactoryNoCache(HBaseConfiguration.create())
+          .withOutputStream(new FSDataOutputStream(
+              new ByteArrayOutputStream(), null))
+          .withDataBlockEncoder(new HFileDataBlockEncoderImpl(
+              DataBlockEncoding.PREFIX_TREE))
+          .withComparator(KeyValue.META_KEY_COMPARATOR)
+          .create();
+      fail("Created a prefix tree writer for the meta table");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    HTableDescriptor htd =
+      new HTableDescriptor(HTableDescriptor.META_TABLEDESC);
+    try {
+      htd.addFamily(new HColumnDescriptor(Bytes.toBytes("f"))
+          .setDataBlockEncoding(DataBlockEncoding.PREFIX_TREE));
+      fail("Added a prefix tree family to the meta table");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
   /**
    * Test iterating on encoded buffers.
    */
@@ -293,9 +449,10 @@ public class TestDataBlockEncoders {
     ByteBuffer expectedValue = null;
 
     for (DataBlockEncoder.EncodedSeeker seeker : encodedSeekers) {
+      // Seeks resume from the current position, which may be past the key
+      seeker.rewind();
       seeker.seekToKeyInBlock(keyValue.getBuffer(),
           keyValue.getKeyOffset(), keyValue.getKeyLength(), seekBefore);
-      seeker.rewind();
 
       ByteBuffer actualKeyValue = seeker.getKeyValueBuffer();
       ByteBuffer actualKey = seeker.getKeyDeepCopy();
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests where the seeker of {@link IndexedDataBlockEncoder} lands, since
+ * its binary search over the index skips the KeyValues in between.
+ */
+@RunWith(Parameterized.class)
+public class TestIndexedDataBlockEncoder {
+  private static final int NUM_ROWS = 50;
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[][] QUALIFIERS = { Bytes.toBytes("q1"),
+      Bytes.toBytes("q2") };
+
+  private final boolean includesMemstoreTS;
+  private final List<KeyValue> kvs = new ArrayList<KeyValue>();
+  private DataBlockEncoder.EncodedSeeker seeker;
+
+  @Parameters
+  public static Collection<Object[]> parameters() {
+    return HBaseTestingUtility.BOOLEAN_PARAMETERIZED;
+  }
+
+  public TestIndexedDataBlockEncoder(boolean includesMemstoreTS) {
+    this.includesMemstoreTS = includesMemstoreTS;
+  }
+
+  /** Only the even rows are written, the odd ones fall between entries */
+  private static byte[] getRow(int i) {
+    return Bytes.toBytes(String.format("row%03d", i));
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    for (int i = 0; i < NUM_ROWS; i++) {
+      for (byte[] qualifier : QUALIFIERS) {
+        kvs.add(new KeyValue(getRow(2 * i), FAMILY, qualifier, 1L,
+            KeyValue.Type.Put, Bytes.toBytes(kvs.size())));
+      }
+    }
+    ByteBuffer dataset = RedundantKVGenerator.convertKvToByteBuffer(kvs,
+        includesMemstoreTS);
+    DataBlockEncoder encoder = DataBlockEncoding.INDEXED.getEncoder();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    encoder.encodeKeyValues(new DataOutputStream(baos), dataset,
+        includesMemstoreTS);
+    seeker = encoder.createSeeker(KeyValue.KEY_COMPARATOR,
+        includesMemstoreTS);
+    seeker.setCurrentBuffer(ByteBuffer.wrap(baos.toByteArray()));
+  }
+
+  private int seek(KeyValue key, boolean seekBefore) {
+    return seeker.seekToKeyInBlock(key.getBuffer(), key.getKeyOffset(),
+        key.getKeyLength(), seekBefore);
+  }
+
+  private void assertAt(int i) {
+    KeyValue actual = seeker.getKeyValue();
+    assertEquals(Bytes.toStringBinary(kvs.get(i).getKey()),
+        Bytes.toStringBinary(actual.getKey()));
+    assertEquals(i, Bytes.toInt(actual.getValue()));
+  }
+
+  @Test
+  public void testSeekToEntries() {
+    for (int i = 0; i < kvs.size(); i++) {
+      assertEquals(0, seek(kvs.get(i), false));
+      assertAt(i);
+      if (i > 0) {
+        assertEquals(1, seek(kvs.get(i), true));
+        assertAt(i - 1);
+      }
+    }
+    // Backwards, without rewinding
+    for (int i = kvs.size() - 1; i >= 0; i--) {
+      assertEquals(0, seek(kvs.get(i), false));
+      assertAt(i);
+    }
+  }
+
+  @Test
+  public void testSeekBeforeFirstEntry() {
+    seek(kvs.get(kvs.size() / 2), false);
+    try {
+      seek(kvs.get(0), true);
+      fail("Sought before the first KeyValue of the block");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    // Keys before the first entry land on it
+    KeyValue beforeFirst = KeyValue.createFirstOnRow(Bytes.toBytes("a"));
+    for (boolean seekBefore : new boolean[] { false, true }) {
+      assertEquals(1, seek(beforeFirst, seekBefore));
+      assertAt(0);
+    }
+    // The first entry of the first row with a later timestamp
+    assertEquals(1, seek(KeyValue.createFirstOnRow(getRow(0)), false));
+    assertAt(0);
+  }
+
+  @Test
+  public void testSeekBetweenEntries() {
+    for (boolean seekBefore : new boolean[] { false, true }) {
+      for (int i = 0; i < NUM_ROWS; i++) {
+        int lastOfRow = 2 * i + 1;
+        // A row between two entries
+        assertEquals(1, seek(KeyValue.createFirstOnRow(getRow(2 * i + 1)),
+            seekBefore));
+        assertAt(lastOfRow);
+        // Between the two columns of a row
+        assertEquals(1, seek(kvs.get(2 * i).createLastOnRowCol(),
+            seekBefore));
+        assertAt(2 * i);
+        assertEquals(1, seek(KeyValue.createLastOnRow(getRow(2 * i)),
+            seekBefore));
+        assertAt(lastOfRow);
+      }
+      // Past the last entry
+      assertEquals(1, seek(KeyValue.createFirstOnRow(Bytes.toBytes("z")),
+          seekBefore));
+      assertAt(kvs.size() - 1);
+    }
+  }
+
+  @Test
+  public void testNextAfterSeek() {
+    int middle = kvs.size() / 2;
+    assertEquals(1, seek(kvs.get(middle), true));
+    assertAt(middle - 1);
+    for (int i = middle; i < kvs.size(); i++) {
+      assertTrue(seeker.next());
+      assertAt(i);
+    }
+    assertFalse(seeker.next());
+
+    assertEquals(1, seek(KeyValue.createFirstOnRow(getRow(1)), false));
+    assertAt(1);
+    assertTrue(seeker.next());
+    assertAt(2);
+  }
+}
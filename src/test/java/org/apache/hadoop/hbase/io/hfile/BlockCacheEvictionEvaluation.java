@@ -0,0 +1,198 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * Compares the full scan eviction of the {@link LruBlockCache} with its
+ * striped eviction, with several threads reading and caching blocks in a
+ * cache holding a million blocks or more.
+ * <p>
+ * The blocks only pretend to be large, so a heap of 1GB is enough for a
+ * million blocks. Usage:
+ * <pre>
+ * BlockCacheEvictionEvaluation [numBlocks [numThreads [opsPerThread]]]
+ * </pre>
+ */
+public class BlockCacheEvictionEvaluation {
+  static final Log LOG =
+    LogFactory.getLog(BlockCacheEvictionEvaluation.class.getName());
+
+  private static final int BLOCK_SIZE = 64 * 1024;
+  private static final int BLOCKS_PER_FILE = 1000;
+
+  private final int numBlocks;
+  private final int numThreads;
+  private final int opsPerThread;
+  private final String[] fileNames;
+
+  public BlockCacheEvictionEvaluation(int numBlocks, int numThreads,
+      int opsPerThread) {
+    this.numBlocks = numBlocks;
+    this.numThreads = numThreads;
+    this.opsPerThread = opsPerThread;
+    // Twice as many blocks as fit in the cache
+    this.fileNames = new String[2 * numBlocks / BLOCKS_PER_FILE + 1];
+    for (int i = 0; i < fileNames.length; i++) {
+      fileNames[i] = "file" + i;
+    }
+  }
+
+  /** A block that only reports a size */
+  private static class Block implements Cacheable {
+    @Override
+    public long heapSize() {
+      return BLOCK_SIZE;
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+
+    @Override
+    public SchemaMetrics getSchemaMetrics() {
+      return null;
+    }
+  }
+
+  private BlockCacheKey getKey(int block) {
+    return new BlockCacheKey(fileNames[block / BLOCKS_PER_FILE],
+        (long) (block % BLOCKS_PER_FILE) * BLOCK_SIZE);
+  }
+
+  private class Worker extends Thread {
+    private final LruBlockCache cache;
+    private final Random random;
+    long maxCacheNanos = 0;
+    long totalCacheNanos = 0;
+    long cached = 0;
+    long maxSize = 0;
+
+    Worker(LruBlockCache cache, long seed) {
+      this.cache = cache;
+      this.random = new Random(seed);
+    }
+
+    @Override
+    public void run() {
+      Block block = new Block();
+      int hotBlocks = numBlocks / 4;
+      for (int i = 0; i < opsPerThread; i++) {
+        // Half of the reads go to a quarter of the cache, the others are
+        // spread over twice the cache size
+        int index = random.nextBoolean() ? random.nextInt(hotBlocks) :
+            random.nextInt(2 * numBlocks);
+        BlockCacheKey key = getKey(index);
+        if (cache.getBlock(key, true) != null) {
+          continue;
+        }
+        long start = System.nanoTime();
+        try {
+          cache.cacheBlock(key, block);
+        } catch (RuntimeException e) {
+          // Another thread cached it first
+          continue;
+        }
+        long elapsed = System.nanoTime() - start;
+        maxCacheNanos = Math.max(maxCacheNanos, elapsed);
+        totalCacheNanos += elapsed;
+        cached++;
+        maxSize = Math.max(maxSize, cache.heapSize());
+      }
+    }
+  }
+
+  private void run(boolean striped) throws InterruptedException {
+    long perBlock = ClassSize.align(getKey(0).heapSize()) +
+        CachedBlock.PER_BLOCK_OVERHEAD + BLOCK_SIZE;
+    long maxSize = (long) (numBlocks * perBlock /
+        LruBlockCache.DEFAULT_ACCEPTABLE_FACTOR);
+    LruBlockCache cache = new LruBlockCache(maxSize, BLOCK_SIZE, true,
+        (int) Math.ceil(1.2 * maxSize / BLOCK_SIZE),
+        LruBlockCache.DEFAULT_LOAD_FACTOR,
+        LruBlockCache.DEFAULT_CONCURRENCY_LEVEL,
+        LruBlockCache.DEFAULT_MIN_FACTOR,
+        LruBlockCache.DEFAULT_ACCEPTABLE_FACTOR,
+        LruBlockCache.DEFAULT_SINGLE_FACTOR,
+        LruBlockCache.DEFAULT_MULTI_FACTOR,
+        LruBlockCache.DEFAULT_MEMORY_FACTOR,
+        striped);
+
+    // Fill the cache up to the acceptable size first
+    Block block = new Block();
+    for (int i = 0; i < numBlocks; i++) {
+      cache.cacheBlock(getKey(i), block);
+    }
+    long evictionsBefore = cache.getEvictionCount();
+    long evictedBefore = cache.getEvictedCount();
+
+    Worker[] workers = new Worker[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      workers[i] = new Worker(cache, i);
+    }
+    long start = System.currentTimeMillis();
+    for (Worker worker : workers) {
+      worker.start();
+    }
+    long maxCacheNanos = 0;
+    long totalCacheNanos = 0;
+    long cached = 0;
+    long maxCacheSize = 0;
+    for (Worker worker : workers) {
+      worker.join();
+      maxCacheNanos = Math.max(maxCacheNanos, worker.maxCacheNanos);
+      totalCacheNanos += worker.totalCacheNanos;
+      cached += worker.cached;
+      maxCacheSize = Math.max(maxCacheSize, worker.maxSize);
+    }
+    long elapsed = System.currentTimeMillis() - start;
+    long ops = (long) numThreads * opsPerThread;
+
+    LOG.info((striped ? "Striped" : "Full scan") + " eviction: " +
+        ops + " ops in " + elapsed + "ms (" + (ops * 1000 / Math.max(1, elapsed)) +
+        " ops/s), blocks=" + cache.size() +
+        ", hit ratio=" + cache.getStats().getHitRatio() +
+        ", cached=" + cached +
+        ", avg cacheBlock=" + (cached == 0 ? 0 : totalCacheNanos / cached) +
+        "ns, max cacheBlock=" + (maxCacheNanos / 1000) + "us" +
+        ", evictions=" + (cache.getEvictionCount() - evictionsBefore) +
+        ", evicted=" + (cache.getEvictedCount() - evictedBefore) +
+        ", max size=" + (100.0 * maxCacheSize / maxSize) + "% of max");
+    cache.shutdown();
+  }
+
+  public static void main(String[] args) throws Exception {
+    int numBlocks = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    int opsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+    BlockCacheEvictionEvaluation evaluation =
+      new BlockCacheEvictionEvaluation(numBlocks, numThreads, opsPerThread);
+    evaluation.run(false);
+    System.gc();
+    evaluation.run(true);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the off-heap {@link BucketCache}, alone and as the victim cache of
+ * {@link LruBlockCache}.
+ */
+public class TestBucketCache {
+
+  private static final int[] SLOT_SIZES = new int[] { 1024, 4096 };
+  private static final int BUCKET_CAPACITY = 4 * 4096;
+
+  private final Random rand = new Random(12345L);
+
+  private HFileBlock createBlock(int dataSize, long offset) {
+    byte[] bytes = new byte[HFileBlock.HEADER_SIZE + dataSize];
+    rand.nextBytes(bytes);
+    return new HFileBlock(BlockType.DATA, dataSize, dataSize, -1,
+        ByteBuffer.wrap(bytes), HFileBlock.FILL_HEADER, offset, true);
+  }
+
+  private static void assertBlockEquals(HFileBlock expected, Cacheable actual) {
+    assertNotNull(actual);
+    HFileBlock block = (HFileBlock) actual;
+    assertEquals(expected.getBlockType(), block.getBlockType());
+    assertEquals(expected.getOffset(), block.getOffset());
+    assertEquals(expected.getUncompressedSizeWithoutHeader(),
+        block.getUncompressedSizeWithoutHeader());
+    assertEquals(expected.getBufferWithHeader(), block.getBufferWithHeader());
+  }
+
+  @Test
+  public void testCacheAndGet() throws Exception {
+    BucketCache cache = new BucketCache(BucketCache.OFFHEAP_IO_ENGINE,
+        4 * BUCKET_CAPACITY, SLOT_SIZES);
+    HFileBlock small = createBlock(500, 0);
+    HFileBlock large = createBlock(3000, 1000);
+    BlockCacheKey smallKey = new BlockCacheKey("file", 0);
+    BlockCacheKey largeKey = new BlockCacheKey("file", 1000);
+
+    assertNull(cache.getBlock(smallKey, true));
+    cache.cacheBlock(smallKey, small);
+    cache.cacheBlock(largeKey, large);
+    assertEquals(2, cache.getBlockCount());
+    assertEquals(1024 + 4096, cache.getCurrentSize());
+
+    assertBlockEquals(small, cache.getBlock(smallKey, true));
+    assertBlockEquals(large, cache.getBlock(largeKey, true));
+    assertEquals(2, cache.getStats().getHitCount());
+    assertEquals(1, cache.getStats().getMissCount());
+
+    assertTrue(cache.evictBlock(smallKey));
+    assertFalse(cache.evictBlock(smallKey));
+    assertNull(cache.getBlock(smallKey, true));
+    assertEquals(1, cache.evictBlocksByHfileName("file"));
+    assertEquals(0, cache.getBlockCount());
+    assertEquals(0, cache.getCurrentSize());
+    cache.shutdown();
+  }
+
+  @Test
+  public void testTooLargeBlockIsNotCached() throws Exception {
+    BucketCache cache = new BucketCache(BucketCache.OFFHEAP_IO_ENGINE,
+        BUCKET_CAPACITY, SLOT_SIZES);
+    BlockCacheKey key = new BlockCacheKey("file", 0);
+    cache.cacheBlock(key, createBlock(5000, 0));
+    assertNull(cache.getBlock(key, true));
+    assertEquals(1, cache.getFailedInsertCount());
+    cache.shutdown();
+  }
+
+  @Test
+  public void testEvictionWhenFull() throws Exception {
+    // Two buckets: sixteen 1KB slots or four 4KB slots each.
+    BucketCache cache = new BucketCache(BucketCache.OFFHEAP_IO_ENGINE,
+        2 * BUCKET_CAPACITY, SLOT_SIZES);
+    int numBlocks = 40;
+    HFileBlock[] blocks = new HFileBlock[numBlocks];
+    for (int i = 0; i < numBlocks; ++i) {
+      blocks[i] = createBlock(500, i * 1000);
+      cache.cacheBlock(new BlockCacheKey("file", i * 1000), blocks[i]);
+    }
+    assertTrue(cache.getBlockCount() <= 32);
+    assertTrue(cache.getStats().getEvictionCount() > 0);
+    // The most recent block must have been kept.
+    assertBlockEquals(blocks[numBlocks - 1], cache.getBlock(
+        new BlockCacheKey("file", (numBlocks - 1) * 1000), true));
+
+    // A different size class can still get room by taking a whole bucket.
+    HFileBlock large = createBlock(3000, 100000);
+    BlockCacheKey largeKey = new BlockCacheKey("file", 100000);
+    cache.cacheBlock(largeKey, large);
+    assertBlockEquals(large, cache.getBlock(largeKey, true));
+    cache.shutdown();
+  }
+
+  @Test
+  public void testMemoryMappedFile() throws Exception {
+    File file = File.createTempFile("TestBucketCache", ".mmap");
+    file.deleteOnExit();
+    String path = file.getAbsolutePath();
+    BucketCache cache = new BucketCache(
+        BucketCache.FILE_IO_ENGINE_PREFIX + path, 2 * BUCKET_CAPACITY,
+        SLOT_SIZES);
+    HFileBlock block = createBlock(2000, 0);
+    BlockCacheKey key = new BlockCacheKey("file", 0);
+    cache.cacheBlock(key, block);
+    assertBlockEquals(block, cache.getBlock(key, true));
+    cache.shutdown();
+  }
+
+  @Test
+  public void testVictimCache() throws Exception {
+    BucketCache bucketCache = new BucketCache(BucketCache.OFFHEAP_IO_ENGINE,
+        8 * BUCKET_CAPACITY, SLOT_SIZES);
+    HFileBlock[] blocks = new HFileBlock[10];
+    for (int i = 0; i < blocks.length; ++i) {
+      blocks[i] = createBlock(3000, i * 10000);
+    }
+    long blockHeapSize = CachedBlock.PER_BLOCK_OVERHEAD
+        + new BlockCacheKey("file", 0).heapSize() + blocks[0].heapSize();
+    LruBlockCache lru = new LruBlockCache(blockHeapSize * 5, blockHeapSize,
+        false);
+    lru.setVictimCache(bucketCache);
+
+    for (int i = 0; i < blocks.length; ++i) {
+      lru.cacheBlock(new BlockCacheKey("file", i * 10000), blocks[i]);
+    }
+    assertTrue(lru.getEvictedCount() > 0);
+    assertEquals(lru.getEvictedCount(), bucketCache.getBlockCount());
+
+    // Every block is still served, either from the LRU or the bucket cache.
+    for (int i = 0; i < blocks.length; ++i) {
+      assertBlockEquals(blocks[i],
+          lru.getBlock(new BlockCacheKey("file", i * 10000), true));
+    }
+    assertEquals(lru.getEvictedCount(), bucketCache.getStats().getHitCount());
+
+    // Explicit eviction removes the block from both tiers.
+    BlockCacheKey first = new BlockCacheKey("file", 0);
+    assertTrue(lru.evictBlock(first));
+    assertNull(lru.getBlock(first, true));
+    lru.shutdown();
+  }
+}
@@ -166,6 +166,25 @@ public class TestFixedFileTrailer {
     assertEquals(trailerStr, t4.toString());
   }
 
+  @Test
+  public void testMinorVersion() throws IOException {
+    if (version == 1) {
+      return;
+    }
+    FixedFileTrailer t = new FixedFileTrailer(version,
+        HFileBlock.MINOR_VERSION_WITH_CHECKSUM);
+    t.setComparatorClass(KeyValue.KEY_COMPARATOR.getClass());
+    Path trailerPath = new Path(util.getTestDir(), "trailer_minor_"
+        + version);
+    writeTrailer(trailerPath, t, null);
+
+    FixedFileTrailer loaded = readTrailer(trailerPath);
+    assertEquals(version, loaded.getVersion());
+    assertEquals(HFileBlock.MINOR_VERSION_WITH_CHECKSUM,
+        loaded.getMinorVersion());
+    assertEquals(t.toString(), loaded.toString());
+  }
+
   private FixedFileTrailer readTrailer(Path trailerPath) throws IOException {
     FSDataInputStream fsdis = fs.open(trailerPath);
     FixedFileTrailer trailerRead = FixedFileTrailer.readFromStream(fsdis,
@@ -333,6 +333,99 @@ public class TestHFileBlock {
     }
   }
 
+  private static final int CHECKSUM_TEST_INTS = 1234;
+
+  /**
+   * Writes blocks ending with checksums and reads them back, once from
+   * intact streams, and once from a corrupt copy of the file standing in for
+   * the stream without HDFS checksums.
+   */
+  @Test
+  public void testBlockChecksums() throws IOException {
+    for (Compression.Algorithm algo : COMPRESSION_ALGORITHMS) {
+      Path path = new Path(TEST_UTIL.getTestDir(), "blocks_checksum_"
+          + algo);
+      FSDataOutputStream os = fs.create(path);
+      HFileBlock.Writer hbw = new HFileBlock.Writer(algo, null,
+          includesMemstoreTS, true);
+      List<Long> offsets = new ArrayList<Long>();
+      long totalSize = 0;
+      byte[] fileBytes = null;
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      for (int blockId = 0; blockId < 3; ++blockId) {
+        hbw.startWriting(BlockType.META);
+        DataOutputStream dos = hbw.getUserDataStreamUnsafe();
+        for (int i = 0; i < CHECKSUM_TEST_INTS; ++i) {
+          dos.writeInt(blockId * CHECKSUM_TEST_INTS + i);
+        }
+        offsets.add(totalSize);
+        hbw.writeHeaderAndData(os);
+        baos.write(hbw.getHeaderAndData());
+        totalSize += hbw.getOnDiskSizeWithHeader();
+        if (algo == NONE) {
+          assertEquals(hbw.getUncompressedSizeWithoutHeader()
+              + HFileBlock.CHECKSUM_SIZE, hbw.getOnDiskSizeWithoutHeader());
+        }
+      }
+      os.close();
+      fileBytes = baos.toByteArray();
+      assertEquals(totalSize, fileBytes.length);
+
+      // Flip a byte in the data of the second block
+      byte[] corruptBytes = fileBytes.clone();
+      corruptBytes[(int) (offsets.get(1) + HFileBlock.HEADER_SIZE + 10)] ^= 1;
+      Path corruptPath = new Path(TEST_UTIL.getTestDir(),
+          "blocks_checksum_corrupt_" + algo);
+      os = fs.create(corruptPath);
+      os.write(corruptBytes);
+      os.close();
+
+      for (boolean corrupt : BOOLEAN_VALUES) {
+        FSDataInputStream is = fs.open(path);
+        FSDataInputStream isNoFsChecksum = fs.open(corrupt ? corruptPath
+            : path);
+        HFileBlock.FSReaderV2 hbr = new HFileBlock.FSReaderV2(is,
+            isNoFsChecksum, algo, totalSize,
+            HFileBlock.MINOR_VERSION_WITH_CHECKSUM);
+        long failuresBefore = HFileBlock.getNumChecksumFailures();
+
+        // Iterate from the start, relying on the prefetched headers
+        HFileBlock.BlockIterator it = hbr.blockRange(0, totalSize);
+        for (int blockId = 0; blockId < 3; ++blockId) {
+          HFileBlock b = it.nextBlock();
+          assertEquals((long) offsets.get(blockId), b.getOffset());
+          assertChecksumTestBlock(blockId, b);
+        }
+        assertEquals(null, it.nextBlock());
+
+        // Random reads with the size from the index
+        for (int blockId = 2; blockId >= 0; --blockId) {
+          long end = blockId == 2 ? totalSize : offsets.get(blockId + 1);
+          HFileBlock b = hbr.readBlockData(offsets.get(blockId),
+              end - offsets.get(blockId), -1);
+          assertChecksumTestBlock(blockId, b);
+        }
+        assertEquals(corrupt ? 2 : 0,
+            HFileBlock.getNumChecksumFailures() - failuresBefore);
+        is.close();
+        isNoFsChecksum.close();
+      }
+    }
+  }
+
+  private static void assertChecksumTestBlock(int blockId, HFileBlock b)
+      throws IOException {
+    b.sanityCheck();
+    assertEquals(BlockType.META, b.getBlockType());
+    assertEquals(CHECKSUM_TEST_INTS * Bytes.SIZEOF_INT,
+        b.getUncompressedSizeWithoutHeader());
+    ByteBuffer data = b.getBufferWithoutHeader();
+    for (int i = 0; i < CHECKSUM_TEST_INTS; ++i) {
+      assertEquals(blockId * CHECKSUM_TEST_INTS + i, data.getInt());
+    }
+    assertEquals(0, data.remaining());
+  }
+
   /**
    * Test encoding/decoding data blocks.
    * @throws IOException a bug or a problem with temporary files.
@@ -522,6 +522,141 @@ public class TestLruBlockCache {
     }
   }
 
+  @Test
+  public void testStripedEviction() throws Exception {
+
+    long maxSize = 1000000;
+    long blockSize = calculateBlockSize(maxSize, 100);
+
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false,
+        (int)Math.ceil(1.2*maxSize/blockSize),
+        LruBlockCache.DEFAULT_LOAD_FACTOR,
+        LruBlockCache.DEFAULT_CONCURRENCY_LEVEL,
+        LruBlockCache.DEFAULT_MIN_FACTOR,
+        LruBlockCache.DEFAULT_ACCEPTABLE_FACTOR,
+        LruBlockCache.DEFAULT_SINGLE_FACTOR,
+        LruBlockCache.DEFAULT_MULTI_FACTOR,
+        LruBlockCache.DEFAULT_MEMORY_FACTOR,
+        true);
+
+    CachedItem [] blocks = generateFixedBlocks(1000, blockSize, "block");
+    long acceptableSize =
+      (long)(maxSize * LruBlockCache.DEFAULT_ACCEPTABLE_FACTOR);
+
+    for (int i = 0; i < blocks.length; i++) {
+      cache.cacheBlock(blocks[i].cacheKey, blocks[i]);
+      // Every insert frees room for itself, the cache never overshoots
+      assertTrue(cache.heapSize() <= acceptableSize);
+      if (i % 10 == 0) {
+        // Blocks evicted by other means are skipped by the segments
+        cache.evictBlock(blocks[i].cacheKey);
+      }
+    }
+    assertTrue(cache.getEvictedCount() > 800);
+    // The newest block is cached, the oldest ones are not
+    assertEquals(blocks[blocks.length - 1],
+        cache.getBlock(blocks[blocks.length - 1].cacheKey, true));
+    assertEquals(null, cache.getBlock(blocks[1].cacheKey, true));
+
+    // Shrinking the cache evicts from every segment
+    cache.setMaxSize(maxSize / 2);
+    assertTrue(cache.heapSize() <= acceptableSize / 2);
+    long remaining = 0;
+    for (CachedItem block : blocks) {
+      if (cache.getBlock(block.cacheKey, true) != null) {
+        remaining++;
+      }
+    }
+    assertEquals(remaining, cache.size());
+  }
+
+  @Test
+  public void testStripedEvictionScanResistance() throws Exception {
+
+    long maxSize = 100000;
+    long blockSize = calculateBlockSize(maxSize, 10);
+
+    // A single segment, so that blocks are evicted in insertion order
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false,
+        (int)Math.ceil(1.2*maxSize/blockSize),
+        LruBlockCache.DEFAULT_LOAD_FACTOR,
+        1,
+        0.66f, // min
+        0.90f, // acceptable
+        0.33f, // single
+        0.33f, // multi
+        0.34f, // memory
+        true);
+
+    CachedItem [] singleBlocks = generateFixedBlocks(50, blockSize, "single");
+    CachedItem [] multiBlocks = generateFixedBlocks(2, blockSize, "multi");
+
+    // Add 2 multi blocks, they stay in the single queue until evicted from it
+    for (CachedItem block : multiBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+      cache.getBlock(block.cacheKey, true);
+    }
+
+    // Scan through many more single blocks than fit in the cache
+    for (CachedItem block : singleBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+
+    // The multi blocks moved to their own queue instead of being evicted
+    for (CachedItem block : multiBlocks) {
+      assertEquals(block, cache.getBlock(block.cacheKey, true));
+    }
+    // And the single blocks went out oldest first
+    assertEquals(null, cache.getBlock(singleBlocks[0].cacheKey, true));
+    assertEquals(singleBlocks[49],
+        cache.getBlock(singleBlocks[49].cacheKey, true));
+    assertEquals(0, cache.getStats().getEvictedMultiCount());
+    assertEquals(cache.getEvictedCount(),
+        cache.getStats().getEvictedSingleCount());
+  }
+
+  @Test
+  public void testStripedFileEviction() throws Exception {
+
+    long maxSize = 100000;
+    long blockSize = calculateBlockSize(maxSize, 10);
+    String fileName = "testFile";
+
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false,
+        (int)Math.ceil(1.2*maxSize/blockSize),
+        LruBlockCache.DEFAULT_LOAD_FACTOR,
+        1,
+        0.66f, // min
+        0.90f, // acceptable
+        0.33f, // single
+        0.33f, // multi
+        0.34f, // memory
+        true);
+
+    CachedItem [] fileBlocks = generateFileBlocks(fileName, 3, (int)blockSize);
+    CachedItem [] blocks = generateFixedBlocks(8, blockSize, "block");
+    for (CachedItem block : fileBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    // Closed file blocks are evicted at once
+    assertEquals(fileBlocks.length, cache.evictBlocksByHfileName(fileName));
+    for (CachedItem block : fileBlocks) {
+      assertEquals(null, cache.getBlock(block.cacheKey, true));
+    }
+    assertEquals(fileBlocks.length, cache.getEvictedCount());
+    assertEquals(0, cache.size());
+
+    // So all the other blocks fit without evicting
+    for (CachedItem block : blocks) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    for (CachedItem block : blocks) {
+      assertEquals(block, cache.getBlock(block.cacheKey, true));
+    }
+    assertEquals(fileBlocks.length, cache.getEvictedCount());
+    assertEquals(blocks.length, cache.size());
+  }
+
   private CachedItem [] generateFixedBlocks(int numBlocks, int size, String pfx) {
     CachedItem [] blocks = new CachedItem[numBlocks];
     for(int i=0;i<numBlocks;i++) {
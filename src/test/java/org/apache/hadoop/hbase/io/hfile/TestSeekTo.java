@@ -25,6 +25,7 @@ import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseTestCase;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
@@ -42,12 +43,17 @@ public class TestSeekTo extends HBaseTestCase {
   }
 
   Path makeNewFile() throws IOException {
+    return makeNewFile(DataBlockEncoding.NONE);
+  }
+
+  Path makeNewFile(DataBlockEncoding encoding) throws IOException {
     Path ncTFile = new Path(this.testDir, "basic.hfile");
     FSDataOutputStream fout = this.fs.create(ncTFile);
     int blocksize = toKV("a").getLength() * 3;
     HFile.Writer writer = HFile.getWriterFactoryNoCache(conf)
         .withOutputStream(fout)
         .withBlockSize(blocksize)
+        .withDataBlockEncoder(new HFileDataBlockEncoderImpl(encoding))
         .create();
     // 4 bytes * 3 * 2 for each key/value +
     // 3 for keys, 15 for values = 42 (woot)
@@ -198,6 +204,92 @@ public class TestSeekTo extends HBaseTestCase {
     assertEquals("k", toRowStr(scanner.getKeyValue()));
   }
 
+  /**
+   * Seeks an encoded scanner forward and backward within its current block
+   * and into the block it left, where the seeker is reused from the key it
+   * was left at.
+   */
+  public void testEncodedSeekTo() throws Exception {
+    for (DataBlockEncoding encoding : DataBlockEncoding.values()) {
+      if (encoding == DataBlockEncoding.NONE) {
+        continue;
+      }
+      Path p = makeNewFile(encoding);
+      HFile.Reader reader = HFile.createReaderWithEncoding(fs, p,
+          new CacheConfig(conf), encoding);
+      reader.loadFileInfo();
+      assertEquals(2, reader.getDataBlockIndexReader().getRootBlockCount());
+      HFileScanner scanner = reader.getScanner(false, true);
+      String msg = encoding.toString();
+
+      // Forward within the current block, resuming from the current key
+      assertEquals(msg, 0, scanner.seekTo(toKV("c").getKey()));
+      assertEquals(msg, "c", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 0, scanner.seekTo(toKV("e").getKey()));
+      assertEquals(msg, "e", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 1, scanner.seekTo(toKV("f").getKey()));
+      assertEquals(msg, "e", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, true, scanner.seekBefore(toKV("g").getKey()));
+      assertEquals(msg, "e", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 0, scanner.reseekTo(toKV("g").getKey()));
+      assertEquals(msg, "g", toRowStr(scanner.getKeyValue()));
+
+      // Backward within the current block
+      assertEquals(msg, 0, scanner.seekTo(toKV("c").getKey()));
+      assertEquals(msg, "c", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 1, scanner.seekTo(toKV("d").getKey()));
+      assertEquals(msg, "c", toRowStr(scanner.getKeyValue()));
+
+      // seekBefore the current key has to go back
+      assertEquals(msg, 0, scanner.seekTo(toKV("e").getKey()));
+      assertEquals(msg, true, scanner.seekBefore(toKV("e").getKey()));
+      assertEquals(msg, "c", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 0, scanner.seekTo(toKV("g").getKey()));
+      assertEquals(msg, true, scanner.seekBefore(toKV("g").getKey()));
+      assertEquals(msg, "e", toRowStr(scanner.getKeyValue()));
+
+      // Into the second block, then back into the first one, left at e
+      assertEquals(msg, 0, scanner.seekTo(toKV("i").getKey()));
+      assertEquals(msg, "i", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 0, scanner.seekTo(toKV("g").getKey()));
+      assertEquals(msg, "g", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 0, scanner.seekTo(toKV("k").getKey()));
+      assertEquals(msg, "k", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 0, scanner.seekTo(toKV("c").getKey()));
+      assertEquals(msg, "c", toRowStr(scanner.getKeyValue()));
+
+      // The second block was left at k
+      assertEquals(msg, true, scanner.seekBefore(toKV("k").getKey()));
+      assertEquals(msg, "i", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 1, scanner.seekTo(toKV("h").getKey()));
+      assertEquals(msg, "g", toRowStr(scanner.getKeyValue()));
+      // The first key of the second block is found in the first block
+      assertEquals(msg, true, scanner.seekBefore(toKV("i").getKey()));
+      assertEquals(msg, "g", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 1, scanner.seekTo(toKV("l").getKey()));
+      assertEquals(msg, "k", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, true, scanner.seekTo());
+      assertEquals(msg, "c", toRowStr(scanner.getKeyValue()));
+
+      // After next() has run through the first block
+      assertEquals(msg, 0, scanner.seekTo(toKV("g").getKey()));
+      assertEquals(msg, true, scanner.next());
+      assertEquals(msg, "i", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 0, scanner.seekTo(toKV("e").getKey()));
+      assertEquals(msg, "e", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 0, scanner.seekTo(toKV("k").getKey()));
+      assertEquals(msg, "k", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, false, scanner.next());
+      assertEquals(msg, 0, scanner.seekTo(toKV("i").getKey()));
+      assertEquals(msg, "i", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, true, scanner.seekBefore(toKV("j").getKey()));
+      assertEquals(msg, "i", toRowStr(scanner.getKeyValue()));
+      assertEquals(msg, 0, scanner.seekTo(toKV("c").getKey()));
+      assertEquals(msg, "c", toRowStr(scanner.getKeyValue()));
+      reader.close();
+    }
+  }
+
   public void testBlockContainingKey() throws Exception {
     Path p = makeNewFile();
     HFile.Reader reader = HFile.createReader(fs, p, new CacheConfig(conf));
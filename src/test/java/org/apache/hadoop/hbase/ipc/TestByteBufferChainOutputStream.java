@@ -0,0 +1,199 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+/**
+ * Tests serializing responses into pooled buffers and writing them out.
+ */
+public class TestByteBufferChainOutputStream {
+  private static final int BUFFER_SIZE = 100;
+
+  /** A channel taking at most maxWrite bytes per write */
+  private static class LimitedChannel implements GatheringByteChannel {
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final int maxWrite;
+
+    LimitedChannel(int maxWrite) {
+      this.maxWrite = maxWrite;
+    }
+
+    public int write(ByteBuffer src) {
+      int n = Math.min(maxWrite, src.remaining());
+      for (int i = 0; i < n; i++) {
+        written.write(src.get());
+      }
+      return n;
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+      long n = 0;
+      for (int i = offset; i < offset + length && n < maxWrite; i++) {
+        int toWrite = (int) Math.min(maxWrite - n, srcs[i].remaining());
+        for (int j = 0; j < toWrite; j++) {
+          written.write(srcs[i].get());
+        }
+        n += toWrite;
+      }
+      return n;
+    }
+
+    public long write(ByteBuffer[] srcs) {
+      return write(srcs, 0, srcs.length);
+    }
+
+    public boolean isOpen() {
+      return true;
+    }
+
+    public void close() {
+    }
+  }
+
+  private static Result[] createResults() {
+    Result[] results = new Result[10];
+    for (int i = 0; i < results.length; i++) {
+      KeyValue[] kvs = new KeyValue[i % 3];
+      for (int j = 0; j < kvs.length; j++) {
+        kvs[j] = new KeyValue(Bytes.toBytes("row" + i), Bytes.toBytes("f"),
+            Bytes.toBytes("q" + j), new byte[i * 20]);
+      }
+      results[i] = new Result(kvs);
+    }
+    return results;
+  }
+
+  private static byte[] writeOut(ByteBuffer[] buffers, int maxWrite)
+      throws IOException {
+    LimitedChannel channel = new LimitedChannel(maxWrite);
+    while (true) {
+      long n = HBaseServer.channelWrite(channel, buffers);
+      assertTrue(n >= 0);
+      if (n == 0) {
+        break;
+      }
+    }
+    return channel.written.toByteArray();
+  }
+
+  private void testResultArray(ByteBufferPool pool) throws IOException {
+    Result[] results = createResults();
+    ByteBufferChainOutputStream stream = new ByteBufferChainOutputStream(pool);
+    Result.writeArray(new DataOutputStream(stream), results);
+    ByteBuffer[] buffers = stream.getByteBuffers();
+    assertTrue(buffers.length > 1);
+    long remaining = 0;
+    for (ByteBuffer buffer : buffers) {
+      assertEquals(BUFFER_SIZE, buffer.capacity());
+      remaining += buffer.remaining();
+    }
+    assertEquals(stream.size(), remaining);
+    assertEquals(Result.getWriteArraySize(results), stream.size());
+
+    // Partial writes pick up where the previous one stopped
+    byte[] bytes = writeOut(buffers, 37);
+    assertEquals(stream.size(), bytes.length);
+    Result[] read = Result.readArray(new DataInputStream(
+        new ByteArrayInputStream(bytes)));
+    assertEquals(results.length, read.length);
+    for (int i = 0; i < results.length; i++) {
+      assertEquals(results[i].size(), read[i].size());
+      for (int j = 0; j < results[i].size(); j++) {
+        assertEquals(results[i].raw()[j], read[i].raw()[j]);
+        assertTrue(Bytes.equals(results[i].raw()[j].getValue(),
+            read[i].raw()[j].getValue()));
+      }
+    }
+    pool.putbackBuffers(buffers);
+  }
+
+  @Test
+  public void testDirectBuffers() throws IOException {
+    ByteBufferPool pool = new ByteBufferPool(BUFFER_SIZE, 1000,
+        Long.MAX_VALUE);
+    testResultArray(pool);
+    long created = pool.getCreatedBufferCount();
+    assertEquals(created, pool.getPoolSize());
+    // The second response reuses the buffers of the first one
+    testResultArray(pool);
+    assertEquals(created, pool.getCreatedBufferCount());
+    assertEquals(created, pool.getReusedBufferCount());
+  }
+
+  @Test
+  public void testHeapBuffers() throws IOException {
+    ByteBufferPool pool = new ByteBufferPool(BUFFER_SIZE, 0, Long.MAX_VALUE);
+    testResultArray(pool);
+    assertEquals(0, pool.getPoolSize());
+    assertEquals(0, pool.getCreatedBufferCount());
+  }
+
+  @Test
+  public void testDirectBytesCap() throws IOException {
+    ByteBufferPool pool = new ByteBufferPool(BUFFER_SIZE, 2, 3 * BUFFER_SIZE);
+    ByteBuffer[] buffers = new ByteBuffer[4];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = pool.getBuffer();
+    }
+    // Past the cap, the pool falls back to heap buffers
+    assertTrue(buffers[2].isDirect());
+    assertFalse(buffers[3].isDirect());
+    assertEquals(3, pool.getCreatedBufferCount());
+    assertEquals(1, pool.getHeapBufferCount());
+    assertEquals(3 * BUFFER_SIZE, pool.getDirectBytes());
+
+    // The direct buffer the pool cannot keep no longer counts
+    pool.putbackBuffers(buffers);
+    assertEquals(2, pool.getPoolSize());
+    assertEquals(2 * BUFFER_SIZE, pool.getDirectBytes());
+    pool.getBuffer();
+    pool.getBuffer();
+    assertTrue(pool.getBuffer().isDirect());
+    assertFalse(pool.getBuffer().isDirect());
+    assertEquals(4, pool.getCreatedBufferCount());
+    assertEquals(2, pool.getHeapBufferCount());
+
+    // The response serialized past the cap reads back the same
+    testResultArray(new ByteBufferPool(BUFFER_SIZE, 1000, 2 * BUFFER_SIZE));
+  }
+
+  @Test
+  public void testEmptyResponse() throws IOException {
+    ByteBufferChainOutputStream stream =
+      new ByteBufferChainOutputStream(new ByteBufferPool(BUFFER_SIZE, 10,
+          Long.MAX_VALUE));
+    assertEquals(0, stream.getByteBuffers().length);
+    assertEquals(0, writeOut(new ByteBuffer[0], 10).length);
+  }
+}
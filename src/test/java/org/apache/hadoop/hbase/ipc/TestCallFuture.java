@@ -0,0 +1,152 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class TestCallFuture {
+
+  /** Records what it is notified of */
+  private static class RecordingCallback implements CallFuture.Callback<String> {
+    final List<Object> notified = new ArrayList<Object>();
+
+    public void onSuccess(String value) {
+      notified.add(value);
+    }
+
+    public void onFailure(Throwable error) {
+      notified.add(error);
+    }
+  }
+
+  @Test
+  public void testValue() throws Exception {
+    CallFuture<String> future = new CallFuture<String>();
+    RecordingCallback before = new RecordingCallback();
+    future.addCallback(before);
+    assertFalse(future.isDone());
+    assertTrue(before.notified.isEmpty());
+
+    assertTrue(future.set("value"));
+    assertTrue(future.isDone());
+    assertFalse(future.isCancelled());
+    assertEquals("value", future.get());
+    assertEquals(1, before.notified.size());
+    assertEquals("value", before.notified.get(0));
+
+    // The first completion wins
+    assertFalse(future.set("other"));
+    assertFalse(future.setException(new IOException()));
+    assertEquals("value", future.get(1, TimeUnit.MILLISECONDS));
+    assertEquals(1, before.notified.size());
+
+    // Callbacks added later run right away
+    RecordingCallback after = new RecordingCallback();
+    future.addCallback(after);
+    assertEquals(1, after.notified.size());
+    assertEquals("value", after.notified.get(0));
+  }
+
+  @Test
+  public void testException() throws Exception {
+    IOException error = new IOException("failed");
+    CallFuture<String> future = CallFuture.failed(error);
+    RecordingCallback callback = new RecordingCallback();
+    future.addCallback(callback);
+    assertSame(error, callback.notified.get(0));
+    try {
+      future.get();
+      fail("Expected an ExecutionException");
+    } catch (ExecutionException e) {
+      assertSame(error, e.getCause());
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    CallFuture<String> future = new CallFuture<String>();
+    RecordingCallback callback = new RecordingCallback();
+    future.addCallback(callback);
+    assertTrue(future.cancel(true));
+    assertTrue(future.isCancelled());
+    assertTrue(callback.notified.get(0) instanceof CancellationException);
+    assertFalse(future.set("late"));
+    try {
+      future.get();
+      fail("Expected a CancellationException");
+    } catch (CancellationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testGetWaits() throws Exception {
+    final CallFuture<String> future = new CallFuture<String>();
+    try {
+      future.get(10, TimeUnit.MILLISECONDS);
+      fail("Expected a TimeoutException");
+    } catch (TimeoutException e) {
+      // expected
+    }
+    Thread setter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          // set it anyway
+        }
+        future.set("value");
+      }
+    };
+    setter.start();
+    assertEquals("value", future.get());
+    setter.join();
+  }
+
+  @Test
+  public void testThrowingCallback() throws Exception {
+    CallFuture<String> future = new CallFuture<String>();
+    future.addCallback(new CallFuture.Callback<String>() {
+      public void onSuccess(String value) {
+        throw new RuntimeException("callback failed");
+      }
+
+      public void onFailure(Throwable error) {
+      }
+    });
+    RecordingCallback next = new RecordingCallback();
+    future.addCallback(next);
+    future.set("value");
+    // The other callbacks and the value are not affected
+    assertEquals("value", next.notified.get(0));
+    assertEquals("value", future.get());
+  }
+}
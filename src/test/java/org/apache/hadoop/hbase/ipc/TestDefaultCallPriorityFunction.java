@@ -0,0 +1,91 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+/**
+ * Checks how the calls of the region server and master interfaces are
+ * classified.
+ */
+public class TestDefaultCallPriorityFunction {
+  private static final byte[] ROW = Bytes.toBytes("row");
+  private static final byte[] USER_REGION =
+    Bytes.toBytes("table,startkey,1234");
+
+  private final CallPriorityFunction function =
+    new DefaultCallPriorityFunction();
+
+  @Test
+  public void testAdministrativeCalls() {
+    assertEquals(CallPriority.HIGH,
+        function.getPriority("regionServerReport", new Object[3]));
+    assertEquals(CallPriority.HIGH,
+        function.getPriority("closeRegion", new Object[2]));
+    assertEquals(CallPriority.HIGH,
+        function.getPriority("getProtocolVersion", new Object[2]));
+  }
+
+  @Test
+  public void testCatalogCalls() {
+    byte[] meta = HRegionInfo.FIRST_META_REGIONINFO.getRegionName();
+    byte[] root = HRegionInfo.ROOT_REGIONINFO.getRegionName();
+    assertEquals(CallPriority.HIGH, function.getPriority(
+        "getClosestRowBefore", new Object[] {meta, ROW, ROW}));
+    assertEquals(CallPriority.HIGH, function.getPriority(
+        "getClosestRowBefore", new Object[] {root, ROW, ROW}));
+    assertEquals(CallPriority.HIGH, function.getPriority(
+        "openScanner", new Object[] {meta, null}));
+    // A user table whose name only starts like a catalog table
+    assertEquals(CallPriority.NORMAL, function.getPriority("get",
+        new Object[] {Bytes.toBytes(".META.x,,1"), new Get(ROW)}));
+  }
+
+  @Test
+  public void testUserCalls() {
+    assertEquals(CallPriority.NORMAL, function.getPriority("get",
+        new Object[] {USER_REGION, new Get(ROW)}));
+    assertEquals(CallPriority.NORMAL, function.getPriority("put",
+        new Object[] {USER_REGION, new Put(ROW)}));
+    assertEquals(CallPriority.BULK, function.getPriority("openScanner",
+        new Object[] {USER_REGION, null}));
+    assertEquals(CallPriority.BULK,
+        function.getPriority("next", new Object[] {1L, 100}));
+    assertEquals(CallPriority.BULK,
+        function.getPriority("multiPut", new Object[1]));
+
+    List<Put> puts = new ArrayList<Put>();
+    puts.add(new Put(ROW));
+    assertEquals(CallPriority.NORMAL, function.getPriority("put",
+        new Object[] {USER_REGION, puts}));
+    puts.add(new Put(Bytes.toBytes("row2")));
+    assertEquals(CallPriority.BULK, function.getPriority("put",
+        new Object[] {USER_REGION, puts}));
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.mapreduce;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
+import org.apache.hadoop.hbase.regionserver.StoreFile.BloomType;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestBulkImportWriter {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniCluster(2);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @Test
+  public void testImportWithSpills() throws Exception {
+    byte[] tableName = Bytes.toBytes("testImportWithSpills");
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(FAMILY)
+        .setBloomFilterType(BloomType.ROW)
+        .setDataBlockEncoding(DataBlockEncoding.PREFIX));
+    TEST_UTIL.getHBaseAdmin().createTable(htd, new byte[][] {
+        Bytes.toBytes("row0100"), Bytes.toBytes("row0500") });
+    TEST_UTIL.waitTableAvailable(tableName, 30000);
+
+    List<Integer> rows = new ArrayList<Integer>();
+    for (int i = 0; i < 1000; i++) {
+      rows.add(i);
+    }
+    Collections.shuffle(rows, new Random(1234));
+
+    // Small enough to spill a few times
+    TEST_UTIL.getConfiguration().setLong(BulkImportWriter.BUFFER_SIZE_KEY,
+        32 * 1024);
+    HTable table = new HTable(TEST_UTIL.getConfiguration(), tableName);
+    FileSystem fs = TEST_UTIL.getTestFileSystem();
+    Path stagingDir = TEST_UTIL.getTestDir("testImportWithSpills")
+        .makeQualified(fs);
+    BulkImportWriter writer = new BulkImportWriter(table, stagingDir);
+    for (int i : rows) {
+      Put put = new Put(Bytes.toBytes(String.format("row%04d", i)));
+      put.add(FAMILY, QUALIFIER, Bytes.toBytes(i));
+      writer.write(put);
+    }
+    writer.close();
+
+    assertEquals(1000, TEST_UTIL.countRows(table));
+    for (int i : new int[] { 0, 99, 100, 500, 999 }) {
+      Result result = table.get(new Get(Bytes.toBytes(
+          String.format("row%04d", i))));
+      assertArrayEquals(Bytes.toBytes(i), result.getValue(FAMILY, QUALIFIER));
+    }
+    assertFalse(fs.exists(stagingDir));
+
+    // The spilled runs were merged into one HFile per region
+    List<HRegion> regions = TEST_UTIL.getHBaseCluster().getRegions(tableName);
+    assertEquals(3, regions.size());
+    for (HRegion region : regions) {
+      assertEquals(region.toString(), 1,
+          region.getStoreFileList(new byte[][] { FAMILY }).size());
+    }
+  }
+
+  @Test
+  public void testLocalStagingDir() throws Exception {
+    byte[] tableName = Bytes.toBytes("testLocalStagingDir");
+    HTable table = TEST_UTIL.createTable(tableName, FAMILY);
+    // The region servers copy the HFiles from another file system and leave
+    // the sources in place
+    FileSystem localFs = FileSystem.getLocal(TEST_UTIL.getConfiguration());
+    Path stagingDir = localFs.makeQualified(
+        TEST_UTIL.getTestDir("testLocalStagingDir"));
+    BulkImportWriter writer = new BulkImportWriter(table, stagingDir);
+    for (int i = 0; i < 100; i++) {
+      Put put = new Put(Bytes.toBytes(String.format("row%04d", i)));
+      put.add(FAMILY, QUALIFIER, Bytes.toBytes(i));
+      writer.write(put);
+    }
+    writer.close();
+
+    assertEquals(100, TEST_UTIL.countRows(table));
+    assertFalse(localFs.exists(stagingDir));
+  }
+
+  @Test
+  public void testUnknownFamily() throws Exception {
+    byte[] tableName = Bytes.toBytes("testUnknownFamily");
+    HTable table = TEST_UTIL.createTable(tableName, FAMILY);
+    BulkImportWriter writer = new BulkImportWriter(table,
+        TEST_UTIL.getTestDir("testUnknownFamily"));
+    try {
+      writer.write(new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("bad"),
+          QUALIFIER, Bytes.toBytes("value")));
+      fail("Wrote to an unknown family");
+    } catch (NoSuchColumnFamilyException e) {
+      // expected
+    }
+    writer.close();
+  }
+
+  @Test
+  public void testGetRegionIndex() {
+    byte[][] startKeys = new byte[][] { HConstants.EMPTY_START_ROW,
+        Bytes.toBytes("b"), Bytes.toBytes("d") };
+    String[] rows = { "a", "b", "c", "d", "z" };
+    int[] regions = { 0, 1, 1, 2, 2 };
+    for (int i = 0; i < rows.length; i++) {
+      KeyValue kv = new KeyValue(Bytes.toBytes(rows[i]), FAMILY, QUALIFIER);
+      assertEquals(rows[i], regions[i],
+          BulkImportWriter.getRegionIndex(startKeys, kv));
+    }
+  }
+}
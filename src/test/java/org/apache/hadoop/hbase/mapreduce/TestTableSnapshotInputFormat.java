@@ -0,0 +1,189 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.mapreduce;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestTableSnapshotInputFormat {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] TABLE = Bytes.toBytes("testSnapshotInput");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int NUM_REGIONS = 5;
+
+  private static HTable table;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniCluster(2);
+    table = TEST_UTIL.createTable(TABLE, new byte[][] { FAMILY }, 3,
+        Bytes.toBytes("bbb"), Bytes.toBytes("yyy"), NUM_REGIONS);
+    TEST_UTIL.waitUntilAllRegionsAssigned(NUM_REGIONS);
+    TEST_UTIL.loadTable(table, FAMILY);
+
+    // Deletes and newer versions, partly in the memstore
+    TEST_UTIL.flush();
+    table.delete(new Delete(Bytes.toBytes("ccc")));
+    Put put = new Put(Bytes.toBytes("ddd"));
+    put.add(FAMILY, null, Bytes.toBytes("newer"));
+    table.put(put);
+    table.delete(new Delete(Bytes.toBytes("mmm")));
+    table.flushCommits();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  private static List<Result> scanTable(Scan scan) throws Exception {
+    List<Result> results = new ArrayList<Result>();
+    ResultScanner scanner = table.getScanner(scan);
+    for (Result result : scanner) {
+      results.add(result);
+    }
+    scanner.close();
+    return results;
+  }
+
+  private static List<InputSplit> getSplits(Scan scan) throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.set(TableInputFormat.INPUT_TABLE, Bytes.toString(TABLE));
+    conf.set(TableInputFormat.SCAN,
+        TableMapReduceUtil.convertScanToString(scan));
+    TableSnapshotInputFormat format = new TableSnapshotInputFormat();
+    format.setConf(conf);
+    return format.getSplits(new JobContext(conf, null));
+  }
+
+  private static List<Result> readSplits(List<InputSplit> splits, Scan scan)
+  throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.set(TableInputFormat.SCAN,
+        TableMapReduceUtil.convertScanToString(scan));
+    TaskAttemptContext context = new TaskAttemptContext(conf,
+        new TaskAttemptID());
+    TableSnapshotInputFormat format = new TableSnapshotInputFormat();
+    List<Result> results = new ArrayList<Result>();
+    for (InputSplit split : splits) {
+      RecordReader<?, Result> reader =
+        format.createRecordReader(split, context);
+      reader.initialize(split, context);
+      while (reader.nextKeyValue()) {
+        results.add(reader.getCurrentValue());
+      }
+      reader.close();
+    }
+    return results;
+  }
+
+  private static void assertSameResults(List<Result> expected,
+      List<Result> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      KeyValue[] expectedKvs = expected.get(i).raw();
+      KeyValue[] actualKvs = actual.get(i).raw();
+      assertEquals(expectedKvs.length, actualKvs.length);
+      for (int j = 0; j < expectedKvs.length; j++) {
+        assertTrue(expectedKvs[j].equals(actualKvs[j]));
+        assertArrayEquals(expectedKvs[j].getValue(), actualKvs[j].getValue());
+      }
+    }
+  }
+
+  @Test
+  public void testReadStoreFiles() throws Exception {
+    Scan[] scans = { new Scan(),
+        new Scan(Bytes.toBytes("ccc"), Bytes.toBytes("qrs")),
+        new Scan().addColumn(FAMILY, HConstants.EMPTY_BYTE_ARRAY)
+            .setMaxVersions() };
+    for (Scan scan : scans) {
+      List<InputSplit> splits = getSplits(scan);
+      assertTrue(splits.size() <= NUM_REGIONS);
+      assertSameResults(scanTable(scan), readSplits(splits, scan));
+    }
+  }
+
+  @Test
+  public void testStoreFilesCompactedAway() throws Exception {
+    Scan scan = new Scan();
+    List<InputSplit> splits = getSplits(scan);
+    List<Result> expected = scanTable(scan);
+
+    // Replace the listed store files before they are read
+    Put put = new Put(Bytes.toBytes("ddd"));
+    put.add(FAMILY, QUALIFIER, Bytes.toBytes("value"));
+    table.put(put);
+    table.flushCommits();
+    TEST_UTIL.flush();
+    for (HRegion region : TEST_UTIL.getHBaseCluster().getRegions(TABLE)) {
+      region.compactStores(true);
+    }
+    assertEquals(expected.size(), readSplits(splits, scan).size());
+  }
+
+  @Test
+  public void testSplitSerialization() throws Exception {
+    for (InputSplit split : getSplits(new Scan())) {
+      TableSnapshotInputFormat.StoreFileSplit original =
+        (TableSnapshotInputFormat.StoreFileSplit) split;
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      original.write(new DataOutputStream(bytes));
+      TableSnapshotInputFormat.StoreFileSplit copy =
+        new TableSnapshotInputFormat.StoreFileSplit();
+      copy.readFields(new DataInputStream(
+          new ByteArrayInputStream(bytes.toByteArray())));
+      assertEquals(original.getRegionInfo(), copy.getRegionInfo());
+      assertEquals(original.getStoreFiles(), copy.getStoreFiles());
+      assertEquals(original.getLength(), copy.getLength());
+      assertArrayEquals(original.getLocations(), copy.getLocations());
+    }
+  }
+}
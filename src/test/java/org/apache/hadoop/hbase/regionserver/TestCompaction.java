@@ -24,6 +24,8 @@ import static org.mockito.Mockito.spy;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -549,6 +551,121 @@ public class TestCompaction extends HBaseTestCase {
     }
   }
 
+  /**
+   * A major compaction split into sub-ranges writes one file per sub-range,
+   * with disjoint row ranges and all the data of the compacted files.
+   */
+  public void testParallelSubRangeCompaction() throws Exception {
+    // Reopen the region with sub-range compactions enabled
+    HLog hlog = r.getLog();
+    r.close();
+    hlog.closeAndDelete();
+    conf.setInt(Store.PARALLEL_COMPACTION_SUBRANGES_KEY, 3);
+    conf.setLong(Store.PARALLEL_COMPACTION_MIN_SIZE_KEY, 0);
+    r = createNewHRegion(htd, null, null);
+
+    for (int i = 0; i < compactionThreshold; i++) {
+      createStoreFile(r);
+    }
+    Store store = r.getStore(COLUMN_FAMILY);
+    byte[][] splitRows = store.getCompactionSplitRows(store.getStorefiles(),
+        store.getStorefilesSize());
+    assertEquals(2, splitRows.length);
+    assertTrue(Bytes.compareTo(splitRows[0], splitRows[1]) < 0);
+    int countBefore = count();
+
+    r.compactStores(true);
+    assertEquals(3, store.getStorefilesCount());
+    assertEquals(countBefore, count());
+
+    List<StoreFile> files = new ArrayList<StoreFile>(store.getStorefiles());
+    Collections.sort(files, new Comparator<StoreFile>() {
+      public int compare(StoreFile a, StoreFile b) {
+        return Bytes.compareTo(a.getReader().getFirstKey(),
+            b.getReader().getFirstKey());
+      }
+    });
+    for (int i = 0; i < files.size(); i++) {
+      byte[] firstRow = KeyValue.createKeyValueFromKey(
+          files.get(i).getReader().getFirstKey()).getRow();
+      byte[] lastRow = KeyValue.createKeyValueFromKey(
+          files.get(i).getReader().getLastKey()).getRow();
+      if (i > 0) {
+        assertTrue(Bytes.compareTo(splitRows[i - 1], firstRow) <= 0);
+      }
+      if (i < splitRows.length) {
+        assertTrue(Bytes.compareTo(lastRow, splitRows[i]) < 0);
+      }
+      assertTrue(files.get(i).isSubRangeCompactionResult());
+    }
+    // Minor compactions weigh the sub-range files as one
+    assertEquals(1, CompactionManager.getSelectionUnits(
+        store.getStorefiles()).size());
+  }
+
+  public void testStripeCompaction() throws Exception {
+    for (int i = 0; i < compactionThreshold; i++) {
+      createStoreFile(r);
+    }
+    Store store = r.getStore(COLUMN_FAMILY);
+    // Big enough for the whole store to make three stripes
+    conf.setLong(StripeCompactionManager.SPLIT_SIZE_KEY,
+        store.getStorefilesSize() * 2 / 3 + 1);
+    StripeCompactionManager manager = new StripeCompactionManager(conf, store);
+    store.compactionManager = manager;
+    int countBefore = count();
+
+    r.compactStores(true);
+    StripeCompactionManager.Stripes stripes = manager.getStripes();
+    assertEquals(3, stripes.getStripeCount());
+    assertEquals(0, stripes.level0.size());
+    assertEquals(3, store.getStorefilesCount());
+    assertEquals(countBefore, count());
+    assertStripeFiles(stripes, 1);
+
+    // Flushes go straight into the stripes
+    for (int i = 1; i < compactionThreshold; i++) {
+      createStoreFile(r);
+    }
+    stripes = manager.getStripes();
+    assertEquals(3, stripes.getStripeCount());
+    assertEquals(0, stripes.level0.size());
+    assertEquals(3 * compactionThreshold, store.getStorefilesCount());
+    assertStripeFiles(stripes, compactionThreshold);
+
+    // A minor compaction stays within one stripe
+    r.compactStores(false);
+    stripes = manager.getStripes();
+    assertEquals(3, stripes.getStripeCount());
+    assertEquals(2 * compactionThreshold + 1, store.getStorefilesCount());
+    int compacted = 0;
+    for (List<StoreFile> files : stripes.stripeFiles) {
+      if (files.size() == 1) {
+        compacted++;
+      }
+    }
+    assertEquals(1, compacted);
+  }
+
+  private void assertStripeFiles(StripeCompactionManager.Stripes stripes,
+      int filesPerStripe) throws IOException {
+    for (int i = 0; i < stripes.getStripeCount(); i++) {
+      List<StoreFile> files = stripes.stripeFiles.get(i);
+      assertEquals(filesPerStripe, files.size());
+      byte[] startRow = stripes.getStartRow(i);
+      byte[] endRow = stripes.getEndRow(i);
+      for (StoreFile file : files) {
+        byte[] firstRow = KeyValue.createKeyValueFromKey(
+            file.getReader().getFirstKey()).getRow();
+        byte[] lastRow = KeyValue.createKeyValueFromKey(
+            file.getReader().getLastKey()).getRow();
+        assertTrue(Bytes.compareTo(startRow, firstRow) <= 0);
+        assertTrue(endRow.length == 0 ||
+            Bytes.compareTo(lastRow, endRow) < 0);
+      }
+    }
+  }
+
   private int count() throws IOException {
     int count = 0;
     for (StoreFile f: this.r.stores.
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.junit.Test;
+
+/**
+ * Tests how the compaction throughput limit follows the pressure to compact
+ * and holds compactions back.
+ */
+public class TestCompactionThroughputController {
+  private static final long MB = 1024 * 1024;
+
+  private static Configuration createConf(long lower, long higher) {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong(CompactionThroughputController.LOWER_BOUND_KEY, lower);
+    conf.setLong(CompactionThroughputController.HIGHER_BOUND_KEY, higher);
+    conf.setLong(CompactionThroughputController.CONTROL_SIZE_KEY, 64 * 1024);
+    return conf;
+  }
+
+  @Test
+  public void testDisabledByDefault() throws Exception {
+    CompactionThroughputController controller =
+      new CompactionThroughputController(HBaseConfiguration.create());
+    controller.tune(0.0);
+    assertEquals(CompactionThroughputController.NO_LIMIT,
+        controller.getMaxThroughput());
+    CompactionThroughputController.Operation op = controller.start();
+    for (int i = 0; i < 1024; i++) {
+      controller.control(op, 64 * 1024);
+    }
+    controller.finish(op);
+    assertEquals(0, controller.getThrottledMillis());
+  }
+
+  @Test
+  public void testTune() {
+    CompactionThroughputController controller =
+      new CompactionThroughputController(createConf(10 * MB, 30 * MB));
+    assertEquals(10 * MB, controller.getMaxThroughput());
+    controller.tune(0.5);
+    assertEquals(20 * MB, controller.getMaxThroughput());
+    controller.tune(-1.0);
+    assertEquals(10 * MB, controller.getMaxThroughput());
+    // Writers are blocked, let compactions run at full speed
+    controller.tune(1.0);
+    assertEquals(CompactionThroughputController.NO_LIMIT,
+        controller.getMaxThroughput());
+    controller.tune(0.0);
+    assertEquals(10 * MB, controller.getMaxThroughput());
+
+    // A higher bound below the lower one keeps the limit fixed
+    controller = new CompactionThroughputController(createConf(10 * MB, MB));
+    controller.tune(0.9);
+    assertEquals(10 * MB, controller.getMaxThroughput());
+  }
+
+  @Test
+  public void testThrottling() throws Exception {
+    CompactionThroughputController controller =
+      new CompactionThroughputController(createConf(MB, MB));
+    CompactionThroughputController.Operation op = controller.start();
+    assertEquals(1, controller.getActiveCompactions());
+    long start = System.currentTimeMillis();
+    // Half a second worth of data at 1MB/s
+    for (int i = 0; i < 128; i++) {
+      controller.control(op, 4 * 1024);
+    }
+    long elapsed = System.currentTimeMillis() - start;
+    controller.finish(op);
+    controller.finish(op);
+    assertEquals(0, controller.getActiveCompactions());
+    assertTrue("elapsed=" + elapsed, elapsed >= 400);
+    assertTrue(op.getThrottledMillis() > 0);
+    assertEquals(op.getThrottledMillis(), controller.getThrottledMillis());
+  }
+}
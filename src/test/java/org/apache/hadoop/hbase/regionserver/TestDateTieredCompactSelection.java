@@ -0,0 +1,154 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManagerTestHelper;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Checks the time windows of the {@link DateTieredCompactionManager} and
+ * the files it picks from them.
+ */
+public class TestDateTieredCompactSelection {
+  private static final long NOW = 1000;
+
+  private Configuration conf;
+  private Store store;
+  private long sequenceId = 0;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+    conf.setLong(HConstants.MAJOR_COMPACTION_PERIOD, 0);
+    conf.setInt("hbase.hstore.compaction.min", 3);
+    conf.setInt("hbase.hstore.compaction.max", 10);
+    conf.setLong("hbase.hstore.compaction.min.size", 20);
+    conf.setLong(DateTieredCompactionManager.BASE_WINDOW_MILLIS_KEY, 100);
+    conf.setInt(DateTieredCompactionManager.WINDOWS_PER_TIER_KEY, 2);
+
+    HRegion region = Mockito.mock(HRegion.class);
+    store = Mockito.mock(Store.class);
+    store.ttl = Long.MAX_VALUE;
+    Mockito.when(store.getHRegion()).thenReturn(region);
+
+    ManualEnvironmentEdge edge = new ManualEnvironmentEdge();
+    edge.setValue(NOW);
+    EnvironmentEdgeManagerTestHelper.injectEdge(edge);
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManagerTestHelper.reset();
+  }
+
+  private StoreFile sf(long size, long maxTimestamp) {
+    StoreFile.Reader reader = Mockito.mock(StoreFile.Reader.class);
+    Mockito.when(reader.length()).thenReturn(size);
+    Mockito.when(reader.getMaxTimestamp()).thenReturn(maxTimestamp);
+    StoreFile file = Mockito.mock(StoreFile.class);
+    Mockito.when(file.getReader()).thenReturn(reader);
+    Mockito.when(file.getMaxSequenceId()).thenReturn(sequenceId++);
+    return file;
+  }
+
+  private List<StoreFile> select(StoreFile... files) throws IOException {
+    DateTieredCompactionManager manager =
+      new DateTieredCompactionManager(conf, store);
+    return manager.selectCompaction(
+        new ArrayList<StoreFile>(Arrays.asList(files)), false)
+        .getFilesToCompact();
+  }
+
+  @Test
+  public void testWindowStarts() {
+    DateTieredCompactionManager manager =
+      new DateTieredCompactionManager(conf, store);
+    // Two windows of 100, then of 200 from the next multiple of 200, ...
+    assertArrayEquals(new long[] { 1000, 900, 800, 600, 400, 0 },
+        manager.getWindowStarts(NOW, 0));
+    assertArrayEquals(new long[] { 1000, 900 },
+        manager.getWindowStarts(NOW, 950));
+    long[] starts = manager.getWindowStarts(NOW, 0);
+    assertEquals(0, DateTieredCompactionManager.getWindow(starts, 2000));
+    assertEquals(1, DateTieredCompactionManager.getWindow(starts, 900));
+    assertEquals(3, DateTieredCompactionManager.getWindow(starts, 799));
+    assertEquals(5, DateTieredCompactionManager.getWindow(starts, -1));
+  }
+
+  @Test
+  public void testNewestWindowUsesRatio() throws IOException {
+    StoreFile old = sf(500, 150);
+    StoreFile recent = sf(50, 950);
+    StoreFile big = sf(1000, 1010);
+    StoreFile a = sf(10, 1020);
+    StoreFile b = sf(10, 1030);
+    StoreFile c = sf(10, 1040);
+    // The big file is outside the ratio of the newer ones
+    assertEquals(Arrays.asList(a, b, c), select(old, recent, big, a, b, c));
+    // Not enough small files in the newest window
+    assertEquals(0, select(old, recent, big, a, b).size());
+  }
+
+  @Test
+  public void testOlderWindowIsCompactedWhole() throws IOException {
+    StoreFile a = sf(300, 650);
+    StoreFile b = sf(10, 700);
+    StoreFile c = sf(50, 950);
+    StoreFile d = sf(10, 1010);
+    assertEquals(Arrays.asList(a, b), select(a, b, c, d));
+    // Files of one window separated by another are not compacted together
+    assertEquals(0, select(a, c, b, d).size());
+  }
+
+  @Test
+  public void testNewestWindowFirst() throws IOException {
+    StoreFile a = sf(300, 650);
+    StoreFile b = sf(10, 700);
+    StoreFile c = sf(10, 1010);
+    StoreFile d = sf(10, 1020);
+    StoreFile e = sf(10, 1030);
+    assertEquals(Arrays.asList(c, d, e), select(a, b, c, d, e));
+  }
+
+  @Test
+  public void testFrozenFiles() throws IOException {
+    conf.setLong(DateTieredCompactionManager.MAX_AGE_MILLIS_KEY, 500);
+    StoreFile a = sf(300, 150);
+    StoreFile b = sf(10, 300);
+    StoreFile c = sf(10, 650);
+    StoreFile d = sf(10, 700);
+    assertEquals(0, select(a, b).size());
+    assertEquals(Arrays.asList(c, d), select(a, b, c, d));
+  }
+}
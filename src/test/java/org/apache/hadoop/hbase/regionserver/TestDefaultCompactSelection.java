@@ -102,6 +102,7 @@ public class TestDefaultCompactSelection extends TestCase {
     boolean isRef = false;
     long ageInDisk;
     long sequenceid;
+    boolean subRange = false;
 
     MockStoreFile(long length, long ageInDisk, boolean isRef, long sequenceid) throws IOException {
       super(TEST_UTIL.getTestFileSystem(), TEST_FILE, TEST_UTIL.getConfiguration(),
@@ -145,6 +146,11 @@ public class TestDefaultCompactSelection extends TestCase {
       return this.isRef;
     }
 
+    @Override
+    boolean isSubRangeCompactionResult() {
+      return this.subRange;
+    }
+
     @Override
     public StoreFile.Reader getReader() {
       final long len = this.length;
@@ -195,6 +201,24 @@ public class TestDefaultCompactSelection extends TestCase {
     return ret;
   }
 
+  /**
+   * @return numSubRanges files of the given size written by one compaction
+   * split into sub-ranges, followed by newer files of the given sizes
+   */
+  List<StoreFile> sfCreateAfterSubRanges(int numSubRanges, long subRangeSize,
+      long... sizes) throws IOException {
+    List<StoreFile> ret = Lists.newArrayList();
+    for (int i = 0; i < numSubRanges; i++) {
+      MockStoreFile file = new MockStoreFile(subRangeSize, 0, false, 0);
+      file.subRange = true;
+      ret.add(file);
+    }
+    for (int i = 0; i < sizes.length; i++) {
+      ret.add(new MockStoreFile(sizes[i], 0, false, i + 1));
+    }
+    return ret;
+  }
+
   long[] getSizes(List<StoreFile> sfList) {
     long[] aNums = new long[sfList.size()];
     for (int i = 0; i < sfList.size(); ++i) {
@@ -290,6 +314,16 @@ public class TestDefaultCompactSelection extends TestCase {
     compactEquals(sfCreate(tooBig, tooBig) /* empty */);
   }
 
+  public void testSubRangeCompactionRatio() throws IOException {
+    // The sub-range files weigh 120 together, too much for the newer ones
+    compactEquals(sfCreateAfterSubRanges(4, 30, 12, 12, 12), 12, 12, 12);
+    // Alone, they are never compacted again
+    compactEquals(sfCreateAfterSubRanges(4, 30) /* empty */);
+    compactEquals(sfCreateAfterSubRanges(4, 30, 12) /* empty */);
+    // But they are along with newer files of about their total size
+    compactEquals(sfCreateAfterSubRanges(2, 30, 50, 12), 30, 30, 50, 12);
+  }
+
   public void testOffPeakCompactionRatio() throws IOException {
     /*
      * NOTE: these tests are specific to describe the implementation of the 
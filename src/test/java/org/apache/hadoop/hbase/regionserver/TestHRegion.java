@@ -26,6 +26,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -63,6 +64,7 @@ import org.apache.hadoop.hbase.regionserver.StoreFile.BloomType;
 import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.DaemonThreadFactory;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManagerTestHelper;
 import org.apache.hadoop.hbase.util.HasThread;
@@ -2978,6 +2980,115 @@ public class TestHRegion extends HBaseTestCase {
     assertTrue(keyValues.length == 0);
   }
 
+  public void testBatchGet() throws IOException {
+    byte [] tableName = Bytes.toBytes("testBatchGet");
+    byte [] fam1 = Bytes.toBytes("fam1");
+    byte [] fam2 = Bytes.toBytes("fam2");
+    byte [] qual = Bytes.toBytes("qual");
+    HColumnDescriptor hcd1 = new HColumnDescriptor(fam1)
+        .setBloomFilterType(BloomType.ROW);
+    HColumnDescriptor hcd2 = new HColumnDescriptor(fam2)
+        .setBloomFilterType(BloomType.ROWCOL);
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(hcd1);
+    htd.addFamily(hcd2);
+    HRegionInfo info = new HRegionInfo(htd, null, null, false);
+    Path path = new Path(DIR + "testBatchGet");
+    region = HRegion.createHRegion(info, path, conf);
+
+    // Even rows in three store files and the memstore, versions of row 10
+    // in all of them
+    for (int file = 0; file < 4; file++) {
+      for (int i = file * 20; i < 100; i += 8) {
+        Put put = new Put(Bytes.toBytes(String.format("row%03d", i)));
+        put.add(fam1, qual, file, Bytes.toBytes("v" + file));
+        put.add(fam2, qual, file, Bytes.toBytes("v" + file));
+        region.put(put);
+      }
+      Put put = new Put(Bytes.toBytes("row010"));
+      put.add(fam1, qual, file, Bytes.toBytes("v" + file));
+      region.put(put);
+      if (file < 3) {
+        region.flushcache();
+      }
+    }
+    region.delete(new Delete(Bytes.toBytes("row016")), null, true);
+
+    // Unsorted rows, missing rows, repeated rows and different families
+    List<Get> gets = new ArrayList<Get>();
+    for (int i = 99; i >= 0; i -= 3) {
+      Get get = new Get(Bytes.toBytes(String.format("row%03d", i)));
+      if (i % 2 == 1) {
+        get.addFamily(fam2);
+      }
+      gets.add(get);
+    }
+    for (int i = 0; i < 100; i += 5) {
+      Get get = new Get(Bytes.toBytes(String.format("row%03d", i)));
+      get.setMaxVersions();
+      gets.add(get);
+    }
+    gets.add(new Get(Bytes.toBytes("row010")).addColumn(fam1, qual));
+    gets.add(new Get(Bytes.toBytes("row010")).addColumn(fam2, qual));
+
+    List<Result> expected = new ArrayList<Result>();
+    for (Get get : gets) {
+      expected.add(region.get(get, null));
+    }
+    Result[] results = region.get(gets);
+    assertEquals(gets.size(), results.length);
+    for (int i = 0; i < results.length; i++) {
+      assertTrue(Arrays.equals(expected.get(i).raw(), results[i].raw()));
+    }
+    assertEquals(4, results[36].size());
+    assertTrue(results[gets.size() - 1].isEmpty());
+    assertEquals("v3", Bytes.toString(
+        results[gets.size() - 2].getValue(fam1, qual)));
+  }
+
+  public void testParallelSeek() throws IOException {
+    byte [] tableName = Bytes.toBytes("testParallelSeek");
+    byte [] family = Bytes.toBytes("family");
+    byte [] qual = Bytes.toBytes("qual");
+    initHRegion(tableName, getName(), family);
+
+    // Rows spread over three store files and the memstore
+    for (int file = 0; file < 4; file++) {
+      for (int i = file; i < 100; i += 3) {
+        Put put = new Put(Bytes.toBytes(String.format("row%03d", i)));
+        put.add(family, qual, file, Bytes.toBytes("v" + file));
+        region.put(put);
+      }
+      if (file < 3) {
+        region.flushcache();
+      }
+    }
+
+    List<KeyValue> serial = new ArrayList<KeyValue>();
+    List<KeyValue> parallel = new ArrayList<KeyValue>();
+    Get get = new Get(Bytes.toBytes("row051"));
+    get.setMaxVersions();
+    Result serialGet = region.get(get, null);
+    InternalScanner scanner = region.getScanner(new Scan());
+    while (scanner.next(serial));
+    scanner.close();
+
+    HRegionServer.parallelSeekThreadPool = Threads.getBlockingThreadPool(
+        4, 60, TimeUnit.SECONDS, new DaemonThreadFactory("seek-"));
+    try {
+      Result parallelGet = region.get(get, null);
+      assertTrue(Arrays.equals(serialGet.raw(), parallelGet.raw()));
+      scanner = region.getScanner(new Scan());
+      while (scanner.next(parallel));
+      scanner.close();
+    } finally {
+      HRegionServer.parallelSeekThreadPool.shutdownNow();
+      HRegionServer.parallelSeekThreadPool = null;
+    }
+    assertEquals(serial, parallel);
+    assertEquals(2, serialGet.size());
+  }
+
   private void putData(int startRow, int numRows, byte [] qf,
       byte [] ...families)
   throws IOException {
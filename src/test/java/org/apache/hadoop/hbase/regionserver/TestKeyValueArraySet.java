@@ -0,0 +1,157 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the array backed snapshot set against a TreeSet of the same
+ * KeyValues.
+ */
+public class TestKeyValueArraySet {
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private TreeSet<KeyValue> expected;
+  private KeyValueArraySet set;
+
+  private static KeyValue kv(int row) {
+    return new KeyValue(Bytes.toBytes(String.format("row%04d", row)), FAMILY,
+        QUALIFIER, Bytes.toBytes(row));
+  }
+
+  @Before
+  public void setUp() {
+    KeyValueSkipListSet kvsls = new KeyValueSkipListSet(KeyValue.COMPARATOR);
+    expected = new TreeSet<KeyValue>(KeyValue.COMPARATOR);
+    // Even rows only, so odd rows fall in between entries
+    for (int i = 0; i < 100; i += 2) {
+      kvsls.add(kv(i));
+      expected.add(kv(i));
+    }
+    set = new KeyValueArraySet(kvsls, KeyValue.COMPARATOR);
+  }
+
+  private static void assertSameContent(NavigableSet<KeyValue> expected,
+      NavigableSet<KeyValue> actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.isEmpty(), actual.isEmpty());
+    Iterator<KeyValue> it = actual.iterator();
+    for (KeyValue kv : expected) {
+      assertTrue(it.hasNext());
+      assertEquals(kv, it.next());
+    }
+    assertFalse(it.hasNext());
+    it = actual.descendingIterator();
+    for (Iterator<KeyValue> e = expected.descendingIterator(); e.hasNext();) {
+      assertTrue(it.hasNext());
+      assertEquals(e.next(), it.next());
+    }
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testNavigation() {
+    assertSameContent(expected, set);
+    assertEquals(expected.first(), set.first());
+    assertEquals(expected.last(), set.last());
+    for (int i = -1; i <= 100; i++) {
+      KeyValue key = kv(i);
+      assertEquals(expected.contains(key), set.contains(key));
+      assertEquals(expected.ceiling(key), set.ceiling(key));
+      assertEquals(expected.higher(key), set.higher(key));
+      assertEquals(expected.floor(key), set.floor(key));
+      assertEquals(expected.lower(key), set.lower(key));
+    }
+  }
+
+  @Test
+  public void testSubSets() {
+    for (int i = -1; i <= 100; i += 3) {
+      KeyValue key = kv(i);
+      for (boolean inclusive : new boolean[] {true, false}) {
+        assertSameContent(expected.headSet(key, inclusive),
+            set.headSet(key, inclusive));
+        assertSameContent(expected.tailSet(key, inclusive),
+            set.tailSet(key, inclusive));
+      }
+      for (int j = i; j <= 100; j += 7) {
+        assertSameContent(expected.subSet(key, true, kv(j), false),
+            set.subSet(key, true, kv(j), false));
+      }
+    }
+    // Views of views stay within their range
+    NavigableSet<KeyValue> tail = set.tailSet(kv(20), true);
+    assertTrue(tail.headSet(kv(10), false).isEmpty());
+    assertSameContent(expected.tailSet(kv(20), true).headSet(kv(30), true),
+        tail.headSet(kv(30), true));
+    assertNull(tail.lower(kv(20)));
+  }
+
+  @Test
+  public void testDescendingSet() {
+    NavigableSet<KeyValue> descending = set.descendingSet();
+    NavigableSet<KeyValue> expectedDescending = expected.descendingSet();
+    assertSameContent(expectedDescending, descending);
+    assertEquals(expectedDescending.first(), descending.first());
+    assertEquals(expectedDescending.last(), descending.last());
+    assertTrue(descending.comparator().compare(kv(0), kv(2)) > 0);
+    for (int i = -1; i <= 100; i++) {
+      KeyValue key = kv(i);
+      assertEquals(expectedDescending.ceiling(key), descending.ceiling(key));
+      assertEquals(expectedDescending.higher(key), descending.higher(key));
+      assertEquals(expectedDescending.floor(key), descending.floor(key));
+      assertEquals(expectedDescending.lower(key), descending.lower(key));
+    }
+    for (int i = -1; i <= 100; i += 3) {
+      KeyValue key = kv(i);
+      for (boolean inclusive : new boolean[] {true, false}) {
+        assertSameContent(expectedDescending.headSet(key, inclusive),
+            descending.headSet(key, inclusive));
+        assertSameContent(expectedDescending.tailSet(key, inclusive),
+            descending.tailSet(key, inclusive));
+      }
+      for (int j = i; j >= -1; j -= 7) {
+        assertSameContent(expectedDescending.subSet(key, true, kv(j), false),
+            descending.subSet(key, true, kv(j), false));
+      }
+    }
+    // Reversing twice gives back the ascending order
+    assertSameContent(expected, descending.descendingSet());
+    assertSameContent(expected.subSet(kv(10), true, kv(40), true),
+        set.subSet(kv(10), true, kv(40), true).descendingSet().descendingSet());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testImmutable() {
+    Iterator<KeyValue> it = set.iterator();
+    it.next();
+    it.remove();
+  }
+}
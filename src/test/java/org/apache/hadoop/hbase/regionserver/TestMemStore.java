@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.NavigableSet;
+import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -469,11 +470,68 @@ public class TestMemStore extends TestCase {
     for (int i = 0; i < snapshotCount; i++) {
       addRows(this.memstore);
       runSnapshot(this.memstore);
-      KeyValueSkipListSet ss = this.memstore.getSnapshot();
+      NavigableSet<KeyValue> ss = this.memstore.getSnapshot();
       assertEquals("History not being cleared", 0, ss.size());
     }
   }
 
+  /**
+   * Test scanning a snapshot once it has been flattened into an array.
+   * @throws IOException
+   */
+  public void testFlattenedSnapshot() throws IOException {
+    int rowCount = addRows(this.memstore);
+    this.memstore.snapshot();
+    NavigableSet<KeyValue> ss = this.memstore.getSnapshot();
+    int size = ss.size();
+    // A scanner made before flattening keeps reading the skip list
+    List<KeyValueScanner> before = this.memstore.getScanners();
+    SortedSet<KeyValue> flattened = this.memstore.flattenSnapshot(ss);
+    assertTrue(flattened instanceof KeyValueArraySet);
+    NavigableSet<KeyValue> flat = this.memstore.getSnapshot();
+    assertSame(flattened, flat);
+    assertEquals(size, flat.size());
+    // Flattening again is a no-op
+    assertSame(flat, this.memstore.flattenSnapshot(flat));
+
+    MultiVersionConsistencyControl.resetThreadReadPoint(mvcc);
+    Scan scan = new Scan();
+    for (List<KeyValueScanner> scanners :
+        Arrays.asList(before, this.memstore.getScanners())) {
+      StoreScanner s = new StoreScanner(scan, null,
+          HConstants.LATEST_TIMESTAMP, this.memstore.comparator, null,
+          scanners, DefaultKeyValueAggregator.getInstance());
+      List<KeyValue> result = new ArrayList<KeyValue>();
+      int count = 0;
+      try {
+        while (s.next(result)) {
+          assertTrue(Bytes.equals(Bytes.toBytes(count), result.get(0).getRow()));
+          assertEquals(rowCount, result.size());
+          count++;
+          result.clear();
+        }
+      } finally {
+        s.close();
+      }
+      assertEquals(rowCount, count);
+    }
+
+    // Reseeking into the middle of the flattened snapshot
+    KeyValueScanner scanner = this.memstore.getScanners().get(0);
+    KeyValue key = KeyValue.createFirstOnRow(Bytes.toBytes(5));
+    assertTrue(scanner.seek(key));
+    assertTrue(Bytes.equals(Bytes.toBytes(5), scanner.peek().getRow()));
+    key = KeyValue.createFirstOnRow(Bytes.toBytes(7));
+    assertTrue(scanner.reseek(key));
+    assertTrue(Bytes.equals(Bytes.toBytes(7), scanner.peek().getRow()));
+    scanner.close();
+
+    assertTrue(Bytes.equals(Bytes.toBytes(1),
+        this.memstore.getNextRow(this.memstore.getSnapshot().first()).getRow()));
+    this.memstore.clearSnapshot(flat);
+    assertTrue(this.memstore.getSnapshot().isEmpty());
+  }
+
   public void testMultipleVersionsSimple() throws Exception {
     MemStore m = new MemStore(KeyValue.COMPARATOR);
     byte [] row = Bytes.toBytes("testRow");
@@ -838,7 +896,7 @@ public class TestMemStore extends TestCase {
     // Save off old state.
     int oldHistorySize = hmc.getSnapshot().size();
     hmc.snapshot();
-    KeyValueSkipListSet ss = hmc.getSnapshot();
+    NavigableSet<KeyValue> ss = hmc.getSnapshot();
     // Make some assertions about what just happened.
     assertTrue("History size has not increased", oldHistorySize < ss.size());
     hmc.clearSnapshot(ss);
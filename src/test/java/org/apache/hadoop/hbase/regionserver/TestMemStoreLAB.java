@@ -0,0 +1,225 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.*;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Allocation;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+/**
+ * Tests the MemStore-Local Allocation Buffer, its chunk pool and how the
+ * MemStore accounts for it.
+ */
+public class TestMemStoreLAB {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int MAX_ALLOC = 4 * 1024;
+
+  private static Configuration createConf() {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(MemStoreLAB.CHUNK_SIZE_KEY, CHUNK_SIZE);
+    conf.setInt(MemStoreLAB.MAX_ALLOC_KEY, MAX_ALLOC);
+    return conf;
+  }
+
+  /**
+   * Allocations are contiguous within a chunk and never overlap.
+   */
+  @Test
+  public void testAllocations() {
+    MemStoreLAB mslab = new MemStoreLAB(createConf(), null);
+    Random rand = new Random(12345L);
+    byte[] lastData = null;
+    int expectedOffset = 0;
+    int chunkBytes = 0;
+    int totalSize = 0;
+    for (int i = 0; i < 1000; i++) {
+      int size = rand.nextInt(1000);
+      Allocation alloc = mslab.allocateBytes(size);
+      chunkBytes += alloc.getNewChunkBytes();
+      if (alloc.getData() != lastData) {
+        // A new chunk was started
+        assertEquals(CHUNK_SIZE, alloc.getNewChunkBytes());
+        expectedOffset = 0;
+        lastData = alloc.getData();
+      } else {
+        assertEquals(0, alloc.getNewChunkBytes());
+      }
+      assertEquals(expectedOffset, alloc.getOffset());
+      assertTrue(alloc.getOffset() + size <= alloc.getData().length);
+      expectedOffset += size;
+      totalSize += size;
+    }
+    assertTrue(chunkBytes >= totalSize);
+  }
+
+  @Test
+  public void testLargeAllocationIsNotChunked() {
+    MemStoreLAB mslab = new MemStoreLAB(createConf(), null);
+    assertNull(mslab.allocateBytes(MAX_ALLOC + 1));
+    assertFalse(mslab.isAllocated(MAX_ALLOC + 1));
+    assertNotNull(mslab.allocateBytes(MAX_ALLOC));
+    assertTrue(mslab.isAllocated(MAX_ALLOC));
+  }
+
+  /**
+   * Several threads allocating at once must get disjoint slices.
+   */
+  @Test
+  public void testConcurrentAllocations() throws Exception {
+    final MemStoreLAB mslab = new MemStoreLAB(createConf(), null);
+    final int numThreads = 8;
+    final int allocsPerThread = 2000;
+    final Allocation[][] allocs = new Allocation[numThreads][allocsPerThread];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < allocsPerThread; i++) {
+            Allocation alloc = mslab.allocateBytes(100);
+            // Mark the slice as ours
+            Bytes.putInt(alloc.getData(), alloc.getOffset(), thread);
+            Bytes.putInt(alloc.getData(), alloc.getOffset() + 4, i);
+            allocs[thread][i] = alloc;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Map<byte[], TreeMap<Integer, Integer>> byChunk =
+      new IdentityHashMap<byte[], TreeMap<Integer, Integer>>();
+    for (int t = 0; t < numThreads; t++) {
+      for (int i = 0; i < allocsPerThread; i++) {
+        Allocation alloc = allocs[t][i];
+        assertEquals(t, Bytes.toInt(alloc.getData(), alloc.getOffset()));
+        assertEquals(i, Bytes.toInt(alloc.getData(), alloc.getOffset() + 4));
+        TreeMap<Integer, Integer> offsets = byChunk.get(alloc.getData());
+        if (offsets == null) {
+          offsets = new TreeMap<Integer, Integer>();
+          byChunk.put(alloc.getData(), offsets);
+        }
+        assertNull(offsets.put(alloc.getOffset(), 100));
+      }
+    }
+    for (TreeMap<Integer, Integer> offsets : byChunk.values()) {
+      int end = 0;
+      for (Map.Entry<Integer, Integer> e : offsets.entrySet()) {
+        assertTrue(e.getKey() >= end);
+        end = e.getKey() + e.getValue();
+      }
+    }
+  }
+
+  /**
+   * Chunks go back to the pool once their allocator is closed and the last
+   * scanner on them is done.
+   */
+  @Test
+  public void testChunksAreRecycled() {
+    MemStoreChunkPool pool = new MemStoreChunkPool(CHUNK_SIZE, 10);
+    MemStoreLAB mslab = new MemStoreLAB(createConf(), pool);
+    byte[] chunk = mslab.allocateBytes(10).getData();
+    assertEquals(1, pool.getCreatedChunkCount());
+
+    mslab.incScannerCount();
+    mslab.close();
+    assertEquals(0, pool.getPoolSize());
+    mslab.decScannerCount();
+    assertEquals(1, pool.getPoolSize());
+
+    MemStoreLAB next = new MemStoreLAB(createConf(), pool);
+    assertSame(chunk, next.allocateBytes(10).getData());
+    assertEquals(1, pool.getReusedChunkCount());
+    assertEquals(0, pool.getPoolSize());
+  }
+
+  /**
+   * The memstore copies KeyValues into its chunks and accounts for the chunks.
+   */
+  @Test
+  public void testMemStoreCopiesIntoChunks() throws Exception {
+    Configuration conf = createConf();
+    conf.setBoolean(MemStoreLAB.USEMSLAB_KEY, true);
+    MemStore memstore = new MemStore(conf, KeyValue.COMPARATOR);
+    byte[] family = Bytes.toBytes("f");
+    byte[] qualifier = Bytes.toBytes("q");
+
+    KeyValue kv = new KeyValue(Bytes.toBytes("row"), family, qualifier,
+        new byte[100]);
+    kv.setMemstoreTS(5);
+    long size = memstore.add(kv);
+    assertTrue(size >= CHUNK_SIZE);
+    assertEquals(MemStore.DEEP_OVERHEAD + size, memstore.heapSize());
+    KeyValue inMemstore = memstore.kvset.first();
+    assertNotSame(kv.getBuffer(), inMemstore.getBuffer());
+    assertEquals(CHUNK_SIZE, inMemstore.getBuffer().length);
+    assertEquals(kv, inMemstore);
+    assertEquals(5, inMemstore.getMemstoreTS());
+
+    // A second small KeyValue fits in the same chunk
+    long secondSize = memstore.add(new KeyValue(Bytes.toBytes("row2"), family,
+        qualifier, new byte[100]));
+    assertTrue(secondSize < kv.heapSize());
+    assertEquals(MemStore.DEEP_OVERHEAD + size + secondSize,
+        memstore.heapSize());
+
+    // KeyValues too large for the chunks are accounted for as before
+    KeyValue large = new KeyValue(Bytes.toBytes("row3"), family, qualifier,
+        new byte[MAX_ALLOC]);
+    assertEquals(memstore.heapSizeChange(large, true), memstore.add(large));
+
+    memstore.snapshot();
+    assertEquals(MemStore.DEEP_OVERHEAD, memstore.heapSize());
+    assertNotNull(memstore.snapshotAllocator);
+    memstore.clearSnapshot(memstore.getSnapshot());
+    assertNull(memstore.snapshotAllocator);
+  }
+
+  @Test
+  public void testMemStoreWithoutMSLAB() throws Exception {
+    Configuration conf = createConf();
+    conf.setBoolean(MemStoreLAB.USEMSLAB_KEY, false);
+    MemStore memstore = new MemStore(conf, KeyValue.COMPARATOR);
+    KeyValue kv = new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("f"),
+        Bytes.toBytes("q"), new byte[100]);
+    assertEquals(memstore.heapSizeChange(kv, true), memstore.add(kv));
+    assertSame(kv, memstore.kvset.first());
+    List<KeyValueScanner> scanners = memstore.getScanners();
+    assertEquals(1, scanners.size());
+    scanners.get(0).close();
+  }
+}
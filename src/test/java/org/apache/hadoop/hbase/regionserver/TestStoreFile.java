@@ -39,6 +39,7 @@ import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.io.Reference.Range;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
@@ -475,6 +476,95 @@ public class TestStoreFile extends HBaseTestCase {
         + ", expected no more than " + maxFalsePos, falsePos <= maxFalsePos);
   }
 
+  public void testBloomPrefixLength() {
+    byte[] row = Bytes.toBytes("user0001|item0002");
+    byte[] delimiter = Bytes.toBytes("|");
+    assertEquals(8, StoreFile.getBloomPrefixLength(row, 0, row.length, 8,
+        null, false));
+    assertEquals(9, StoreFile.getBloomPrefixLength(row, 0, row.length, 0,
+        delimiter, false));
+    // Rows shorter than the prefix, or without a delimiter, are their own
+    // prefix, but the start of such a row does not tell its prefix
+    assertEquals(4, StoreFile.getBloomPrefixLength(row, 0, 4, 8, null, true));
+    assertEquals(-1, StoreFile.getBloomPrefixLength(row, 0, 4, 8, null, false));
+    assertEquals(8, StoreFile.getBloomPrefixLength(row, 0, 8, 0, delimiter,
+        true));
+    assertEquals(-1, StoreFile.getBloomPrefixLength(row, 0, 8, 0, delimiter,
+        false));
+    assertEquals(4, StoreFile.getBloomPrefixLength(row, 9, row.length - 9, 4,
+        null, false));
+  }
+
+  public void testPrefixBloomFilter() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE,
+        (float) 0.01);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+    float err = conf.getFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE,
+        0);
+
+    // write the file, several rows for every even user
+    Path f = new Path(ROOT_DIR, getName());
+    StoreFile.Writer writer = new StoreFile.WriterBuilder(conf, cacheConf, fs,
+        StoreFile.DEFAULT_BLOCKSIZE_SMALL)
+            .withFilePath(f)
+            .withBloomType(StoreFile.BloomType.PREFIX)
+            .withBloomPrefix(0, Bytes.toBytes("|"))
+            .withMaxKeyCount(2000)
+            .build();
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 400; i += 2) {
+      for (int j = 0; j < 5; j++) {
+        String row = String.format("user%04d|item%04d", i, j);
+        writer.append(new KeyValue(row.getBytes(), "family".getBytes(),
+            "col".getBytes(), now, "value".getBytes()));
+      }
+    }
+    writer.close();
+
+    StoreFile.Reader reader = new StoreFile.Reader(fs, f, cacheConf,
+        DataBlockEncoding.NONE);
+    reader.loadFileInfo();
+    reader.loadBloomfilter();
+    assertEquals(StoreFile.BloomType.PREFIX, reader.getBloomFilterType());
+    StoreFileScanner scanner = reader.getStoreFileScanner(false, false);
+    TreeSet<byte[]> columns = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    columns.add("col".getBytes());
+
+    int falsePos = 0;
+    int falseNeg = 0;
+    for (int i = 0; i < 400; i++) {
+      byte[] prefix = Bytes.toBytes(String.format("user%04d|", i));
+      // A prefix scan by start and stop rows, and one by PrefixFilter
+      Scan rangeScan = new Scan(prefix, Bytes.toBytes(
+          String.format("user%04d|~", i)));
+      Scan filterScan = new Scan(prefix);
+      filterScan.setFilter(new PrefixFilter(prefix));
+      // A get for a row of the user that was not written
+      byte[] row = Bytes.toBytes(String.format("user%04d|item0009", i));
+      Scan get = new Scan(row, row);
+      for (Scan scan : new Scan[] {rangeScan, filterScan, get}) {
+        boolean exists = scanner.shouldUseScanner(scan, columns,
+            Long.MIN_VALUE);
+        if (i % 2 == 0) {
+          if (!exists) falseNeg++;
+        } else {
+          if (exists) falsePos++;
+        }
+      }
+    }
+
+    // The prefix of a scan over several users is not known
+    assertTrue(scanner.shouldUseScanner(new Scan(Bytes.toBytes("user0001|"),
+        Bytes.toBytes("user0003|")), columns, Long.MIN_VALUE));
+    reader.close(true);
+    fs.delete(f, true);
+    assertEquals("False negatives: " + falseNeg, 0, falseNeg);
+    int maxFalsePos = (int) (2 * 3 * 400 * err);
+    assertTrue("Too many false positives: " + falsePos + " (err=" + err
+        + ", expected no more than " + maxFalsePos, falsePos <= maxFalsePos);
+  }
+
   public void testBloomTypes() throws Exception {
     float err = (float) 0.01;
     FileSystem fs = FileSystem.getLocal(conf);
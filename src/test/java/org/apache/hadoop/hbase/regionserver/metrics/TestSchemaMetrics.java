@@ -22,6 +22,8 @@ package org.apache.hadoop.hbase.regionserver.metrics;
 
 import static org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics.BOOL_VALUES;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.Collection;
@@ -35,9 +37,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
 import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics.BlockMetricType;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics.EncodingMetricType;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.junit.Before;
@@ -221,6 +225,20 @@ public class TestSchemaMetrics {
     assertEquals(metricPrefix + "keyNotInBloomCnt",
         schemaMetrics.getBloomMetricName(false));
 
+    // Data block encoding metrics
+    assertEquals(metricPrefix + "enc.PREFIX.blockCacheSavedSize",
+        schemaMetrics.getEncodingMetricName(DataBlockEncoding.PREFIX,
+            EncodingMetricType.CACHE_SAVED_SIZE));
+    assertEquals("enc.FAST_DIFF.decodeTimeNs",
+        ALL_CF_METRICS.getEncodingMetricName(DataBlockEncoding.FAST_DIFF,
+            EncodingMetricType.DECODE_TIME));
+    assertTrue(SchemaMetrics.isPersistentMetricKey(
+        schemaMetrics.getEncodingMetricName(DataBlockEncoding.DIFF,
+            EncodingMetricType.CACHE_SAVED_SIZE)));
+    assertFalse(SchemaMetrics.isPersistentMetricKey(
+        schemaMetrics.getEncodingMetricName(DataBlockEncoding.DIFF,
+            EncodingMetricType.DECODE_TIME)));
+
     schemaMetrics.printMetricNames();
   }
 
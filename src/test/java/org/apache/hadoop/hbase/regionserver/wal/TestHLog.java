@@ -551,6 +551,78 @@ public class TestHLog  {
     }
   }
   
+  /**
+   * Appends from several threads at once and checks the entries are in the
+   * file in sequence number order, which log replay relies on.
+   * @throws Exception
+   */
+  @Test
+  public void testConcurrentAppendSeqNumOrder() throws Exception {
+    final int NUM_THREADS = 10;
+    final int NUM_EDITS = 200;
+    final byte [] tableName = Bytes.toBytes("testConcurrentAppendSeqNumOrder");
+    final HRegionInfo hri = new HRegionInfo(new HTableDescriptor(tableName),
+        HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+    final HLog log = new HLog(fs, dir, oldLogDir, conf, null);
+    Reader reader = null;
+    try {
+      final Throwable[] errors = new Throwable[NUM_THREADS];
+      Thread[] appenders = new Thread[NUM_THREADS];
+      for (int t = 0; t < NUM_THREADS; t++) {
+        final int thread = t;
+        appenders[t] = new Thread("appender-" + t) {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < NUM_EDITS; i++) {
+                WALEdit cols = new WALEdit();
+                cols.add(new KeyValue(Bytes.toBytes(thread + "-" + i),
+                    Bytes.toBytes("column"), Bytes.toBytes("q"),
+                    System.currentTimeMillis(), Bytes.toBytes(i)));
+                log.append(hri, tableName, cols, System.currentTimeMillis());
+              }
+            } catch (Throwable e) {
+              errors[thread] = e;
+            }
+          }
+        };
+        appenders[t].start();
+      }
+      for (Thread appender : appenders) {
+        appender.join();
+      }
+      for (Throwable e : errors) {
+        if (e != null) {
+          throw new AssertionError(e);
+        }
+      }
+      log.close();
+      Path filename = log.computeFilename();
+
+      reader = HLog.getReader(fs, filename, conf);
+      long lastSeqNum = -1;
+      int count = 0;
+      HLog.Entry entry;
+      while ((entry = reader.next()) != null) {
+        if (!Bytes.equals(hri.getRegionName(),
+            entry.getKey().getRegionName())) {
+          continue;
+        }
+        long seqNum = entry.getKey().getLogSeqNum();
+        assertTrue("Sequence number " + seqNum + " follows " + lastSeqNum,
+            seqNum > lastSeqNum);
+        lastSeqNum = seqNum;
+        count++;
+      }
+      assertEquals(NUM_THREADS * NUM_EDITS, count);
+    } finally {
+      log.closeAndDelete();
+      if (reader != null) {
+        reader.close();
+      }
+    }
+  }
+
   @Test
   public void testLogCleaning() throws Exception {
     LOG.info("testLogCleaning");
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+/**
+ * Tests the lock-free ring buffer the HLog publishes its entries to.
+ */
+public class TestLogRingBuffer {
+
+  private static HLog.Entry createEntry(int producer, long seqNum) {
+    return new HLog.Entry(new HLogKey(Bytes.toBytes("region" + producer),
+        Bytes.toBytes("table"), seqNum, 0), new WALEdit());
+  }
+
+  @Test
+  public void testCapacityIsRoundedUp() {
+    assertEquals(1, new LogRingBuffer(1).getCapacity());
+    assertEquals(16, new LogRingBuffer(16).getCapacity());
+    assertEquals(32, new LogRingBuffer(17).getCapacity());
+  }
+
+  @Test
+  public void testDrainInOrder() {
+    LogRingBuffer buffer = new LogRingBuffer(4);
+    HLog.Entry[] entries = new HLog.Entry[buffer.getCapacity()];
+    long[] times = new long[buffer.getCapacity()];
+    assertEquals(0, buffer.drainTo(entries, times));
+
+    HLog.Entry first = createEntry(0, 1);
+    HLog.Entry second = createEntry(0, 2);
+    assertEquals(1, buffer.append(first));
+    assertEquals(2, buffer.append(second));
+    assertEquals(2, buffer.getClaimedTxid());
+    assertEquals(0, buffer.getConsumedTxid());
+
+    assertEquals(2, buffer.drainTo(entries, times));
+    assertSame(first, entries[0]);
+    assertSame(second, entries[1]);
+    assertTrue(times[0] <= times[1]);
+    assertEquals(2, buffer.getConsumedTxid());
+    assertEquals(0, buffer.drainTo(entries, times));
+
+    // Wrap around the end of the buffer
+    for (int i = 3; i <= 6; i++) {
+      assertEquals(i, buffer.append(createEntry(0, i)));
+    }
+    assertEquals(4, buffer.drainTo(entries, times));
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i + 3, entries[i].getKey().getLogSeqNum());
+    }
+    assertEquals(6, buffer.getConsumedTxid());
+  }
+
+  /**
+   * Several producers append to a small buffer while one consumer drains it.
+   * Every entry must come out exactly once, in transaction id order.
+   */
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    final int numProducers = 8;
+    final int entriesPerProducer = 5000;
+    final LogRingBuffer buffer = new LogRingBuffer(16);
+    final Map<Long, HLog.Entry> byTxid =
+      new ConcurrentHashMap<Long, HLog.Entry>();
+
+    Thread[] producers = new Thread[numProducers];
+    for (int p = 0; p < numProducers; p++) {
+      final int producer = p;
+      producers[p] = new Thread("producer" + p) {
+        @Override
+        public void run() {
+          for (int i = 0; i < entriesPerProducer; i++) {
+            HLog.Entry entry = createEntry(producer, i);
+            byTxid.put(buffer.append(entry), entry);
+          }
+        }
+      };
+      producers[p].start();
+    }
+
+    int total = numProducers * entriesPerProducer;
+    List<HLog.Entry> drained = new ArrayList<HLog.Entry>(total);
+    HLog.Entry[] entries = new HLog.Entry[buffer.getCapacity()];
+    long[] times = new long[buffer.getCapacity()];
+    long deadline = System.currentTimeMillis() + 60000;
+    while (drained.size() < total) {
+      assertTrue("Timed out draining", System.currentTimeMillis() < deadline);
+      int count = buffer.drainTo(entries, times);
+      for (int i = 0; i < count; i++) {
+        drained.add(entries[i]);
+      }
+      if (count == 0) {
+        Thread.yield();
+      }
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    assertEquals(total, buffer.getClaimedTxid());
+    assertEquals(total, buffer.getConsumedTxid());
+    assertEquals(0, buffer.drainTo(entries, times));
+    long[] lastSeqNum = new long[numProducers];
+    Arrays.fill(lastSeqNum, -1);
+    for (int i = 0; i < total; i++) {
+      HLog.Entry entry = drained.get(i);
+      assertSame(byTxid.get(Long.valueOf(i + 1)), entry);
+      // Entries of each producer keep their order
+      int producer = Integer.parseInt(
+          Bytes.toString(entry.getKey().getRegionName()).substring(6));
+      assertTrue(entry.getKey().getLogSeqNum() > lastSeqNum[producer]);
+      lastSeqNum[producer] = entry.getKey().getLogSeqNum();
+    }
+  }
+}
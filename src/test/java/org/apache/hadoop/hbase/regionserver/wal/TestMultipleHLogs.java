@@ -89,6 +89,10 @@ public class TestMultipleHLogs {
     assertEquals(TOTAL_REGION_NUM, files.length);
     assertEquals(TOTAL_REGION_NUM, regionServer.getTotalHLogCnt());
     assertEquals(TOTAL_REGION_NUM, regionServer.getOnlineRegions().size());
+    // Each region got its own HLog
+    for (int regionCount : regionServer.getRegionCountPerHLog()) {
+      assertEquals(1, regionCount);
+    }
     
     for (HRegion region : regionServer.getOnlineRegions()) {
       HLog hlog = region.getLog();